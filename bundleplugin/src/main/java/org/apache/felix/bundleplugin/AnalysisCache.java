@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundleplugin;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Manifest;
+
+
+/**
+ * Persistent cache of analysis inputs and results, kept in the build directory.
+ * <p>
+ * Checksums of input files are remembered together with their size and
+ * modification time, so unchanged files (such as dependency jars and the
+ * classes of the project) are only read once. Analysis results are stored
+ * under a fingerprint of all their inputs and are reused as long as none of
+ * those inputs changed.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class AnalysisCache
+{
+    private static final String CHECKSUMS = "checksums.txt";
+    private static final String FINGERPRINT = ".fingerprint";
+    private static final String MANIFEST = ".MF";
+    private static final String WARNINGS = ".warnings";
+    private static final String GENERATED = ".generated";
+
+    private final File m_directory;
+
+    /**
+     * Checksums by absolute path, as "size:lastModified:checksum".
+     */
+    private final Map<String, String> m_checksums = new HashMap<String, String>();
+
+    private boolean m_dirty;
+
+
+    public AnalysisCache( File directory )
+    {
+        m_directory = directory;
+        load();
+    }
+
+
+    /**
+     * Returns the checksum of the given file or, for a directory, of the paths
+     * and contents of all files below it.
+     *
+     * @param file the file or directory
+     * @param ignored a file below the directory which does not contribute its contents, may be null
+     */
+    public String getChecksum( File file, File ignored ) throws IOException
+    {
+        return getChecksum( file, ignored, null );
+    }
+
+
+    /**
+     * Returns the checksum of the given file or, for a directory, of the paths
+     * and contents of all files below it which are not excluded.
+     *
+     * @param file the file or directory
+     * @param ignored a file below the directory which does not contribute its contents, may be null
+     * @param excluded selects files below the directory which do not contribute at all, may be null
+     */
+    public String getChecksum( File file, File ignored, FileFilter excluded ) throws IOException
+    {
+        if ( file.isDirectory() )
+        {
+            MessageDigest digest = newDigest();
+            addDirectory( digest, file, "", ignored, excluded );
+            return toHex( digest.digest() );
+        }
+        return getFileChecksum( file );
+    }
+
+
+    /**
+     * Computes a fingerprint of the given inputs.
+     */
+    public static String fingerprint( List<String> inputs )
+    {
+        MessageDigest digest = newDigest();
+        for ( String input : inputs )
+        {
+            digest.update( toBytes( input ) );
+            digest.update( ( byte ) 0 );
+        }
+        return toHex( digest.digest() );
+    }
+
+
+    /**
+     * Returns the manifest stored under the given key, if it was computed from
+     * the inputs with the given fingerprint.
+     *
+     * @param key the key of the analysis, such as the artifact
+     * @param fingerprint the fingerprint of the current inputs
+     * @param warnings receives the warnings of the original analysis
+     * @return the manifest or null
+     */
+    public synchronized Manifest getManifest( String key, String fingerprint, List<String> warnings )
+    {
+        String name = toFileName( key );
+        File manifestFile = new File( m_directory, name + MANIFEST );
+        try
+        {
+            List<String> stored = readLines( new File( m_directory, name + FINGERPRINT ) );
+            if ( stored.isEmpty() || !stored.get( 0 ).equals( fingerprint ) || !manifestFile.isFile() )
+            {
+                return null;
+            }
+            InputStream is = new FileInputStream( manifestFile );
+            try
+            {
+                Manifest manifest = new Manifest( is );
+                warnings.addAll( readLines( new File( m_directory, name + WARNINGS ) ) );
+                return manifest;
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores the manifest computed from the inputs with the given fingerprint.
+     */
+    public synchronized void putManifest( String key, String fingerprint, Manifest manifest, List<String> warnings )
+        throws IOException
+    {
+        m_directory.mkdirs();
+        String name = toFileName( key );
+        File fingerprintFile = new File( m_directory, name + FINGERPRINT );
+        // invalidate first, so an interrupted update is never used
+        fingerprintFile.delete();
+        OutputStream os = new FileOutputStream( new File( m_directory, name + MANIFEST ) );
+        try
+        {
+            manifest.write( os );
+        }
+        finally
+        {
+            os.close();
+        }
+        writeLines( new File( m_directory, name + WARNINGS ), warnings );
+        writeLines( fingerprintFile, Collections.singletonList( fingerprint ) );
+    }
+
+
+    /**
+     * Returns the checksum remembered for a file generated under the given key.
+     */
+    public synchronized String getGenerated( String key )
+    {
+        try
+        {
+            List<String> lines = readLines( new File( m_directory, toFileName( key ) + GENERATED ) );
+            return lines.isEmpty() ? null : lines.get( 0 );
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Remembers the checksum of a file generated under the given key, such as
+     * a manifest written to the analyzed directory.
+     */
+    public synchronized void putGenerated( String key, String checksum ) throws IOException
+    {
+        m_directory.mkdirs();
+        writeLines( new File( m_directory, toFileName( key ) + GENERATED ), Collections.singletonList( checksum ) );
+    }
+
+
+    /**
+     * Writes the remembered checksums back to the cache directory.
+     */
+    public synchronized void save() throws IOException
+    {
+        if ( !m_dirty )
+        {
+            return;
+        }
+        m_directory.mkdirs();
+        List<String> lines = new ArrayList<String>( m_checksums.size() );
+        for ( Map.Entry<String, String> entry : m_checksums.entrySet() )
+        {
+            lines.add( entry.getValue() + "=" + entry.getKey() );
+        }
+        writeLines( new File( m_directory, CHECKSUMS ), lines );
+        m_dirty = false;
+    }
+
+
+    private void load()
+    {
+        try
+        {
+            for ( String line : readLines( new File( m_directory, CHECKSUMS ) ) )
+            {
+                int idx = line.indexOf( '=' );
+                if ( idx > 0 )
+                {
+                    m_checksums.put( line.substring( idx + 1 ), line.substring( 0, idx ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            // start afresh
+            m_checksums.clear();
+        }
+    }
+
+
+    private void addDirectory( MessageDigest digest, File dir, String prefix, File ignored, FileFilter excluded )
+        throws IOException
+    {
+        String[] names = dir.list();
+        if ( names == null )
+        {
+            throw new IOException( "Unable to list " + dir );
+        }
+        Arrays.sort( names );
+        for ( String name : names )
+        {
+            File file = new File( dir, name );
+            String path = prefix + name;
+            if ( file.isDirectory() )
+            {
+                addDirectory( digest, file, path + '/', ignored, excluded );
+            }
+            else if ( excluded == null || !excluded.accept( file ) )
+            {
+                digest.update( toBytes( path ) );
+                digest.update( ( byte ) 0 );
+                if ( !file.equals( ignored ) )
+                {
+                    digest.update( getFileChecksum( file ).getBytes() );
+                }
+                digest.update( ( byte ) 0 );
+            }
+        }
+    }
+
+
+    private String getFileChecksum( File file ) throws IOException
+    {
+        String path = file.getAbsolutePath();
+        String stamp = file.length() + ":" + file.lastModified() + ":";
+        String entry;
+        synchronized ( this )
+        {
+            entry = m_checksums.get( path );
+        }
+        if ( entry != null && entry.startsWith( stamp ) )
+        {
+            return entry.substring( stamp.length() );
+        }
+
+        // files are read outside the lock, so several threads can checksum at once
+
+        MessageDigest digest = newDigest();
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ( ( len = is.read( buffer ) ) != -1 )
+            {
+                digest.update( buffer, 0, len );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        String checksum = toHex( digest.digest() );
+        synchronized ( this )
+        {
+            m_checksums.put( path, stamp + checksum );
+            m_dirty = true;
+        }
+        return checksum;
+    }
+
+
+    private static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-1 not supported", e );
+        }
+    }
+
+
+    private static byte[] toBytes( String value )
+    {
+        try
+        {
+            return value.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "UTF-8 not supported" );
+        }
+    }
+
+
+    private static String toHex( byte[] bytes )
+    {
+        StringBuilder buf = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            buf.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+            buf.append( Character.forDigit( b & 0xf, 16 ) );
+        }
+        return buf.toString();
+    }
+
+
+    private static String toFileName( String key )
+    {
+        return key.replaceAll( "[^a-zA-Z0-9._-]", "_" );
+    }
+
+
+    private static List<String> readLines( File file ) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        if ( !file.isFile() )
+        {
+            return lines;
+        }
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                lines.add( line );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return lines;
+    }
+
+
+    private static void writeLines( File file, List<String> lines ) throws IOException
+    {
+        File tmp = new File( file.getPath() + ".tmp" );
+        Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" ) );
+        try
+        {
+            for ( String line : lines )
+            {
+                // warnings may span several lines
+                writer.write( line.replace( '\n', ' ' ).replace( '\r', ' ' ) );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        file.delete();
+        if ( !tmp.renameTo( file ) )
+        {
+            throw new IOException( "Unable to rename " + tmp + " to " + file );
+        }
+    }
+}
@@ -20,16 +20,28 @@ package org.apache.felix.bundleplugin;
 
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -59,6 +71,7 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 import org.codehaus.plexus.util.FileUtils;
 
+import aQute.bnd.header.OSGiHeader;
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Jar;
 
@@ -77,6 +90,16 @@ public class BundleAllPlugin extends ManifestPlugin
 
     private static final Pattern SNAPSHOT_VERSION_PATTERN = Pattern.compile( "[0-9]{8}_[0-9]{6}_[0-9]+" );
 
+    private static final String WRAP_KEY_PREFIX = "wrap-";
+
+    private static final FileFilter JAR_FILES = new FileFilter()
+    {
+        public boolean accept( File file )
+        {
+            return file.getName().endsWith( ".jar" );
+        }
+    };
+
     /**
      * Local repository.
      */
@@ -131,6 +154,26 @@ public class BundleAllPlugin extends ManifestPlugin
     @Parameter
     private int depth = Integer.MAX_VALUE;
 
+    /**
+     * Number of dependencies wrapped concurrently, defaults to the number of processors
+     */
+    @Parameter( property = "wrapThreads" )
+    private int wrapThreads;
+
+    /**
+     * Directory keeping the manifests of wrapped dependencies between builds, defaults to
+     * .cache/maven-bundle-plugin in the local repository so it survives a clean build
+     */
+    @Parameter( property = "wrapCacheDirectory" )
+    private File wrapCacheDirectory;
+
+    private AnalysisCache m_wrapCache;
+
+    /**
+     * Dependencies still to be wrapped, by artifact id
+     */
+    private Map<String, WrapTask> m_wrapTasks = new LinkedHashMap<String, WrapTask>();
+
 
     public void execute() throws MojoExecutionException
     {
@@ -164,12 +207,35 @@ public class BundleAllPlugin extends ManifestPlugin
      */
     protected BundleInfo bundleAll( MavenProject project, int maxDepth ) throws MojoExecutionException
     {
-        if ( alreadyBundled( project.getArtifact() ) )
+        scheduleAll( project, maxDepth );
+        return wrapAll();
+    }
+
+
+    /**
+     * Walk the dependency tree of a project up to some depth level, scheduling the wrapping
+     * of each dependency after the wrapping of its own dependencies
+     * 
+     * @param project
+     * @param maxDepth how deep to process the dependency tree
+     * @return the task wrapping the project, or null if it is not wrapped
+     * @throws MojoExecutionException
+     */
+    private WrapTask scheduleAll( MavenProject project, int maxDepth ) throws MojoExecutionException
+    {
+        // with the cache, bundles of a previous build are only reused if their fingerprint matches
+        if ( getAnalysisCache() == null && alreadyBundled( project.getArtifact() ) )
         {
             getLog().debug( "Ignoring project already processed " + project.getArtifact() );
             return null;
         }
 
+        WrapTask scheduled = m_wrapTasks.get( project.getArtifact().getId() );
+        if ( scheduled != null )
+        {
+            return scheduled;
+        }
+
         if ( m_artifactsBeingProcessed.contains( project.getArtifact() ) )
         {
             getLog().warn( "Ignoring artifact due to dependency cycle " + project.getArtifact() );
@@ -189,12 +255,12 @@ public class BundleAllPlugin extends ManifestPlugin
             throw new MojoExecutionException( "Unable to build dependency tree", e );
         }
 
-        BundleInfo bundleInfo = new BundleInfo();
+        Set<WrapTask> dependencies = new LinkedHashSet<WrapTask>();
 
         if ( !dependencyTree.hasChildren() )
         {
             /* no need to traverse the tree */
-            return bundleRoot( project, bundleInfo );
+            return scheduleRoot( project, dependencies );
         }
 
         getLog().debug( "Will bundle the following dependency tree" + LS + dependencyTree );
@@ -270,10 +336,10 @@ public class BundleAllPlugin extends ManifestPlugin
             if ( ( Artifact.SCOPE_COMPILE.equals( artifact.getScope() ) )
                 || ( Artifact.SCOPE_RUNTIME.equals( artifact.getScope() ) ) )
             {
-                BundleInfo subBundleInfo = bundleAll( childProject, maxDepth - 1 );
-                if ( subBundleInfo != null )
+                WrapTask dependency = scheduleAll( childProject, maxDepth - 1 );
+                if ( dependency != null )
                 {
-                    bundleInfo.merge( subBundleInfo );
+                    dependencies.add( dependency );
                 }
             }
             else
@@ -284,31 +350,113 @@ public class BundleAllPlugin extends ManifestPlugin
             }
         }
 
-        return bundleRoot( project, bundleInfo );
+        return scheduleRoot( project, dependencies );
     }
 
 
     /**
-     * Bundle the root of a dependency tree after all its children have been bundled
+     * Schedule the root of a dependency tree to be bundled after all its children have been bundled
      * 
      * @param project
-     * @param bundleInfo
-     * @return
-     * @throws MojoExecutionException
+     * @param dependencies tasks bundling the children
+     * @return the task bundling the root, or null for the project the mojo was called on
      */
-    private BundleInfo bundleRoot( MavenProject project, BundleInfo bundleInfo ) throws MojoExecutionException
+    WrapTask scheduleRoot( MavenProject project, Set<WrapTask> dependencies )
     {
         /* do not bundle the project the mojo was called on */
-        if ( getProject() != project )
+        if ( getProject() == project )
+        {
+            return null;
+        }
+
+        getLog().debug( "Project artifact location: " + project.getArtifact().getFile() );
+
+        WrapTask task = new WrapTask( project, dependencies );
+        m_wrapTasks.put( project.getArtifact().getId(), task );
+        return task;
+    }
+
+
+    /**
+     * Bundle all scheduled projects, running independent ones concurrently
+     * 
+     * @return the merged information of all bundles
+     * @throws MojoExecutionException
+     */
+    BundleInfo wrapAll() throws MojoExecutionException
+    {
+        BundleInfo bundleInfo = new BundleInfo();
+        List<WrapTask> tasks = new ArrayList<WrapTask>( m_wrapTasks.values() );
+        m_wrapTasks.clear();
+        if ( tasks.isEmpty() )
+        {
+            return bundleInfo;
+        }
+
+        int threads = wrapThreads > 0 ? wrapThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool( Math.min( threads, tasks.size() ) );
+        CompletionService<WrapTask> completionService = new ExecutorCompletionService<WrapTask>( executor );
+        try
         {
-            getLog().debug( "Project artifact location: " + project.getArtifact().getFile() );
+            int running = 0;
+            for ( WrapTask task : tasks )
+            {
+                if ( task.m_pending == 0 )
+                {
+                    completionService.submit( task );
+                    running++;
+                }
+            }
 
-            BundleInfo subBundleInfo = bundle( project );
-            if ( subBundleInfo != null )
+            while ( running > 0 )
+            {
+                WrapTask done = completionService.take().get();
+                running--;
+                if ( done.m_bundleInfo != null )
+                {
+                    bundleInfo.merge( done.m_bundleInfo );
+                }
+                for ( WrapTask dependent : done.m_dependents )
+                {
+                    if ( --dependent.m_pending == 0 )
+                    {
+                        completionService.submit( dependent );
+                        running++;
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "Interrupted while bundling dependencies", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof MojoExecutionException )
             {
-                bundleInfo.merge( subBundleInfo );
+                throw ( MojoExecutionException ) e.getCause();
             }
+            throw new MojoExecutionException( "Error bundling dependencies", e.getCause() );
         }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        AnalysisCache cache = getAnalysisCache();
+        if ( cache != null )
+        {
+            try
+            {
+                cache.save();
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( "Unable to update analysis cache", e );
+            }
+        }
+
         return bundleInfo;
     }
 
@@ -320,6 +468,20 @@ public class BundleAllPlugin extends ManifestPlugin
      * @throws MojoExecutionException
      */
     protected BundleInfo bundle( MavenProject project ) throws MojoExecutionException
+    {
+        return bundle( project, null );
+    }
+
+
+    /**
+     * Bundle one project, reusing the manifest of a previous build when the project
+     * and the dependencies it was scheduled after did not change
+     * 
+     * @param project
+     * @param task the task bundling the project, null if not scheduled
+     * @throws MojoExecutionException
+     */
+    BundleInfo bundle( MavenProject project, WrapTask task ) throws MojoExecutionException
     {
         Artifact artifact = project.getArtifact();
         getLog().info( "Bundling " + artifact );
@@ -329,7 +491,12 @@ public class BundleAllPlugin extends ManifestPlugin
             Map instructions = new LinkedHashMap();
             instructions.put( Analyzer.IMPORT_PACKAGE, wrapImportPackage );
 
-            project.getArtifact().setFile( getFile( artifact ) );
+            AnalysisCache cache = task != null ? getAnalysisCache() : null;
+            if ( cache == null )
+            {
+                project.getArtifact().setFile( getFile( artifact ) );
+            }
+            // else wrap the artifact itself, a bundle of a previous build may be outdated
             File outputFile = getOutputFile( artifact );
 
             if ( project.getArtifact().getFile().equals( outputFile ) )
@@ -343,6 +510,33 @@ public class BundleAllPlugin extends ManifestPlugin
                 //                    + " to the same file, try cleaning: " + outputFile );
             }
 
+            // the cache may be shared by projects wrapping the same artifact differently
+            String key = WRAP_KEY_PREFIX + artifact.getId() + "@" + getArtifactKey( getProjectArtifact() );
+            if ( cache != null )
+            {
+                task.m_fingerprint = getWrapFingerprint( cache, project, task );
+                Manifest manifest = cache.getManifest( key, task.m_fingerprint, new ArrayList<String>() );
+                if ( manifest != null )
+                {
+                    if ( manifest.equals( getManifest( outputFile ) ) )
+                    {
+                        getLog().debug( "Using previously built OSGi bundle for " + artifact + " in " + outputFile );
+                    }
+                    else
+                    {
+                        getLog().debug( "Reusing manifest of previous build for " + artifact );
+                        Jar osgiJar = new Jar( project.getArtifactId(), project.getArtifact().getFile() );
+                        outputFile.getAbsoluteFile().getParentFile().mkdirs();
+                        osgiJar.setManifest( manifest );
+                        osgiJar.write( outputFile );
+                        osgiJar.close();
+                    }
+
+                    String exportHeader = manifest.getMainAttributes().getValue( Analyzer.EXPORT_PACKAGE );
+                    return addExportedPackages( project, OSGiHeader.parseHeader( exportHeader ).keySet() );
+                }
+            }
+
             Analyzer analyzer = getAnalyzer( project, instructions, new Properties(), getClasspath( project ) );
 
             Jar osgiJar = new Jar( project.getArtifactId(), project.getArtifact().getFile() );
@@ -367,6 +561,11 @@ public class BundleAllPlugin extends ManifestPlugin
                 Manifest manifest = analyzer.getJar().getManifest();
                 osgiJar.setManifest( manifest );
                 osgiJar.write( outputFile );
+
+                if ( cache != null && analyzer.getErrors().isEmpty() )
+                {
+                    cache.putManifest( key, task.m_fingerprint, manifest, new ArrayList<String>() );
+                }
             }
 
             BundleInfo bundleInfo = addExportedPackages( project, exportedPackages );
@@ -386,6 +585,118 @@ public class BundleAllPlugin extends ManifestPlugin
     }
 
 
+    /**
+     * Fingerprints everything the manifest of a wrapped dependency depends on
+     */
+    private String getWrapFingerprint( AnalysisCache cache, MavenProject project, WrapTask task ) throws IOException
+    {
+        List<String> inputs = new ArrayList<String>();
+        inputs.add( String.valueOf( BundleAllPlugin.class.getPackage().getImplementationVersion() ) );
+        inputs.add( String.valueOf( Analyzer.class.getPackage().getImplementationVersion() ) );
+        inputs.add( Analyzer.IMPORT_PACKAGE + "=" + wrapImportPackage );
+        inputs.add( cache.getChecksum( project.getArtifact().getFile(), null ) );
+        if ( project.getFile() != null && project.getFile().isFile() )
+        {
+            inputs.add( cache.getChecksum( project.getFile(), null ) );
+        }
+
+        // wrapped bundles are written to the output directory as they are built,
+        // they are covered by the fingerprints of the dependencies instead; a
+        // missing output directory, as after a clean build, digests like an empty one
+        File outputDirectory = getOutputDirectory();
+        if ( outputDirectory != null && outputDirectory.isDirectory() )
+        {
+            inputs.add( cache.getChecksum( outputDirectory, null, JAR_FILES ) );
+        }
+        else
+        {
+            inputs.add( AnalysisCache.fingerprint( Collections.<String> emptyList() ) );
+        }
+
+        for ( WrapTask dependency : task.m_dependencies )
+        {
+            inputs.add( String.valueOf( dependency.m_fingerprint ) );
+        }
+
+        return AnalysisCache.fingerprint( inputs );
+    }
+
+
+    /**
+     * Returns the manifest of a previously built bundle, or null if there is none
+     */
+    private static Manifest getManifest( File file ) throws IOException
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        JarFile jar = new JarFile( file );
+        try
+        {
+            return jar.getManifest();
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+
+    private Artifact getProjectArtifact()
+    {
+        return getProject() != null ? getProject().getArtifact() : null;
+    }
+
+
+    /**
+     * Returns the cache of wrapped dependencies, kept outside the build directory, or null when disabled
+     */
+    protected synchronized AnalysisCache getAnalysisCache()
+    {
+        if ( !incrementalManifest )
+        {
+            return null;
+        }
+        if ( m_wrapCache == null )
+        {
+            File directory = wrapCacheDirectory;
+            if ( directory == null && localRepository != null )
+            {
+                directory = new File( localRepository.getBasedir(), ".cache/maven-bundle-plugin" );
+            }
+            if ( directory == null )
+            {
+                return super.getAnalysisCache();
+            }
+            m_wrapCache = new AnalysisCache( directory );
+        }
+        return m_wrapCache;
+    }
+
+
+    protected void setWrapCacheDirectory( File _wrapCacheDirectory )
+    {
+        wrapCacheDirectory = _wrapCacheDirectory;
+    }
+
+
+    protected void setWrapThreads( int _wrapThreads )
+    {
+        wrapThreads = _wrapThreads;
+    }
+
+
+    /**
+     * Wrapped bundles are cached per dependency, the output directory they are written to
+     * cannot be used to fingerprint the analysis of the project
+     */
+    protected boolean isManifestCacheable( MavenProject project )
+    {
+        return false;
+    }
+
+
     private boolean isOsgi( Jar jar ) throws Exception
     {
         if ( jar.getManifest() != null )
@@ -410,7 +721,7 @@ public class BundleAllPlugin extends ManifestPlugin
 
     private String getArtifactKey( Artifact artifact )
     {
-        return artifact.getGroupId() + ":" + artifact.getArtifactId();
+        return artifact != null ? artifact.getGroupId() + ":" + artifact.getArtifactId() : "-";
     }
 
 
@@ -583,4 +894,43 @@ public class BundleAllPlugin extends ManifestPlugin
 
         }
     }
+
+
+    /**
+     * Bundles a project once all the projects it depends on are bundled.
+     * Dependencies are only tracked by the thread scheduling the tasks.
+     */
+    class WrapTask implements Callable<WrapTask>
+    {
+        private final MavenProject m_project;
+
+        private final Set<WrapTask> m_dependencies;
+
+        private final List<WrapTask> m_dependents = new ArrayList<WrapTask>();
+
+        private int m_pending;
+
+        private String m_fingerprint;
+
+        private BundleInfo m_bundleInfo;
+
+
+        WrapTask( MavenProject project, Set<WrapTask> dependencies )
+        {
+            m_project = project;
+            m_dependencies = dependencies;
+            m_pending = dependencies.size();
+            for ( WrapTask dependency : dependencies )
+            {
+                dependency.m_dependents.add( this );
+            }
+        }
+
+
+        public WrapTask call() throws MojoExecutionException
+        {
+            m_bundleInfo = bundle( m_project, this );
+            return this;
+        }
+    }
 }
@@ -24,12 +24,18 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.jar.Manifest;
+import java.util.regex.Pattern;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -40,6 +46,7 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 
+import aQute.bnd.header.OSGiHeader;
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Builder;
 import aQute.bnd.osgi.Jar;
@@ -53,12 +60,29 @@ import aQute.bnd.osgi.Resource;
 @Execute( phase = LifecyclePhase.PROCESS_CLASSES )
 public class ManifestPlugin extends BundlePlugin
 {
+    /**
+     * Bnd macros expanding to a different value in each build
+     */
+    private static final Pattern VOLATILE_MACRO = Pattern
+        .compile( "\\$[\\{\\(\\[<](tstamp|now|random|env|system|system_allow_fail)(?![\\w-])" );
+
     /**
      * When true, generate the manifest by rebuilding the full bundle in memory
      */
     @Parameter( property = "rebuildBundle" )
     protected boolean rebuildBundle;
 
+    /**
+     * When true, reuse the manifest calculated by a previous build as long as the
+     * analyzed classes, the classpath, the included resources and the instructions
+     * did not change. Instructions using macros whose value changes from build to
+     * build, such as ${tstamp}, always cause a new analysis
+     */
+    @Parameter( property = "incrementalManifest", defaultValue = "true" )
+    protected boolean incrementalManifest;
+
+    private AnalysisCache m_analysisCache;
+
 
     @Override
     protected void execute( MavenProject project, Map<String, String> instructions, Properties properties, Jar[] classpath )
@@ -99,6 +123,20 @@ public class ManifestPlugin extends BundlePlugin
         {
             throw new MojoExecutionException( "Error trying to write Manifest to file " + outputFile, e );
         }
+
+        AnalysisCache cache = isManifestCacheable( project ) ? getAnalysisCache() : null;
+        if ( cache != null )
+        {
+            try
+            {
+                // the written manifest is part of the analyzed classes next time
+                cache.putGenerated( getCacheKey( project ), cache.getChecksum( outputFile, null ) );
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( "Unable to update analysis cache", e );
+            }
+        }
     }
 
 
@@ -211,7 +249,7 @@ public class ManifestPlugin extends BundlePlugin
         else
         {
             analyzer.mergeManifest( analyzer.getJar().getManifest() );
-            analyzer.getJar().setManifest( analyzer.calcManifest() );
+            calcManifest( project, analyzer, file, classpath );
         }
 
         mergeMavenManifest( project, analyzer );
@@ -220,6 +258,228 @@ public class ManifestPlugin extends BundlePlugin
     }
 
 
+    /**
+     * Calculates the manifest of the analyzed jar, reusing the manifest calculated
+     * by a previous build if none of the inputs changed since
+     */
+    private void calcManifest( MavenProject project, Builder analyzer, File file, Jar[] classpath ) throws Exception
+    {
+        AnalysisCache cache = isManifestCacheable( project ) ? getAnalysisCache() : null;
+        String key = null;
+        String fingerprint = null;
+        if ( cache != null && hasVolatileMacros( analyzer ) )
+        {
+            getLog().debug( "Not reusing manifest of previous build, instructions depend on the build time" );
+            cache = null;
+        }
+        if ( cache != null )
+        {
+            try
+            {
+                key = getCacheKey( project );
+                fingerprint = getFingerprint( cache, key, analyzer, file, classpath );
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( "Unable to use analysis cache", e );
+                cache = null;
+            }
+        }
+
+        if ( cache != null )
+        {
+            List<String> warnings = new ArrayList<String>();
+            Manifest manifest = cache.getManifest( key, fingerprint, warnings );
+            if ( manifest != null )
+            {
+                getLog().debug( "Reusing manifest of previous build for " + project.getArtifact() );
+                if ( manifest.getMainAttributes().getValue( Analyzer.BND_LASTMODIFIED ) != null )
+                {
+                    manifest.getMainAttributes().putValue( Analyzer.BND_LASTMODIFIED,
+                        String.valueOf( System.currentTimeMillis() ) );
+                }
+                for ( String warning : warnings )
+                {
+                    analyzer.warning( "%s", warning );
+                }
+                analyzer.getJar().setManifest( manifest );
+                return;
+            }
+        }
+
+        int warningCount = analyzer.getWarnings().size();
+        analyzer.getJar().setManifest( analyzer.calcManifest() );
+
+        if ( cache != null && analyzer.getErrors().isEmpty() )
+        {
+            List<String> warnings = analyzer.getWarnings();
+            try
+            {
+                cache.putManifest( key, fingerprint, analyzer.getJar().getManifest(),
+                    new ArrayList<String>( warnings.subList( Math.min( warningCount, warnings.size() ), warnings.size() ) ) );
+                cache.save();
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( "Unable to update analysis cache", e );
+            }
+        }
+    }
+
+
+    /**
+     * Fingerprints everything the calculated manifest depends on: the versions of the plugin
+     * and bnd, the instructions, the analyzed classes, the included resources and the
+     * contents of the classpath
+     */
+    private String getFingerprint( AnalysisCache cache, String key, Analyzer analyzer, File file, Jar[] classpath )
+        throws IOException
+    {
+        List<String> inputs = new ArrayList<String>();
+        inputs.add( String.valueOf( ManifestPlugin.class.getPackage().getImplementationVersion() ) );
+        inputs.add( String.valueOf( Analyzer.class.getPackage().getImplementationVersion() ) );
+
+        Properties properties = analyzer.getProperties();
+        Set<String> names = new TreeSet<String>();
+        for ( Enumeration<?> e = properties.propertyNames(); e.hasMoreElements(); )
+        {
+            names.add( String.valueOf( e.nextElement() ) );
+        }
+        for ( String name : names )
+        {
+            inputs.add( name + "=" + properties.getProperty( name ) );
+        }
+
+        // ignore the manifest we wrote into the analyzed classes ourselves, unless it was replaced
+        File generated = manifestLocation != null ? new File( manifestLocation, "MANIFEST.MF" ) : null;
+        if ( generated != null && !( generated.isFile() && cache.getChecksum( generated, null ).equals( cache.getGenerated( key ) ) ) )
+        {
+            generated = null;
+        }
+        inputs.add( file.getName() + "=" + cache.getChecksum( file, generated ) );
+
+        for ( int i = 0; classpath != null && i < classpath.length; i++ )
+        {
+            File source = classpath[i].getSource();
+            if ( source != null && source.equals( getOutputDirectory() ) )
+            {
+                // same classes as the analyzed jar or directory
+                continue;
+            }
+            inputs.add( classpath[i].getName() + "="
+                + ( source != null && source.exists() ? cache.getChecksum( source, generated ) : "-" ) );
+        }
+
+        // included resources may come from anywhere
+        for ( String name : new String[]
+            { Analyzer.INCLUDE_RESOURCE, Analyzer.INCLUDERESOURCE } )
+        {
+            String value = analyzer.getProperty( name );
+            if ( value == null )
+            {
+                continue;
+            }
+            for ( String clause : OSGiHeader.parseHeader( value ).keySet() )
+            {
+                File source = analyzer.getFile( getIncludedSource( clause ) );
+                inputs.add( name + ":" + clause + "="
+                    + ( source.exists() ? cache.getChecksum( source, null ) : "-" ) );
+            }
+        }
+
+        return AnalysisCache.fingerprint( inputs );
+    }
+
+
+    /**
+     * Returns the path of the file or directory included by a clause of Include-Resource,
+     * such as {target=source}, -source or @source!/path
+     */
+    private static String getIncludedSource( String clause )
+    {
+        String source = clause;
+        while ( source.endsWith( "~" ) )
+        {
+            // duplicate clause
+            source = source.substring( 0, source.length() - 1 );
+        }
+        if ( source.startsWith( "{" ) && source.endsWith( "}" ) )
+        {
+            source = source.substring( 1, source.length() - 1 );
+        }
+        if ( source.startsWith( "-" ) )
+        {
+            source = source.substring( 1 );
+        }
+        int assignment = source.indexOf( '=' );
+        if ( assignment >= 0 )
+        {
+            source = source.substring( assignment + 1 );
+        }
+        if ( source.startsWith( "@" ) )
+        {
+            source = source.substring( 1 );
+            int nested = source.indexOf( "!/" );
+            if ( nested >= 0 )
+            {
+                source = source.substring( 0, nested );
+            }
+        }
+        return source.trim();
+    }
+
+
+    /**
+     * Returns whether any instruction uses a macro whose value may change between two builds
+     */
+    private static boolean hasVolatileMacros( Analyzer analyzer )
+    {
+        Properties properties = analyzer.getProperties();
+        for ( Enumeration<?> e = properties.propertyNames(); e.hasMoreElements(); )
+        {
+            String value = properties.getProperty( String.valueOf( e.nextElement() ) );
+            if ( value != null && VOLATILE_MACRO.matcher( value ).find() )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private String getCacheKey( MavenProject project )
+    {
+        String key = project.getArtifact().getId();
+        return ( classifier != null && classifier.trim().length() > 0 ) ? key + ":" + classifier : key;
+    }
+
+
+    /**
+     * Returns whether the manifest calculated for the given project may be reused by later builds
+     */
+    protected boolean isManifestCacheable( MavenProject project )
+    {
+        return true;
+    }
+
+
+    /**
+     * Returns the cache of analysis results kept in the build directory, or null when disabled
+     */
+    protected synchronized AnalysisCache getAnalysisCache()
+    {
+        if ( !incrementalManifest || getBuildDirectory() == null )
+        {
+            return null;
+        }
+        if ( m_analysisCache == null )
+        {
+            m_analysisCache = new AnalysisCache( new File( getBuildDirectory(), "bundle-cache" ) );
+        }
+        return m_analysisCache;
+    }
+
+
     public static void writeManifest( Manifest manifest, File outputFile, boolean niceManifest ) throws IOException
     {
         outputFile.getParentFile().mkdirs();
@@ -19,19 +19,32 @@
 package org.apache.felix.obrplugin;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.felix.bundlerepository.Property;
 import org.apache.felix.bundlerepository.Resource;
 import org.apache.felix.bundlerepository.impl.DataModelHelperImpl;
+import org.apache.felix.bundlerepository.impl.Referral;
 import org.apache.felix.bundlerepository.impl.RepositoryImpl;
 import org.apache.felix.bundlerepository.impl.ResourceImpl;
 import org.apache.maven.artifact.repository.ArtifactRepository;
@@ -75,6 +88,26 @@ public final class ObrIndex extends AbstractMojo
     @Parameter( defaultValue = "${localRepository}", readonly = true, required = true )
     private ArtifactRepository localRepository;
 
+    /**
+     * Only analyze bundles which were added or changed since the previous run,
+     * and remove the bundles which were removed since then
+     */
+    @Parameter( property = "incrementalIndex", defaultValue = "true" )
+    private boolean incrementalIndex;
+
+    /**
+     * Directory keeping the resource descriptions between runs, defaults to .obr-index
+     * next to the OBR xml
+     */
+    @Parameter( property = "indexCache" )
+    private File indexCache;
+
+    /**
+     * Number of bundles analyzed concurrently, defaults to the number of processors
+     */
+    @Parameter( property = "indexThreads" )
+    private int indexThreads;
+
 
     public void execute() throws MojoExecutionException
     {
@@ -112,15 +145,105 @@ public final class ObrIndex extends AbstractMojo
                 repository = new RepositoryImpl();
             }
 
-            for ( File file : files )
+            ObrIndexCache cache = null;
+            if ( incrementalIndex )
+            {
+                File cacheDir = indexCache;
+                if ( cacheDir == null )
+                {
+                    cacheDir = new File( obrRepoFile.getAbsoluteFile().getParentFile(), ".obr-index" );
+                }
+                cache = new ObrIndexCache( cacheDir );
+            }
+
+            Map<File, ResourceImpl> resources = indexAll( dmh, mavenRepoUri, files, cache );
+            if ( cache != null )
+            {
+                repository = removeStale( repository, files, resources, cache );
+            }
+            for ( ResourceImpl resource : resources.values() )
+            {
+                repository.addResource( resource );
+            }
+
+            if ( cache != null )
+            {
+                try
+                {
+                    cache.save();
+                }
+                catch ( IOException e )
+                {
+                    log.warn( "Unable to update index cache: " + e.getMessage() );
+                }
+            }
+
+            // write next to the old file first, so it is replaced as a whole
+            File tmp = new File( obrRepoFile.getPath() + ".tmp" );
+            Writer writer = new BufferedWriter( new FileWriter( tmp ) );
+            try
+            {
+                dmh.writeRepository( repository, writer );
+            }
+            finally
+            {
+                writer.close();
+            }
+            obrRepoFile.delete();
+            if ( !tmp.renameTo( obrRepoFile ) )
+            {
+                throw new IOException( "Unable to rename " + tmp + " to " + obrRepoFile );
+            }
+        }
+        catch ( Exception e )
+        {
+            log.warn( "Exception while updating local OBR: " + e.getLocalizedMessage(), e );
+        }
+    }
+
+
+    /**
+     * Analyzes the given files concurrently, reusing the resource descriptions of
+     * unchanged bundles from the cache
+     * 
+     * @return the resources by file, in the order of the files
+     */
+    private Map<File, ResourceImpl> indexAll( final DataModelHelperImpl dmh, final URI root, List<File> files,
+        final ObrIndexCache cache ) throws InterruptedException
+    {
+        Log log = getLog();
+        Map<File, ResourceImpl> resources = new LinkedHashMap<File, ResourceImpl>();
+        if ( files.isEmpty() )
+        {
+            return resources;
+        }
+
+        int threads = indexThreads > 0 ? indexThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool( Math.min( threads, files.size() ) );
+        try
+        {
+            List<Future<ResourceImpl>> futures = new ArrayList<Future<ResourceImpl>>( files.size() );
+            for ( final File file : files )
+            {
+                futures.add( executor.submit( new Callable<ResourceImpl>()
+                {
+                    public ResourceImpl call() throws Exception
+                    {
+                        return index( dmh, root, file, cache );
+                    }
+                } ) );
+            }
+
+            // log in a stable order
+            for ( int i = 0; i < files.size(); i++ )
             {
+                File file = files.get( i );
                 try
                 {
-                    ResourceImpl resource = ( ResourceImpl ) dmh.createResource( file.toURI().toURL() );
+                    ResourceImpl resource = futures.get( i ).get();
                     if ( resource != null )
                     {
-                        repository.addResource( resource );
-                        doTemplate( mavenRepoUri, file, resource );
+                        resources.put( file, resource );
                         log.info( "Adding resource: " + file );
                     }
                     else
@@ -128,25 +251,136 @@ public final class ObrIndex extends AbstractMojo
                         log.info( "Ignoring non OSGi bundle: " + file );
                     }
                 }
+                catch ( ExecutionException e )
+                {
+                    log.warn( "Error processing bundle: " + file + " " + e.getCause().getMessage() );
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return resources;
+    }
+
+
+    /**
+     * Creates the resource description of a single file
+     * 
+     * @return the resource or null if the file is not a bundle
+     */
+    private ResourceImpl index( DataModelHelperImpl dmh, URI root, File file, ObrIndexCache cache ) throws Exception
+    {
+        ResourceImpl resource = null;
+        String checksum = null;
+        if ( cache != null )
+        {
+            checksum = cache.getChecksum( file );
+            if ( cache.isIgnored( checksum ) )
+            {
+                cache.indexed( file.getAbsolutePath(), null );
+                return null;
+            }
+            Reader reader = cache.getResource( checksum );
+            if ( reader != null )
+            {
+                try
+                {
+                    resource = ( ResourceImpl ) dmh.readResource( reader );
+                }
                 catch ( Exception e )
                 {
-                    log.warn( "Error processing bundle: " + file + " " + e.getMessage() );
+                    // analyze the bundle again
+                    getLog().debug( "Unable to read cached resource of " + file, e );
+                }
+                finally
+                {
+                    reader.close();
                 }
             }
-            Writer writer = new FileWriter( obrRepoFile );
-            try
+        }
+
+        if ( resource == null )
+        {
+            resource = ( ResourceImpl ) dmh.createResource( file.toURI().toURL() );
+            if ( cache != null )
             {
-                dmh.writeRepository( repository, writer );
+                if ( resource != null )
+                {
+                    cache.putResource( checksum, dmh.writeResource( resource ) );
+                }
+                else
+                {
+                    cache.putIgnored( checksum );
+                }
             }
-            finally
+        }
+
+        if ( resource != null )
+        {
+            doTemplate( root, file, resource );
+        }
+        if ( cache != null )
+        {
+            cache.indexed( file.getAbsolutePath(), resource != null ? resource.getId() : null );
+        }
+        return resource;
+    }
+
+
+    /**
+     * Removes the resources of bundles which were indexed by the previous run, but have been
+     * removed since then or now describe a different resource
+     */
+    private RepositoryImpl removeStale( RepositoryImpl repository, List<File> files,
+        Map<File, ResourceImpl> resources, ObrIndexCache cache ) throws Exception
+    {
+        Set<String> paths = new HashSet<String>();
+        for ( File file : files )
+        {
+            paths.add( file.getAbsolutePath() );
+        }
+        Map<String, String> currentIds = new HashMap<String, String>();
+        for ( Map.Entry<File, ResourceImpl> entry : resources.entrySet() )
+        {
+            currentIds.put( entry.getKey().getAbsolutePath(), entry.getValue().getId() );
+        }
+
+        Set<String> stale = new HashSet<String>();
+        for ( Map.Entry<String, String> entry : cache.getPreviousIndex().entrySet() )
+        {
+            String path = entry.getKey();
+            String id = entry.getValue();
+            if ( id.length() == 0 )
             {
-                writer.close();
+                continue;
+            }
+            if ( !paths.contains( path ) )
+            {
+                getLog().info( "Removing resource: " + path );
+                stale.add( id );
+            }
+            else if ( currentIds.containsKey( path ) && !id.equals( currentIds.get( path ) ) )
+            {
+                stale.add( id );
             }
         }
-        catch ( Exception e )
+        stale.removeAll( currentIds.values() );
+        if ( stale.isEmpty() )
         {
-            log.warn( "Exception while updating local OBR: " + e.getLocalizedMessage(), e );
+            return repository;
+        }
+
+        RepositoryImpl result = new IndexedRepository( repository );
+        for ( Resource resource : repository.getResources() )
+        {
+            if ( !stale.contains( resource.getId() ) )
+            {
+                result.addResource( resource );
+            }
         }
+        return result;
     }
 
 
@@ -240,6 +474,25 @@ public final class ObrIndex extends AbstractMojo
     };
 
 
+    /**
+     * Copy of a repository without its resources, as resources can't be removed from a repository
+     */
+    private static final class IndexedRepository extends RepositoryImpl
+    {
+        IndexedRepository( RepositoryImpl repository ) throws Exception
+        {
+            setURI( repository.getURI() );
+            setName( repository.getName() );
+            setLastModified( repository.getLastModified() );
+            Referral[] referrals = repository.getReferrals();
+            for ( int i = 0; referrals != null && i < referrals.length; i++ )
+            {
+                addReferral( referrals[i] );
+            }
+        }
+    }
+
+
     private void findAllJars( File mainRoot, List<File> files )
     {
         List<File> roots = new ArrayList<File>();
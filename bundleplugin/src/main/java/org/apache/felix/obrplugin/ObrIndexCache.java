@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.obrplugin;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.bundleplugin.AnalysisCache;
+
+
+/**
+ * Cache of the resource descriptions of indexed bundles, kept between runs of the index goal.
+ * <p>
+ * Resource descriptions are stored by the checksum of the bundle they were created from,
+ * so unchanged bundles don't have to be analyzed again. In addition the bundles indexed
+ * by the previous run are remembered, to find out which bundles were changed or removed.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ObrIndexCache
+{
+    private static final String INDEX = "index.txt";
+    private static final String RESOURCE = ".xml";
+    private static final String IGNORED = ".ignored";
+
+    private final File m_directory;
+
+    private final AnalysisCache m_checksums;
+
+    /**
+     * Resource ids by path of the bundles indexed by the previous run, empty for non bundles.
+     */
+    private final Map<String, String> m_previous = new HashMap<String, String>();
+
+    /**
+     * Resource ids by path of the bundles indexed by this run.
+     */
+    private final Map<String, String> m_current = new HashMap<String, String>();
+
+
+    public ObrIndexCache( File directory )
+    {
+        m_directory = directory;
+        m_checksums = new AnalysisCache( directory );
+        load();
+    }
+
+
+    /**
+     * Returns the checksum of the given bundle, which is only computed again if the
+     * size or modification time of the file changed.
+     */
+    public String getChecksum( File file ) throws IOException
+    {
+        return m_checksums.getChecksum( file, null );
+    }
+
+
+    /**
+     * Returns the resource ids by path of the bundles indexed by the previous run.
+     */
+    public Map<String, String> getPreviousIndex()
+    {
+        return m_previous;
+    }
+
+
+    /**
+     * Returns a reader for the resource description of the bundle with the given checksum.
+     *
+     * @return the reader or null if the bundle was not analyzed before
+     */
+    public Reader getResource( String checksum ) throws IOException
+    {
+        File file = new File( m_directory, checksum + RESOURCE );
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        return new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+    }
+
+
+    /**
+     * Stores the resource description of the bundle with the given checksum.
+     */
+    public void putResource( String checksum, String xml ) throws IOException
+    {
+        m_directory.mkdirs();
+        File file = new File( m_directory, checksum + RESOURCE );
+        // the same bundle may be stored concurrently from several paths
+        File tmp = File.createTempFile( checksum, ".tmp", m_directory );
+        Writer writer = new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" );
+        try
+        {
+            writer.write( xml );
+        }
+        finally
+        {
+            writer.close();
+        }
+        if ( !tmp.renameTo( file ) )
+        {
+            tmp.delete();
+            if ( !file.isFile() )
+            {
+                throw new IOException( "Unable to rename " + tmp + " to " + file );
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if the file with the given checksum was found not to be a bundle before.
+     */
+    public boolean isIgnored( String checksum )
+    {
+        return new File( m_directory, checksum + IGNORED ).isFile();
+    }
+
+
+    /**
+     * Remembers that the file with the given checksum is not a bundle.
+     */
+    public void putIgnored( String checksum ) throws IOException
+    {
+        m_directory.mkdirs();
+        new File( m_directory, checksum + IGNORED ).createNewFile();
+    }
+
+
+    /**
+     * Remembers that the file at the given path was indexed by this run.
+     *
+     * @param id the id of the resource created for the file, null if it is not a bundle
+     */
+    public synchronized void indexed( String path, String id )
+    {
+        m_current.put( path, id != null ? id : "" );
+    }
+
+
+    /**
+     * Writes the index of this run and the checksums back to the cache directory.
+     */
+    public synchronized void save() throws IOException
+    {
+        m_checksums.save();
+        m_directory.mkdirs();
+        File file = new File( m_directory, INDEX );
+        File tmp = new File( m_directory, INDEX + ".tmp" );
+        Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" ) );
+        try
+        {
+            for ( Map.Entry<String, String> entry : m_current.entrySet() )
+            {
+                writer.write( entry.getValue() );
+                writer.write( '=' );
+                writer.write( entry.getKey() );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        file.delete();
+        if ( !tmp.renameTo( file ) )
+        {
+            throw new IOException( "Unable to rename " + tmp + " to " + file );
+        }
+    }
+
+
+    private void load()
+    {
+        File file = new File( m_directory, INDEX );
+        if ( !file.isFile() )
+        {
+            return;
+        }
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+            try
+            {
+                for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                {
+                    // resource ids (symbolic name and version) never contain '='
+                    int idx = line.indexOf( '=' );
+                    if ( idx >= 0 )
+                    {
+                        m_previous.put( line.substring( idx + 1 ), line.substring( 0, idx ) );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // index everything again
+            m_previous.clear();
+        }
+    }
+}
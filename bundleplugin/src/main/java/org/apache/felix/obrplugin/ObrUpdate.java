@@ -19,6 +19,7 @@
 package org.apache.felix.obrplugin;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -260,7 +261,7 @@ public class ObrUpdate
         try
         {
             file = File.createTempFile( "repository", ".xml" );
-            writer = new OutputStreamWriter( new FileOutputStream( file ) );
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ) ) );
         }
         catch ( IOException e )
         {
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundleplugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+public class AnalysisCacheTest extends TestCase
+{
+
+    private File m_dir;
+
+
+    protected void setUp() throws Exception
+    {
+        m_dir = new File( "target/test-analysis-cache" );
+        delete( m_dir );
+        m_dir.mkdirs();
+    }
+
+
+    public void testDirectoryChecksum() throws Exception
+    {
+        File classes = new File( m_dir, "classes" );
+        write( new File( classes, "a/A.class" ), "A" );
+        File manifest = new File( classes, "META-INF/MANIFEST.MF" );
+        write( manifest, "Manifest-Version: 1.0\n" );
+
+        AnalysisCache cache = new AnalysisCache( new File( m_dir, "cache" ) );
+        String checksum = cache.getChecksum( classes, manifest );
+
+        // contents of the ignored file do not matter
+        write( manifest, "Manifest-Version: 1.0\nBundle-Name: x\n" );
+        assertEquals( checksum, cache.getChecksum( classes, manifest ) );
+
+        write( new File( classes, "a/A.class" ), "AA" );
+        assertFalse( checksum.equals( cache.getChecksum( classes, manifest ) ) );
+    }
+
+
+    public void testManifestRoundTrip() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache( new File( m_dir, "cache" ) );
+        String fingerprint = AnalysisCache.fingerprint( Arrays.asList( new String[]
+            { "Export-Package=a", "classes=1234" } ) );
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue( "Manifest-Version", "1.0" );
+        manifest.getMainAttributes().putValue( "Export-Package", "a" );
+        cache.putManifest( "g:a:jar:1.0", fingerprint, manifest, Collections.singletonList( "some warning" ) );
+        cache.save();
+
+        cache = new AnalysisCache( new File( m_dir, "cache" ) );
+        List<String> warnings = new ArrayList<String>();
+        Manifest cached = cache.getManifest( "g:a:jar:1.0", fingerprint, warnings );
+        assertNotNull( cached );
+        assertEquals( "a", cached.getMainAttributes().getValue( "Export-Package" ) );
+        assertEquals( Collections.singletonList( "some warning" ), warnings );
+
+        String other = AnalysisCache.fingerprint( Arrays.asList( new String[]
+            { "Export-Package=b", "classes=1234" } ) );
+        assertNull( cache.getManifest( "g:a:jar:1.0", other, new ArrayList<String>() ) );
+    }
+
+
+    private static void write( File file, String content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream os = new FileOutputStream( file );
+        try
+        {
+            os.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            os.close();
+        }
+    }
+
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            delete( children[i] );
+        }
+        file.delete();
+    }
+
+}
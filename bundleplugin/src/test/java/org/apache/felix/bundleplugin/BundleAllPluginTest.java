@@ -21,13 +21,31 @@ package org.apache.felix.bundleplugin;
  */
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.testing.stubs.ArtifactStub;
 import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.osgi.DefaultMaven2OsgiConverter;
+import org.codehaus.plexus.util.FileUtils;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Jar;
 
 
 /**
@@ -118,6 +136,147 @@ public class BundleAllPluginTest extends AbstractBundlePluginTest
             exports.containsKey( "org.apache.maven.model.io.xpp3" ) );
     }
 
+    public void testWrapOrder() throws Exception
+    {
+        final List<String> events = Collections.synchronizedList( new ArrayList<String>() );
+        final CyclicBarrier together = new CyclicBarrier( 2 );
+        plugin = new BundleAllPlugin()
+        {
+            BundleInfo bundle( MavenProject project, WrapTask task ) throws MojoExecutionException
+            {
+                String name = project.getArtifactId();
+                events.add( "start " + name );
+                if ( name.equals( "a" ) || name.equals( "b" ) )
+                {
+                    try
+                    {
+                        // independent dependencies are wrapped concurrently
+                        together.await( 5, TimeUnit.SECONDS );
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new MojoExecutionException( "Not wrapped concurrently", e );
+                    }
+                }
+                events.add( "end " + name );
+                return new BundleInfo();
+            }
+        };
+        plugin.setWrapThreads( 4 );
+
+        BundleAllPlugin.WrapTask a = plugin.scheduleRoot( getProject( "a", null ), Collections.EMPTY_SET );
+        BundleAllPlugin.WrapTask b = plugin.scheduleRoot( getProject( "b", null ), Collections.EMPTY_SET );
+        BundleAllPlugin.WrapTask c = plugin.scheduleRoot( getProject( "c", null ),
+            new LinkedHashSet<BundleAllPlugin.WrapTask>( Arrays.asList( a, b ) ) );
+        plugin.scheduleRoot( getProject( "d", null ), Collections.singleton( c ) );
+        plugin.wrapAll();
+
+        assertEquals( 8, events.size() );
+        assertTrue( events.indexOf( "end a" ) < events.indexOf( "start c" ) );
+        assertTrue( events.indexOf( "end b" ) < events.indexOf( "start c" ) );
+        assertTrue( events.indexOf( "end c" ) < events.indexOf( "start d" ) );
+    }
+
+
+    public void testWrapCacheSurvivesClean() throws Exception
+    {
+        File buildDirectory = getTestFile( "target/bundleall-test" );
+        File cacheDirectory = getTestFile( "target/bundleall-cache" );
+        FileUtils.deleteDirectory( buildDirectory );
+        FileUtils.deleteDirectory( cacheDirectory );
+        File artifactFile = new File( buildDirectory.getParentFile(), "aopalliance.jar" );
+        FileUtils.copyFile( getTestFile( "src/test/resources/aopalliance-1.0.jar" ), artifactFile );
+
+        final int[] analyzed = new int[1];
+        BundleAllPlugin wrapper = newWrapper( buildDirectory, cacheDirectory, analyzed );
+        wrapper.scheduleRoot( getProject( "aopalliance", artifactFile ), Collections.EMPTY_SET );
+        wrapper.wrapAll();
+        assertEquals( 1, analyzed[0] );
+        File outputFile = wrapper.getOutputFile( getProject( "aopalliance", artifactFile ).getArtifact() );
+        assertEquals( "org.aopalliance", getSymbolicName( outputFile ) );
+        long lastModified = outputFile.lastModified();
+
+        // an unchanged bundle of the previous build is kept
+        wrapper = newWrapper( buildDirectory, cacheDirectory, analyzed );
+        wrapper.scheduleRoot( getProject( "aopalliance", artifactFile ), Collections.EMPTY_SET );
+        wrapper.wrapAll();
+        assertEquals( 1, analyzed[0] );
+        assertEquals( lastModified, outputFile.lastModified() );
+
+        // the cache outlives a clean build
+        FileUtils.deleteDirectory( buildDirectory );
+        wrapper = newWrapper( buildDirectory, cacheDirectory, analyzed );
+        wrapper.scheduleRoot( getProject( "aopalliance", artifactFile ), Collections.EMPTY_SET );
+        wrapper.wrapAll();
+        assertEquals( 1, analyzed[0] );
+        assertEquals( "org.aopalliance", getSymbolicName( outputFile ) );
+
+        // a previous bundle of a changed artifact is wrapped again
+        FileUtils.copyFile( getTestFile( "src/test/resources/aopalliance-1.0.jar" ), artifactFile );
+        Jar jar = new Jar( artifactFile );
+        jar.putResource( "changed.txt", new EmbeddedResource( new byte[1], 0 ) );
+        jar.write( new File( artifactFile.getPath() + ".tmp" ) );
+        jar.close();
+        artifactFile.delete();
+        new File( artifactFile.getPath() + ".tmp" ).renameTo( artifactFile );
+        wrapper = newWrapper( buildDirectory, cacheDirectory, analyzed );
+        wrapper.scheduleRoot( getProject( "aopalliance", artifactFile ), Collections.EMPTY_SET );
+        wrapper.wrapAll();
+        assertEquals( 2, analyzed[0] );
+    }
+
+
+    private static String getSymbolicName( File bundle ) throws Exception
+    {
+        JarFile jarFile = new JarFile( bundle );
+        try
+        {
+            return jarFile.getManifest().getMainAttributes().getValue( Analyzer.BUNDLE_SYMBOLICNAME );
+        }
+        finally
+        {
+            jarFile.close();
+        }
+    }
+
+
+    private BundleAllPlugin newWrapper( File buildDirectory, File cacheDirectory, final int[] analyzed )
+    {
+        BundleAllPlugin wrapper = new BundleAllPlugin()
+        {
+            protected Analyzer getAnalyzer( MavenProject project, Map<String, String> instructions,
+                Properties properties, Jar[] classpath ) throws Exception
+            {
+                analyzed[0]++;
+                return super.getAnalyzer( project, instructions, properties, classpath );
+            }
+        };
+        wrapper.setBuildDirectory( buildDirectory.getPath() );
+        wrapper.setOutputDirectory( new File( buildDirectory, "classes" ) );
+        wrapper.setMaven2OsgiConverter( new DefaultMaven2OsgiConverter() );
+        wrapper.setWrapCacheDirectory( cacheDirectory );
+        wrapper.incrementalManifest = true;
+        return wrapper;
+    }
+
+
+    private MavenProject getProject( String artifactId, File file )
+    {
+        // the wrapped projects are told apart by the id of their artifact
+        Artifact artifact = new DefaultArtifact( "org." + artifactId, artifactId, VersionRange.createFromVersion( "1.0" ),
+            Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler( "jar" ) );
+        artifact.setFile( file );
+
+        MavenProject project = new MavenProjectStub();
+        project.setGroupId( artifact.getGroupId() );
+        project.setArtifactId( artifact.getArtifactId() );
+        project.setVersion( artifact.getVersion() );
+        project.setArtifact( artifact );
+        project.setArtifacts( Collections.EMPTY_SET );
+        project.setDependencyArtifacts( Collections.EMPTY_SET );
+        return project;
+    }
+
     //    public void testRewriting()
     //        throws Exception
     //    {
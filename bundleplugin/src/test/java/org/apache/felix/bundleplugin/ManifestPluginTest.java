@@ -0,0 +1,157 @@
+package org.apache.felix.bundleplugin;
+
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.Manifest;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.osgi.DefaultMaven2OsgiConverter;
+import org.codehaus.plexus.util.FileUtils;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Jar;
+
+
+/**
+ * Test for the reuse of manifests by {@link ManifestPlugin}.
+ */
+public class ManifestPluginTest extends AbstractBundlePluginTest
+{
+
+    private File buildDirectory;
+
+    private int analyzed;
+
+    private ManifestPlugin plugin;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        buildDirectory = getTestFile( "target/manifest-test" );
+        FileUtils.deleteDirectory( buildDirectory );
+        analyzed = 0;
+
+        final AnalysisCache cache = new AnalysisCache( new File( buildDirectory, "bundle-cache" ) )
+        {
+            public synchronized void putManifest( String key, String fingerprint, Manifest manifest,
+                List<String> warnings ) throws IOException
+            {
+                analyzed++;
+                super.putManifest( key, fingerprint, manifest, warnings );
+            }
+        };
+        plugin = new ManifestPlugin()
+        {
+            protected synchronized AnalysisCache getAnalysisCache()
+            {
+                return cache;
+            }
+        };
+        plugin.setMaven2OsgiConverter( new DefaultMaven2OsgiConverter() );
+        plugin.setBuildDirectory( buildDirectory.getPath() );
+        File outputDirectory = new File( buildDirectory, "classes" );
+        outputDirectory.mkdirs();
+        plugin.setOutputDirectory( outputDirectory );
+    }
+
+
+    public void testUnchangedInputsReuseManifest() throws Exception
+    {
+        Map<String, String> instructions = new LinkedHashMap<String, String>();
+        instructions.put( Analyzer.BUNDLE_VERSION, "1.0.0.qualifier" );
+
+        Manifest first = getManifest( instructions );
+        Manifest second = getManifest( instructions );
+        assertEquals( 1, analyzed );
+        assertEquals( "1.0.0.qualifier", second.getMainAttributes().getValue( Analyzer.BUNDLE_VERSION ) );
+        assertEquals( first.getMainAttributes().getValue( Analyzer.EXPORT_PACKAGE ),
+            second.getMainAttributes().getValue( Analyzer.EXPORT_PACKAGE ) );
+    }
+
+
+    public void testTimestampQualifier() throws Exception
+    {
+        Map<String, String> instructions = new LinkedHashMap<String, String>();
+        instructions.put( Analyzer.BUNDLE_VERSION, "1.0.0.${tstamp;yyyyMMddHHmmssSSS}" );
+
+        String first = getManifest( instructions ).getMainAttributes().getValue( Analyzer.BUNDLE_VERSION );
+        Thread.sleep( 10 );
+        String second = getManifest( instructions ).getMainAttributes().getValue( Analyzer.BUNDLE_VERSION );
+
+        // each build expands the macro again
+        assertTrue( first.startsWith( "1.0.0.2" ) );
+        assertFalse( first.equals( second ) );
+        assertEquals( 0, analyzed );
+    }
+
+
+    public void testChangedIncludedResource() throws Exception
+    {
+        File resource = new File( buildDirectory, "extra.txt" );
+        FileUtils.fileWrite( resource.getPath(), "first" );
+        Map<String, String> instructions = new LinkedHashMap<String, String>();
+        instructions.put( Analyzer.INCLUDE_RESOURCE, "extra.txt=" + resource.getPath() );
+
+        getManifest( instructions );
+        getManifest( instructions );
+        assertEquals( 1, analyzed );
+
+        FileUtils.fileWrite( resource.getPath(), "second" );
+        getManifest( instructions );
+        assertEquals( 2, analyzed );
+    }
+
+
+    private Manifest getManifest( Map<String, String> instructions ) throws Exception
+    {
+        return plugin.getManifest( getProject(), new LinkedHashMap<String, String>( instructions ), new Properties(),
+            new Jar[0] );
+    }
+
+
+    private MavenProject getProject()
+    {
+        Artifact artifact = new DefaultArtifact( "group", "project", VersionRange.createFromVersion( "1.0" ),
+            Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler( "jar" ) );
+
+        MavenProject project = new MavenProjectStub();
+        project.setGroupId( artifact.getGroupId() );
+        project.setArtifactId( artifact.getArtifactId() );
+        project.setVersion( artifact.getVersion() );
+        project.setArtifact( artifact );
+        project.setArtifacts( Collections.EMPTY_SET );
+        project.setDependencyArtifacts( Collections.EMPTY_SET );
+        return project;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.obrplugin;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.codehaus.plexus.PlexusTestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+
+
+/**
+ * Test for the incremental indexing of {@link ObrIndex}.
+ */
+public class ObrIndexTest extends PlexusTestCase
+{
+
+    private File baseDirectory;
+
+    private File repository;
+
+    private File cacheDirectory;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        baseDirectory = getTestFile( "target/obr-index-test" );
+        FileUtils.deleteDirectory( baseDirectory );
+        repository = new File( baseDirectory, "repo" );
+        cacheDirectory = new File( baseDirectory, ".obr-index" );
+    }
+
+
+    public void testUnchangedBundleReused() throws Exception
+    {
+        File jar = createBundle( "a.jar", "org.test.a", "1.0.0" );
+        index( "index.xml", true );
+        File cached = getCachedResource( jar );
+        assertTrue( cached.isFile() );
+
+        cached.setLastModified( 0 );
+        index( "index.xml", true );
+        assertEquals( 0, cached.lastModified() );
+        assertTrue( read( "index.xml" ).contains( "symbolicname='org.test.a'" ) );
+    }
+
+
+    public void testChangedBundleAnalyzed() throws Exception
+    {
+        File jar = createBundle( "a.jar", "org.test.a", "1.0.0" );
+        index( "index.xml", true );
+
+        createBundle( "a.jar", "org.test.a", "2.0.0" );
+        jar.setLastModified( jar.lastModified() + 10000 );
+        index( "index.xml", true );
+        assertTrue( getCachedResource( jar ).isFile() );
+
+        String xml = read( "index.xml" );
+        assertTrue( xml.contains( "version='2.0.0'" ) );
+        assertFalse( xml.contains( "version='1.0.0'" ) );
+    }
+
+
+    public void testDeletedBundleRemoved() throws Exception
+    {
+        createBundle( "a.jar", "org.test.a", "1.0.0" );
+        File jar = createBundle( "b.jar", "org.test.b", "1.0.0" );
+        index( "index.xml", true );
+        assertTrue( read( "index.xml" ).contains( "symbolicname='org.test.b'" ) );
+
+        jar.delete();
+        index( "index.xml", true );
+        String xml = read( "index.xml" );
+        assertTrue( xml.contains( "symbolicname='org.test.a'" ) );
+        assertFalse( xml.contains( "symbolicname='org.test.b'" ) );
+    }
+
+
+    public void testNonBundleIgnored() throws Exception
+    {
+        File jar = createJar( "plain.jar", new Manifest() );
+        index( "index.xml", true );
+
+        ObrIndexCache cache = new ObrIndexCache( cacheDirectory );
+        assertTrue( cache.isIgnored( cache.getChecksum( jar ) ) );
+        assertEquals( "", cache.getPreviousIndex().get( jar.getAbsolutePath() ) );
+        assertFalse( read( "index.xml" ).contains( "<resource" ) );
+    }
+
+
+    public void testSameOutputAsFullIndex() throws Exception
+    {
+        File a = createBundle( "a.jar", "org.test.a", "1.0.0" );
+        createBundle( "b.jar", "org.test.b", "1.0.0" );
+        createJar( "plain.jar", new Manifest() );
+        index( "incremental.xml", true );
+
+        // index again from the cache, into a new file as the resources read back from
+        // an existing file get absolute URIs
+        new File( baseDirectory, "incremental.xml" ).delete();
+        a.delete();
+        createBundle( "c.jar", "org.test.c", "1.0.0" );
+        index( "incremental.xml", true );
+
+        index( "full.xml", false );
+        assertEquals( read( "full.xml" ), read( "incremental.xml" ) );
+    }
+
+
+    private void index( String name, boolean incremental ) throws Exception
+    {
+        ObrIndex mojo = new ObrIndex();
+        ReflectionUtils.setVariableValueInObject( mojo, "mavenRepository", repository.getPath() );
+        ReflectionUtils.setVariableValueInObject( mojo, "obrRepository", new File( baseDirectory, name ).getPath() );
+        ReflectionUtils.setVariableValueInObject( mojo, "incrementalIndex", Boolean.valueOf( incremental ) );
+        mojo.execute();
+    }
+
+
+    private File getCachedResource( File jar ) throws IOException
+    {
+        return new File( cacheDirectory, new ObrIndexCache( cacheDirectory ).getChecksum( jar ) + ".xml" );
+    }
+
+
+    /**
+     * Returns the written repository without its modification time.
+     */
+    private String read( String name ) throws IOException
+    {
+        return FileUtils.fileRead( new File( baseDirectory, name ) ).replaceAll( "lastmodified='[^']*'", "" );
+    }
+
+
+    private File createBundle( String name, String symbolicName, String version ) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue( "Bundle-ManifestVersion", "2" );
+        manifest.getMainAttributes().putValue( "Bundle-SymbolicName", symbolicName );
+        manifest.getMainAttributes().putValue( "Bundle-Version", version );
+        return createJar( name, manifest );
+    }
+
+
+    private File createJar( String name, Manifest manifest ) throws IOException
+    {
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        repository.mkdirs();
+        File file = new File( repository, name );
+        JarOutputStream out = new JarOutputStream( new FileOutputStream( file ), manifest );
+        out.close();
+        return file;
+    }
+
+}
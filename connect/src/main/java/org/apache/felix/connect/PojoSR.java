@@ -34,6 +34,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -297,19 +301,82 @@ public class PojoSR implements PojoServiceRegistry
         }
 
 
+        int threads = getStartThreads();
+        if (threads > 1)
+        {
+            startBundles(new ArrayList<Bundle>(m_bundles.values()), threads);
+            return;
+        }
+
         for (Bundle bundle : m_bundles.values())
         {
-            try
+            startBundle(bundle);
+        }
+
+    }
+
+    private void startBundles(List<Bundle> bundles, int threads) throws InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, bundles.size()), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
             {
-                bundle.start();
+                Thread thread = new Thread(r, "Felix Connect bundle starter");
+                thread.setDaemon(true);
+                return thread;
             }
-            catch (Throwable e)
+        });
+        try
+        {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(bundles.size());
+            for (final Bundle bundle : bundles)
             {
-                System.out.println("Unable to start bundle: " + bundle);
-                e.printStackTrace();
+                tasks.add(Executors.callable(new Runnable()
+                {
+                    public void run()
+                    {
+                        startBundle(bundle);
+                    }
+                }));
             }
+            // waits until all bundles are started (or failed to start)
+            executor.invokeAll(tasks);
+        }
+        finally
+        {
+            executor.shutdown();
         }
+    }
 
+    private void startBundle(Bundle bundle)
+    {
+        try
+        {
+            bundle.start();
+        }
+        catch (Throwable e)
+        {
+            System.out.println("Unable to start bundle: " + bundle);
+            e.printStackTrace();
+        }
+    }
+
+    private int getStartThreads()
+    {
+        Object threads = bundleConfig.get(PojoServiceRegistryFactory.START_THREADS);
+        if (threads == null)
+        {
+            return 1;
+        }
+        try
+        {
+            return (threads instanceof Number) ? ((Number) threads).intValue() : Integer.parseInt(threads.toString().trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            // start the bundles sequentially
+            return 1;
+        }
     }
 
     private Revision buildRevision(BundleDescriptor desc) throws IOException
@@ -54,18 +54,20 @@ public class PojoServiceRegistryFactoryImpl implements PojoServiceRegistryFactor
 
     public Framework newFramework(Map<String, String> configuration)
     {
-        return new FrameworkImpl(configuration.get("pojosr.filter"));
+        return new FrameworkImpl(configuration);
     }
 
     private static final class FrameworkImpl implements Framework
     {
         private final String m_filter;
+        private final Map<String, String> m_configuration;
         private volatile Bundle m_bundle = null;
         private volatile PojoServiceRegistry m_reg = null;
 
-        public FrameworkImpl(String filter)
+        public FrameworkImpl(Map<String, String> configuration)
         {
-            m_filter = filter;
+            m_filter = configuration.get("pojosr.filter");
+            m_configuration = configuration;
         }
 
         public void init() throws BundleException
@@ -73,7 +75,7 @@ public class PojoServiceRegistryFactoryImpl implements PojoServiceRegistryFactor
             try
             {
                 m_reg = new PojoServiceRegistryFactoryImpl()
-                        .newPojoServiceRegistry(new HashMap<String, Object>());
+                        .newPojoServiceRegistry(new HashMap<String, Object>(m_configuration));
                 m_bundle = m_reg.getBundleContext().getBundle();
             }
             catch (Exception ex)
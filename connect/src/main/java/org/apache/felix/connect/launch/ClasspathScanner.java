@@ -18,21 +18,81 @@
  */
 package org.apache.felix.connect.launch;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 
 import org.apache.felix.connect.felix.framework.util.MapToDictionary;
 
+/**
+ * Scans the classpath for bundles, i.e., for <code>META-INF/MANIFEST.MF</code>
+ * resources.
+ * <p>
+ * The main attributes of the manifests can be kept in an index file, which is
+ * created on the first scan and can also be shipped with an application. On
+ * subsequent scans, only manifests of jars and directories that changed since
+ * are parsed again. Manifests that need to be parsed are parsed in parallel.
+ */
 public class ClasspathScanner
 {
+    /**
+     * System property pointing to the index file to use by default; no index
+     * is used if not set.
+     */
+    public static final String INDEX_PROPERTY = "org.apache.felix.connect.scanner.index";
+
+    /**
+     * System property with the number of threads to parse manifests with by
+     * default; defaults to the number of available processors.
+     */
+    public static final String THREADS_PROPERTY = "org.apache.felix.connect.scanner.threads";
+
+    private static final int INDEX_MAGIC = 0x46434958;
+    private static final int INDEX_VERSION = 1;
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private final File m_index;
+    private final int m_threads;
+
+    public ClasspathScanner()
+    {
+        this(getIndexFromProperty(), Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param index the index file to use, or <code>null</code> to not use an index;
+     * @param threads the maximum number of threads to parse manifests with.
+     */
+    public ClasspathScanner(File index, int threads)
+    {
+        m_index = index;
+        m_threads = Math.max(1, threads);
+    }
+
     public List<BundleDescriptor> scanForBundles() throws Exception
     {
         return scanForBundles(null, null);
@@ -57,12 +117,342 @@ public class ClasspathScanner
 
         loader = (loader != null) ? loader : getClass().getClassLoader();
 
+        List<URL> manifestURLs = Collections.list(loader.getResources(MANIFEST));
+        List<Map<String, String>> manifests = readManifests(manifestURLs);
+
         List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>();
-        byte[] bytes = new byte[1024 * 1024 * 2];
-        for (Enumeration<URL> e = loader.getResources(
-                "META-INF/MANIFEST.MF"); e.hasMoreElements(); )
+        for (int i = 0; i < manifestURLs.size(); i++)
+        {
+            Map<String, String> headers = manifests.get(i);
+            if ((filter == null)
+                    || filter.match(new MapToDictionary<String, String>(headers)))
+            {
+                bundles.add(new BundleDescriptor(loader, getParentURL(manifestURLs.get(i)).toExternalForm(), headers));
+            }
+        }
+        return bundles;
+    }
+
+    /**
+     * Reads the main attributes of the given manifests, from the index if
+     * possible, keeping their order.
+     */
+    private List<Map<String, String>> readManifests(List<URL> manifestURLs) throws Exception
+    {
+        Map<String, IndexEntry> index = (m_index != null) ? readIndex(m_index) : new HashMap<String, IndexEntry>();
+
+        List<Map<String, String>> result = new ArrayList<Map<String, String>>(manifestURLs.size());
+        List<URL> missing = new ArrayList<URL>();
+        List<Integer> missingIdx = new ArrayList<Integer>();
+        Map<String, IndexEntry> newIndex = new HashMap<String, IndexEntry>();
+        String[] stamps = new String[manifestURLs.size()];
+        for (int i = 0; i < manifestURLs.size(); i++)
+        {
+            String url = manifestURLs.get(i).toExternalForm();
+            stamps[i] = (m_index != null) ? getStamp(manifestURLs.get(i)) : null;
+            IndexEntry entry = index.get(url);
+            if ((stamps[i] != null) && (entry != null) && stamps[i].equals(entry.m_stamp))
+            {
+                result.add(entry.m_headers);
+                newIndex.put(url, entry);
+            }
+            else
+            {
+                result.add(null);
+                missing.add(manifestURLs.get(i));
+                missingIdx.add(i);
+            }
+        }
+
+        List<Map<String, String>> parsed = parseManifests(missing);
+        for (int i = 0; i < parsed.size(); i++)
+        {
+            int idx = missingIdx.get(i);
+            result.set(idx, parsed.get(i));
+            if (stamps[idx] != null)
+            {
+                newIndex.put(manifestURLs.get(idx).toExternalForm(), new IndexEntry(stamps[idx], parsed.get(i)));
+            }
+        }
+
+        // Rewrite the index if entries were added, changed or dropped
+        if ((m_index != null) && !newIndex.equals(index))
+        {
+            try
+            {
+                writeIndex(m_index, newIndex);
+            }
+            catch (IOException ex)
+            {
+                // the index is merely an optimization...
+                m_index.delete();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses the given manifests, using several threads if there are enough
+     * of them, keeping their order.
+     */
+    private List<Map<String, String>> parseManifests(final List<URL> manifestURLs) throws Exception
+    {
+        int threads = Math.min(m_threads, manifestURLs.size() / 4);
+        if (threads <= 1)
+        {
+            return new ManifestReader().read(manifestURLs, 0, manifestURLs.size());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "Felix Connect classpath scanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try
+        {
+            // Each thread parses a consecutive part of the manifests, using its own buffer
+            List<Future<List<Map<String, String>>>> futures = new ArrayList<Future<List<Map<String, String>>>>();
+            int chunk = (manifestURLs.size() + threads - 1) / threads;
+            for (int start = 0; start < manifestURLs.size(); start += chunk)
+            {
+                final int from = start;
+                final int to = Math.min(start + chunk, manifestURLs.size());
+                futures.add(executor.submit(new Callable<List<Map<String, String>>>()
+                {
+                    public List<Map<String, String>> call() throws Exception
+                    {
+                        return new ManifestReader().read(manifestURLs, from, to);
+                    }
+                }));
+            }
+            List<Map<String, String>> result = new ArrayList<Map<String, String>>(manifestURLs.size());
+            for (Future<List<Map<String, String>>> future : futures)
+            {
+                try
+                {
+                    result.addAll(future.get());
+                }
+                catch (ExecutionException ex)
+                {
+                    if (ex.getCause() instanceof Exception)
+                    {
+                        throw (Exception) ex.getCause();
+                    }
+                    throw ex;
+                }
+            }
+            return result;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private URL getParentURL(URL url) throws Exception
+    {
+        String externalForm = url.toExternalForm();
+        return new URL(externalForm.substring(0, externalForm.length()
+                - MANIFEST.length()));
+    }
+
+    /**
+     * Returns a stamp identifying the current version of the given manifest,
+     * or <code>null</code> if it cannot be determined cheaply.
+     */
+    private static String getStamp(URL manifestURL)
+    {
+        try
+        {
+            File file = null;
+            if ("file".equals(manifestURL.getProtocol()))
+            {
+                file = new File(URLDecoder.decode(manifestURL.getFile(), "UTF-8"));
+            }
+            else if ("jar".equals(manifestURL.getProtocol()))
+            {
+                URL jarURL = ((JarURLConnection) manifestURL.openConnection()).getJarFileURL();
+                if ("file".equals(jarURL.getProtocol()))
+                {
+                    file = new File(URLDecoder.decode(jarURL.getFile(), "UTF-8"));
+                }
+            }
+            if ((file != null) && file.isFile())
+            {
+                return file.lastModified() + ":" + file.length();
+            }
+        }
+        catch (Exception ex)
         {
-            URL manifestURL = e.nextElement();
+            // cannot be determined...
+        }
+        return null;
+    }
+
+    private static File getIndexFromProperty()
+    {
+        String index = System.getProperty(INDEX_PROPERTY);
+        return ((index != null) && (index.trim().length() > 0)) ? new File(index.trim()) : null;
+    }
+
+    private static Map<String, IndexEntry> readIndex(File file)
+    {
+        Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+        if (!file.isFile())
+        {
+            return index;
+        }
+        DataInputStream input = null;
+        try
+        {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if ((input.readInt() != INDEX_MAGIC) || (input.readInt() != INDEX_VERSION))
+            {
+                return index;
+            }
+            int entries = input.readInt();
+            for (int i = 0; i < entries; i++)
+            {
+                String url = readString(input);
+                String stamp = readString(input);
+                int size = input.readInt();
+                Map<String, String> headers = new HashMap<String, String>();
+                for (int j = 0; j < size; j++)
+                {
+                    String key = readString(input);
+                    headers.put(key, readString(input));
+                }
+                index.put(url, new IndexEntry(stamp, headers));
+            }
+        }
+        catch (IOException ex)
+        {
+            // a damaged index is ignored and rewritten...
+            index.clear();
+        }
+        finally
+        {
+            close(input);
+        }
+        return index;
+    }
+
+    private static void writeIndex(File file, Map<String, IndexEntry> index) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if ((parent != null) && !parent.isDirectory())
+        {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try
+        {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            output.writeInt(INDEX_MAGIC);
+            output.writeInt(INDEX_VERSION);
+            output.writeInt(index.size());
+            for (Map.Entry<String, IndexEntry> entry : index.entrySet())
+            {
+                writeString(output, entry.getKey());
+                writeString(output, entry.getValue().m_stamp);
+                output.writeInt(entry.getValue().m_headers.size());
+                for (Map.Entry<String, String> header : entry.getValue().m_headers.entrySet())
+                {
+                    writeString(output, header.getKey());
+                    writeString(output, header.getValue());
+                }
+            }
+        }
+        finally
+        {
+            close(output);
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+        {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException ex)
+            {
+                // ignore
+            }
+        }
+    }
+
+    private static final class IndexEntry
+    {
+        final String m_stamp;
+        final Map<String, String> m_headers;
+
+        IndexEntry(String stamp, Map<String, String> headers)
+        {
+            m_stamp = stamp;
+            m_headers = headers;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof IndexEntry) && m_stamp.equals(((IndexEntry) o).m_stamp);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_stamp.hashCode();
+        }
+    }
+
+    /**
+     * Parses the main attributes of manifests, reusing its buffer; not thread-safe.
+     */
+    private static final class ManifestReader
+    {
+        private byte[] m_bytes = new byte[1024 * 64];
+
+        List<Map<String, String>> read(List<URL> manifestURLs, int from, int to) throws Exception
+        {
+            List<Map<String, String>> result = new ArrayList<Map<String, String>>(to - from);
+            for (int i = from; i < to; i++)
+            {
+                result.add(read(manifestURLs.get(i)));
+            }
+            return result;
+        }
+
+        Map<String, String> read(URL manifestURL) throws Exception
+        {
+            byte[] bytes = m_bytes;
             InputStream input = null;
             try
             {
@@ -154,27 +544,16 @@ public class ClasspathScanner
                         bytes[current++] = bytes[i];
                     }
                 }
-                if ((filter == null)
-                        || filter.match(new MapToDictionary<String, String>(headers)))
-                {
-                    bundles.add(new BundleDescriptor(loader, getParentURL(manifestURL).toExternalForm(), headers));
-                }
+                return headers;
             }
             finally
             {
+                m_bytes = bytes;
                 if (input != null)
                 {
                     input.close();
                 }
             }
         }
-        return bundles;
-    }
-
-    private URL getParentURL(URL url) throws Exception
-    {
-        String externalForm = url.toExternalForm();
-        return new URL(externalForm.substring(0, externalForm.length()
-                - "META-INF/MANIFEST.MF".length()));
     }
 }
@@ -25,5 +25,12 @@ public interface PojoServiceRegistryFactory
     public static final String BUNDLE_DESCRIPTORS =
             PojoServiceRegistry.class.getName().toLowerCase() + ".bundles";
 
+    /**
+     * The number of threads to start bundles with (an Integer or a String);
+     * bundles are started one by one, in order, if not set or 1.
+     */
+    public static final String START_THREADS =
+            PojoServiceRegistry.class.getName().toLowerCase() + ".start.threads";
+
     public PojoServiceRegistry newPojoServiceRegistry(Map<String, Object> configuration) throws Exception;
 }
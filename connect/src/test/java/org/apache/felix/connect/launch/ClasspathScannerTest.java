@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.connect.launch;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+public class ClasspathScannerTest extends TestCase
+{
+    private File m_dir;
+    private File m_index;
+    private List<URL> m_classpath;
+    private boolean m_useCaches;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("classpath-scanner", ".dir");
+        m_dir.delete();
+        m_dir.mkdirs();
+        m_index = new File(m_dir, "index");
+        m_classpath = new ArrayList<URL>();
+
+        // jars are rewritten, so they must not be cached
+        m_useCaches = new URL("jar:file:/test.jar!/").openConnection().getDefaultUseCaches();
+        new URL("jar:file:/test.jar!/").openConnection().setDefaultUseCaches(false);
+
+        // enough manifests to be parsed on several threads
+        for (int i = 0; i < 10; i++)
+        {
+            createJar("bundle" + i + ".jar", "test.bundle" + i, "1.0.0");
+        }
+        File dir = new File(m_dir, "classes");
+        new File(dir, "META-INF").mkdirs();
+        writeManifest(new File(dir, "META-INF/MANIFEST.MF"), "test.classes", "1.0.0");
+        m_classpath.add(dir.toURI().toURL());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        new URL("jar:file:/test.jar!/").openConnection().setDefaultUseCaches(m_useCaches);
+        delete(m_dir);
+    }
+
+    public void testIndexedScanMatchesScan() throws Exception
+    {
+        Map<String, Map<String, String>> expected = scan(new ClasspathScanner(null, 1));
+        assertEquals(11, expected.size());
+
+        // the first scan writes the index, the second reads it
+        assertEquals(expected, scan(new ClasspathScanner(m_index, 4)));
+        assertTrue(m_index.isFile());
+        assertEquals(expected, scan(new ClasspathScanner(m_index, 4)));
+    }
+
+    public void testChangedJarInvalidatesEntry() throws Exception
+    {
+        scan(new ClasspathScanner(m_index, 4));
+
+        // same size and modification time, so the indexed headers are used
+        File manifest = new File(m_dir, "classes/META-INF/MANIFEST.MF");
+        long lastModified = manifest.lastModified();
+        writeManifest(manifest, "test.classes", "2.0.0");
+        manifest.setLastModified(lastModified);
+        assertEquals("1.0.0", getVersion(scan(new ClasspathScanner(m_index, 4)), "test.classes"));
+
+        File jar = new File(m_dir, "bundle3.jar");
+        lastModified = jar.lastModified();
+        createJar("bundle3.jar", "test.bundle3", "2.0.0");
+        jar.setLastModified(lastModified - 10000);
+        Map<String, Map<String, String>> bundles = scan(new ClasspathScanner(m_index, 4));
+        assertEquals("2.0.0", getVersion(bundles, "test.bundle3"));
+        assertEquals("1.0.0", getVersion(bundles, "test.bundle4"));
+        assertEquals(bundles, scan(new ClasspathScanner(m_index, 4)));
+    }
+
+    public void testCorruptIndexIgnored() throws Exception
+    {
+        Map<String, Map<String, String>> expected = scan(new ClasspathScanner(null, 1));
+        scan(new ClasspathScanner(m_index, 4));
+
+        // keep the header, drop the entries
+        byte[] bytes = new byte[(int) m_index.length() / 2];
+        DataInputStream in = new DataInputStream(new FileInputStream(m_index));
+        try
+        {
+            in.readFully(bytes);
+        }
+        finally
+        {
+            in.close();
+        }
+        OutputStream out = new FileOutputStream(m_index);
+        try
+        {
+            out.write(bytes);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        assertEquals(expected, scan(new ClasspathScanner(m_index, 4)));
+        // the index was rewritten
+        assertEquals(expected, scan(new ClasspathScanner(m_index, 4)));
+        assertTrue(m_index.length() > bytes.length);
+    }
+
+    private Map<String, Map<String, String>> scan(ClasspathScanner scanner) throws Exception
+    {
+        URLClassLoader loader = new URLClassLoader(m_classpath.toArray(new URL[m_classpath.size()]), null);
+        try
+        {
+            Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+            for (BundleDescriptor desc : scanner.scanForBundles("(Bundle-SymbolicName=test.*)", loader))
+            {
+                result.put(desc.getUrl(), desc.getHeaders());
+            }
+            return result;
+        }
+        finally
+        {
+            // the jars are rewritten
+            loader.close();
+        }
+    }
+
+    private static String getVersion(Map<String, Map<String, String>> bundles, String symbolicName)
+    {
+        for (Map<String, String> headers : bundles.values())
+        {
+            if (symbolicName.equals(headers.get("Bundle-SymbolicName")))
+            {
+                return headers.get("Bundle-Version");
+            }
+        }
+        return null;
+    }
+
+    private void createJar(String name, String symbolicName, String version) throws IOException
+    {
+        File file = new File(m_dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file), createManifest(symbolicName, version));
+        out.close();
+        URL url = file.toURI().toURL();
+        if (!m_classpath.contains(url))
+        {
+            m_classpath.add(url);
+        }
+    }
+
+    private static void writeManifest(File file, String symbolicName, String version) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            createManifest(symbolicName, version).write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static Manifest createManifest(String symbolicName, String version)
+    {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", symbolicName);
+        attributes.putValue("Bundle-Version", version);
+        return manifest;
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
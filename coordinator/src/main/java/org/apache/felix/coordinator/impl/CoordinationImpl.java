@@ -25,7 +25,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
@@ -74,7 +73,7 @@ public class CoordinationImpl implements Coordination
 
     private final Map<Class<?>, Object> variables;
 
-    private TimerTask timeoutTask;
+    private TimerWheel.Timeout timeoutTask;
 
     private Thread associatedThread;
 
@@ -146,7 +145,7 @@ public class CoordinationImpl implements Coordination
                 }
 
                 // release the participant for other coordinations
-                owner.releaseParticipant(part);
+                owner.releaseParticipant(part, this);
             }
 
             this.owner.unregister(this, false);
@@ -213,7 +212,7 @@ public class CoordinationImpl implements Coordination
                 }
 
                 // release the participant for other coordinations
-                owner.releaseParticipant(part);
+                owner.releaseParticipant(part, this);
             }
 
             state = State.TERMINATED;
@@ -303,7 +302,7 @@ public class CoordinationImpl implements Coordination
         {
             if (isTerminated())
             {
-                owner.releaseParticipant(p);
+                owner.releaseParticipant(p, this);
 
                 throw new CoordinationException("Cannot add Participant " + p + " to terminated Coordination", this,
                     (getFailure() != null) ? CoordinationException.FAILED : CoordinationException.ALREADY_ENDED, getFailure());
@@ -494,22 +493,19 @@ public class CoordinationImpl implements Coordination
     {
         if (timeoutTask != null)
         {
-            owner.schedule(timeoutTask, -1);
+            timeoutTask.cancel();
             timeoutTask = null;
         }
 
         if (deadLine > System.currentTimeMillis())
         {
-            timeoutTask = new TimerTask()
+            timeoutTask = owner.schedule(new Runnable()
             {
-                @Override
                 public void run()
                 {
                     CoordinationImpl.this.timeout();
                 }
-            };
-
-            owner.schedule(timeoutTask, deadLine);
+            }, deadLine);
         }
     }
 
@@ -20,16 +20,18 @@ package org.apache.felix.coordinator.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
@@ -43,21 +45,35 @@ import org.osgi.service.coordinator.Participant;
 public class CoordinationMgr
 {
 
+    /**
+     * Number of independently locked stripes of the participant table. Must
+     * be a power of two.
+     */
+    private static final int PARTICIPANT_STRIPES = 32;
+
+    /**
+     * Tick duration of the coordination timer in milliseconds, that is the
+     * maximum delay of a coordination timeout.
+     */
+    private static final long TIMER_TICK = 10;
+
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+
     private ThreadLocal<Stack<CoordinationImpl>> perThreadStack;
 
     private final AtomicLong ctr;
 
     private final Map<Long, CoordinationImpl> coordinations;
 
-    private final Map<Participant, CoordinationImpl> participants;
+    private final ParticipantStripe[] participants;
 
-    private final Timer coordinationTimer;
+    private final TimerWheel coordinationTimer;
 
     /**
      * Wait at most 60 seconds for participant to be eligible for participation
      * in a coordination.
      *
-     * @see #singularizeParticipant(Participant, CoordinationImpl)
+     * @see #lockParticipant(Participant, CoordinationImpl)
      */
     private long participationTimeOut = 60 * 1000L;
 
@@ -66,15 +82,18 @@ public class CoordinationMgr
         perThreadStack = new ThreadLocal<Stack<CoordinationImpl>>();
         ctr = new AtomicLong(-1);
         coordinations = new HashMap<Long, CoordinationImpl>();
-        participants = new IdentityHashMap<Participant, CoordinationImpl>();
-        coordinationTimer = new Timer("Coordination Timer", true);
+        participants = new ParticipantStripe[PARTICIPANT_STRIPES];
+        for (int i = 0; i < participants.length; i++)
+        {
+            participants[i] = new ParticipantStripe();
+        }
+        coordinationTimer = new TimerWheel("Coordination Timer", TIMER_TICK, TIMER_TICKS_PER_WHEEL);
     }
 
     void cleanUp()
     {
         // terminate coordination timeout timer
-        coordinationTimer.purge();
-        coordinationTimer.cancel();
+        coordinationTimer.stop();
 
         // terminate all active coordinations
         final List<CoordinationImpl> coords = new ArrayList<CoordinationImpl>();
@@ -90,10 +109,25 @@ public class CoordinationMgr
             }
         }
 
-        // release all participants
-        synchronized ( this.participants )
+        // release all participants, waking up coordinations waiting for them
+        for (final ParticipantStripe stripe : this.participants)
         {
-            participants.clear();
+            stripe.lock.lock();
+            try
+            {
+                for (final Ownership ownership : stripe.owners.values())
+                {
+                    for (final Waiter waiter : ownership.waiters)
+                    {
+                        waiter.handedOver.signal();
+                    }
+                }
+                stripe.owners.clear();
+            }
+            finally
+            {
+                stripe.lock.unlock();
+            }
         }
 
         // cannot really clear out the thread local but we can let it go
@@ -120,74 +154,132 @@ public class CoordinationMgr
         this.participationTimeOut = participationTimeout;
     }
 
-    void schedule(final TimerTask task, final long deadLine)
+    TimerWheel.Timeout schedule(final Runnable task, final long deadLine)
     {
-        if (deadLine < 0)
-        {
-            task.cancel();
-        }
-        else
-        {
-            coordinationTimer.schedule(task, new Date(deadLine));
-        }
+        return coordinationTimer.schedule(task, deadLine);
     }
 
     void lockParticipant(final Participant p, final CoordinationImpl c)
     {
-        synchronized (participants)
+        final ParticipantStripe stripe = getStripe(p);
+        stripe.lock.lock();
+        try
         {
-            // wait for participant to be released
-            long completeWaitTime = participationTimeOut;
-            long cutOff = System.currentTimeMillis() + completeWaitTime;
+            final Ownership ownership = stripe.owners.get(p);
+            if (ownership == null)
+            {
+                stripe.owners.put(p, new Ownership(c));
+                return;
+            }
+            if (ownership.owner == c)
+            {
+                return;
+            }
 
-            CoordinationImpl current = participants.get(p);
-            while (current != null && current != c)
+            // wait for participant to be handed over by the current owner
+            final Waiter waiter = new Waiter(c, stripe.lock.newCondition());
+            ownership.waiters.add(waiter);
+            boolean acquired = false;
+            try
             {
-                final long waitTime = (completeWaitTime > 500) ? 500 : completeWaitTime;
-                completeWaitTime = completeWaitTime - waitTime;
-                if (current.getThread() != null && current.getThread() == c.getThread())
-                {
-                    throw new CoordinationException("Participant " + p + " already participating in Coordination "
-                        + current.getId() + "/" + current.getName() + " in this thread", c,
-                        CoordinationException.DEADLOCK_DETECTED);
-                }
+                long remaining = TimeUnit.MILLISECONDS.toNanos(participationTimeOut);
 
-                try
-                {
-                    participants.wait(waitTime);
-                }
-                catch (InterruptedException ie)
+                // the ownership is dropped from the table while waiting only on cleanUp
+                while (ownership.owner != c && stripe.owners.get(p) == ownership)
                 {
-                    throw new CoordinationException("Interrupted waiting to add Participant " + p
-                        + " currently participating in Coordination " + current.getId() + "/" + current.getName()
-                        + " in this thread", c, CoordinationException.LOCK_INTERRUPTED);
+                    final CoordinationImpl current = ownership.owner;
+                    if (current.getThread() != null && current.getThread() == c.getThread())
+                    {
+                        throw new CoordinationException("Participant " + p + " already participating in Coordination "
+                            + current.getId() + "/" + current.getName() + " in this thread", c,
+                            CoordinationException.DEADLOCK_DETECTED);
+                    }
+
+                    // timeout waiting for participation
+                    if (remaining <= 0)
+                    {
+                        throw new CoordinationException("Timed out waiting to join coordinaton", c,
+                            CoordinationException.FAILED, Coordination.TIMEOUT);
+                    }
+
+                    try
+                    {
+                        remaining = waiter.handedOver.awaitNanos(remaining);
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        throw new CoordinationException("Interrupted waiting to add Participant " + p
+                            + " currently participating in Coordination " + current.getId() + "/" + current.getName()
+                            + " in this thread", c, CoordinationException.LOCK_INTERRUPTED);
+                    }
                 }
-
-                // timeout waiting for participation
-                if (System.currentTimeMillis() >= cutOff)
+                acquired = true;
+            }
+            finally
+            {
+                if (!acquired)
                 {
-                    throw new CoordinationException("Timed out waiting to join coordinaton", c,
-                        CoordinationException.FAILED, Coordination.TIMEOUT);
+                    if (ownership.owner == c)
+                    {
+                        // handed over while giving up, pass it on
+                        handOver(stripe, p, ownership);
+                    }
+                    else
+                    {
+                        ownership.waiters.remove(waiter);
+                    }
                 }
-
-                // check again
-                current = participants.get(p);
             }
+        }
+        finally
+        {
+            stripe.lock.unlock();
+        }
+    }
 
-            // lock participant into coordination
-            participants.put(p, c);
+    void releaseParticipant(final Participant p, final CoordinationImpl c)
+    {
+        final ParticipantStripe stripe = getStripe(p);
+        stripe.lock.lock();
+        try
+        {
+            final Ownership ownership = stripe.owners.get(p);
+            if (ownership != null && ownership.owner == c)
+            {
+                handOver(stripe, p, ownership);
+            }
+        }
+        finally
+        {
+            stripe.lock.unlock();
         }
     }
 
-    void releaseParticipant(final Participant p)
+    /**
+     * Hands the participant over to the longest waiting coordination or
+     * removes it from the table if no coordination is waiting for it. Must
+     * be called with the lock of the stripe held.
+     */
+    private void handOver(final ParticipantStripe stripe, final Participant p, final Ownership ownership)
     {
-        synchronized (participants)
+        final Waiter next = ownership.waiters.poll();
+        if (next == null)
+        {
+            stripe.owners.remove(p);
+        }
+        else
         {
-            participants.remove(p);
-            participants.notifyAll();
+            ownership.owner = next.coordination;
+            next.handedOver.signal();
         }
     }
 
+    private ParticipantStripe getStripe(final Participant p)
+    {
+        final int h = System.identityHashCode(p);
+        return participants[(h ^ (h >>> 16)) & (participants.length - 1)];
+    }
+
     // ---------- Coordinator back end implementation
 
     CoordinationImpl create(final CoordinatorImpl owner, final String name, final long timeout)
@@ -356,4 +448,43 @@ public class CoordinationMgr
             }
         }
     }
+
+    /**
+     * A part of the participant table guarded by its own lock.
+     */
+    private static final class ParticipantStripe
+    {
+        final Lock lock = new ReentrantLock();
+
+        final Map<Participant, Ownership> owners = new IdentityHashMap<Participant, Ownership>();
+    }
+
+    /**
+     * The coordination currently owning a participant and the coordinations
+     * waiting for it in arrival order.
+     */
+    private static final class Ownership
+    {
+        CoordinationImpl owner;
+
+        final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+
+        Ownership(final CoordinationImpl owner)
+        {
+            this.owner = owner;
+        }
+    }
+
+    private static final class Waiter
+    {
+        final CoordinationImpl coordination;
+
+        final Condition handedOver;
+
+        Waiter(final CoordinationImpl coordination, final Condition handedOver)
+        {
+            this.coordination = coordination;
+            this.handedOver = handedOver;
+        }
+    }
 }
@@ -21,7 +21,6 @@ package org.apache.felix.coordinator.impl;
 import java.security.Permission;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.TimerTask;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
@@ -281,9 +280,9 @@ public class CoordinatorImpl implements Coordinator
         mgr.unregister(c, removeFromStack);
     }
 
-    void schedule(final TimerTask task, final long deadLine)
+    TimerWheel.Timeout schedule(final Runnable task, final long deadLine)
     {
-        mgr.schedule(task, deadLine);
+        return mgr.schedule(task, deadLine);
     }
 
     void lockParticipant(final Participant p, final CoordinationImpl c)
@@ -291,9 +290,9 @@ public class CoordinatorImpl implements Coordinator
         mgr.lockParticipant(p, c);
     }
 
-    void releaseParticipant(final Participant p)
+    void releaseParticipant(final Participant p, final CoordinationImpl c)
     {
-        mgr.releaseParticipant(p);
+        mgr.releaseParticipant(p, c);
     }
 
     Bundle getBundle()
@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The <code>TimerWheel</code> is a hashed timer wheel used to time out
+ * coordinations.
+ * <p>
+ * Each bucket of the wheel is a doubly linked list of timeouts, such that
+ * scheduling and cancelling a timeout only hold the lock of the wheel to link
+ * or unlink it. A cancelled timeout is removed at once, it does not stay in
+ * the wheel until its deadline. Timeouts fire at most one tick after their
+ * deadline. While no timeouts are pending the timer thread waits instead of
+ * ticking.
+ */
+class TimerWheel
+{
+
+    private final long tickDuration;
+
+    /** The first timeout of each bucket, guarded by this */
+    private final Timeout[] wheel;
+
+    private final int mask;
+
+    /** The point in time of tick zero */
+    private final long start;
+
+    /** The tick the timer thread is waiting for the end of, guarded by this */
+    private long tick;
+
+    /** Number of timeouts in the wheel, guarded by this */
+    private int count;
+
+    private final Thread thread;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param name The name of the timer thread
+     * @param tickDuration The duration of a tick in milliseconds
+     * @param ticksPerWheel The number of buckets, rounded up to a power of two
+     */
+    TimerWheel(final String name, final long tickDuration, final int ticksPerWheel)
+    {
+        int size = 1;
+        while (size < ticksPerWheel)
+        {
+            size <<= 1;
+        }
+
+        this.tickDuration = tickDuration;
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+        this.start = System.currentTimeMillis();
+
+        this.thread = new Thread(name)
+        {
+            @Override
+            public void run()
+            {
+                TimerWheel.this.run();
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedules the task to run at the given point in time.
+     *
+     * @return The <code>Timeout</code> to cancel the task
+     */
+    Timeout schedule(final Runnable task, final long deadLine)
+    {
+        final Timeout timeout = new Timeout(task);
+        synchronized (this)
+        {
+            if (stopped)
+            {
+                return timeout;
+            }
+
+            if (count == 0)
+            {
+                // the timer thread is idle, catch up with the clock
+                tick = Math.max(tick, (System.currentTimeMillis() - start) / tickDuration);
+                notifyAll();
+            }
+
+            // timeouts already due expire with the current tick
+            final long deadLineTick = Math.max((deadLine - start) / tickDuration, tick);
+            timeout.rounds = (deadLineTick - tick) / wheel.length;
+            link(timeout, (int) (deadLineTick & mask));
+        }
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Pending timeouts will not fire any more.
+     */
+    void stop()
+    {
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+        }
+        thread.interrupt();
+    }
+
+    private void run()
+    {
+        while (!stopped)
+        {
+            // idle until a timeout is scheduled
+            long tickEnd;
+            synchronized (this)
+            {
+                while (count == 0 && !stopped)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        // check stopped
+                    }
+                }
+                tickEnd = start + (tick + 1) * tickDuration;
+            }
+
+            // sleep until the current tick has elapsed
+            long now = System.currentTimeMillis();
+            while (now < tickEnd && !stopped)
+            {
+                try
+                {
+                    Thread.sleep(tickEnd - now);
+                }
+                catch (InterruptedException ie)
+                {
+                    // check stopped
+                }
+                now = System.currentTimeMillis();
+            }
+            if (stopped)
+            {
+                break;
+            }
+
+            final List<Timeout> expired = expire(now);
+            for (final Timeout timeout : expired)
+            {
+                try
+                {
+                    timeout.task.run();
+                }
+                catch (final Throwable t)
+                {
+                    LogWrapper.getLogger().log(LogWrapper.LOG_ERROR, "Timeout task threw exception", t);
+                }
+            }
+        }
+
+        synchronized (this)
+        {
+            for (int i = 0; i < wheel.length; i++)
+            {
+                while (wheel[i] != null)
+                {
+                    unlink(wheel[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the timeouts due with the current tick from the wheel and
+     * advances to the next tick.
+     *
+     * @return The timeouts to fire
+     */
+    private synchronized List<Timeout> expire(final long now)
+    {
+        final List<Timeout> expired = new ArrayList<Timeout>();
+
+        // the tick has been moved on while all timeouts were cancelled
+        if (start + (tick + 1) * tickDuration > now)
+        {
+            return expired;
+        }
+
+        Timeout timeout = wheel[(int) (tick & mask)];
+        while (timeout != null)
+        {
+            final Timeout next = timeout.next;
+            if (timeout.rounds > 0)
+            {
+                timeout.rounds--;
+            }
+            else
+            {
+                unlink(timeout);
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+        tick++;
+        return expired;
+    }
+
+    private void link(final Timeout timeout, final int bucket)
+    {
+        timeout.bucket = bucket;
+        timeout.next = wheel[bucket];
+        if (timeout.next != null)
+        {
+            timeout.next.previous = timeout;
+        }
+        wheel[bucket] = timeout;
+        count++;
+    }
+
+    private void unlink(final Timeout timeout)
+    {
+        if (timeout.previous == null)
+        {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        else
+        {
+            timeout.previous.next = timeout.next;
+        }
+        if (timeout.next != null)
+        {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        count--;
+    }
+
+    /**
+     * A task scheduled with the {@link TimerWheel}.
+     */
+    final class Timeout
+    {
+
+        private final Runnable task;
+
+        // the following fields are guarded by the wheel
+
+        /** The bucket of this timeout, -1 if not in the wheel */
+        private int bucket = -1;
+
+        private Timeout previous;
+
+        private Timeout next;
+
+        /** Remaining rotations of the wheel */
+        private long rounds;
+
+        private Timeout(final Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Cancels this timeout. Has no effect if the task already ran or is
+         * about to run.
+         */
+        void cancel()
+        {
+            synchronized (TimerWheel.this)
+            {
+                if (bucket >= 0)
+                {
+                    unlink(this);
+                }
+            }
+        }
+    }
+}
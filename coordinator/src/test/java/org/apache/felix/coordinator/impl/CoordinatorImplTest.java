@@ -369,6 +369,79 @@ public class CoordinatorImplTest extends TestCase
         }
     }
 
+    public void test_Coordination_addParticipant_handover() throws InterruptedException
+    {
+        final MockParticipant p1 = new MockParticipant();
+
+        // handover must not depend on the participation timeout
+        mgr.configure(5000);
+
+        final Coordination c1 = coordinator.create("test1", 0);
+        c1.addParticipant(p1);
+
+        final Thread[] threads = new Thread[4];
+        final Coordination[] coordinations = new Coordination[threads.length];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int index = i;
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    final Coordination c = coordinator.create("test" + index, 0);
+                    try
+                    {
+                        c.addParticipant(p1);
+                        coordinations[index] = c;
+                    }
+                    catch (Throwable t)
+                    {
+                        p1.addParticipantFailure(t);
+                    }
+                    finally
+                    {
+                        c.end();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // let the threads wait for the participant
+        Thread.sleep(100);
+        c1.end();
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i].join(2000);
+            assertFalse("Thread for Coordination did not terminate....", threads[i].isAlive());
+            assertNotNull(coordinations[i]);
+        }
+        assertNull(p1.addParticipantFailure);
+
+        // participant has been released by all coordinations
+        final Coordination c2 = coordinator.create("test2", 0);
+        c2.addParticipant(p1);
+        c2.end();
+        assertTrue(p1.ended);
+        assertEquals(c2, p1.c);
+    }
+
+    public void test_Coordination_extendTimeout() throws InterruptedException
+    {
+        final Coordination c1 = coordinator.create("test", 100);
+        assertTrue(c1.extendTimeout(200) > 0);
+
+        // the original timeout has been cancelled
+        Thread.sleep(150);
+        assertFalse(c1.isTerminated());
+
+        Thread.sleep(250);
+        assertTrue(c1.isTerminated());
+        assertSame(Coordination.TIMEOUT, c1.getFailure());
+    }
+
     static final class MockParticipant implements Participant
     {
 
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.controller.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the measurements done by the scenario controller, and writes them in a JSON file which can
+ * be consumed by regression tracking tools. Each entry describes one metric for one tested bundle:
+ * 
+ * <pre>
+ * {"bundle": "...", "runtime": "scr", "mode": "serial", "processing": false, "metric": "activation", 
+ *  "unit": "ns", "samples": 50, "min": 1, "p25": 2, "p50": 3, "p75": 4, "max": 5}
+ * </pre>
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class BenchmarkResults {
+    /**
+     * Common prefix of all tested bundle symbolic names. 
+     */
+    private final static String PREFIX = "org.apache.felix.dependencymanager.benchmark.";
+    
+    /**
+     * Suffix of bundles which are using a parallel runtime.
+     */
+    private final static String PARALLEL = ".parallel";
+
+    /**
+     * Number of components created by each tested bundle.
+     */
+    private final int m_components;
+    
+    /**
+     * Our JSON entries.
+     */
+    private final List<String> m_entries = new ArrayList<>();
+
+    public BenchmarkResults(int components) {
+        m_components = components;
+    }
+
+    /**
+     * Adds some sorted time measurements (in nanos).
+     */
+    public synchronized void addTimings(String bsn, boolean processing, String metric, List<Long> sortedResults) {
+        StringBuilder entry = header(bsn, processing, metric, "ns");
+        entry.append(", \"samples\": ").append(sortedResults.size());
+        entry.append(", \"min\": ").append(percentile(sortedResults, 0f));
+        entry.append(", \"p25\": ").append(percentile(sortedResults, 24.99f));
+        entry.append(", \"p50\": ").append(percentile(sortedResults, 49.99f));
+        entry.append(", \"p75\": ").append(percentile(sortedResults, 74.99f));
+        entry.append(", \"max\": ").append(percentile(sortedResults, 99.99f));
+        m_entries.add(entry.append("}").toString());
+    }
+
+    /**
+     * Adds the heap used by each component of a tested bundle.
+     */
+    public synchronized void addMemory(String bsn, long bytesPerComponent) {
+        StringBuilder entry = header(bsn, false, "memory", "bytes/component");
+        entry.append(", \"value\": ").append(bytesPerComponent);
+        m_entries.add(entry.append("}").toString());
+    }
+
+    /**
+     * Writes all measurements in the given file.
+     */
+    public synchronized void write(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            out.println("{");
+            out.println("  \"timestamp\": " + System.currentTimeMillis() + ",");
+            out.println("  \"java.version\": \"" + System.getProperty("java.version") + "\",");
+            out.println("  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",");
+            out.println("  \"components\": " + m_components + ",");
+            out.println("  \"results\": [");
+            for (int i = 0; i < m_entries.size(); i ++) {
+                out.println("    " + m_entries.get(i) + (i < m_entries.size() - 1 ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+    
+    /**
+     * Returns the entry at the given percentage of a sorted list.
+     */
+    static long percentile(List<Long> sortedResults, float perc) {
+        return sortedResults.get((int) (perc * sortedResults.size() / 100));
+    }
+
+    private StringBuilder header(String bsn, boolean processing, String metric, String unit) {
+        String name = bsn.startsWith(PREFIX) ? bsn.substring(PREFIX.length()) : bsn;
+        boolean parallel = name.endsWith(PARALLEL);
+        String runtime = parallel ? name.substring(0, name.length() - PARALLEL.length()) : name;
+        StringBuilder entry = new StringBuilder("{");
+        entry.append("\"bundle\": \"").append(bsn).append("\"");
+        entry.append(", \"runtime\": \"").append(runtime).append("\"");
+        entry.append(", \"mode\": \"").append(parallel ? "parallel" : "serial").append("\"");
+        entry.append(", \"processing\": ").append(processing);
+        entry.append(", \"metric\": \"").append(metric).append("\"");
+        entry.append(", \"unit\": \"").append(unit).append("\"");
+        return entry;
+    }
+}
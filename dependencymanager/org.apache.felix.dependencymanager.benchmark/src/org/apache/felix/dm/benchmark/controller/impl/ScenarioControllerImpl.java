@@ -26,6 +26,7 @@ import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
 import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
 import static org.apache.felix.dm.benchmark.scenario.Helper.debug;
 
+import java.io.File;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
@@ -37,6 +38,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
@@ -48,6 +50,7 @@ import org.apache.felix.dm.benchmark.scenario.Track;
 import org.apache.felix.dm.benchmark.scenario.Unchecked;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 
 /**
  * The controller which perform microbenchmarks on some scenario bundles.
@@ -60,14 +63,36 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
      */
     final List<String> TESTS = Arrays.asList(
         "org.apache.felix.dependencymanager.benchmark.dependencymanager",
-        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel"
+        "org.apache.felix.dependencymanager.benchmark.dependencymanager.parallel",
+        "org.apache.felix.dependencymanager.benchmark.scr",
+        "org.apache.felix.dependencymanager.benchmark.ipojo"
     );
     
+    /**
+     * Number of components created by each tested bundle.
+     */
+    final static int COMPONENTS = ARTISTS + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS)));
+    
+    /**
+     * System property used to specify the file where machine-readable results are written.
+     */
+    final static String RESULTS = "dm.benchmark.results";
+    
     /**
      * Our injected bundle context, used to lookup the bundles to benchmark.
      */
     private volatile BundleContext m_bctx;
     
+    /**
+     * Our ScenarioController service registration, which is unregistered/re-registered to trigger dependency churn.
+     */
+    private volatile ServiceRegistration m_registration;
+    
+    /**
+     * The measurements collected for all tested bundles.
+     */
+    private final BenchmarkResults m_results = new BenchmarkResults(COMPONENTS);
+    
     /**
      * Latches used to detect when expected services are registered, or unregistered.
      */
@@ -96,7 +121,7 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         // wait a bit in order to let the gogo banner be displayed before we start the bench.
         Unchecked.run(() -> Thread.sleep(500)); 
         
-        out.println("Starting benchmarks (each tested bundle will add/remove " + (ARTISTS + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS)))) 
+        out.println("Starting benchmarks (each tested bundle will add/remove " + COMPONENTS 
            + " components during bundle activation).");
        
         // Stop all tested bundles.
@@ -106,7 +131,7 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         }));
         
         // Register our controller service
-        m_bctx.registerService(ScenarioController.class.getName(), this, null);
+        m_registration = m_bctx.registerService(ScenarioController.class.getName(), this, null);
         
         // Start/stop several times the tested bundles. (no processing done in components start methods).
         m_doProcessingInStartStop = false;
@@ -117,6 +142,13 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
         m_doProcessingInStartStop = true;
         out.println("\n\t[Starting benchmarks with processing done in components start methods]");
         startStopScenarioBundles(TESTS, 5);
+        
+        // Measure the heap retained by the components of each tested bundle.
+        m_doProcessingInStartStop = false;
+        out.println("\n\t[Measuring memory used by components]\n");
+        measureMemory(TESTS);
+        
+        writeResults();
     }
 
     @Override
@@ -169,30 +201,80 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
     private void startStopScenarioBundles(List<String> tests, int iterations) {
         forEachScenarioBundle(tests, bundle -> {
             out.print("\nBenchmarking bundle: " + bundle.getSymbolicName() + " ");            
-            List<Long> sortedResults = LongStream.range(0, iterations)
+            List<Measure> measures = LongStream.range(0, iterations)
                 .peek(i -> out.print("."))
-                .map(n -> durationOf(() -> startAndStop(bundle)))
-                .sorted().boxed().collect(toList());
+                .mapToObj(n -> startAndStop(bundle))
+                .collect(toList());
             out.println();
-            displaySortedResults(sortedResults);
+            displaySortedResults(bundle, "results", sorted(measures, m -> m.m_activation + m.m_deactivation));
+            displaySortedResults(bundle, "activation", sorted(measures, m -> m.m_activation));
+            displaySortedResults(bundle, "churn", sorted(measures, m -> m.m_churn));
+            displaySortedResults(bundle, "deactivation", sorted(measures, m -> m.m_deactivation));
             Unchecked.run(() -> Thread.sleep(500));
         });        
     }
+    
+    /**
+     * Starts each tested bundle once, and displays the heap used by each of its components.
+     */
+    private void measureMemory(List<String> tests) {
+        forEachScenarioBundle(tests, Unchecked.consumer(bundle -> {
+            initLatches();
+            long before = usedMemory();
+            bundle.start();
+            await(m_startLatch, "start");
+            long after = usedMemory();
+            bundle.stop();
+            await(m_stopLatch, "stop");
+            
+            long perComponent = Math.max(0, after - before) / COMPONENTS;
+            out.println("Memory used by bundle " + bundle.getSymbolicName() + ": " + perComponent + " bytes per component");
+            m_results.addMemory(bundle.getSymbolicName(), perComponent);
+        }));
+    }
+    
+    /**
+     * Returns the used heap, after having requested some garbage collections.
+     */
+    private long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i ++) {
+            System.gc();
+            Unchecked.run(() -> Thread.sleep(100));
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+    
+    /**
+     * Writes the machine-readable results in the file specified by the "dm.benchmark.results" system property.
+     */
+    private void writeResults() {
+        File file = new File(System.getProperty(RESULTS, "benchmark-results.json"));
+        Unchecked.run(() -> m_results.write(file));
+        out.println("\nResults written to " + file.getAbsolutePath());
+    }
 
     /**
-     * Displays meaningful values in the sorted results (first=fastest, midle=average, last entry=slowest)
-     * @param sortedResults
+     * Extracts one kind of measurement from a list of measures, and sort the result.
      */
-    private void displaySortedResults(List<Long> sortedResults) {
+    private List<Long> sorted(List<Measure> measures, ToLongFunction<Measure> metric) {
+        return measures.stream().mapToLong(metric).sorted().boxed().collect(toList());
+    }
+
+    /**
+     * Displays meaningful values in the sorted results (first=fastest, midle=average, last entry=slowest), 
+     * and records them in our machine-readable results.
+     */
+    private void displaySortedResults(Bundle bundle, String metric, List<Long> sortedResults) {
         // We don't display an average of the duration times; Instead, we sort the results,
         // and we display the significant results (the first entry is the fastest, the middle entry is the
         // average, the last entry is the slowest ...)
-        out.printf("-> results in nanos: [%s]%n",  
+        out.printf("-> %s in nanos: [%s]%n", metric,
             Stream.of(0f, 24.99f, 49.99f, 74.99f, 99.99f)
-                .mapToInt(perc -> (int) (perc * sortedResults.size() / 100))
-                .mapToObj(sortedResults::get)
+                .map(perc -> BenchmarkResults.percentile(sortedResults, perc))
                 .map(this::formatNano)
                 .collect(joining(" | ")));
+        m_results.addTimings(bundle.getSymbolicName(), m_doProcessingInStartStop, metric.equals("results") ? "total" : metric, sortedResults);
     }
     
     /**
@@ -242,58 +324,72 @@ public class ScenarioControllerImpl implements Runnable, ScenarioController {
      * 
      * 1) start a bundle, and register the ScenarioController service (this will trigger all components activation)
      * 2) wait for all expected components to be fully started
-     * 3) stop the bundle and wait for all expected components to be fully stopped
+     * 3) unregister the ScenarioController service, which all components depend on, and wait for all components to be 
+     *    stopped; then register it again, and wait for all components to be restarted (dependency churn)
+     * 4) stop the bundle and wait for all expected components to be fully stopped
      * 
      * @param b the benchmarked scenario bundle
+     * @return the elapsed times of each step
      */
-    void startAndStop(Bundle b) {
+    Measure startAndStop(Bundle b) {
+        Measure measure = new Measure();
         try {
             initLatches();
 
             debug(() -> "starting bundle " + b.getSymbolicName());
+            long t0 = System.nanoTime();
             b.start();
-                                    
-            if (! m_startLatch.await(60, TimeUnit.SECONDS)) {
-                out.println("Could not start components timely: current start latch=" + m_startLatch.getCount() + ", stop latch=" + m_stopLatch.getCount());
-                Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
-            }
+            await(m_startLatch, "start");
+            long t1 = System.nanoTime();
+            measure.m_activation = t1 - t0;
+            
+            initLatches();
+            debug(() -> "unregistering scenario controller");
+            m_registration.unregister();
+            await(m_stopLatch, "stop");
+            debug(() -> "registering scenario controller");
+            m_registration = m_bctx.registerService(ScenarioController.class.getName(), this, null);
+            await(m_startLatch, "restart");
+            long t2 = System.nanoTime();
+            measure.m_churn = t2 - t1;
                         
+            initLatches();
             debug(() -> "stopping bundle " + b.getSymbolicName());
             b.stop();
             
             // Wait for all component deactivations
-            if (! m_stopLatch.await(60, TimeUnit.SECONDS)) {
-                out.println("Could not stop components timely: current start latch=" + m_startLatch.getCount() + ", stop latch=" + m_stopLatch.getCount());
-                Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
-            }            
+            await(m_stopLatch, "stop");
+            measure.m_deactivation = System.nanoTime() - t2;
         } catch (Throwable t) {
             t.printStackTrace();
         }
+        return measure;
+    }
+    
+    /**
+     * Waits for all components to be started or stopped.
+     */
+    private void await(CountDownLatch latch, String action) throws InterruptedException {
+        if (! latch.await(60, TimeUnit.SECONDS)) {
+            out.println("Could not " + action + " components timely: current start latch=" + m_startLatch.getCount() + ", stop latch=" + m_stopLatch.getCount());
+            Unchecked.run(() -> Thread.sleep(Integer.MAX_VALUE));
+        }
     }
     
     /**
      * Initialize the latches used to track when all scenario bundle components are started or stopped.
      */
     private void initLatches() {
-        m_startLatch = new CountDownLatch(ARTISTS
-            + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS))));
-        
-        m_stopLatch = new CountDownLatch(ARTISTS
-            + (ARTISTS * (ALBUMS + (ALBUMS * TRACKS))));
+        m_startLatch = new CountDownLatch(COMPONENTS);
+        m_stopLatch = new CountDownLatch(COMPONENTS);
     }
 
     /**
-     * Returns the time consumed by the given runnable, ²ch is executed by this method.
+     * Elapsed times (in nanos) of one start/stop iteration.
      */
-    private long durationOf(Runnable scenario) {
-        long start = System.nanoTime();
-        long end = 0;
-        try {
-            scenario.run();
-            end = System.nanoTime();
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
-        return (end - start);
+    static class Measure {
+        long m_activation;
+        long m_churn;
+        long m_deactivation;
     }
 }
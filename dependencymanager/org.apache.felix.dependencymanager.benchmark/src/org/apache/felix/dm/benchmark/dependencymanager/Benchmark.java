@@ -65,6 +65,8 @@ public class Benchmark {
     @SuppressWarnings("unused")
     private void stop() {
         m_components.forEach(m_dm::remove);
+        // we may be restarted if the scenario controller comes back (see dependency churn benchmark)
+        m_components.clear();
     }
 
     private Component createArtists(DependencyManager dm) {
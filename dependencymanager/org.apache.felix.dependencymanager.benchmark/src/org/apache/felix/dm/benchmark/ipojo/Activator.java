@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.ipojo;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Helper;
+import org.apache.felix.dm.benchmark.scenario.Track;
+import org.apache.felix.ipojo.api.Dependency;
+import org.apache.felix.ipojo.api.PrimitiveComponentType;
+import org.apache.felix.ipojo.api.Service;
+import org.apache.felix.ipojo.api.ServiceProperty;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Activator for a scenario based on iPOJO.
+ * We'll create many Artists, each one is depending on many Albums, and each Album depends on many Tracks.
+ * 
+ * The component types are declared using the iPOJO API (which manipulates the implementation classes 
+ * when the types are created), and each dependency is bound to a unique "id" service property using
+ * the "requires.filters" instance configuration.
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class Activator implements BundleActivator {
+    private PrimitiveComponentType m_artistType, m_albumType, m_trackType;
+
+    @Override
+    public void start(BundleContext context) throws Exception {
+        m_trackType = createType(context, TrackComponent.class, Track.class);
+        m_albumType = createType(context, AlbumComponent.class, Album.class);
+        m_artistType = createType(context, ArtistComponent.class, Artist.class);
+        for (int i = 0; i < TRACKS; i ++) {
+            m_albumType.addDependency(createDependency("track" + i, Track.class, "addTrack", "removeTrack"));
+        }
+        for (int i = 0; i < ALBUMS; i ++) {
+            m_artistType.addDependency(createDependency("album" + i, Album.class, "addAlbum", "removeAlbum"));
+        }
+        m_trackType.start();
+        m_albumType.start();
+        m_artistType.start();
+
+        // Like with the DM scenario, create artists first, then albums and tracks, so that 
+        // components are activated once their dependencies become available.
+        List<Dictionary<String, Object>> albums = new ArrayList<>();
+        List<Dictionary<String, Object>> tracks = new ArrayList<>();
+        for (int i = 0; i < ARTISTS; i ++) {
+            Hashtable<String, String> albumFilters = new Hashtable<>();
+            for (int j = 0; j < ALBUMS; j ++) {
+                String albumId = String.valueOf(Helper.generateId());
+                Hashtable<String, String> trackFilters = new Hashtable<>();
+                for (int k = 0; k < TRACKS; k ++) {
+                    String trackId = String.valueOf(Helper.generateId());
+                    trackFilters.put("track" + k, "(id=" + trackId + ")");
+                    tracks.add(configuration(trackId, null));
+                }
+                albumFilters.put("album" + j, "(id=" + albumId + ")");
+                albums.add(configuration(albumId, trackFilters));
+            }
+            m_artistType.createInstance(configuration(null, albumFilters));
+        }
+        for (Dictionary<String, Object> album : albums) {
+            m_albumType.createInstance(album);
+        }
+        for (Dictionary<String, Object> track : tracks) {
+            m_trackType.createInstance(track);
+        }
+    }
+
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        // Stopping a type disposes all its instances.
+        m_artistType.stop();
+        m_albumType.stop();
+        m_trackType.stop();
+    }
+
+    private PrimitiveComponentType createType(BundleContext context, Class<?> impl, Class<?> service) {
+        return new PrimitiveComponentType()
+            .setBundleContext(context)
+            .setClassName(impl.getName())
+            .setComponentTypeName(impl.getName())
+            .setImmediate(true)
+            .setValidateMethod("start")
+            .setInvalidateMethod("stop")
+            .addService(new Service()
+                .setSpecification(service.getName())
+                .addProperty(new ServiceProperty().setName("id").setType(String.class.getName())))
+            .addDependency(new Dependency()
+                .setId("controller")
+                .setSpecification(ScenarioController.class.getName())
+                .setBindMethod("bindController"));
+    }
+
+    private Dependency createDependency(String id, Class<?> service, String bind, String unbind) {
+        return new Dependency()
+            .setId(id)
+            .setSpecification(service.getName())
+            .setBindMethod(bind)
+            .setUnbindMethod(unbind);
+    }
+
+    private Dictionary<String, Object> configuration(String id, Dictionary<String, String> filters) {
+        Hashtable<String, Object> conf = new Hashtable<>();
+        if (id != null) {
+            conf.put("id", id);
+        }
+        if (filters != null) {
+            conf.put("requires.filters", filters);
+        }
+        return conf;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.benchmark.scr;
+
+import static org.apache.felix.dm.benchmark.scenario.Artist.ALBUMS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.ARTISTS;
+import static org.apache.felix.dm.benchmark.scenario.Artist.TRACKS;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import org.apache.felix.dm.benchmark.controller.ScenarioController;
+import org.apache.felix.dm.benchmark.scenario.Album;
+import org.apache.felix.dm.benchmark.scenario.Artist;
+import org.apache.felix.dm.benchmark.scenario.Track;
+
+/**
+ * Generates the static SCR descriptor used by the SCR scenario bundle.
+ * SCR components can't be created programmatically, so the whole Artist/Album/Track graph is declared in
+ * one xml file, where each dependency is a reference whose target filter matches a unique "id" service property.
+ * The descriptor must be regenerated each time the Artist.ARTISTS/ALBUMS/TRACKS constants are modified:
+ * 
+ * <pre>java -cp bin org.apache.felix.dm.benchmark.scr.DescriptorGenerator resources/scr/scenario.xml</pre>
+ * 
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class DescriptorGenerator {
+    private final PrintWriter m_out;
+    private int m_nextId;
+
+    private DescriptorGenerator(PrintWriter out) {
+        m_out = out;
+    }
+
+    public static void main(String ... args) throws IOException {
+        String path = args.length > 0 ? args[0] : "resources/scr/scenario.xml";
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8"))) {
+            new DescriptorGenerator(out).generate();
+        }
+    }
+
+    private void generate() {
+        m_out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        m_out.println("<!-- Generated by " + getClass().getName() + " (" + ARTISTS + " artists, " + ALBUMS + " albums per artist, "
+            + TRACKS + " tracks per album): do not edit. -->");
+        m_out.println("<components xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.1.0\">");
+        for (int i = 0; i < ARTISTS; i ++) {
+            StringBuilder albumRefs = new StringBuilder();
+            StringBuilder albums = new StringBuilder();
+            for (int j = 0; j < ALBUMS; j ++) {
+                String albumId = generateId();
+                StringBuilder trackRefs = new StringBuilder();
+                StringBuilder tracks = new StringBuilder();
+                for (int k = 0; k < TRACKS; k ++) {
+                    String trackId = generateId();
+                    trackRefs.append(reference("track" + k, Track.class, trackId, "addTrack"));
+                    tracks.append(component(TrackComponent.class, Track.class, trackId, ""));
+                }
+                albumRefs.append(reference("album" + j, Album.class, albumId, "addAlbum"));
+                albums.append(component(AlbumComponent.class, Album.class, albumId, trackRefs.toString())).append(tracks);
+            }
+            m_out.print(component(ArtistComponent.class, Artist.class, generateId(), albumRefs.toString()));
+            m_out.print(albums);
+        }
+        m_out.println("</components>");
+    }
+
+    private String component(Class<?> impl, Class<?> service, String id, String references) {
+        return "  <scr:component name=\"" + service.getSimpleName() + "-" + id + "\" immediate=\"true\" activate=\"start\" deactivate=\"stop\">"
+            + "<implementation class=\"" + impl.getName() + "\"/>"
+            + "<property name=\"id\" value=\"" + id + "\"/>"
+            + "<service><provide interface=\"" + service.getName() + "\"/></service>"
+            + "<reference name=\"controller\" interface=\"" + ScenarioController.class.getName() + "\" bind=\"bindController\"/>"
+            + references
+            + "</scr:component>\n";
+    }
+
+    private String reference(String name, Class<?> service, String id, String bind) {
+        return "<reference name=\"" + name + "\" interface=\"" + service.getName() + "\" target=\"(id=" + id + ")\" bind=\"" + bind + "\"/>";
+    }
+
+    private String generateId() {
+        return "scr-" + (++ m_nextId);
+    }
+}
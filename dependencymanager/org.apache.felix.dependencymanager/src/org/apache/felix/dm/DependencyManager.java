@@ -68,6 +68,23 @@ public class DependencyManager {
 
     public static final String ASPECT = "org.apache.felix.dependencymanager.aspect";
     public static final String SERVICEREGISTRY_CACHE_INDICES = "org.apache.felix.dependencymanager.filterindex";
+    
+    /**
+     * Enables automatic filter indices. The value is the number of unindexed service listeners using the same filter 
+     * shape (set of property keys) after which a multi property filter index is created for that shape, or "true" to
+     * use the default threshold.
+     */
+    public static final String SERVICEREGISTRY_CACHE_AUTO_INDEX = "org.apache.felix.dependencymanager.filterindex.auto";
+    
+    /**
+     * Time (in millis) after which an automatic filter index that has no listeners and is not used anymore is retired.
+     */
+    public static final String SERVICEREGISTRY_CACHE_AUTO_INDEX_IDLE = "org.apache.felix.dependencymanager.filterindex.auto.idle";
+    
+    /**
+     * Max number of automatic filter indices.
+     */
+    public static final String SERVICEREGISTRY_CACHE_AUTO_INDEX_MAX = "org.apache.felix.dependencymanager.filterindex.auto.max";
     public static final String METHOD_CACHE_SIZE = "org.apache.felix.dependencymanager.methodcache";
     
     private final BundleContext m_context;
@@ -84,10 +101,17 @@ public class DependencyManager {
 	            bundle.start();
 	            BundleContext bundleContext = bundle.getBundleContext();
 	            String index = bundleContext.getProperty(SERVICEREGISTRY_CACHE_INDICES);
-	            if (index != null) {
+	            String autoIndex = bundleContext.getProperty(SERVICEREGISTRY_CACHE_AUTO_INDEX);
+	            if (index != null || (autoIndex != null && !autoIndex.equals("false"))) {
 	            	m_serviceRegistryCache = new ServiceRegistryCache(bundleContext);
 	            	m_serviceRegistryCache.open(); // TODO close it somewhere
-	            	String[] props = index.split(";");
+	            	if (autoIndex != null && !autoIndex.equals("false")) {
+	            		m_serviceRegistryCache.setAutoIndex(
+	            			autoIndex.equals("true") ? 50 : (int) parseLong(SERVICEREGISTRY_CACHE_AUTO_INDEX, autoIndex, 50L),
+	            			getLongProperty(bundleContext, SERVICEREGISTRY_CACHE_AUTO_INDEX_IDLE, 60000L),
+	            			(int) getLongProperty(bundleContext, SERVICEREGISTRY_CACHE_AUTO_INDEX_MAX, 16L));
+	            	}
+	            	String[] props = index != null ? index.split(";") : new String[0];
 	            	for (int i = 0; i < props.length; i++) {
 	            		if (props[i].equals("*aspect*")) {
 	            			m_serviceRegistryCache.addFilterIndex(new AspectFilterIndex());
@@ -108,6 +132,21 @@ public class DependencyManager {
         }
     }
 
+    private static long getLongProperty(BundleContext context, String key, long def) {
+        String value = context.getProperty(key);
+        return value != null ? parseLong(key, value, def) : def;
+    }
+
+    private static long parseLong(String key, String value, long def) {
+        try {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid value of " + key + ": " + value);
+            return def;
+        }
+    }
+
     /**
      * Creates a new dependency manager. You need to supply the
      * <code>BundleContext</code> to be used by the dependency
@@ -21,6 +21,7 @@ package org.apache.felix.dm.impl.index;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.felix.dm.FilterIndex;
 import org.apache.felix.dm.Logger;
@@ -52,12 +53,23 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
     }
 
     public void addServiceListener(ServiceListener listener, String filter) throws InvalidSyntaxException {
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(null, filter);
-        if (filterIndex != null) {
-            filterIndex.addServiceListener(listener, filter);
+        Lock lock = m_cache.getIndexUsageLock();
+        if (lock != null) {
+            lock.lock();
         }
-        else {
-            m_context.addServiceListener(listener, filter);
+        try {
+            FilterIndex filterIndex = m_cache.getFilterIndexForListener(listener, filter);
+            if (filterIndex != null) {
+                filterIndex.addServiceListener(listener, filter);
+            }
+            else {
+                m_context.addServiceListener(listener, filter);
+            }
+        }
+        finally {
+            if (lock != null) {
+                lock.unlock();
+            }
         }
     }
 
@@ -72,16 +84,26 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
     }
 
 	public void removeServiceListener(ServiceListener listener) {
-    	// remove servicelistener. although it would be prettier to find the correct filterindex first it's
-    	// probaby faster to do a brute force removal.
-    	Iterator<FilterIndex> filterIndexIterator = m_cache.getFilterIndices().iterator();
-    	while (filterIndexIterator.hasNext()) {
-    		filterIndexIterator.next().removeServiceListener(listener);
-    	}
+    	m_cache.removeServiceListener(listener);
     	m_context.removeServiceListener(listener);
     }
 
 	public ServiceReference[] getServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
+        Lock lock = m_cache.getIndexUsageLock();
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            return doGetServiceReferences(clazz, filter);
+        }
+        finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+	}
+	
+	private ServiceReference[] doGetServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
     	long start = 0L;
     	if (m_perfmon) {
     		start = System.currentTimeMillis();
@@ -126,18 +148,29 @@ public class BundleContextInterceptor extends BundleContextInterceptorBase {
     }
 
 	public ServiceReference[] getAllServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
-        // first we ask the cache if there is an index for our request (class and filter combination)
-        FilterIndex filterIndex = m_cache.hasFilterIndexFor(clazz, filter);
-        if (filterIndex != null) {
-            List<ServiceReference> result = filterIndex.getAllServiceReferences(clazz, filter);
-            if (result == null || result.size() == 0) {
-                return null;
+        Lock lock = m_cache.getIndexUsageLock();
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            // first we ask the cache if there is an index for our request (class and filter combination)
+            FilterIndex filterIndex = m_cache.hasFilterIndexFor(clazz, filter);
+            if (filterIndex != null) {
+                List<ServiceReference> result = filterIndex.getAllServiceReferences(clazz, filter);
+                if (result == null || result.size() == 0) {
+                    return null;
+                }
+                return (ServiceReference[]) result.toArray(new ServiceReference[result.size()]);
+            }
+            else {
+                // if they don't know, we ask the real bundle context instead
+                return m_context.getAllServiceReferences(clazz, filter);
             }
-            return (ServiceReference[]) result.toArray(new ServiceReference[result.size()]);
         }
-        else {
-            // if they don't know, we ask the real bundle context instead
-            return m_context.getAllServiceReferences(clazz, filter);
+        finally {
+            if (lock != null) {
+                lock.unlock();
+            }
         }
     }
 
@@ -18,18 +18,39 @@
  */
 package org.apache.felix.dm.impl.index;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.felix.dm.FilterIndex;
+import org.apache.felix.dm.Logger;
+import org.apache.felix.dm.impl.index.multiproperty.Filter;
+import org.apache.felix.dm.impl.index.multiproperty.MultiPropertyFilterIndex;
+import org.apache.felix.dm.impl.index.multiproperty.Property;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 
 /**
+ * Caches service registry lookups and service listeners using some filter indices.
+ * 
+ * Filter indices are either configured explicitly, or created automatically when automatic indexing
+ * is enabled: in this case, the "shape" of the filters (the set of property keys they are using) passed to 
+ * <code>addServiceListener</code> is observed, and a multi property index is created for a shape once 
+ * it has been used by enough unindexed listeners. Automatic indices are retired once they don't have 
+ * any listeners and have not been used for some time.
+ * 
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
 public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*/ {
@@ -40,9 +61,29 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
     private long m_currentVersion = 0;
     private long m_arrayVersion = -1;
     
+    /** Usage statistics for each filter index. */
+    private final Map<FilterIndex, IndexStatistics> m_statistics = new ConcurrentHashMap<>();
+    /** Number of lookups/listener registrations, and number of lookups/listener registrations not served by any index. */
+    private final AtomicLong m_lookups = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    
+    /** Number of unindexed listeners registered for each observed filter shape (only used with automatic indexing). */
+    private final ConcurrentMap<String, AtomicInteger> m_filterShapes = new ConcurrentHashMap<>();
+    /** The filter shape each unindexed listener has been counted for (only used with automatic indexing). */
+    private final ConcurrentMap<ServiceListener, String> m_unindexedListeners = new ConcurrentHashMap<>();
+    /** Prevents automatic indices from being retired while they are being used. */
+    private final ReadWriteLock m_indexUsageLock = new ReentrantReadWriteLock();
+    private volatile boolean m_autoIndex;
+    private volatile int m_autoIndexThreshold;
+    private volatile long m_autoIndexIdleTime;
+    private volatile int m_autoIndexMax;
+    private volatile long m_nextSweep;
+    private final Logger m_logger;
+    
     public ServiceRegistryCache(BundleContext context) {
         m_context = context;
         m_filterIndexBundleContext = new FilterIndexBundleContext(m_context);
+        m_logger = new Logger(context);
     }
     
     public void open() {
@@ -53,7 +94,27 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         m_context.removeServiceListener(this);
     }
     
+    /**
+     * Enables automatic filter indices.
+     * 
+     * @param threshold the number of unindexed listeners using the same filter shape after which an index is created
+     * @param idleTime the time (in millis) after which an automatic index without listeners and lookups is retired
+     * @param maxIndices the max number of automatic indices
+     */
+    public void setAutoIndex(int threshold, long idleTime, int maxIndices) {
+        m_autoIndexThreshold = threshold;
+        m_autoIndexIdleTime = idleTime;
+        m_autoIndexMax = maxIndices;
+        m_nextSweep = System.currentTimeMillis() + idleTime;
+        m_autoIndex = true;
+    }
+    
     public void addFilterIndex(FilterIndex index) {
+        addFilterIndex(index, null);
+    }
+    
+    private void addFilterIndex(FilterIndex index, String shape) {
+        m_statistics.put(index, new IndexStatistics(shape));
         m_filterIndexList.add(index);
         index.open(m_filterIndexBundleContext);
     }
@@ -61,6 +122,7 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
     public void removeFilterIndex(FilterIndex index) {
         index.close();
         m_filterIndexList.remove(index);
+        m_statistics.remove(index);
     }
 
     public void serviceChanged(ServiceEvent event) {
@@ -91,15 +153,90 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         }
     }
 
+    /**
+     * Returns the lock that must be held while using a filter index returned by this cache, so the
+     * index can't be retired in the meantime. Only automatic indices are retired, so there is no lock
+     * (null) unless automatic indexing has been enabled before the cache is used.
+     */
+    public Lock getIndexUsageLock() {
+        return m_autoIndex ? m_indexUsageLock.readLock() : null;
+    }
+
     public FilterIndex hasFilterIndexFor(String clazz, String filter) {
-        Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
-        while (iterator.hasNext()) {
-            FilterIndex filterIndex = iterator.next();
-            if (filterIndex.isApplicable(clazz, filter)) {
-                return filterIndex;
+        m_lookups.incrementAndGet();
+        FilterIndex filterIndex = findFilterIndex(clazz, filter);
+        if (filterIndex != null) {
+            IndexStatistics statistics = m_statistics.get(filterIndex);
+            if (statistics != null) {
+                statistics.hit();
             }
         }
-        return null;
+        else {
+            m_misses.incrementAndGet();
+        }
+        return filterIndex;
+    }
+    
+    /**
+     * Returns the filter index to be used for a service listener using the given filter. When automatic
+     * indexing is enabled and no index applies, the filter shape is recorded, and an index is created 
+     * if the shape is used frequently enough. Must be called while holding the index usage lock.
+     * 
+     * @return the filter index to use, or null if the listener must be registered in the framework
+     */
+    public FilterIndex getFilterIndexForListener(ServiceListener listener, String filter) {
+        FilterIndex filterIndex = hasFilterIndexFor(null, filter);
+        if (m_autoIndex) {
+            // the listener may be registered again with another filter
+            uncount(listener);
+            if (filterIndex == null && filter != null) {
+                String shape = getFilterShape(filter);
+                if (shape != null) {
+                    AtomicInteger counter = m_filterShapes.get(shape);
+                    if (counter == null) {
+                        AtomicInteger newCounter = new AtomicInteger();
+                        counter = m_filterShapes.putIfAbsent(shape, newCounter);
+                        if (counter == null) {
+                            counter = newCounter;
+                        }
+                    }
+                    if (counter.incrementAndGet() >= m_autoIndexThreshold) {
+                        filterIndex = createAutoIndex(shape, filter);
+                    }
+                    if (filterIndex == null) {
+                        m_unindexedListeners.put(listener, shape);
+                    }
+                    else {
+                        counter.decrementAndGet();
+                    }
+                }
+            }
+        }
+        return filterIndex;
+    }
+    
+    /**
+     * Removes a service listener from all filter indices, and retires unused automatic indices.
+     */
+    public void removeServiceListener(ServiceListener listener) {
+        // although it would be prettier to find the correct filterindex first it's
+        // probaby faster to do a brute force removal.
+        Iterator<FilterIndex> filterIndexIterator = m_filterIndexList.iterator();
+        while (filterIndexIterator.hasNext()) {
+            filterIndexIterator.next().removeServiceListener(listener);
+        }
+        if (m_autoIndex) {
+            uncount(listener);
+            retireUnusedIndices();
+        }
+    }
+    
+    /**
+     * Returns the number of unindexed listeners currently counted for a filter shape.
+     */
+    int getFilterShapeCount(String shape) {
+        AtomicInteger counter = m_filterShapes.get(shape);
+        return counter == null ? 0 : counter.get();
     }
 
     public void serviceChangedForFilterIndices(ServiceEvent event) {
@@ -110,11 +247,33 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
         }
     }
     
+    /**
+     * Returns the usage statistics of all filter indices (one line per index).
+     */
+    public String getStatistics() {
+        long lookups = m_lookups.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append("lookups: ").append(lookups);
+        sb.append(", hit rate: ").append(percent(lookups - m_misses.get(), lookups)).append("%");
+        Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
+        while (iterator.hasNext()) {
+            FilterIndex filterIndex = iterator.next();
+            IndexStatistics statistics = m_statistics.get(filterIndex);
+            if (statistics != null) {
+                sb.append("\n").append(filterIndex.toString().trim()).append(": ").append(statistics.toString(lookups));
+            }
+        }
+        return sb.toString();
+    }
+    
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append("ServiceRegistryCache[");
         sb.append("FilterIndices: " + m_filterIndexList.size());
         sb.append(", BundleContexts intercepted: " + m_bundleContextInterceptorMap.size());
+        long lookups = m_lookups.get();
+        sb.append(", Lookups: " + lookups);
+        sb.append(", Hit rate: " + percent(lookups - m_misses.get(), lookups) + "%");
         sb.append("]");
         return sb.toString();
     }
@@ -122,4 +281,162 @@ public class ServiceRegistryCache implements ServiceListener/*, CommandProvider*
 	public List<FilterIndex> getFilterIndices() {
 		return m_filterIndexList;
 	}
+	
+    /**
+     * Returns the shape of a filter which can be indexed by a multi property filter index, using the same 
+     * syntax as the one used to configure such index (for example "!org.apache.felix.dependencymanager.aspect,id,objectclass").
+     * 
+     * @return the filter shape, or null if the filter can't be indexed.
+     */
+    static String getFilterShape(String filterString) {
+        // reject the filters that the simple multi property filter parser does not support: comparisons, 
+        // approximations, escaped characters, or negated composite filters
+        if (filterString.indexOf('<') != -1 || filterString.indexOf('>') != -1 || filterString.indexOf('~') != -1
+            || filterString.indexOf('\\') != -1 || filterString.contains("(!(&") || filterString.contains("(!(|") 
+            || filterString.contains("(!(!")) {
+            return null;
+        }
+        Filter filter = Filter.parse(filterString);
+        Set<String> keys = filter.getPropertyKeys();
+        if (!filter.isValid() || keys.isEmpty()) {
+            return null;
+        }
+        String[] items = new String[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            Property property = filter.getProperty(key);
+            for (String value : property.getValues()) {
+                // only negated presence can be indexed, and substrings are not supported
+                if (property.isNegate() ? !value.equals("*") : value.indexOf('*') != -1) {
+                    return null;
+                }
+            }
+            items[i ++] = property.isNegate() ? "!" + key : key;
+        }
+        Arrays.sort(items);
+        StringBuilder sb = new StringBuilder();
+        for (String item : items) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(item);
+        }
+        return sb.toString();
+    }
+
+    private FilterIndex findFilterIndex(String clazz, String filter) {
+        Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
+        while (iterator.hasNext()) {
+            FilterIndex filterIndex = iterator.next();
+            if (filterIndex.isApplicable(clazz, filter)) {
+                return filterIndex;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops counting an unindexed listener in the filter shape it has been counted in.
+     */
+    private void uncount(ServiceListener listener) {
+        String shape = m_unindexedListeners.remove(listener);
+        if (shape != null) {
+            // the counter is dropped once an index has been created for the shape
+            AtomicInteger counter = m_filterShapes.get(shape);
+            if (counter != null && counter.decrementAndGet() <= 0) {
+                m_filterShapes.remove(shape, counter);
+            }
+        }
+    }
+
+    private FilterIndex createAutoIndex(String shape, String filter) {
+        synchronized (m_filterShapes) {
+            // another thread may have created the index in the meantime
+            FilterIndex filterIndex = findFilterIndex(null, filter);
+            if (filterIndex != null) {
+                return filterIndex;
+            }
+            int autoIndices = 0;
+            for (IndexStatistics statistics : m_statistics.values()) {
+                if (statistics.m_shape != null) {
+                    autoIndices ++;
+                }
+            }
+            if (autoIndices >= m_autoIndexMax) {
+                return null;
+            }
+            filterIndex = new MultiPropertyFilterIndex(shape);
+            if (!filterIndex.isApplicable(null, filter)) {
+                // should not happen, but never index a filter that our index would not recognize
+                m_filterShapes.remove(shape);
+                return null;
+            }
+            addFilterIndex(filterIndex, shape);
+            m_statistics.get(filterIndex).hit();
+            m_filterShapes.remove(shape);
+            m_logger.log(Logger.LOG_INFO, "Created automatic filter index for " + shape);
+            return filterIndex;
+        }
+    }
+
+    private void retireUnusedIndices() {
+        long now = System.currentTimeMillis();
+        if (now < m_nextSweep) {
+            return;
+        }
+        m_nextSweep = now + Math.max(1, m_autoIndexIdleTime / 4);
+        Lock lock = m_indexUsageLock.writeLock();
+        // don't block: if some indices are in use, we'll retry on next sweep
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<FilterIndex> iterator = m_filterIndexList.iterator();
+            while (iterator.hasNext()) {
+                FilterIndex filterIndex = iterator.next();
+                IndexStatistics statistics = m_statistics.get(filterIndex);
+                if (statistics != null && statistics.m_shape != null 
+                    && now - statistics.m_lastUsed > m_autoIndexIdleTime
+                    && ((MultiPropertyFilterIndex) filterIndex).getServiceListenerCount() == 0) 
+                {
+                    m_logger.log(Logger.LOG_INFO, "Retiring unused automatic filter index for " + statistics.m_shape 
+                        + " (" + statistics.toString(m_lookups.get()) + ")");
+                    removeFilterIndex(filterIndex);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        m_logger.log(Logger.LOG_DEBUG, "Filter indices statistics: " + getStatistics());
+    }
+    
+    private static long percent(long value, long total) {
+        return total == 0 ? 0 : (value * 100) / total;
+    }
+
+    /**
+     * Usage statistics of one filter index.
+     */
+    private static class IndexStatistics {
+        /** The shape of the filters handled by an automatic index, or null for a configured index. */
+        final String m_shape;
+        final AtomicLong m_hits = new AtomicLong();
+        volatile long m_lastUsed = System.currentTimeMillis();
+        
+        IndexStatistics(String shape) {
+            m_shape = shape;
+        }
+        
+        void hit() {
+            m_hits.incrementAndGet();
+            m_lastUsed = System.currentTimeMillis();
+        }
+        
+        String toString(long lookups) {
+            long hits = m_hits.get();
+            return (m_shape != null ? "automatic, " : "configured, ") + "hits: " + hits + " (" + percent(hits, lookups) 
+                + "% of lookups), idle: " + (System.currentTimeMillis() - m_lastUsed) + " ms";
+        }
+    }
 }
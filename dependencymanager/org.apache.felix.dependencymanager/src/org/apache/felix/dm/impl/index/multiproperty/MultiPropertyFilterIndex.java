@@ -473,6 +473,15 @@ public class MultiPropertyFilterIndex implements FilterIndex, ServiceTrackerCust
     	return m_listenerToFilterMap.keySet();
     }
     
+    /**
+     * Returns the number of service listeners currently registered in this index.
+     */
+    public int getServiceListenerCount() {
+        synchronized (m_keyToListenersMap) {
+            return m_listenerToFilterMap.size();
+        }
+    }
+    
     public String toString() {
         StringBuffer sb = new StringBuffer();
         sb.append(" dMultiPropertyExactFilter[");
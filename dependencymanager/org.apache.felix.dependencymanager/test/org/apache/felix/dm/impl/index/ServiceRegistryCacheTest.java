@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.dm.impl.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.felix.dm.FilterIndex;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceListener;
+
+/**
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ServiceRegistryCacheTest {
+
+	@Test
+	public void testFilterShape() {
+		assertEquals("id,objectclass", ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(id=1))"));
+		assertEquals("!org.apache.felix.dependencymanager.aspect,objectclass", 
+			ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(!(org.apache.felix.dependencymanager.aspect=*)))"));
+		assertEquals("objectclass", ServiceRegistryCache.getFilterShape("(objectClass=a.B)"));
+		// filters which can't be handled by a multi property index
+		assertNull(ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(version>=1.0))"));
+		assertNull(ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(name=foo*))"));
+		assertNull(ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(id=*))"));
+		assertNull(ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(!(id=1)))"));
+		assertNull(ServiceRegistryCache.getFilterShape("(|(objectClass=a.B)(id=1))"));
+		assertNull(ServiceRegistryCache.getFilterShape("(&(objectClass=a.B)(!(&(id=1)(name=x))))"));
+	}
+
+	@Test
+	public void testAutomaticIndex() throws Exception {
+		ServiceRegistryCache cache = new ServiceRegistryCache(createBundleContext());
+		cache.setAutoIndex(3, 60000, 1);
+
+		assertNull(cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=a.B)(id=1))"));
+		assertNull(cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=a.B)(id=2))"));
+		FilterIndex index = cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=a.B)(id=3))");
+		assertNotNull(index);
+		assertEquals(1, cache.getFilterIndices().size());
+		
+		// same shape: the index is reused
+		assertSame(index, cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=c.D)(id=4))"));
+		// unsupported filters are never indexed
+		for (int i = 0; i < 5; i ++) {
+			assertNull(cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=a.B)(version>=1.0))"));
+		}
+		// max number of automatic indices reached
+		for (int i = 0; i < 5; i ++) {
+			assertNull(cache.getFilterIndexForListener(mock(ServiceListener.class), "(&(objectClass=a.B)(name=" + i + "))"));
+		}
+		assertEquals(1, cache.getFilterIndices().size());
+	}
+
+	@Test
+	public void testIndexUsageLockOnlyWithAutomaticIndex() throws Exception {
+		ServiceRegistryCache cache = new ServiceRegistryCache(createBundleContext());
+		assertNull(cache.getIndexUsageLock());
+		cache.setAutoIndex(3, 60000, 1);
+		assertNotNull(cache.getIndexUsageLock());
+	}
+
+	@Test
+	public void testRemovedListenersAreNotCounted() throws Exception {
+		ServiceRegistryCache cache = new ServiceRegistryCache(createBundleContext());
+		cache.setAutoIndex(3, 60000, 1);
+
+		ServiceListener listener1 = mock(ServiceListener.class);
+		ServiceListener listener2 = mock(ServiceListener.class);
+		assertNull(cache.getFilterIndexForListener(listener1, "(&(objectClass=a.B)(id=1))"));
+		assertNull(cache.getFilterIndexForListener(listener2, "(&(objectClass=a.B)(id=2))"));
+		assertEquals(2, cache.getFilterShapeCount("id,objectclass"));
+
+		// registering a listener again with another filter replaces its former filter
+		assertNull(cache.getFilterIndexForListener(listener2, "(&(objectClass=a.B)(id=3))"));
+		assertEquals(2, cache.getFilterShapeCount("id,objectclass"));
+
+		cache.removeServiceListener(listener1);
+		cache.removeServiceListener(listener2);
+		assertEquals(0, cache.getFilterShapeCount("id,objectclass"));
+
+		// listeners come and go without ever reaching the threshold
+		for (int i = 0; i < 10; i ++) {
+			ServiceListener listener = mock(ServiceListener.class);
+			assertNull(cache.getFilterIndexForListener(listener, "(&(objectClass=a.B)(id=" + i + "))"));
+			cache.removeServiceListener(listener);
+		}
+		assertEquals(0, cache.getFilterIndices().size());
+	}
+
+	private BundleContext createBundleContext() throws Exception {
+		BundleContext context = mock(BundleContext.class);
+		when(context.createFilter(anyString())).thenReturn(mock(Filter.class));
+		return context;
+	}
+}
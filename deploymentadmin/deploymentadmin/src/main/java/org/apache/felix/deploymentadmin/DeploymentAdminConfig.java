@@ -36,12 +36,23 @@ public class DeploymentAdminConfig {
     static final String KEY_STOP_UNAFFECTED_BUNDLES = PREFIX.concat("stopUnaffectedBundles");
     /** Configuration key used to allow usage of customizers outside a DP. */
     static final String KEY_ALLOW_FOREIGN_CUSTOMIZERS = PREFIX.concat("allowForeignCustomizers");
+    /**
+     * Configuration key used to keep incremental snapshots of data areas instead of archiving them for each DP. As the
+     * snapshots are kept uncompressed in between DPs, this permanently doubles the disk space used by the data areas.
+     */
+    static final String KEY_INCREMENTAL_SNAPSHOTS = PREFIX.concat("incrementalSnapshots");
+    /** Configuration key used to read (and verify) the entries of a DP ahead while its bundles are installed. */
+    static final String KEY_PIPELINED_INSTALL = PREFIX.concat("pipelinedInstall");
 
     static final boolean DEFAULT_STOP_UNAFFECTED_BUNDLES = true;
     static final boolean DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS = false;
+    static final boolean DEFAULT_INCREMENTAL_SNAPSHOTS = false;
+    static final boolean DEFAULT_PIPELINED_INSTALL = false;
 
     private final boolean m_stopUnaffectedBundles;
     private final boolean m_allowForeignCustomizers;
+    private final boolean m_incrementalSnapshots;
+    private final boolean m_pipelinedInstall;
 
     /**
      * Creates a new {@link DeploymentAdminConfig} instance with the default settings.
@@ -56,6 +67,12 @@ public class DeploymentAdminConfig {
 
         value = getFrameworkProperty(context, KEY_ALLOW_FOREIGN_CUSTOMIZERS);
         m_allowForeignCustomizers = parseBoolean(value, DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS);
+
+        value = getFrameworkProperty(context, KEY_INCREMENTAL_SNAPSHOTS);
+        m_incrementalSnapshots = parseBoolean(value, DEFAULT_INCREMENTAL_SNAPSHOTS);
+
+        value = getFrameworkProperty(context, KEY_PIPELINED_INSTALL);
+        m_pipelinedInstall = parseBoolean(value, DEFAULT_PIPELINED_INSTALL);
     }
 
     /**
@@ -66,6 +83,22 @@ public class DeploymentAdminConfig {
         return m_allowForeignCustomizers;
     }
 
+    /**
+     * @return <code>true</code> if the data areas of bundles should be kept as incremental snapshots in between DPs,
+     *         <code>false</code> (the default) if they should be archived completely for each DP.
+     */
+    public boolean isIncrementalSnapshots() {
+        return m_incrementalSnapshots;
+    }
+
+    /**
+     * @return <code>true</code> if the entries of a DP should be read ahead on a separate thread while it is installed,
+     *         <code>false</code> if they should be read one at a time.
+     */
+    public boolean isPipelinedInstall() {
+        return m_pipelinedInstall;
+    }
+
     /**
      * @return <code>true</code> if all bundles should be stopped during the installation of a DP, <code>false</code> if
      *         only affected bundles should be stopped.
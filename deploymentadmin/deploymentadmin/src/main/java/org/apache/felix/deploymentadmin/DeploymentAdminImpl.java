@@ -190,7 +190,13 @@ public class DeploymentAdminImpl implements DeploymentAdmin, Constants {
                 throw new DeploymentException(CODE_NOT_A_JAR, "Stream does not contain a valid Jar", e);
             }
 
-            source = new StreamDeploymentPackage(jarInput, m_context, this);
+            DeploymentAdminConfig config = new DeploymentAdminConfig(m_context);
+            if (config.isPipelinedInstall()) {
+                source = new StreamDeploymentPackage(jarInput, tempContents, m_context, this);
+            }
+            else {
+                source = new StreamDeploymentPackage(jarInput, m_context, this);
+            }
             String dpSymbolicName = source.getName();
 
             target = getExistingOrEmptyDeploymentPackage(dpSymbolicName);
@@ -215,7 +221,7 @@ public class DeploymentAdminImpl implements DeploymentAdmin, Constants {
             }
 
             try {
-                m_session = new DeploymentSessionImpl(source, target, createInstallCommandChain(), this, new DeploymentAdminConfig(m_context));
+                m_session = new DeploymentSessionImpl(source, target, createInstallCommandChain(), this, config);
                 m_session.call(false /* ignoreExceptions */);
             }
             catch (DeploymentException de) {
@@ -224,6 +230,7 @@ public class DeploymentAdminImpl implements DeploymentAdmin, Constants {
             finally {
                 // We're done at this point with the JAR input stream, close it here as to avoid keeping
                 // files open unnecessary (otherwise it fails on Windows)...
+                source.close();
                 Utils.closeSilently(jarInput);
             }
 
@@ -265,6 +272,10 @@ public class DeploymentAdminImpl implements DeploymentAdmin, Constants {
             return fileDeploymentPackage;
         }
         finally {
+            if (source != null) {
+                // Stop reading ahead in case we failed early...
+                source.close();
+            }
             if (tempPackage != null) {
                 if (!Utils.delete(tempPackage, true)) {
                     m_log.log(LogService.LOG_ERROR, "Could not delete temporary deployment package from disk");
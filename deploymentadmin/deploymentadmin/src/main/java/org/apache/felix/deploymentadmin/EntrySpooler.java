@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the entries of a deployment package ahead of the deployment session on
+ * a separate thread. Each entry is read completely from a
+ * {@link ContentCopyingJarInputStream}, which verifies its digest (for signed
+ * packages) and spools it to disk, after which its name is handed over to the
+ * session. This way, the session can install or process an entry while the
+ * next entries are still being downloaded.
+ * <p>
+ * The entries are handed over in the order in which they appear in the
+ * stream, and at most a fixed number of entries is read ahead.
+ * </p>
+ */
+class EntrySpooler implements Runnable {
+    /** The maximum number of entries that are read ahead. */
+    private static final int MAX_ENTRIES = 32;
+    /** The time to wait for the spooling thread to finish when closed, in milliseconds. */
+    private static final long CLOSE_TIMEOUT = 5000L;
+
+    private final JarInputStream m_input;
+    private final LinkedList m_names = new LinkedList();
+    private final Thread m_thread;
+
+    private boolean m_done;
+    private boolean m_closed;
+    private Exception m_failure;
+
+    /**
+     * Creates a new {@link EntrySpooler} instance.
+     *
+     * @param input the stream to read the entries from, which should copy them to disk, cannot be <code>null</code>.
+     */
+    public EntrySpooler(JarInputStream input) {
+        m_input = input;
+        m_thread = new Thread(this, "DeploymentAdmin entry spooler");
+        m_thread.setDaemon(true);
+    }
+
+    /**
+     * Stops reading ahead and waits (for a limited time) until the spooling thread has finished.
+     * Entries that are not yet handed over are discarded.
+     */
+    public void close() {
+        synchronized (this) {
+            if (m_closed) {
+                return;
+            }
+            m_closed = true;
+            m_names.clear();
+            notifyAll();
+        }
+        if (m_thread.isAlive() && (m_thread != Thread.currentThread())) {
+            try {
+                m_thread.join(CLOSE_TIMEOUT);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the next entry, waiting until it is completely read.
+     *
+     * @return the name of the next entry, or <code>null</code> if there are no more entries.
+     * @throws IOException in case reading the entry failed.
+     */
+    public synchronized String nextEntry() throws IOException {
+        while (m_names.isEmpty() && !m_done && !m_closed) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the next entry");
+            }
+        }
+        if (!m_names.isEmpty()) {
+            notifyAll();
+            return (String) m_names.removeFirst();
+        }
+        if (m_failure instanceof IOException) {
+            throw (IOException) m_failure;
+        }
+        else if (m_failure != null) {
+            IOException exception = new IOException("Failed to read entry: " + m_failure.getMessage());
+            exception.initCause(m_failure);
+            throw exception;
+        }
+        return null;
+    }
+
+    public void run() {
+        byte[] buffer = new byte[8192];
+        try {
+            ZipEntry entry;
+            while (!isClosed() && (entry = m_input.getNextEntry()) != null) {
+                // Read the entry completely, causing it to be verified and copied...
+                while (m_input.read(buffer, 0, buffer.length) != -1) {
+                    if (isClosed()) {
+                        return;
+                    }
+                }
+                if (!add(entry.getName())) {
+                    return;
+                }
+            }
+        }
+        catch (Exception e) {
+            synchronized (this) {
+                m_failure = e;
+            }
+        }
+        finally {
+            synchronized (this) {
+                m_done = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts reading ahead on a separate thread.
+     */
+    public void start() {
+        m_thread.start();
+    }
+
+    /**
+     * Hands over the name of a completely read entry, waiting while too many entries are read ahead.
+     *
+     * @return <code>true</code> if the name is handed over, <code>false</code> if this spooler is closed.
+     */
+    private synchronized boolean add(String name) throws InterruptedException {
+        while ((m_names.size() >= MAX_ENTRIES) && !m_closed) {
+            wait();
+        }
+        if (m_closed) {
+            return false;
+        }
+        m_names.addLast(name);
+        notifyAll();
+        return true;
+    }
+
+    private synchronized boolean isClosed() {
+        return m_closed;
+    }
+}
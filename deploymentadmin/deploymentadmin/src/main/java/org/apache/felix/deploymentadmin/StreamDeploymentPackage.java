@@ -18,12 +18,15 @@
  */
 package org.apache.felix.deploymentadmin;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.jar.JarInputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 
 import org.osgi.framework.BundleContext;
@@ -31,10 +34,20 @@ import org.osgi.service.deploymentadmin.DeploymentException;
 
 /**
  * This class represents a deployment package that is read from a jar stream.
+ * <p>
+ * When pipelined, the entries are read ahead by an {@link EntrySpooler} and
+ * the contents of the current entry are read back from the copy it made.
+ * </p>
  */
 public class StreamDeploymentPackage extends AbstractDeploymentPackage {
     private final JarInputStream m_input;
     private final List m_names = new ArrayList();
+    private final File m_contentsDir;
+    private final EntrySpooler m_spooler;
+    /** The name of the current entry, only used when pipelined. */
+    private String m_current;
+    /** The stream of the current entry, only used when pipelined. */
+    private InputStream m_currentInput;
 
     /**
      * Creates an instance of this class.
@@ -44,8 +57,38 @@ public class StreamDeploymentPackage extends AbstractDeploymentPackage {
      * @throws DeploymentException If it was not possible to read a valid deployment package from the specified stream.
      */
     public StreamDeploymentPackage(JarInputStream input, BundleContext bundleContext, DeploymentAdminImpl deploymentAdmin) throws DeploymentException {
+        this(input, null, bundleContext, deploymentAdmin);
+    }
+
+    /**
+     * Creates an instance of this class that reads the entries of the given stream ahead of time.
+     *
+     * @param input The stream from which the deployment package can be read, which copies the entries to the given directory.
+     * @param contentsDir The directory the entries are copied to, or <code>null</code> if the entries should not be read ahead.
+     * @param bundleContext The bundle context.
+     * @throws DeploymentException If it was not possible to read a valid deployment package from the specified stream.
+     */
+    public StreamDeploymentPackage(JarInputStream input, File contentsDir, BundleContext bundleContext, DeploymentAdminImpl deploymentAdmin) throws DeploymentException {
         super(input.getManifest(), bundleContext, deploymentAdmin);
         m_input = input;
+        m_contentsDir = contentsDir;
+        if (contentsDir != null) {
+            m_spooler = new EntrySpooler(input);
+            m_spooler.start();
+        }
+        else {
+            m_spooler = null;
+        }
+    }
+
+    /**
+     * Stops reading ahead, if pipelined. Should be called before the underlying stream is closed.
+     */
+    public void close() {
+        if (m_spooler != null) {
+            closeCurrentInput();
+            m_spooler.close();
+        }
     }
 
     public InputStream getBundleStream(String symbolicName) {
@@ -53,15 +96,34 @@ public class StreamDeploymentPackage extends AbstractDeploymentPackage {
     }
 
     public InputStream getCurrentEntryStream() {
-        return new NonCloseableStream(m_input);
+        if (m_spooler == null) {
+            return new NonCloseableStream(m_input);
+        }
+        if (m_currentInput == null && m_current != null) {
+            try {
+                m_currentInput = new GZIPInputStream(new FileInputStream(new File(m_contentsDir, m_current)));
+            }
+            catch (IOException e) {
+                // Let the caller fail while reading...
+                return new FailingInputStream(e);
+            }
+        }
+        return new NonCloseableStream(m_currentInput);
     }
 
     public AbstractInfo getNextEntry() throws IOException {
-        ZipEntry nextEntry = m_input.getNextJarEntry();
-        if (nextEntry == null) {
+        String name;
+        if (m_spooler == null) {
+            ZipEntry nextEntry = m_input.getNextJarEntry();
+            name = (nextEntry == null) ? null : nextEntry.getName();
+        }
+        else {
+            closeCurrentInput();
+            name = m_current = m_spooler.nextEntry();
+        }
+        if (name == null) {
             return null;
         }
-        String name = nextEntry.getName();
         m_names.add(name);
         AbstractInfo abstractInfoByPath = getAbstractInfoByPath(name);
         return abstractInfoByPath;
@@ -93,4 +155,24 @@ public class StreamDeploymentPackage extends AbstractDeploymentPackage {
     public ResourceInfoImpl[] getOrderedResourceInfos() {
         throw new UnsupportedOperationException("Not applicable for stream-based deployment package");
     }
+
+    private void closeCurrentInput() {
+        Utils.closeSilently(m_currentInput);
+        m_currentInput = null;
+    }
+
+    /**
+     * Input stream that fails upon reading, used in case the copy of an entry cannot be opened.
+     */
+    private static class FailingInputStream extends InputStream {
+        private final IOException m_exception;
+
+        public FailingInputStream(IOException exception) {
+            m_exception = exception;
+        }
+
+        public int read() throws IOException {
+            throw m_exception;
+        }
+    }
 }
\ No newline at end of file
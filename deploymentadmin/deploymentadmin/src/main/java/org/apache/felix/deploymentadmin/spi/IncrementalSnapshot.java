@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.felix.deploymentadmin.Utils;
+
+/**
+ * Provides a snapshot of a data area that is kept as a mirror of its files in
+ * between deployment sessions. Updating the snapshot only copies the files
+ * that changed since the previous update, and restoring it only copies back
+ * the files that changed since the last update.
+ * <p>
+ * Files are compared by their size and modification time. As modification
+ * times have a limited granularity, files modified shortly before or after an
+ * update are always considered to be changed.
+ * </p>
+ * <p>
+ * The mirror is kept uncompressed for as long as the bundle is installed, so
+ * it permanently takes as much disk space as the data area itself. This is why
+ * incremental snapshots have to be enabled explicitly, see
+ * {@link org.apache.felix.deploymentadmin.DeploymentAdminConfig#isIncrementalSnapshots()}.
+ * </p>
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+final class IncrementalSnapshot {
+    /** The granularity of file modification times we assume, in milliseconds. */
+    private static final long GRANULARITY = 2000L;
+
+    private static final String DATA_DIR = "data";
+    private static final String TIMESTAMP_FILE = "timestamp";
+
+    private final File m_baseDir;
+    private final File m_dataDir;
+    private final File m_timestampFile;
+    /** The time at which the last update was started, or -1 if unknown. */
+    private long m_timestamp;
+
+    /**
+     * Creates a new {@link IncrementalSnapshot} instance.
+     *
+     * @param baseDir the directory to keep the snapshot in, cannot be <code>null</code>.
+     */
+    public IncrementalSnapshot(File baseDir) {
+        m_baseDir = baseDir;
+        m_dataDir = new File(baseDir, DATA_DIR);
+        m_timestampFile = new File(baseDir, TIMESTAMP_FILE);
+        m_timestamp = -1L;
+    }
+
+    /**
+     * Deletes this snapshot altogether.
+     *
+     * @return <code>true</code> if the snapshot was deleted, <code>false</code> otherwise.
+     */
+    public boolean delete() {
+        return Utils.delete(m_baseDir, true /* deleteRoot */);
+    }
+
+    /**
+     * Restores the given data area to the state it had at the last update of
+     * this snapshot.
+     *
+     * @param targetDir the data area to restore, cannot be <code>null</code>.
+     * @return the number of files copied back from this snapshot.
+     * @throws IOException in case of I/O problems.
+     */
+    public int restore(File targetDir) throws IOException {
+        return sync(m_dataDir, targetDir, m_timestamp);
+    }
+
+    /**
+     * Updates this snapshot to the current state of the given data area.
+     *
+     * @param sourceDir the data area to take a snapshot of, cannot be <code>null</code>.
+     * @return the number of files copied to this snapshot.
+     * @throws IOException in case of I/O problems.
+     */
+    public int update(File sourceDir) throws IOException {
+        long previous = readTimestamp();
+        // In case we fail halfway, the next update should not rely on the previous timestamp...
+        if (m_timestampFile.exists() && !m_timestampFile.delete()) {
+            throw new IOException("Failed to delete " + m_timestampFile);
+        }
+
+        long timestamp = System.currentTimeMillis();
+        int result = sync(sourceDir, m_dataDir, previous);
+
+        writeTimestamp(timestamp);
+        m_timestamp = timestamp;
+
+        return result;
+    }
+
+    /**
+     * Copies a file and its modification time.
+     */
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            input = new FileInputStream(from);
+            output = new FileOutputStream(to);
+            SnapshotCommand.copy(input, output);
+        }
+        finally {
+            Command.closeSilently(output);
+            Command.closeSilently(input);
+        }
+        to.setLastModified(from.lastModified());
+    }
+
+    /**
+     * Deletes a file or directory (recursively).
+     */
+    private static void delete(File file) throws IOException {
+        if (!Utils.delete(file, true /* deleteRoot */)) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Determines whether a file is (possibly) different from its copy.
+     *
+     * @param file the file to compare;
+     * @param copy the copy made of the file, possibly non-existing;
+     * @param timestamp the time at which the copy was made, or -1 if unknown.
+     * @return <code>true</code> if the file needs to be copied, <code>false</code> otherwise.
+     */
+    private static boolean isChanged(File file, File copy, long timestamp) {
+        if (!copy.isFile()) {
+            return true;
+        }
+        long modified = file.lastModified();
+        if ((timestamp < 0) || (modified >= timestamp - GRANULARITY)) {
+            return true;
+        }
+        return (file.length() != copy.length()) || (modified != copy.lastModified());
+    }
+
+    /**
+     * Makes the target directory mirror the source directory, only copying the files that have changed.
+     *
+     * @return the number of copied files.
+     */
+    private static int sync(File sourceDir, File targetDir, long timestamp) throws IOException {
+        if (targetDir.isFile()) {
+            delete(targetDir);
+        }
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            throw new IOException("Failed to create " + targetDir);
+        }
+
+        String[] names = sourceDir.isDirectory() ? sourceDir.list() : new String[0];
+        if (names == null) {
+            throw new IOException("Failed to list " + sourceDir);
+        }
+
+        int result = 0;
+        for (int i = 0; i < names.length; i++) {
+            File source = new File(sourceDir, names[i]);
+            File target = new File(targetDir, names[i]);
+
+            if (source.isDirectory()) {
+                result += sync(source, target, timestamp);
+            }
+            else if (isChanged(source, target, timestamp)) {
+                if (target.isDirectory()) {
+                    delete(target);
+                }
+                copyFile(source, target);
+                result++;
+            }
+        }
+
+        // Remove everything that no longer exists in the source...
+        Set existing = new HashSet(Arrays.asList(names));
+        String[] targetNames = targetDir.list();
+        for (int i = 0; (targetNames != null) && (i < targetNames.length); i++) {
+            if (!existing.contains(targetNames[i])) {
+                delete(new File(targetDir, targetNames[i]));
+            }
+        }
+
+        return result;
+    }
+
+    private long readTimestamp() {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(m_timestampFile));
+            return input.readLong();
+        }
+        catch (IOException e) {
+            // Not present (or not valid); we cannot rely on it...
+            return -1L;
+        }
+        finally {
+            Command.closeSilently(input);
+        }
+    }
+
+    private void writeTimestamp(long timestamp) throws IOException {
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new FileOutputStream(m_timestampFile));
+            output.writeLong(timestamp);
+        }
+        finally {
+            Command.closeSilently(output);
+        }
+    }
+}
@@ -62,6 +62,24 @@ public class SnapshotCommand extends Command {
             Bundle bundle = target.getBundle(symbolicName);
             if (bundle != null) {
                 File root = (File) storageAreas.get(symbolicName);
+                File baseDir = context.getDataFile("incremental-snapshots");
+                if (root != null && baseDir != null && session.getConfiguration().isIncrementalSnapshots()) {
+                    IncrementalSnapshot snapshot = new IncrementalSnapshot(new File(baseDir, symbolicName));
+                    try {
+                        snapshot.update(root);
+                        addRollback(new RestoreIncrementalSnapshotRunnable(session, snapshot, root));
+                        addCommit(new ReleaseIncrementalSnapshotRunnable(session, snapshot, bundle));
+                        continue;
+                    }
+                    catch (Exception e) {
+                        session.getLog().log(LogService.LOG_WARNING, "Could not take incremental snapshot of storage area of bundle '" + symbolicName + "', archiving it instead!", e);
+                        snapshot.delete();
+                    }
+                }
+                else if (baseDir != null) {
+                    // Don't keep the mirror of an earlier session around when incremental snapshots are disabled...
+                    new IncrementalSnapshot(new File(baseDir, symbolicName)).delete();
+                }
                 if (root != null) {
                     File snapshot = context.getDataFile("snapshots");
                     snapshot.mkdirs();
@@ -198,6 +216,45 @@ public class SnapshotCommand extends Command {
         }
     }
 
+    private static class ReleaseIncrementalSnapshotRunnable extends AbstractAction {
+        private final DeploymentSessionImpl m_session;
+        private final IncrementalSnapshot m_snapshot;
+        private final Bundle m_bundle;
+
+        private ReleaseIncrementalSnapshotRunnable(DeploymentSessionImpl session, IncrementalSnapshot snapshot, Bundle bundle) {
+            m_session = session;
+            m_snapshot = snapshot;
+            m_bundle = bundle;
+        }
+
+        protected void doRun() {
+            // Keep the snapshot for the next session, unless the bundle is gone...
+            if (m_bundle.getState() == Bundle.UNINSTALLED && !m_snapshot.delete()) {
+                m_session.getLog().log(LogService.LOG_WARNING, "Failed to delete snapshot of bundle '" + m_bundle.getSymbolicName() + "'!");
+            }
+        }
+    }
+
+    private static class RestoreIncrementalSnapshotRunnable extends AbstractAction {
+        private final DeploymentSessionImpl m_session;
+        private final IncrementalSnapshot m_snapshot;
+        private final File m_root;
+
+        private RestoreIncrementalSnapshotRunnable(DeploymentSessionImpl session, IncrementalSnapshot snapshot, File root) {
+            m_session = session;
+            m_snapshot = snapshot;
+            m_root = root;
+        }
+
+        protected void doRun() throws Exception {
+            m_snapshot.restore(m_root);
+        }
+
+        protected void onFailure(Exception e) {
+            m_session.getLog().log(LogService.LOG_WARNING, "Failed to restore snapshot!", e);
+        }
+    }
+
     private static class RestoreSnapshotRunnable extends AbstractAction {
         private final DeploymentSessionImpl m_session;
         private final File m_snapshot;
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
@@ -103,6 +104,77 @@ public class ContentCopyingJarInputStreamTest extends TestCase
         assertJarContents(man);
     }
 
+    /**
+     * Tests that an {@link EntrySpooler} hands over all entries in order, after they are copied completely.
+     */
+    public void testSpoolJarEntriesAheadOk() throws Exception
+    {
+        createJar(createManifest(), false /* includeIndex */);
+
+        FileInputStream fis = new FileInputStream(m_jarFile);
+        JarInputStream jis = new ContentCopyingJarInputStream(fis, new File(m_tempDir, "index.txt"), m_tempDir);
+        EntrySpooler spooler = new EntrySpooler(jis);
+        spooler.start();
+
+        try
+        {
+            for (int j = 1; j <= 5; j++)
+            {
+                assertEquals("sub/" + j, spooler.nextEntry());
+
+                byte[] expected = new byte[1024];
+                Arrays.fill(expected, (byte) ('0' + j));
+                verifyContents(new File(m_tempDir, "sub/" + j), expected);
+            }
+            assertNull(spooler.nextEntry());
+        }
+        finally
+        {
+            spooler.close();
+            jis.close();
+            fis.close();
+        }
+    }
+
+    /**
+     * Tests that an {@link EntrySpooler} can be closed before all entries are handed over.
+     */
+    public void testCloseEntrySpoolerEarlyOk() throws Exception
+    {
+        FileOutputStream fos = new FileOutputStream(m_jarFile);
+        JarOutputStream jos = new JarOutputStream(fos, createManifest());
+        try
+        {
+            appendFiles(jos, 50);
+        }
+        finally
+        {
+            jos.close();
+        }
+
+        FileInputStream fis = new FileInputStream(m_jarFile);
+        JarInputStream jis = new ContentCopyingJarInputStream(fis, new File(m_tempDir, "index.txt"), m_tempDir);
+        EntrySpooler spooler = new EntrySpooler(jis);
+        spooler.start();
+
+        try
+        {
+            assertEquals("sub/1", spooler.nextEntry());
+
+            long start = System.currentTimeMillis();
+            spooler.close();
+            assertTrue("Closing took too long?!", System.currentTimeMillis() - start < 1000);
+
+            // No more entries are handed over once closed...
+            assertNull(spooler.nextEntry());
+        }
+        finally
+        {
+            jis.close();
+            fis.close();
+        }
+    }
+
     protected void setUp() throws IOException
     {
         m_tempDir = createTempDir();
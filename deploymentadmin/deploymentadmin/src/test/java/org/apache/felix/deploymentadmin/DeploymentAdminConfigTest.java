@@ -37,9 +37,13 @@ public class DeploymentAdminConfigTest extends TestCase {
     private static final String KEY_STOP_UNAFFECTED_BUNDLE = DeploymentAdminConfig.KEY_STOP_UNAFFECTED_BUNDLE;
     private static final String KEY_STOP_UNAFFECTED_BUNDLES = DeploymentAdminConfig.KEY_STOP_UNAFFECTED_BUNDLES;
     private static final String KEY_ALLOW_FOREIGN_CUSTOMIZERS = DeploymentAdminConfig.KEY_ALLOW_FOREIGN_CUSTOMIZERS;
+    private static final String KEY_INCREMENTAL_SNAPSHOTS = DeploymentAdminConfig.KEY_INCREMENTAL_SNAPSHOTS;
+    private static final String KEY_PIPELINED_INSTALL = DeploymentAdminConfig.KEY_PIPELINED_INSTALL;
 
     private static final boolean DEFAULT_STOP_UNAFFECTED_BUNDLES = DeploymentAdminConfig.DEFAULT_STOP_UNAFFECTED_BUNDLES;
     private static final boolean DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS = DeploymentAdminConfig.DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS;
+    private static final boolean DEFAULT_INCREMENTAL_SNAPSHOTS = DeploymentAdminConfig.DEFAULT_INCREMENTAL_SNAPSHOTS;
+    private static final boolean DEFAULT_PIPELINED_INSTALL = DeploymentAdminConfig.DEFAULT_PIPELINED_INSTALL;
 
     private final Map m_fwProperties = new HashMap();
 
@@ -51,6 +55,8 @@ public class DeploymentAdminConfigTest extends TestCase {
 
         assertEquals(DEFAULT_STOP_UNAFFECTED_BUNDLES, config.isStopUnaffectedBundles());
         assertEquals(DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS, config.isAllowForeignCustomizers());
+        assertEquals(DEFAULT_INCREMENTAL_SNAPSHOTS, config.isIncrementalSnapshots());
+        assertEquals(DEFAULT_PIPELINED_INSTALL, config.isPipelinedInstall());
     }
 
     /**
@@ -59,11 +65,15 @@ public class DeploymentAdminConfigTest extends TestCase {
     public void testFrameworkConfigurationOk() throws ConfigurationException {
         m_fwProperties.put(KEY_STOP_UNAFFECTED_BUNDLES, Boolean.toString(!DEFAULT_STOP_UNAFFECTED_BUNDLES));
         m_fwProperties.put(KEY_ALLOW_FOREIGN_CUSTOMIZERS, Boolean.toString(!DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS));
+        m_fwProperties.put(KEY_INCREMENTAL_SNAPSHOTS, Boolean.toString(!DEFAULT_INCREMENTAL_SNAPSHOTS));
+        m_fwProperties.put(KEY_PIPELINED_INSTALL, Boolean.toString(!DEFAULT_PIPELINED_INSTALL));
 
         DeploymentAdminConfig config = createDeploymentAdminConfig();
 
         assertEquals(!DEFAULT_STOP_UNAFFECTED_BUNDLES, config.isStopUnaffectedBundles());
         assertEquals(!DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS, config.isAllowForeignCustomizers());
+        assertEquals(!DEFAULT_INCREMENTAL_SNAPSHOTS, config.isIncrementalSnapshots());
+        assertEquals(!DEFAULT_PIPELINED_INSTALL, config.isPipelinedInstall());
     }
 
     /**
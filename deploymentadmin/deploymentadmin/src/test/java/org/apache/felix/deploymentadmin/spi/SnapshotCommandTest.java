@@ -42,6 +42,51 @@ import org.apache.felix.deploymentadmin.Utils;
 public class SnapshotCommandTest extends TestCase {
     private final List m_cleanup = new ArrayList();
 
+    /**
+     * Tests that an incremental snapshot only copies the files changed since its last update.
+     */
+    public void testIncrementalSnapshotUpdateOk() throws Exception {
+        File baseDir = createFileHierarchy();
+        setLastModified(baseDir, System.currentTimeMillis() - 60000L);
+
+        IncrementalSnapshot snapshot = new IncrementalSnapshot(createTempDir());
+        assertEquals(6, snapshot.update(baseDir));
+        // Nothing changed in the meantime...
+        assertEquals(0, snapshot.update(baseDir));
+
+        File file3 = new File(baseDir, "dir1/dir1a/file3");
+        assertTrue(file3.delete());
+        createFile(file3, 4096);
+
+        assertEquals(1, snapshot.update(baseDir));
+    }
+
+    /**
+     * Tests that an incremental snapshot correctly restores a changed data area.
+     */
+    public void testIncrementalSnapshotRestoreOk() throws Exception {
+        File baseDir = createFileHierarchy();
+        setLastModified(baseDir, System.currentTimeMillis() - 60000L);
+
+        File expectedDir = createTempDir();
+        Utils.copy(baseDir, expectedDir);
+
+        IncrementalSnapshot snapshot = new IncrementalSnapshot(createTempDir());
+        snapshot.update(baseDir);
+
+        // Change, add and remove some files and directories...
+        File file1 = new File(baseDir, "file1");
+        assertTrue(file1.delete());
+        createFile(file1, 1024);
+        createFile(new File(baseDir, "file7"), 512);
+        assertTrue(Utils.delete(new File(baseDir, "dir1/dir1b"), true /* deleteRoot */));
+
+        assertEquals(2, snapshot.restore(baseDir));
+
+        verifyDirContents(expectedDir, baseDir);
+        assertFalse(new File(baseDir, "file7").exists());
+    }
+
     /**
      * Tests that an archive can be correctly restored.
      * <p>
@@ -146,6 +191,14 @@ public class SnapshotCommandTest extends TestCase {
         return base;
     }
 
+    private void setLastModified(File file, long time) {
+        File[] files = file.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++) {
+            setLastModified(files[i], time);
+        }
+        assertTrue(file.setLastModified(time));
+    }
+
     private File createTempDir() throws IOException {
         File dir = File.createTempFile("felix4718-", "");
         assertTrue(dir.delete());
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A persistent record of the bundles installed from a watched directory.
+ *
+ * For each artifact, the store remembers the size, the last modification
+ * date and the file key (the inode on unix systems) of the file, along with
+ * the checksum and the id of the bundle it has been installed as.  On restart,
+ * an artifact whose file still has the same size, date and key is known to
+ * be unchanged and can be managed again without being opened.
+ */
+public class ArtifactStore
+{
+
+    private final File file;
+    private final Properties entries = new Properties();
+
+    public ArtifactStore(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Load the previously saved entries, if any.
+     */
+    public void load() throws IOException
+    {
+        entries.clear();
+        if (file.isFile())
+        {
+            InputStream in = new FileInputStream(file);
+            try
+            {
+                entries.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the saved entries with the given artifacts.
+     * Only artifacts installed as bundles from a plain file are recorded.
+     */
+    public void save(Collection<Artifact> artifacts) throws IOException
+    {
+        entries.clear();
+        for (Artifact artifact : artifacts)
+        {
+            File path = artifact.getPath();
+            if (artifact.getBundleId() > 0 && path != null && path.isFile())
+            {
+                entries.setProperty(path.getPath(),
+                        artifact.getChecksum() + ","
+                        + artifact.getBundleId() + ","
+                        + path.length() + ","
+                        + path.lastModified() + ","
+                        + getFileKey(path));
+            }
+        }
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            entries.store(out, "Artifacts installed by File Install");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Retrieve the recorded artifacts whose file has not changed since they were saved.
+     * The returned artifacts have their path, checksum and bundle id set.
+     */
+    public List<Artifact> getUnchangedArtifacts()
+    {
+        List<Artifact> artifacts = new ArrayList<Artifact>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet())
+        {
+            File path = new File((String) entry.getKey());
+            String[] values = ((String) entry.getValue()).split(",", 5);
+            if (values.length != 5 || !path.isFile())
+            {
+                continue;
+            }
+            try
+            {
+                if (Long.parseLong(values[2]) == path.length()
+                        && Long.parseLong(values[3]) == path.lastModified()
+                        && values[4].equals(getFileKey(path)))
+                {
+                    Artifact artifact = new Artifact();
+                    artifact.setPath(path);
+                    artifact.setChecksum(Long.parseLong(values[0]));
+                    artifact.setBundleId(Long.parseLong(values[1]));
+                    artifacts.add(artifact);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                // Ignore corrupted entry, the artifact will be processed again
+            }
+        }
+        return artifacts;
+    }
+
+    /**
+     * Returns a string identifying the file on its file system, or an empty string
+     * if it can not be determined (NIO2 not available or not supported by the file system).
+     */
+    static String getFileKey(File file)
+    {
+        try
+        {
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            return key != null ? key.toString() : "";
+        }
+        catch (Throwable t)
+        {
+            return "";
+        }
+    }
+
+}
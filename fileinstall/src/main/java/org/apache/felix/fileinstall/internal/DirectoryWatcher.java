@@ -38,7 +38,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
@@ -61,6 +68,7 @@ import org.osgi.framework.Version;
 import org.osgi.framework.startlevel.BundleStartLevel;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.FrameworkWiring;
 
 /**
  * -DirectoryWatcher-
@@ -106,6 +114,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
     public final static String OPTIONAL_SCOPE = "felix.fileinstall.optionalImportRefreshScope";
     public final static String FRAGMENT_SCOPE = "felix.fileinstall.fragmentRefreshScope";
     public final static String DISABLE_NIO2 = "felix.fileinstall.disableNio2";
+    public final static String PARALLELISM = "felix.fileinstall.parallelism";
+    public final static String ARTIFACT_STORE = "felix.fileinstall.artifactStore";
 
     public final static String SCOPE_NONE = "none";
     public final static String SCOPE_MANAGED = "managed";
@@ -138,6 +148,13 @@ public class DirectoryWatcher extends Thread implements BundleListener
     String fragmentScope;
     String optionalScope;
     boolean disableNio2;
+    int parallelism;
+
+    // Pool used to process artifacts concurrently, lazily created when parallelism > 1
+    private ExecutorService executor;
+
+    // Persistent record of the installed artifacts, null if disabled
+    ArtifactStore artifactStore;
 
     // Map of all installed artifacts
     final Map<File, Artifact> currentManagedArtifacts = new HashMap<File, Artifact>();
@@ -182,6 +199,16 @@ public class DirectoryWatcher extends Thread implements BundleListener
         fragmentScope = properties.get(FRAGMENT_SCOPE);
         optionalScope = properties.get(OPTIONAL_SCOPE);
         disableNio2 = getBoolean(properties, DISABLE_NIO2, false);
+        parallelism = getInt(properties, PARALLELISM, 1);  // by default, process artifacts serially
+        if (getBoolean(properties, ARTIFACT_STORE, false))
+        {
+            File storeFile = context.getDataFile("artifacts-"
+                    + Integer.toHexString(watchedDirectory.getAbsolutePath().hashCode()) + ".properties");
+            if (storeFile != null)
+            {
+                artifactStore = new ArtifactStore(storeFile);
+            }
+        }
         this.context.addBundleListener(this);
 
         if (disableNio2) {
@@ -276,7 +303,8 @@ public class DirectoryWatcher extends Thread implements BundleListener
                             + START_NEW_BUNDLES + " = " + startBundles + ", "
                             + TMPDIR + " = " + tmpDir + ", "
                             + FILTER + " = " + filter + ", "
-                            + START_LEVEL + " = " + startLevel + "}", null
+                            + START_LEVEL + " = " + startLevel + ", "
+                            + PARALLELISM + " = " + parallelism + "}", null
             );
 
             if (!noInitialDelay) {
@@ -350,7 +378,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
-    private void process(Set<File> files) throws InterruptedException
+    void process(Set<File> files) throws InterruptedException
     {
         fileInstall.lock.readLock().lockInterruptibly();
         try
@@ -365,10 +393,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
 
     private void doProcess(Set<File> files) throws InterruptedException
     {
-        List<ArtifactListener> listeners = fileInstall.getListeners();
-        List<Artifact> deleted = new ArrayList<Artifact>();
-        List<Artifact> modified = new ArrayList<Artifact>();
-        List<Artifact> created = new ArrayList<Artifact>();
+        final List<ArtifactListener> listeners = fileInstall.getListeners();
 
         // Try to process again files that could not be processed
         synchronized (processingFailures)
@@ -377,103 +402,48 @@ public class DirectoryWatcher extends Thread implements BundleListener
             processingFailures.clear();
         }
 
-        for (File file : files) {
-            boolean exists = file.exists();
-            Artifact artifact = getArtifact(file);
-            // File has been deleted
-            if (!exists) {
-                if (artifact != null) {
-                    deleteJaredDirectory(artifact);
-                    deleteTransformedFile(artifact);
-                    deleted.add(artifact);
-                }
-            }
-            // File exists
-            else {
-                File jar = file;
-                URL jaredUrl = null;
-                try {
-                    jaredUrl = file.toURI().toURL();
-                } catch (MalformedURLException e) {
-                    // Ignore, can't happen
-                }
-                // Jar up the directory if needed
-                if (file.isDirectory()) {
-                    prepareTempDir();
-                    try {
-                        jar = new File(tmpDir, file.getName() + ".jar");
-                        Util.jarDir(file, jar);
-                        jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
-
-                    } catch (IOException e) {
-                        // Notify user of problem, won't retry until the dir is updated.
-                        log(Logger.LOG_ERROR,
-                                "Unable to create jar for: " + file.getAbsolutePath(), e);
-                        continue;
-                    }
-                }
-                // File has been modified
-                if (artifact != null) {
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    // If there's no listener, this is because this artifact has been installed before
-                    // fileinstall has been restarted.  In this case, try to find a listener.
-                    if (artifact.getListener() == null) {
-                        ArtifactListener listener = findListener(jar, listeners);
-                        // If no listener can handle this artifact, we need to defer the
-                        // processing for this artifact until one is found
-                        if (listener == null) {
-                            synchronized (processingFailures) {
-                                processingFailures.add(file);
-                            }
-                            continue;
-                        }
-                        artifact.setListener(listener);
-                    }
-                    // If the listener can not handle this file anymore,
-                    // uninstall the artifact and try as if is was new
-                    if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
-                        deleted.add(artifact);
-                    }
-                    // The listener is still ok
-                    else {
-                        deleteTransformedFile(artifact);
-                        artifact.setJaredDirectory(jar);
-                        artifact.setJaredUrl(jaredUrl);
-                        if (transformArtifact(artifact)) {
-                            modified.add(artifact);
-                        } else {
-                            deleteJaredDirectory(artifact);
-                            deleted.add(artifact);
-                        }
+        Changes changes = new Changes();
+        if (parallelism > 1 && files.size() > 1)
+        {
+            // Jar up, probe listeners and transform the artifacts concurrently,
+            // then merge the outcome in scan order so that the install, update
+            // and uninstall steps below run exactly as in the serial case.
+            List<Future<Changes>> futures = new ArrayList<Future<Changes>>(files.size());
+            for (final File file : files)
+            {
+                futures.add(getExecutor().submit(new Callable<Changes>()
+                {
+                    public Changes call()
+                    {
+                        Changes c = new Changes();
+                        processFile(file, listeners, c);
+                        return c;
                     }
+                }));
+            }
+            for (Future<Changes> future : futures)
+            {
+                try
+                {
+                    changes.addAll(future.get());
                 }
-                // File has been added
-                else {
-                    // Find the listener
-                    ArtifactListener listener = findListener(jar, listeners);
-                    // If no listener can handle this artifact, we need to defer the
-                    // processing for this artifact until one is found
-                    if (listener == null) {
-                        synchronized (processingFailures) {
-                            processingFailures.add(file);
-                        }
-                        continue;
-                    }
-                    // Create the artifact
-                    artifact = new Artifact();
-                    artifact.setPath(file);
-                    artifact.setJaredDirectory(jar);
-                    artifact.setJaredUrl(jaredUrl);
-                    artifact.setListener(listener);
-                    artifact.setChecksum(scanner.getChecksum(file));
-                    if (transformArtifact(artifact)) {
-                        created.add(artifact);
-                    } else {
-                        deleteJaredDirectory(artifact);
-                    }
+                catch (ExecutionException e)
+                {
+                    log(Logger.LOG_ERROR, "Unable to process artifact", e.getCause());
                 }
             }
         }
+        else
+        {
+            for (File file : files)
+            {
+                processFile(file, listeners, changes);
+            }
+        }
+        List<Artifact> deleted = changes.deleted;
+        List<Artifact> modified = changes.modified;
+        List<Artifact> created = changes.created;
+
         // Handle deleted artifacts
         // We do the operations in the following order:
         // uninstall, update, install, refresh & start.
@@ -493,11 +463,30 @@ public class DirectoryWatcher extends Thread implements BundleListener
             {
                 // Refresh if any bundle got uninstalled or updated.
                 refresh(toRefresh);
+                // When processing in parallel, resolve the whole batch at once rather
+                // than letting each bundle be resolved on its own when started.
+                if (parallelism > 1)
+                {
+                    resolve(toRefresh);
+                }
                 // set the state to reattempt starting managed bundles which aren't already STARTING or ACTIVE
                 setStateChanged(true);
             }
         }
 
+        if (artifactStore != null
+                && (!deleted.isEmpty() || !modified.isEmpty() || !created.isEmpty()))
+        {
+            try
+            {
+                artifactStore.save(getArtifacts());
+            }
+            catch (IOException e)
+            {
+                log(Logger.LOG_WARNING, "Unable to save the state of the installed artifacts", e);
+            }
+        }
+
         if (startBundles && isStateChanged())
         {
             // Try to start all the bundles that are not persistently stopped
@@ -513,6 +502,111 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
 
+    /**
+     * Find out whether the given file has been created, modified or deleted
+     * and record the corresponding artifact in <code>changes</code>.
+     * When {@link #PARALLELISM} is greater than 1, this method is called
+     * concurrently for several files.
+     */
+    private void processFile(File file, List<ArtifactListener> listeners, Changes changes)
+    {
+        boolean exists = file.exists();
+        Artifact artifact = getArtifact(file);
+        // File has been deleted
+        if (!exists) {
+            if (artifact != null) {
+                deleteJaredDirectory(artifact);
+                deleteTransformedFile(artifact);
+                changes.deleted.add(artifact);
+            }
+        }
+        // File exists
+        else {
+            File jar = file;
+            URL jaredUrl = null;
+            try {
+                jaredUrl = file.toURI().toURL();
+            } catch (MalformedURLException e) {
+                // Ignore, can't happen
+            }
+            // Jar up the directory if needed
+            if (file.isDirectory()) {
+                prepareTempDir();
+                try {
+                    jar = new File(tmpDir, file.getName() + ".jar");
+                    Util.jarDir(file, jar);
+                    jaredUrl = new URL(JarDirUrlHandler.PROTOCOL, null, file.getPath());
+
+                } catch (IOException e) {
+                    // Notify user of problem, won't retry until the dir is updated.
+                    log(Logger.LOG_ERROR,
+                            "Unable to create jar for: " + file.getAbsolutePath(), e);
+                    return;
+                }
+            }
+            // File has been modified
+            if (artifact != null) {
+                artifact.setChecksum(scanner.getChecksum(file));
+                // If there's no listener, this is because this artifact has been installed before
+                // fileinstall has been restarted.  In this case, try to find a listener.
+                if (artifact.getListener() == null) {
+                    ArtifactListener listener = findListener(jar, listeners);
+                    // If no listener can handle this artifact, we need to defer the
+                    // processing for this artifact until one is found
+                    if (listener == null) {
+                        synchronized (processingFailures) {
+                            processingFailures.add(file);
+                        }
+                        return;
+                    }
+                    artifact.setListener(listener);
+                }
+                // If the listener can not handle this file anymore,
+                // uninstall the artifact and try as if is was new
+                if (!listeners.contains(artifact.getListener()) || !artifact.getListener().canHandle(jar)) {
+                    changes.deleted.add(artifact);
+                }
+                // The listener is still ok
+                else {
+                    deleteTransformedFile(artifact);
+                    artifact.setJaredDirectory(jar);
+                    artifact.setJaredUrl(jaredUrl);
+                    if (transformArtifact(artifact)) {
+                        changes.modified.add(artifact);
+                    } else {
+                        deleteJaredDirectory(artifact);
+                        changes.deleted.add(artifact);
+                    }
+                }
+            }
+            // File has been added
+            else {
+                // Find the listener
+                ArtifactListener listener = findListener(jar, listeners);
+                // If no listener can handle this artifact, we need to defer the
+                // processing for this artifact until one is found
+                if (listener == null) {
+                    synchronized (processingFailures) {
+                        processingFailures.add(file);
+                    }
+                    return;
+                }
+                // Create the artifact
+                artifact = new Artifact();
+                artifact.setPath(file);
+                artifact.setJaredDirectory(jar);
+                artifact.setJaredUrl(jaredUrl);
+                artifact.setListener(listener);
+                artifact.setChecksum(scanner.getChecksum(file));
+                if (transformArtifact(artifact)) {
+                    changes.created.add(artifact);
+                } else {
+                    deleteJaredDirectory(artifact);
+                }
+            }
+        }
+    }
+
     ArtifactListener findListener(File artifact, List<ArtifactListener> listeners)
     {
         for (ArtifactListener listener : listeners) {
@@ -589,7 +683,7 @@ public class DirectoryWatcher extends Thread implements BundleListener
     }
 
 
-    private void prepareTempDir()
+    private synchronized void prepareTempDir()
     {
         if (tmpDir == null)
         {
@@ -674,6 +768,45 @@ public class DirectoryWatcher extends Thread implements BundleListener
         FileInstall.refresh(context, bundles);
     }
 
+    /**
+     * Convenience to resolve a batch of bundles
+     */
+    void resolve(Collection<Bundle> bundles)
+    {
+        List<Bundle> toResolve = new ArrayList<Bundle>();
+        for (Bundle bundle : bundles)
+        {
+            if (bundle.getState() == Bundle.INSTALLED)
+            {
+                toResolve.add(bundle);
+            }
+        }
+        if (!toResolve.isEmpty())
+        {
+            context.getBundle(0).adapt(FrameworkWiring.class).resolveBundles(toResolve);
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            final String name = getName();
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+            {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
     /**
      * Retrieve a property as a long.
      *
@@ -764,6 +897,14 @@ public class DirectoryWatcher extends Thread implements BundleListener
     {
         this.context.removeBundleListener(this);
         interrupt();
+        synchronized (this)
+        {
+            if (executor != null)
+            {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
         for (Artifact artifact : getArtifacts()) {
             deleteTransformedFile(artifact);
             deleteJaredDirectory(artifact);
@@ -796,6 +937,22 @@ public class DirectoryWatcher extends Thread implements BundleListener
         Bundle[] bundles = this.context.getBundles();
         String watchedDirPath = watchedDirectory.toURI().normalize().getPath();
         Map<File, Long> checksums = new HashMap<File, Long>();
+        Map<File, Artifact> unchanged = new HashMap<File, Artifact>();
+        if (artifactStore != null)
+        {
+            try
+            {
+                artifactStore.load();
+                for (Artifact artifact : artifactStore.getUnchangedArtifacts())
+                {
+                    unchanged.put(artifact.getPath(), artifact);
+                }
+            }
+            catch (IOException e)
+            {
+                log(Logger.LOG_WARNING, "Unable to load the state of the installed artifacts", e);
+            }
+        }
         for (Bundle bundle : bundles) {
             // Convert to a URI because the location of a bundle
             // is typically a URI. At least, that's the case for
@@ -841,15 +998,27 @@ public class DirectoryWatcher extends Thread implements BundleListener
             }
             final int index = path.lastIndexOf('/');
             if (index != -1 && path.startsWith(watchedDirPath)) {
+                Artifact stored = unchanged.remove(new File(path));
                 Artifact artifact = new Artifact();
                 artifact.setBundleId(bundle.getBundleId());
-                artifact.setChecksum(Util.loadChecksum(bundle, context));
+                artifact.setChecksum(stored != null && stored.getBundleId() == bundle.getBundleId()
+                        ? stored.getChecksum() : Util.loadChecksum(bundle, context));
                 artifact.setListener(null);
                 artifact.setPath(new File(path));
                 setArtifact(new File(path), artifact);
                 checksums.put(new File(path), artifact.getChecksum());
             }
         }
+        // Remaining unchanged artifacts have been installed from another location,
+        // usually a transformed file: manage them again if their bundle is still there
+        for (Artifact artifact : unchanged.values())
+        {
+            if (context.getBundle(artifact.getBundleId()) != null)
+            {
+                setArtifact(artifact.getPath(), artifact);
+                checksums.put(artifact.getPath(), artifact.getChecksum());
+            }
+        }
         scanner.initialize(checksums);
     }
 
@@ -1469,6 +1638,23 @@ public class DirectoryWatcher extends Thread implements BundleListener
         }
     }
     
+    /**
+     * Artifacts found to be deleted, modified or created during a scan.
+     */
+    private static class Changes
+    {
+        final List<Artifact> deleted = new ArrayList<Artifact>();
+        final List<Artifact> modified = new ArrayList<Artifact>();
+        final List<Artifact> created = new ArrayList<Artifact>();
+
+        void addAll(Changes changes)
+        {
+            deleted.addAll(changes.deleted);
+            modified.addAll(changes.modified);
+            created.addAll(changes.created);
+        }
+    }
+
     private void setStateChanged(boolean changed) {
         this.stateChanged.set(changed);
     }
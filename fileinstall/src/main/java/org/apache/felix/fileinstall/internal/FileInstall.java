@@ -104,6 +104,8 @@ public class FileInstall implements BundleActivator, ServiceTrackerCustomizer
             set(ht, DirectoryWatcher.NO_INITIAL_DELAY);
             set(ht, DirectoryWatcher.START_LEVEL);
             set(ht, DirectoryWatcher.OPTIONAL_SCOPE);
+            set(ht, DirectoryWatcher.PARALLELISM);
+            set(ht, DirectoryWatcher.ARTIFACT_STORE);
 
             // check if dir is an array of dirs
             String dirs = ht.get(DirectoryWatcher.DIR);
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.fileinstall.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the ArtifactStore
+ */
+public class ArtifactStoreTest extends TestCase
+{
+
+    private File dir;
+    private File storeFile;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        dir = new File("target/artifactstore");
+        dir.mkdirs();
+        storeFile = new File(dir, "artifacts.properties");
+        storeFile.delete();
+    }
+
+    public void testUnchangedArtifactIsRestored() throws IOException
+    {
+        File jar = createFile("bundle.jar", "content");
+        save(jar, 42, 1234);
+
+        ArtifactStore store = new ArtifactStore(storeFile);
+        store.load();
+        List<Artifact> artifacts = store.getUnchangedArtifacts();
+
+        assertEquals(1, artifacts.size());
+        assertEquals(jar, artifacts.get(0).getPath());
+        assertEquals(42, artifacts.get(0).getBundleId());
+        assertEquals(1234, artifacts.get(0).getChecksum());
+    }
+
+    public void testModifiedArtifactIsIgnored() throws IOException
+    {
+        File jar = createFile("modified.jar", "content");
+        save(jar, 42, 1234);
+        createFile("modified.jar", "modified content");
+
+        ArtifactStore store = new ArtifactStore(storeFile);
+        store.load();
+
+        assertTrue(store.getUnchangedArtifacts().isEmpty());
+    }
+
+    public void testDeletedArtifactIsIgnored() throws IOException
+    {
+        File jar = createFile("deleted.jar", "content");
+        save(jar, 42, 1234);
+        assertTrue(jar.delete());
+
+        ArtifactStore store = new ArtifactStore(storeFile);
+        store.load();
+
+        assertTrue(store.getUnchangedArtifacts().isEmpty());
+    }
+
+    public void testArtifactWithoutBundleIsNotSaved() throws IOException
+    {
+        File cfg = createFile("config.cfg", "a = b");
+        Artifact artifact = new Artifact();
+        artifact.setPath(cfg);
+        artifact.setChecksum(1234);
+        new ArtifactStore(storeFile).save(Arrays.asList(artifact));
+
+        ArtifactStore store = new ArtifactStore(storeFile);
+        store.load();
+
+        assertTrue(store.getUnchangedArtifacts().isEmpty());
+    }
+
+    private void save(File path, long bundleId, long checksum) throws IOException
+    {
+        Artifact artifact = new Artifact();
+        artifact.setPath(path);
+        artifact.setBundleId(bundleId);
+        artifact.setChecksum(checksum);
+        new ArtifactStore(storeFile).save(Arrays.asList(artifact));
+    }
+
+    private File createFile(String name, String content) throws IOException
+    {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes());
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+}
@@ -22,11 +22,13 @@ package org.apache.felix.fileinstall.internal;
 import java.io.File;
 import java.net.URISyntaxException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
 import junit.framework.TestCase;
+import org.apache.felix.fileinstall.ArtifactInstaller;
 import org.apache.felix.fileinstall.ArtifactListener;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
@@ -437,4 +439,65 @@ public class DirectoryWatcherTest extends TestCase
         EasyMock.verify(mockBundleContext, mockBundle,mockServiceReference, mockArtifactListener);
     }
 
+    /**
+     * Test the {@link DirectoryWatcher#process(java.util.Set)} with {@link DirectoryWatcher#PARALLELISM} set.
+     * Assert that all the artifacts are handed to the installer and are managed afterwards.
+     */
+    public void testProcessInParallel() throws Exception
+    {
+        final File watchedDirectoryFile = new File("src/test/resources/watched");
+        final Set<File> installed = Collections.synchronizedSet(new HashSet<File>());
+        final ArtifactInstaller installer = new ArtifactInstaller()
+        {
+            public boolean canHandle(File artifact)
+            {
+                return true;
+            }
+
+            public void install(File artifact)
+            {
+                installed.add(artifact);
+            }
+
+            public void update(File artifact)
+            {
+            }
+
+            public void uninstall(File artifact)
+            {
+            }
+        };
+        final ServiceReference mockServiceReference = EasyMock.createNiceMock(ServiceReference.class);
+
+        mockBundleContext.addBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
+        mockBundleContext.removeBundleListener((BundleListener) org.easymock.EasyMock.anyObject());
+        EasyMock.replay(mockBundleContext, mockServiceReference);
+
+        FileInstall fileInstall = new FileInstall();
+        fileInstall.listeners.put(mockServiceReference, installer);
+
+        props.put(DirectoryWatcher.DIR, watchedDirectoryFile.getAbsolutePath());
+        props.put(DirectoryWatcher.PARALLELISM, "4");
+
+        dw = new DirectoryWatcher(fileInstall, props, mockBundleContext);
+        assertEquals("PARALLELISM parameter correctly read", 4, dw.parallelism);
+
+        Set<File> files = new HashSet<File>();
+        files.add(new File(watchedDirectoryFile, "firstcfg.cfg"));
+        files.add(new File(watchedDirectoryFile, "firstjar.jar"));
+        files.add(new File(watchedDirectoryFile, "secondjar.jar"));
+        try
+        {
+            dw.process(files);
+        }
+        finally
+        {
+            dw.close();
+        }
+
+        assertEquals(files, installed);
+        assertEquals(3, dw.currentManagedArtifacts.size());
+        EasyMock.verify(mockBundleContext, mockServiceReference);
+    }
+
 }
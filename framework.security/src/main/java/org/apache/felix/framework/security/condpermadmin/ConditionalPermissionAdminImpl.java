@@ -218,6 +218,7 @@ public final class ConditionalPermissionAdminImpl implements
     private final Conditions m_conditions;
     private final LocalPermissions m_localPermissions;
     private final PermissionAdminImpl m_pai;
+    private final DecisionCache m_decisions = new DecisionCache();
 
     public ConditionalPermissionAdminImpl(Permissions permissions,
         Conditions condtions, LocalPermissions localPermissions,
@@ -300,6 +301,11 @@ public final class ConditionalPermissionAdminImpl implements
                 ex.printStackTrace();
                 throw new IllegalStateException(ex.getMessage());
             }
+            finally
+            {
+                // the table changed so previous decisions are no longer valid
+                m_decisions.invalidate();
+            }
         }
         synchronized (m_condPermInfos)
         {
@@ -680,7 +686,7 @@ public final class ConditionalPermissionAdminImpl implements
                 {
                     return result.booleanValue();
                 }
-                if (eval(posts, new BundleRevisionImpl(fake, Long.toString(fake.getBundleId())), permission, m_pai))
+                if (eval(posts, new BundleRevisionImpl(fake, Long.toString(fake.getBundleId())), permission, m_pai, null))
                 {
                     if (!posts.isEmpty())
                     {
@@ -875,16 +881,47 @@ public final class ConditionalPermissionAdminImpl implements
             }
         }
 
+        // Decisions taken while a condition is evaluated may depend on the
+        // condition stack, so they are neither looked up nor cached.
+        boolean cacheable = !Conditions.isEvaluating();
+        long generation = m_decisions.getGeneration();
+        Object decision = cacheable
+            ? m_decisions.get(pd, module, permission, admin) : null;
+
         // check the local permissions. they need to all the permission if there
         // are any
-        if (!impliesLocal(module.getBundle(), content, permission))
+        if ((decision == DecisionCache.DENIED_LOCALLY)
+            || ((decision == null) && !impliesLocal(module.getBundle(),
+                content, permission)))
         {
+            if (cacheable)
+            {
+                m_decisions.put(generation, pd, module, permission, admin,
+                    DecisionCache.DENIED_LOCALLY);
+            }
             return false;
         }
 
         List posts = new ArrayList();
 
-        boolean result = eval(posts, module, permission, admin);
+        boolean result;
+        if (decision != null)
+        {
+            result = ((Boolean) decision).booleanValue();
+        }
+        else
+        {
+            List conditions = new ArrayList();
+            result = eval(posts, module, permission, admin, conditions);
+
+            // Only cache decisions which do not depend on postponed or
+            // mutable conditions
+            if (cacheable && posts.isEmpty() && !isMutable(conditions))
+            {
+                m_decisions.put(generation, pd, module, permission, admin,
+                    result ? Boolean.TRUE : Boolean.FALSE);
+            }
+        }
 
         domains.remove(pd);
 
@@ -917,6 +954,27 @@ public final class ConditionalPermissionAdminImpl implements
         return result;
     }
 
+    private boolean isMutable(List conditions)
+    {
+        for (Iterator iter = conditions.iterator(); iter.hasNext();)
+        {
+            if (((Conditions) iter.next()).isMutable())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the cache of the permission decisions, e.g., to get at its hit
+     * rate.
+     */
+    public DecisionCache getDecisionCache()
+    {
+        return m_decisions;
+    }
+
     public boolean impliesLocal(Bundle felixBundle, Content content,
         Permission permission)
     {
@@ -935,9 +993,10 @@ public final class ConditionalPermissionAdminImpl implements
     // de note the permission in question unless the conditions are postponed
     // then we make sure their permissions imply the permission and add them
     // to the list of posts. Return true in case we pass or have posts
-    // else falls and clear the posts first.
+    // else falls and clear the posts first. The conditions consulted are
+    // added to the given list, if any.
     private boolean eval(List posts, BundleRevisionImpl module, Permission permission,
-        Object admin)
+        Object admin, List consulted)
     {
         List condPermInfos = null;
 
@@ -969,6 +1028,10 @@ public final class ConditionalPermissionAdminImpl implements
             List currentPosts = new ArrayList();
 
             Conditions conds = m_conditions.getConditions(module, conditions);
+            if (consulted != null)
+            {
+                consulted.add(conds);
+            }
             if (!conds.isSatisfied(currentPosts, m_permissions
                 .getPermissions(cpi._getPermissionInfos()), permission))
             {
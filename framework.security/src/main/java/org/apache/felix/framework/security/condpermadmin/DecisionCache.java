@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.security.condpermadmin;
+
+import java.lang.ref.WeakReference;
+import java.security.Permission;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.osgi.framework.AdminPermission;
+import org.osgi.framework.CapabilityPermission;
+import org.osgi.framework.PackagePermission;
+import org.osgi.framework.ServicePermission;
+
+/**
+ * A cache for the decisions taken by the ConditionalPermissionAdmin. Decisions
+ * are cached per protection domain and keyed by the type, name and actions of
+ * the permission and by whether a permission admin takes part. The decisions of a domain are dropped as soon as it is
+ * checked with another revision of its bundle (i.e., after an update) and the
+ * whole cache is invalidated whenever the permission table changes. Callers
+ * must not cache decisions depending on mutable or postponed conditions.
+ */
+public final class DecisionCache
+{
+    // The decision for a permission denied by the local permissions
+    static final Object DENIED_LOCALLY = new Object();
+
+    private static final int MAX_DECISIONS = 1024;
+
+    private final Map m_domains = new WeakHashMap();
+    private long m_generation;
+    private long m_hits;
+    private long m_misses;
+    private long m_invalidations;
+
+    /**
+     * Return the generation of the cache. It has to be obtained before the
+     * decision is computed and handed back to {@link #put} so that decisions
+     * taken on a permission table which changed in the meantime are dropped.
+     */
+    long getGeneration()
+    {
+        synchronized (m_domains)
+        {
+            return m_generation;
+        }
+    }
+
+    /**
+     * Return the cached decision for the given permission, i.e.,
+     * <tt>Boolean.TRUE</tt>, <tt>Boolean.FALSE</tt> or {@link #DENIED_LOCALLY}
+     * or <tt>null</tt> if there is none.
+     */
+    Object get(ProtectionDomain pd, Object revision, Permission permission,
+        Object admin)
+    {
+        if (!isCacheable(permission))
+        {
+            return null;
+        }
+        String key = getKey(permission, admin);
+        synchronized (m_domains)
+        {
+            Domain domain = (Domain) m_domains.get(pd);
+            Object result = null;
+            if ((domain != null) && (domain.m_revision.get() == revision))
+            {
+                result = domain.m_decisions.get(key);
+            }
+            if (result != null)
+            {
+                m_hits++;
+            }
+            else
+            {
+                m_misses++;
+            }
+            return result;
+        }
+    }
+
+    void put(long generation, ProtectionDomain pd, Object revision,
+        Permission permission, Object admin, Object decision)
+    {
+        if (!isCacheable(permission))
+        {
+            return;
+        }
+        String key = getKey(permission, admin);
+        synchronized (m_domains)
+        {
+            if (generation != m_generation)
+            {
+                return;
+            }
+            Domain domain = (Domain) m_domains.get(pd);
+            if ((domain == null) || (domain.m_revision.get() != revision))
+            {
+                domain = new Domain(revision);
+                m_domains.put(pd, domain);
+            }
+            else if (domain.m_decisions.size() >= MAX_DECISIONS)
+            {
+                domain.m_decisions.clear();
+            }
+            domain.m_decisions.put(key, decision);
+        }
+    }
+
+    /**
+     * Drop all cached decisions.
+     */
+    public void invalidate()
+    {
+        synchronized (m_domains)
+        {
+            m_generation++;
+            m_invalidations++;
+            m_domains.clear();
+        }
+    }
+
+    public long getHits()
+    {
+        synchronized (m_domains)
+        {
+            return m_hits;
+        }
+    }
+
+    public long getMisses()
+    {
+        synchronized (m_domains)
+        {
+            return m_misses;
+        }
+    }
+
+    public long getInvalidations()
+    {
+        synchronized (m_domains)
+        {
+            return m_invalidations;
+        }
+    }
+
+    /**
+     * Return the ratio of checks answered from the cache, between 0 and 1.
+     */
+    public double getHitRate()
+    {
+        synchronized (m_domains)
+        {
+            long total = m_hits + m_misses;
+            return (total > 0) ? ((double) m_hits) / total : 0;
+        }
+    }
+
+    public String toString()
+    {
+        synchronized (m_domains)
+        {
+            return "DecisionCache[hits=" + m_hits + ", misses=" + m_misses
+                + ", invalidations=" + m_invalidations + ", domains="
+                + m_domains.size() + "]";
+        }
+    }
+
+    // Some permissions carry a context (the service, the exporting or
+    // providing bundle, the target bundle whose signers and location may
+    // change with an update) which is not part of their name and actions but
+    // matters for filter based grants. Those can not be keyed safely.
+    static boolean isCacheable(Permission permission)
+    {
+        return !((permission instanceof ServicePermission)
+            || (permission instanceof PackagePermission)
+            || (permission instanceof CapabilityPermission)
+            || (permission instanceof AdminPermission));
+    }
+
+    private static String getKey(Permission permission, Object admin)
+    {
+        return permission.getClass().getName() + "\n" + permission.getName()
+            + "\n" + permission.getActions() + "\n" + (admin != null);
+    }
+
+    private static final class Domain
+    {
+        private final WeakReference m_revision;
+        private final Map m_decisions = new HashMap();
+
+        Domain(Object revision)
+        {
+            m_revision = new WeakReference(revision);
+        }
+    }
+}
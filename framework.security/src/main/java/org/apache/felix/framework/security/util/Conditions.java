@@ -125,6 +125,42 @@ public final class Conditions
         return result;
     }
 
+    /**
+     * Return true in case the current thread is evaluating a condition.
+     */
+    public static boolean isEvaluating()
+    {
+        return m_conditionStack.get() != null;
+    }
+
+    /**
+     * Return true in case the outcome of {@link #isSatisfied} may change, i.e.,
+     * unless it was decided by conditions which turned out to be immutable.
+     */
+    public boolean isMutable()
+    {
+        if (m_conditions == null)
+        {
+            return false;
+        }
+        synchronized (m_conditions)
+        {
+            for (int i = 0; i < m_conditions.length; i++)
+            {
+                // conditions following an unsatisfied one are not evaluated
+                if (m_conditions[i] == Condition.FALSE)
+                {
+                    return false;
+                }
+                if (m_conditions[i] != Condition.TRUE)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     // See whether the given list is satisfied or not
     public boolean isSatisfied(List posts, Permissions permissions,
         Permission permission)
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.security.condpermadmin;
+
+import java.security.ProtectionDomain;
+import java.util.PropertyPermission;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.AdminPermission;
+
+public class DecisionCacheTest extends TestCase
+{
+    private final DecisionCache m_cache = new DecisionCache();
+    private final ProtectionDomain m_pd = new ProtectionDomain(null, null);
+    private final Object m_revision = new Object();
+    private final Object m_admin = new Object();
+
+    public void testHit()
+    {
+        m_cache.put(m_cache.getGeneration(), m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.TRUE);
+        m_cache.put(m_cache.getGeneration(), m_pd, m_revision,
+            new PropertyPermission("b", "read"), m_admin,
+            DecisionCache.DENIED_LOCALLY);
+
+        assertSame(Boolean.TRUE, m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin));
+        assertSame(DecisionCache.DENIED_LOCALLY, m_cache.get(m_pd, m_revision,
+            new PropertyPermission("b", "read"), m_admin));
+        assertEquals(2, m_cache.getHits());
+        assertEquals(0, m_cache.getMisses());
+    }
+
+    public void testMiss()
+    {
+        m_cache.put(m_cache.getGeneration(), m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.TRUE);
+
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "write"), m_admin));
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("b", "read"), m_admin));
+        assertNull(m_cache.get(new ProtectionDomain(null, null), m_revision,
+            new PropertyPermission("a", "read"), m_admin));
+        // the decision depends on whether a permission admin takes part
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "read"), null));
+        assertEquals(0, m_cache.getHits());
+        assertEquals(4, m_cache.getMisses());
+    }
+
+    public void testCommitInvalidates()
+    {
+        long generation = m_cache.getGeneration();
+        m_cache.put(generation, m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.TRUE);
+
+        // the permission table is committed
+        m_cache.invalidate();
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin));
+        assertEquals(1, m_cache.getInvalidations());
+
+        // a decision taken on the former table is dropped
+        m_cache.put(generation, m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.FALSE);
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin));
+    }
+
+    public void testRevisionChange()
+    {
+        m_cache.put(m_cache.getGeneration(), m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.TRUE);
+
+        // the bundle has been updated
+        Object revision = new Object();
+        assertNull(m_cache.get(m_pd, revision,
+            new PropertyPermission("a", "read"), m_admin));
+
+        m_cache.put(m_cache.getGeneration(), m_pd, revision,
+            new PropertyPermission("a", "read"), m_admin, Boolean.FALSE);
+        assertSame(Boolean.FALSE, m_cache.get(m_pd, revision,
+            new PropertyPermission("a", "read"), m_admin));
+        assertNull(m_cache.get(m_pd, m_revision,
+            new PropertyPermission("a", "read"), m_admin));
+    }
+
+    public void testAdminPermissionNotCached()
+    {
+        // the decision depends on the signers and location of the target
+        // bundle, which are not part of the key
+        AdminPermission permission = new AdminPermission("(id=1)",
+            AdminPermission.EXECUTE);
+        assertFalse(DecisionCache.isCacheable(permission));
+
+        m_cache.put(m_cache.getGeneration(), m_pd, m_revision, permission,
+            m_admin, Boolean.TRUE);
+        assertNull(m_cache.get(m_pd, m_revision, permission, m_admin));
+    }
+}
@@ -66,6 +66,7 @@ import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.ThreadGate;
 import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.NativeLibraryClause;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
 import org.osgi.framework.AdminPermission;
@@ -4937,6 +4938,9 @@ public class Felix extends BundleImpl implements Framework
             m_cache.release();
             m_cache = null;
 
+            // Drop the manifest parser caches shared with other frameworks.
+            ManifestParser.clearCaches();
+
             // Set the framework state to resolved.
             acquireBundleLock(Felix.this, Bundle.STOPPING);
             try
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.felix.framework.util.StringComparator;
+import org.osgi.framework.Constants;
+
+/**
+ * Immutable, compact representation of the properties of a service
+ * registration. Keys are compared case-insensitively, like in a
+ * <tt>StringMap</tt>, but lookups do not allocate. The properties used
+ * for sorting and finding services (i.e., <tt>objectClass</tt>,
+ * <tt>service.id</tt> and <tt>service.ranking</tt>) are kept in fields
+ * as well, so they can be accessed without a lookup.
+**/
+final class ServiceProperties extends AbstractMap<String, Object>
+{
+    // Keys as registered, sorted case-insensitively.
+    private final String[] m_keys;
+    // Values, in the same order.
+    private final Object[] m_values;
+    // Precomputed standard properties.
+    private final String[] m_objectClass;
+    private final Long m_serviceId;
+    private final long m_serviceIdValue;
+    private final int m_ranking;
+    // Lazily created entry set view.
+    private volatile Set<Map.Entry<String, Object>> m_entrySet;
+
+    /**
+     * Creates the properties from a map sorted case-insensitively (such as a
+     * <tt>StringMap</tt>), which must contain the framework assigned
+     * properties.
+    **/
+    ServiceProperties(Map<String, Object> sorted)
+    {
+        int size = sorted.size();
+        m_keys = new String[size];
+        m_values = new Object[size];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : sorted.entrySet())
+        {
+            m_keys[i] = entry.getKey();
+            m_values[i] = entry.getValue();
+            i++;
+        }
+
+        m_objectClass = (String[]) lookup(Constants.OBJECTCLASS);
+        m_serviceId = (Long) lookup(Constants.SERVICE_ID);
+        m_serviceIdValue = m_serviceId.longValue();
+        // If rank is not Integer, then spec says it defaults to zero.
+        Object rankObj = lookup(Constants.SERVICE_RANKING);
+        m_ranking = (rankObj instanceof Integer) ? ((Integer) rankObj).intValue() : 0;
+    }
+
+    String[] getObjectClass()
+    {
+        return m_objectClass;
+    }
+
+    Long getServiceId()
+    {
+        return m_serviceId;
+    }
+
+    long getServiceIdValue()
+    {
+        return m_serviceIdValue;
+    }
+
+    int getRanking()
+    {
+        return m_ranking;
+    }
+
+    /**
+     * Returns a new array with the keys as registered.
+    **/
+    String[] getKeys()
+    {
+        return (String[]) m_keys.clone();
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        if (!(key instanceof String))
+        {
+            return null;
+        }
+        String s = (String) key;
+        // Standard properties do not need a lookup.
+        if ((s == Constants.OBJECTCLASS) || Constants.OBJECTCLASS.equalsIgnoreCase(s))
+        {
+            return m_objectClass;
+        }
+        if ((s == Constants.SERVICE_ID) || Constants.SERVICE_ID.equalsIgnoreCase(s))
+        {
+            return m_serviceId;
+        }
+        return lookup(s);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return (key instanceof String) && (indexOf((String) key) >= 0);
+    }
+
+    @Override
+    public int size()
+    {
+        return m_keys.length;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        Set<Map.Entry<String, Object>> entrySet = m_entrySet;
+        if (entrySet == null)
+        {
+            entrySet = new EntrySet();
+            m_entrySet = entrySet;
+        }
+        return entrySet;
+    }
+
+    private Object lookup(String key)
+    {
+        int idx = indexOf(key);
+        return (idx >= 0) ? m_values[idx] : null;
+    }
+
+    private int indexOf(String key)
+    {
+        int low = 0;
+        int high = m_keys.length - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = StringComparator.COMPARATOR.compare(m_keys[mid], key);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>>
+    {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator()
+        {
+            return new Iterator<Map.Entry<String, Object>>()
+            {
+                private int m_idx = 0;
+
+                public boolean hasNext()
+                {
+                    return m_idx < m_keys.length;
+                }
+
+                public Map.Entry<String, Object> next()
+                {
+                    if (m_idx >= m_keys.length)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return new PropertyEntry(m_idx++);
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return m_keys.length;
+        }
+    }
+
+    private class PropertyEntry implements Map.Entry<String, Object>
+    {
+        private final int m_idx;
+
+        PropertyEntry(int idx)
+        {
+            m_idx = idx;
+        }
+
+        public String getKey()
+        {
+            return m_keys[m_idx];
+        }
+
+        public Object getValue()
+        {
+            return m_values[m_idx];
+        }
+
+        public Object setValue(Object value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return getKey().equals(e.getKey())
+                && ((getValue() == null) ? (e.getValue() == null) : getValue().equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return getKey().hashCode() ^ ((getValue() == null) ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
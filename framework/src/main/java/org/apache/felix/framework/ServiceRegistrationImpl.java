@@ -59,8 +59,8 @@ class ServiceRegistrationImpl implements ServiceRegistration
     private volatile Object m_svcObj;
     // Service factory interface.
     private volatile ServiceFactory m_factory;
-    // Associated property dictionary.
-    private volatile Map<String, Object> m_propMap = new StringMap();
+    // Associated immutable properties.
+    private volatile ServiceProperties m_propMap;
     // Re-usable service reference.
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
@@ -204,8 +204,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
 
     private String[] getPropertyKeys()
     {
-        Set s = m_propMap.keySet();
-        return (String[]) s.toArray(new String[s.size()]);
+        return m_propMap.getKeys();
     }
 
     private Bundle[] getUsingBundles()
@@ -332,7 +331,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
         }
 
         // Update the service property map.
-        m_propMap = props;
+        m_propMap = new ServiceProperties(props);
     }
 
     private Object getFactoryUnchecked(Bundle bundle)
@@ -496,7 +495,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
         @Override
         public String toString()
         {
-            String[] ocs = (String[]) getProperty("objectClass");
+            String[] ocs = m_propMap.getObjectClass();
             String oc = "[";
             for(int i = 0; i < ocs.length; i++)
             {
@@ -655,6 +654,29 @@ class ServiceRegistrationImpl implements ServiceRegistration
         {
             ServiceReference other = (ServiceReference) reference;
 
+            // Use the precomputed properties if both references are ours.
+            if (other instanceof ServiceReferenceImpl)
+            {
+                ServiceProperties props = m_propMap;
+                ServiceProperties otherProps =
+                    ((ServiceReferenceImpl) other).getRegistration().m_propMap;
+                long id = props.getServiceIdValue();
+                long otherId = otherProps.getServiceIdValue();
+                if (id == otherId)
+                {
+                    return 0; // same service
+                }
+                int rank = props.getRanking();
+                int otherRank = otherProps.getRanking();
+                // Sort by rank in ascending order, then by service id
+                // in descending order.
+                if (rank != otherRank)
+                {
+                    return (rank < otherRank) ? -1 : 1;
+                }
+                return (id < otherId) ? 1 : -1;
+            }
+
             Long id = (Long) getProperty(Constants.SERVICE_ID);
             Long otherId = (Long) other.getProperty(Constants.SERVICE_ID);
 
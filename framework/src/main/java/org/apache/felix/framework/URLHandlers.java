@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.lang.ref.WeakReference;
 import java.net.ContentHandler;
 import java.net.ContentHandlerFactory;
 import java.net.URL;
@@ -29,6 +30,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.SecureAction;
@@ -93,8 +97,16 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
     private static final List m_frameworks = new ArrayList();
     private static int m_counter = 0;
 
-    private static Map m_contentHandlerCache = null;
-    private static Map m_streamHandlerCache = null;
+    // The only framework registered in this JVM, if any, which lets
+    // getFrameworkFromContext() return without walking the call stack.
+    private static volatile Object m_singleFramework = null;
+
+    // This maps the bundle class loaders seen by getFrameworkFromContext() to
+    // a weak reference to the framework owning them.
+    private static final Map m_classloaderToFramework = new WeakHashMap();
+
+    private static final ConcurrentMap m_contentHandlerCache = new ConcurrentHashMap();
+    private static final ConcurrentMap m_streamHandlerCache = new ConcurrentHashMap();
     private static URLStreamHandlerFactory m_streamHandlerFactory;
     private static ContentHandlerFactory m_contentHandlerFactory;
     private static final String STREAM_HANDLER_PACKAGE_PROP = "java.protocol.handler.pkgs";
@@ -299,6 +311,7 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
                 m_classloaderToFrameworkLists.put(index, frameworkLists);
             }
         }
+        frameworksChanged();
     }
 
     static void unregisterFrameworkListsForContextSearch(ClassLoader index)
@@ -350,6 +363,7 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
                 }
             }
         }
+        frameworksChanged();
     }
 
     private URLStreamHandler getBuiltInStreamHandler(String protocol, URLStreamHandlerFactory factory)
@@ -527,51 +541,36 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
             (m_contentHandlerFactory != this) ? m_contentHandlerFactory : null));
     }
 
-    private synchronized ContentHandler addToContentCache(String mimeType, ContentHandler handler)
+    private ContentHandler addToContentCache(String mimeType, ContentHandler handler)
     {
-        if (m_contentHandlerCache == null)
-        {
-            m_contentHandlerCache = new HashMap();
-        }
         return (ContentHandler) addToCache(m_contentHandlerCache, mimeType, handler);
     }
 
-    private synchronized ContentHandler getFromContentCache(String mimeType)
+    private ContentHandler getFromContentCache(String mimeType)
     {
-        return (ContentHandler) ((m_contentHandlerCache != null) ?
-            m_contentHandlerCache.get(mimeType) : null);
+        return (ContentHandler) m_contentHandlerCache.get(mimeType);
     }
 
-    private synchronized URLStreamHandler addToStreamCache(String protocol, URLStreamHandler handler)
+    private URLStreamHandler addToStreamCache(String protocol, URLStreamHandler handler)
     {
-        if (m_streamHandlerCache == null)
-        {
-            m_streamHandlerCache = new HashMap();
-        }
         return (URLStreamHandler) addToCache(m_streamHandlerCache, protocol, handler);
     }
 
-    private synchronized URLStreamHandler getFromStreamCache(String protocol)
+    private URLStreamHandler getFromStreamCache(String protocol)
     {
-        return (URLStreamHandler) ((m_streamHandlerCache != null) ?
-            m_streamHandlerCache.get(protocol) : null);
+        return (URLStreamHandler) m_streamHandlerCache.get(protocol);
     }
 
-    private Object addToCache(Map cache, String key, Object value)
+    private Object addToCache(ConcurrentMap cache, String key, Object value)
     {
         if (value == null)
         {
             return null;
         }
 
-        Object result = cache.get(key);
+        Object result = cache.putIfAbsent(key, value);
 
-        if (result == null)
-        {
-            cache.put(key, value);
-            result = value;
-        }
-        return result;
+        return (result != null) ? result : value;
     }
 
     /**
@@ -629,6 +628,7 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
                 }
             }
         }
+        frameworksChanged();
     }
 
     /**
@@ -694,6 +694,32 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
                 }
             }
         }
+        frameworksChanged();
+    }
+
+    /**
+     * <p>
+     * Updates the state used by <tt>getFrameworkFromContext()</tt> after a
+     * framework or a list of frameworks has been registered or unregistered.
+     * It must be called after releasing the lock on <tt>m_frameworks</tt> to
+     * respect the lock order.
+     * </p>
+    **/
+    private static void frameworksChanged()
+    {
+        synchronized (m_classloaderToFrameworkLists)
+        {
+            synchronized (m_frameworks)
+            {
+                m_singleFramework = (m_classloaderToFrameworkLists.isEmpty()
+                    && (m_counter == 1) && (m_frameworks.size() == 1))
+                    ? m_frameworks.get(0) : null;
+            }
+        }
+        synchronized (m_classloaderToFramework)
+        {
+            m_classloaderToFramework.clear();
+        }
     }
 
     /**
@@ -710,18 +736,10 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
     public static Object getFrameworkFromContext()
     {
         // This is a hack. The idea is to return the only registered framework
-        synchronized (m_classloaderToFrameworkLists)
+        Object single = m_singleFramework;
+        if (single != null)
         {
-            if (m_classloaderToFrameworkLists.isEmpty())
-            {
-                synchronized (m_frameworks)
-                {
-                    if ((m_counter == 1) && (m_frameworks.size() == 1))
-                    {
-                        return m_frameworks.get(0);
-                    }
-                }
-            }
+            return single;
         }
         // get the current class call stack.
         Class[] stack = m_sm.getClassContext();
@@ -747,6 +765,16 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
         // the bundle that loaded the class.
         if (targetClass != null)
         {
+            ClassLoader loader = targetClass.getClassLoader();
+            synchronized (m_classloaderToFramework)
+            {
+                WeakReference ref = (WeakReference) m_classloaderToFramework.get(loader);
+                Object framework = (ref != null) ? ref.get() : null;
+                if (framework != null)
+                {
+                    return framework;
+                }
+            }
             synchronized (m_classloaderToFrameworkLists)
             {
                 ClassLoader index = targetClass.getClassLoader().getClass().getClassLoader();
@@ -773,6 +801,13 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
                                     "getBundle", CLASS_TYPE),
                                     framework, new Object[]{targetClass}) != null)
                                 {
+                                    // All classes defined by this loader
+                                    // belong to the same framework.
+                                    synchronized (m_classloaderToFramework)
+                                    {
+                                        m_classloaderToFramework.put(loader,
+                                            new WeakReference(framework));
+                                    }
                                     return framework;
                                 }
                             }
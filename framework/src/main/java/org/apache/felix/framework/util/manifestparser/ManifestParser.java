@@ -327,7 +327,7 @@ public class ManifestParser
                 v = (v == null) ? sv : v;
                 clause.m_attrs.put(
                     Constants.VERSION_ATTRIBUTE,
-                    VersionRange.parse(v.toString()));
+                    ManifestParserCache.parseVersionRange(v.toString()));
             }
 
             // If bundle version is specified, then convert its type to VersionRange.
@@ -336,7 +336,7 @@ public class ManifestParser
             {
                 clause.m_attrs.put(
                     Constants.BUNDLE_VERSION_ATTRIBUTE,
-                    VersionRange.parse(v.toString()));
+                    ManifestParserCache.parseVersionRange(v.toString()));
             }
 
             // Verify java.* is not imported, nor any duplicate imports.
@@ -451,7 +451,9 @@ public class ManifestParser
                     path);
 
                 // Create filter now so we can inject filter directive.
-                SimpleFilter sf = SimpleFilter.convert(newAttrs);
+                // Bundles importing the same package with the same attributes
+                // share the filter.
+                SimpleFilter sf = ManifestParserCache.convert(newAttrs);
 
                 // Inject filter directive.
 // TODO: OSGi R4.3 - Can we insert this on demand somehow?
@@ -467,7 +469,7 @@ public class ManifestParser
                     new BundleRequirementImpl(
                         owner,
                         BundleRevision.PACKAGE_NAMESPACE,
-                        newDirs,
+                        ManifestParserCache.share(newDirs),
                         Collections.EMPTY_MAP,
                         sf));
             }
@@ -520,7 +522,7 @@ public class ManifestParser
                 v = (v == null) ? sv : v;
                 clause.m_attrs.put(
                     Constants.VERSION_ATTRIBUTE,
-                    VersionRange.parse(v.toString()));
+                    ManifestParserCache.parseVersionRange(v.toString()));
             }
 
             // If bundle version is specified, then convert its type to VersionRange.
@@ -529,7 +531,7 @@ public class ManifestParser
             {
                 clause.m_attrs.put(
                     Constants.BUNDLE_VERSION_ATTRIBUTE,
-                    VersionRange.parse(v.toString()));
+                    ManifestParserCache.parseVersionRange(v.toString()));
             }
 
             // Dynamic imports can have duplicates, so verify that java.*
@@ -593,8 +595,8 @@ public class ManifestParser
                         new BundleRequirementImpl(
                             owner,
                             path,
-                            clause.m_dirs,
-                            clause.m_attrs,
+                            ManifestParserCache.share(clause.m_dirs),
+                            ManifestParserCache.share(clause.m_attrs),
                             sf));
                 }
             }
@@ -858,8 +860,8 @@ public class ManifestParser
                     new BundleCapabilityImpl(
                         owner,
                         path,
-                        clause.m_dirs,
-                        clause.m_attrs));
+                        ManifestParserCache.share(clause.m_dirs),
+                        ManifestParserCache.share(clause.m_attrs)));
             }
         }
 
@@ -929,7 +931,7 @@ public class ManifestParser
                 v = (v == null) ? sv : v;
                 clause.m_attrs.put(
                     Constants.VERSION_ATTRIBUTE,
-                    Version.parseVersion(v.toString()));
+                    ManifestParserCache.parseVersion(v.toString()));
             }
 
             // If this is an R4 bundle, then make sure it doesn't specify
@@ -996,6 +998,9 @@ public class ManifestParser
         List<BundleCapability> capList = new ArrayList();
         for (ParsedHeaderClause clause : clauses)
         {
+            // All the packages of a clause share the same directives,
+            // which may include a large uses directive.
+            Map<String, String> dirs = ManifestParserCache.share(clause.m_dirs);
             for (String pkgName : clause.m_paths)
             {
                 // Prepend the package name to the array of attributes.
@@ -1011,8 +1016,8 @@ public class ManifestParser
                     new BundleCapabilityImpl(
                         owner,
                         BundleRevision.PACKAGE_NAMESPACE,
-                        clause.m_dirs,
-                        newAttrs));
+                        dirs,
+                        ManifestParserCache.share(newAttrs)));
             }
         }
 
@@ -1537,7 +1542,7 @@ public class ManifestParser
                 {
                     clauses.get(0).m_attrs.put(
                         Constants.BUNDLE_VERSION_ATTRIBUTE,
-                        VersionRange.parse(value.toString()));
+                        ManifestParserCache.parseVersionRange(value.toString()));
                 }
 
                 // Note that we use a linked hash map here to ensure the
@@ -1744,7 +1749,7 @@ public class ManifestParser
                 {
                     clause.m_attrs.put(
                         Constants.BUNDLE_VERSION_ATTRIBUTE,
-                        VersionRange.parse(value.toString()));
+                        ManifestParserCache.parseVersionRange(value.toString()));
                 }
             }
         }
@@ -1868,6 +1873,15 @@ public class ManifestParser
         }
     }
 
+    /**
+     * Drops the parsed headers and interned values shared by all manifest
+     * parsers. Called when a framework shuts down.
+     */
+    public static void clearCaches()
+    {
+        ManifestParserCache.clear();
+    }
+
     // Like this: path; path; dir1:=dirval1; dir2:=dirval2; attr1=attrval1; attr2=attrval2,
     //            path; path; dir1:=dirval1; dir2:=dirval2; attr1=attrval1; attr2=attrval2
     public static void main(String[] headers)
@@ -1911,14 +1925,26 @@ public class ManifestParser
     private static final int ARGUMENT = 8;
     private static final int VALUE = 16;
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     private static List<ParsedHeaderClause> parseStandardHeader(String header)
     {
-        List<ParsedHeaderClause> clauses = new ArrayList<ParsedHeaderClause>();
         if (header == null)
         {
-            return clauses;
+            return new ArrayList<ParsedHeaderClause>();
         }
+        // Headers are often identical across bundles or revisions of the same
+        // bundle, so reuse the result of previous parses when possible.
+        List<ParsedHeaderClause> clauses = ManifestParserCache.getHeader(header);
+        if (clauses == null)
+        {
+            clauses = ManifestParserCache.putHeader(header, doParseStandardHeader(header));
+        }
+        return clauses;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<ParsedHeaderClause> doParseStandardHeader(String header)
+    {
+        List<ParsedHeaderClause> clauses = new ArrayList<ParsedHeaderClause>();
         ParsedHeaderClause clause = null;
         String key = null;
         Map targetMap = null;
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.ImmutableMap;
+import org.apache.felix.framework.util.VersionRange;
+import org.osgi.framework.Version;
+
+/**
+ * Caches shared by all manifest parsers. Bundles installed in the same
+ * framework tend to repeat the same headers, package names, version ranges
+ * and attributes, so parsed headers are kept by their raw value and the
+ * immutable values produced while parsing are interned, letting the
+ * capabilities and requirements of different revisions share them.
+ *
+ * Each cache is bounded by the approximate number of characters it retains
+ * and simply cleared once it grows past its limit. As the caches are shared
+ * by all frameworks of the JVM, they are also cleared whenever a framework
+ * shuts down, so they do not outlive the frameworks using them.
+ */
+class ManifestParserCache
+{
+    // The characters retained by each cache, about 1 MB each
+    private static final long MAX_WEIGHT = 512 * 1024;
+
+    // The weight of an entry besides its characters
+    private static final int ENTRY_WEIGHT = 32;
+
+    private static volatile boolean s_enabled = true;
+
+    private static final Cache<String, List<ParsedHeaderClause>> s_headers =
+        new Cache<String, List<ParsedHeaderClause>>();
+    private static final Cache<String, String> s_strings =
+        new Cache<String, String>();
+    private static final Cache<String, VersionRange> s_ranges =
+        new Cache<String, VersionRange>();
+    private static final Cache<String, Version> s_versions =
+        new Cache<String, Version>();
+    private static final Cache<Map, SimpleFilter> s_filters =
+        new Cache<Map, SimpleFilter>();
+    private static final Cache<Map, Map> s_maps =
+        new Cache<Map, Map>();
+
+    /**
+     * Returns the clauses of a header previously parsed, or null. The
+     * returned clauses are copies, so callers are free to modify them.
+     */
+    static List<ParsedHeaderClause> getHeader(String header)
+    {
+        List<ParsedHeaderClause> clauses = s_enabled ? s_headers.m_map.get(header) : null;
+        return (clauses != null) ? copy(clauses, false) : null;
+    }
+
+    /**
+     * Remembers the clauses parsed from a header and returns a copy of them
+     * using interned strings. The remembered clauses are never modified.
+     */
+    static List<ParsedHeaderClause> putHeader(String header, List<ParsedHeaderClause> clauses)
+    {
+        if (!s_enabled)
+        {
+            return clauses;
+        }
+        // the parsed clauses take about as much as the header itself
+        return copy(s_headers.put(header, copy(clauses, true), 2 * header.length()), false);
+    }
+
+    static String intern(String s)
+    {
+        if (!s_enabled || (s == null))
+        {
+            return s;
+        }
+        String result = s_strings.m_map.get(s);
+        if (result == null)
+        {
+            result = s_strings.put(s, s, s.length());
+        }
+        return result;
+    }
+
+    static VersionRange parseVersionRange(String range)
+    {
+        if (!s_enabled)
+        {
+            return VersionRange.parse(range);
+        }
+        VersionRange result = s_ranges.m_map.get(range);
+        if (result == null)
+        {
+            result = s_ranges.put(range, VersionRange.parse(range), 2 * range.length());
+        }
+        return result;
+    }
+
+    static Version parseVersion(String version)
+    {
+        if (!s_enabled)
+        {
+            return Version.parseVersion(version);
+        }
+        Version result = s_versions.m_map.get(version);
+        if (result == null)
+        {
+            result = s_versions.put(version, Version.parseVersion(version), 2 * version.length());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the filter matching the given attributes, sharing it with
+     * all requirements built from equal attributes.
+     */
+    static SimpleFilter convert(Map<String, Object> attrs)
+    {
+        if (!s_enabled)
+        {
+            return SimpleFilter.convert(attrs);
+        }
+        SimpleFilter result = s_filters.m_map.get(attrs);
+        if (result == null)
+        {
+            result = s_filters.put(new HashMap<String, Object>(attrs), SimpleFilter.convert(attrs),
+                2 * weigh(attrs));
+        }
+        return result;
+    }
+
+    /**
+     * Returns an immutable map equal to the given one, sharing it with all
+     * capabilities and requirements using equal directives or attributes.
+     */
+    static <V> Map<String, V> share(Map<String, V> map)
+    {
+        if (!s_enabled)
+        {
+            return map;
+        }
+        Map<String, V> result = s_maps.m_map.get(map);
+        if (result == null)
+        {
+            Map<String, V> immutable = ImmutableMap.newInstance(map);
+            result = s_maps.put(immutable, immutable, weigh(immutable));
+        }
+        return result;
+    }
+
+    /**
+     * Enables or disables the caches, mostly useful for benchmarking.
+     * Disabling the caches also clears them.
+     */
+    static void setEnabled(boolean enabled)
+    {
+        s_enabled = enabled;
+        if (!enabled)
+        {
+            clear();
+        }
+    }
+
+    static void clear()
+    {
+        s_headers.clear();
+        s_strings.clear();
+        s_ranges.clear();
+        s_versions.clear();
+        s_filters.clear();
+        s_maps.clear();
+    }
+
+    /**
+     * Returns the approximate number of characters retained by all caches.
+     */
+    static long getWeight()
+    {
+        return s_headers.m_weight.get() + s_strings.m_weight.get()
+            + s_ranges.m_weight.get() + s_versions.m_weight.get()
+            + s_filters.m_weight.get() + s_maps.m_weight.get();
+    }
+
+    private static int weigh(Map<String, ?> map)
+    {
+        int weight = 0;
+        for (Entry<String, ?> entry : map.entrySet())
+        {
+            weight += entry.getKey().length() + String.valueOf(entry.getValue()).length();
+        }
+        return weight;
+    }
+
+    private static List<ParsedHeaderClause> copy(
+        List<ParsedHeaderClause> clauses, boolean intern)
+    {
+        List<ParsedHeaderClause> result = new ArrayList<ParsedHeaderClause>(clauses.size());
+        for (ParsedHeaderClause clause : clauses)
+        {
+            List<String> paths = new ArrayList<String>(clause.m_paths.size());
+            for (String path : clause.m_paths)
+            {
+                paths.add(intern ? intern(path) : path);
+            }
+            result.add(new ParsedHeaderClause(
+                paths,
+                copy(clause.m_dirs, intern),
+                copy(clause.m_attrs, intern),
+                copy(clause.m_types, intern)));
+        }
+        return result;
+    }
+
+    /**
+     * A map whose entries are dropped all at once when their weight exceeds
+     * the limit.
+     */
+    private static class Cache<K, V>
+    {
+        final ConcurrentMap<K, V> m_map = new ConcurrentHashMap<K, V>();
+        final AtomicLong m_weight = new AtomicLong();
+
+        V put(K key, V value, int weight)
+        {
+            if (m_weight.addAndGet(weight + ENTRY_WEIGHT) > MAX_WEIGHT)
+            {
+                clear();
+                m_weight.addAndGet(weight + ENTRY_WEIGHT);
+            }
+            V previous = m_map.putIfAbsent(key, value);
+            return (previous != null) ? previous : value;
+        }
+
+        void clear()
+        {
+            m_map.clear();
+            m_weight.set(0);
+        }
+    }
+
+    private static <V> Map<String, V> copy(Map<String, V> map, boolean intern)
+    {
+        Map<String, V> result = new HashMap<String, V>(map.size() * 2);
+        for (Entry<String, V> entry : map.entrySet())
+        {
+            V value = entry.getValue();
+            if (intern && (value instanceof String))
+            {
+                value = (V) intern((String) value);
+            }
+            result.put(intern ? intern(entry.getKey()) : entry.getKey(), value);
+        }
+        return result;
+    }
+}
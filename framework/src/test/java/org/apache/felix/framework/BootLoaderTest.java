@@ -83,13 +83,20 @@ public class BootLoaderTest extends TestCase
         f.init();
         f.getBundleContext().installBundle(bundle.toURI().toString());
         f.start();
-
-        Bundle[] arr = f.getBundleContext().getBundles();
-        assertEquals("Two, system and mine: " + Arrays.toString(arr), 2, arr.length);
-        Class c = arr[1].loadClass("boot.test.Test");
-        assertNotNull("Class loaded", c);
-        assertEquals("One query", 1, queriedFor.size());
-        assertEquals("Queried for my bundle", arr[1], queriedFor.get(0));
+        try
+        {
+            Bundle[] arr = f.getBundleContext().getBundles();
+            assertEquals("Two, system and mine: " + Arrays.toString(arr), 2, arr.length);
+            Class c = arr[1].loadClass("boot.test.Test");
+            assertNotNull("Class loaded", c);
+            assertEquals("One query", 1, queriedFor.size());
+            assertEquals("Queried for my bundle", arr[1], queriedFor.get(0));
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(10000);
+        }
     }
 
     public static final class CL extends ClassLoader
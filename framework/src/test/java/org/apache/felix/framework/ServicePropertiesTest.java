@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.StringMap;
+import org.osgi.framework.Constants;
+
+public class ServicePropertiesTest extends TestCase
+{
+    private ServiceProperties createProperties(Object ranking)
+    {
+        Map<String, Object> map = new StringMap();
+        map.put("Zeta", "z");
+        map.put("alpha", "a");
+        map.put("MixedCase", "m");
+        map.put(Constants.OBJECTCLASS, new String[] { "foo.Bar" });
+        map.put(Constants.SERVICE_ID, new Long(42));
+        if (ranking != null)
+        {
+            map.put(Constants.SERVICE_RANKING, ranking);
+        }
+        return new ServiceProperties(map);
+    }
+
+    public void testCaseInsensitiveLookup()
+    {
+        ServiceProperties props = createProperties(null);
+
+        assertEquals("a", props.get("alpha"));
+        assertEquals("a", props.get("ALPHA"));
+        assertEquals("m", props.get("mixedcase"));
+        assertEquals("m", props.get(new String("MixedCase")));
+        assertEquals("z", props.get("zETA"));
+        assertNull(props.get("beta"));
+        assertNull(props.get(null));
+        assertTrue(props.containsKey("MIXEDCASE"));
+        assertFalse(props.containsKey("mixed"));
+    }
+
+    public void testStandardProperties()
+    {
+        ServiceProperties props = createProperties(new Integer(5));
+
+        assertTrue(Arrays.equals(new String[] { "foo.Bar" }, props.getObjectClass()));
+        assertSame(props.getObjectClass(), props.get("OBJECTCLASS"));
+        assertEquals(new Long(42), props.get("Service.Id"));
+        assertEquals(42, props.getServiceIdValue());
+        assertEquals(5, props.getRanking());
+        assertEquals(new Integer(5), props.get(Constants.SERVICE_RANKING));
+
+        // Non-integer rankings default to zero.
+        assertEquals(0, createProperties("5").getRanking());
+        assertEquals(0, createProperties(null).getRanking());
+    }
+
+    public void testKeysAndEntries()
+    {
+        ServiceProperties props = createProperties(null);
+
+        String[] keys = props.getKeys();
+        assertEquals(5, keys.length);
+        assertEquals(5, props.size());
+        assertTrue(Arrays.asList(keys).contains("MixedCase"));
+        // A copy is returned every time.
+        keys[0] = null;
+        assertNotNull(props.getKeys()[0]);
+
+        Map<String, Object> copy = new HashMap<String, Object>(props);
+        assertEquals(5, copy.size());
+        assertEquals("m", copy.get("MixedCase"));
+
+        try
+        {
+            props.put("alpha", "b");
+            fail("Properties must be immutable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // expected
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -31,6 +32,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
@@ -39,6 +41,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.launch.Framework;
 import org.osgi.service.url.URLConstants;
@@ -118,6 +121,120 @@ public class URLHandlersTest extends TestCase
         f.stop();
     }
 
+    public void testGetFrameworkFromContext() throws Exception
+    {
+        Felix f1 = createFramework();
+        Felix f2 = createFramework();
+        try
+        {
+            // With a single framework, it is returned to any caller.
+            f1.init();
+            f1.start();
+            assertSame(f1, getStaticField("m_singleFramework"));
+            assertSame(f1, URLHandlers.getFrameworkFromContext());
+
+            // With two frameworks, the caller's bundle decides.
+            f2.init();
+            f2.start();
+            assertNull(getStaticField("m_singleFramework"));
+            assertNull(URLHandlers.getFrameworkFromContext());
+
+            Callable caller1 = installContextProbe(f1);
+            Callable caller2 = installContextProbe(f2);
+            assertSame(f1, caller1.call());
+            assertSame(f2, caller2.call());
+            assertEquals(2, getMemoSize());
+            assertSame(f1, caller1.call());
+            assertSame(f2, caller2.call());
+
+            // Unregistering a framework clears the memo and restores the
+            // fast path.
+            f2.stop();
+            f2.waitForStop(10000);
+            assertEquals(0, getMemoSize());
+            assertSame(f1, getStaticField("m_singleFramework"));
+            assertSame(f1, caller1.call());
+        }
+        finally
+        {
+            f2.stop();
+            f1.stop();
+            f1.waitForStop(10000);
+        }
+        assertNull(getStaticField("m_singleFramework"));
+    }
+
+    private static Callable installContextProbe(Felix f) throws Exception
+    {
+        Hashtable props = new Hashtable();
+        props.put("role", "probe");
+        f.getBundleContext().registerService(Callable.class.getName(), new Callable()
+        {
+            public Object call()
+            {
+                return URLHandlers.getFrameworkFromContext();
+            }
+        }, props);
+
+        String mf = "Bundle-SymbolicName: url.context.test\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n"
+            + "Manifest-Version: 1.0\n"
+            + Constants.BUNDLE_ACTIVATOR + ": " + ContextProbeActivator.class.getName() + "\n\n";
+        Bundle bundle = f.getBundleContext().installBundle(
+            createBundle(mf, ContextProbeActivator.class).toURI().toString());
+        bundle.start();
+
+        ServiceReference[] refs = f.getBundleContext().getServiceReferences(
+            Callable.class.getName(), "(role=caller)");
+        return (Callable) f.getBundleContext().getService(refs[0]);
+    }
+
+    private static Object getStaticField(String name) throws Exception
+    {
+        Field field = URLHandlers.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static int getMemoSize() throws Exception
+    {
+        Map memo = (Map) getStaticField("m_classloaderToFramework");
+        synchronized (memo)
+        {
+            return memo.size();
+        }
+    }
+
+    /**
+     * Calls the probe service of its framework, so that the probe finds a
+     * class of this bundle on the stack.
+     */
+    public static class ContextProbeActivator implements BundleActivator, Callable
+    {
+        private volatile BundleContext m_context;
+
+        public void start(BundleContext context) throws Exception
+        {
+            m_context = context;
+            Hashtable props = new Hashtable();
+            props.put("role", "caller");
+            context.registerService(Callable.class.getName(), this, props);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+
+        public Object call() throws Exception
+        {
+            ServiceReference[] refs = m_context.getServiceReferences(
+                Callable.class.getName(), "(role=probe)");
+            return ((Callable) m_context.getService(refs[0])).call();
+        }
+    }
+
     public static class DelegatingClassLoader extends ClassLoader
     {
         private final Object m_lock = new Object();
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.osgi.framework.Constants;
+
+/**
+ * Measures the time needed to parse the manifests of a large set of
+ * synthetic bundles and the heap retained by the resulting capabilities
+ * and requirements, with and without the {@link ManifestParserCache}.
+ *
+ * Not run as part of the test suite; run it with:
+ * <pre>
+ * java -cp target/classes:target/test-classes \
+ *     org.apache.felix.framework.util.manifestparser.ManifestParserBenchmark [bundles]
+ * </pre>
+ */
+public class ManifestParserBenchmark
+{
+    private static final int PACKAGES = 600;
+    private static final int IMPORTS = 40;
+    private static final int EXPORTS = 8;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        int bundles = (args.length > 0) ? Integer.parseInt(args[0]) : 900;
+        List<Map<String, String>> manifests = createManifests(bundles);
+
+        // Warm up both code paths.
+        run(manifests, false);
+        run(manifests, true);
+
+        report("uncached", manifests, false);
+        report("cached", manifests, true);
+    }
+
+    private static void report(String name, List<Map<String, String>> manifests, boolean cached)
+        throws Exception
+    {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            long start = System.nanoTime();
+            run(manifests, cached);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        long before = usedMemory();
+        List<ManifestParser> parsers = run(manifests, cached);
+        long retained = usedMemory() - before;
+
+        System.out.println(name + ": " + manifests.size() + " bundles parsed in "
+            + (best / 1000000) + " ms, retaining " + (retained / 1024) + " KB ("
+            + parsers.size() + " parsers)");
+    }
+
+    private static List<ManifestParser> run(List<Map<String, String>> manifests, boolean cached)
+        throws Exception
+    {
+        ManifestParserCache.setEnabled(cached);
+        ManifestParserCache.clear();
+        List<ManifestParser> parsers = new ArrayList<ManifestParser>(manifests.size());
+        for (Map<String, String> headers : manifests)
+        {
+            parsers.add(new ManifestParser(null, null, null, headers));
+        }
+        return parsers;
+    }
+
+    private static long usedMemory() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++)
+        {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Creates manifests importing packages from a common pool, the way
+     * applications built on the same libraries do, and each exporting a few
+     * packages of their own with a uses directive.
+     */
+    private static List<Map<String, String>> createManifests(int bundles)
+    {
+        Random random = new Random(42);
+        List<Map<String, String>> manifests = new ArrayList<Map<String, String>>(bundles);
+        for (int b = 0; b < bundles; b++)
+        {
+            StringBuilder imports = new StringBuilder();
+            for (int i = 0; i < IMPORTS; i++)
+            {
+                int pkg = random.nextInt(PACKAGES);
+                if (imports.indexOf("org.example.pkg" + pkg + ";") >= 0)
+                {
+                    continue;
+                }
+                if (imports.length() > 0)
+                {
+                    imports.append(',');
+                }
+                imports.append("org.example.pkg").append(pkg)
+                    .append(";version=\"[").append(pkg % 5).append(".0,")
+                    .append(pkg % 5 + 1).append(")\"");
+                if (pkg % 7 == 0)
+                {
+                    imports.append(";resolution:=optional");
+                }
+            }
+
+            StringBuilder uses = new StringBuilder();
+            for (int i = 0; i < 10; i++)
+            {
+                uses.append(i > 0 ? "," : "").append("org.example.pkg").append((b + i) % PACKAGES);
+            }
+            StringBuilder exports = new StringBuilder();
+            for (int e = 0; e < EXPORTS; e++)
+            {
+                exports.append(e > 0 ? "," : "")
+                    .append("org.example.bundle").append(b).append(".api").append(e)
+                    .append(";version=\"1.0.0\";uses:=\"").append(uses).append('"');
+            }
+
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+            headers.put(Constants.BUNDLE_SYMBOLICNAME, "org.example.bundle" + b);
+            headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+            headers.put(Constants.IMPORT_PACKAGE, imports.toString());
+            headers.put(Constants.EXPORT_PACKAGE, exports.toString());
+            manifests.add(headers);
+        }
+        return manifests;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util.manifestparser;
+
+import junit.framework.TestCase;
+
+public class ManifestParserCacheTest extends TestCase
+{
+    protected void setUp()
+    {
+        ManifestParserCache.clear();
+    }
+
+    protected void tearDown()
+    {
+        ManifestParserCache.clear();
+    }
+
+    public void testWeightIsBounded()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1024; i++)
+        {
+            sb.append('x');
+        }
+        String prefix = sb.toString();
+
+        // far more characters than a cache may retain
+        for (int i = 0; i < 4096; i++)
+        {
+            ManifestParserCache.intern(prefix + i);
+        }
+        assertTrue(ManifestParserCache.getWeight() <= 1024 * 1024);
+
+        String s = new String(prefix + "last");
+        assertSame(ManifestParserCache.intern(s), ManifestParserCache.intern(prefix + "last"));
+    }
+
+    public void testClearCaches()
+    {
+        ManifestParserCache.intern("org.foo");
+        ManifestParserCache.parseVersion("1.2.3");
+        assertTrue(ManifestParserCache.getWeight() > 0);
+
+        ManifestParser.clearCaches();
+        assertEquals(0, ManifestParserCache.getWeight());
+    }
+}
@@ -143,6 +143,54 @@ public class ManifestParserTest extends TestCase
         
     }
 
+    public void testSharedImportsAndExports() throws BundleException
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "foo.bar");
+        headers.put(Constants.IMPORT_PACKAGE, "org.foo;version=\"[1.0,2.0)\";resolution:=optional");
+        headers.put(Constants.EXPORT_PACKAGE, "org.bar;org.baz;version=1.2;uses:=org.foo");
+        ManifestParser mp1 = new ManifestParser(null, null, null, headers);
+
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "foo.baz");
+        ManifestParser mp2 = new ManifestParser(null, null, null, headers);
+
+        BundleRequirement ir1 = findRequirement(mp1.getRequirements(), BundleRevision.PACKAGE_NAMESPACE);
+        BundleRequirement ir2 = findRequirement(mp2.getRequirements(), BundleRevision.PACKAGE_NAMESPACE);
+        assertNotSame(ir1, ir2);
+        assertSame(ir1.getDirectives(), ir2.getDirectives());
+        assertEquals(Constants.RESOLUTION_OPTIONAL, ir1.getDirectives().get(Constants.RESOLUTION_DIRECTIVE));
+
+        List<BundleCapability> exports = new ArrayList<BundleCapability>();
+        for (BundleCapability cap : mp1.getCapabilities())
+        {
+            if (BundleRevision.PACKAGE_NAMESPACE.equals(cap.getNamespace()))
+            {
+                exports.add(cap);
+            }
+        }
+        assertEquals(2, exports.size());
+        assertSame(exports.get(0).getDirectives(), exports.get(1).getDirectives());
+        assertSame(exports.get(0).getAttributes().get(Constants.VERSION_ATTRIBUTE),
+            exports.get(1).getAttributes().get(Constants.VERSION_ATTRIBUTE));
+        assertEquals("org.bar", exports.get(0).getAttributes().get(BundleRevision.PACKAGE_NAMESPACE));
+        assertEquals("org.baz", exports.get(1).getAttributes().get(BundleRevision.PACKAGE_NAMESPACE));
+        assertEquals("foo.bar", exports.get(0).getAttributes().get(Constants.BUNDLE_SYMBOLICNAME_ATTRIBUTE));
+
+        // The cached header must not have been altered by the first parse.
+        BundleCapability export2 = null;
+        for (BundleCapability cap : mp2.getCapabilities())
+        {
+            if (BundleRevision.PACKAGE_NAMESPACE.equals(cap.getNamespace()))
+            {
+                export2 = cap;
+                break;
+            }
+        }
+        assertEquals("foo.baz", export2.getAttributes().get(Constants.BUNDLE_SYMBOLICNAME_ATTRIBUTE));
+        assertEquals(new Version("1.2"), export2.getAttributes().get(Constants.VERSION_ATTRIBUTE));
+    }
+
     private BundleCapability findCapability(Collection<BundleCapability> capabilities, String namespace)
     {
         for (BundleCapability capability : capabilities)
@@ -55,66 +55,78 @@ public class Console implements Runnable
                     break;
                 }
 
-                try
-                {
-                    if (line.charAt(0) == '!' || line.charAt(0) == '^')
-                    {
-                        line = history.evaluate(line);
-                        System.out.println(line);
-                    }
+                execute(line);
+            }
+        }
+        catch (Exception e)
+        {
+            if (!quit)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                    Object result = session.execute(line);
-                    session.put("_", result); // set $_ to last result
+    /**
+     * Executes a command line and prints its result.
+     *
+     * @return <code>false</code> if the session has been closed
+     */
+    boolean execute(CharSequence line)
+    {
+        try
+        {
+            if (line.charAt(0) == '!' || line.charAt(0) == '^')
+            {
+                line = history.evaluate(line);
+                out.println(line);
+            }
 
-                    if (result != null
-                        && !Boolean.FALSE.equals(session.get(".Gogo.format")))
-                    {
-                        out.println(session.format(result, Converter.INSPECT));
-                    }
-                }
-                catch (Throwable e)
-                {
-                    final String SESSION_CLOSED = "session is closed";
-                    if ((e instanceof IllegalStateException) && SESSION_CLOSED.equals(e.getMessage()))
-                    {
-                        // FIXME: we assume IllegalStateException is because the session is closed;
-                        // but it may be for another reason, so we also check the message (yuk).
-                        // It would be better if the RFC-147 API threw a unique exception, such as
-                        // org.osgi.service.command.SessionClosedException
-                        out.println("gosh: " + e);
-                        quit = true;
-                    }
+            Object result = session.execute(line);
+            session.put("_", result); // set $_ to last result
 
-                    if (!quit)
-                    {
-                        session.put("exception", e);
-                        Object loc = session.get(".location");
+            if (result != null
+                && !Boolean.FALSE.equals(session.get(".Gogo.format")))
+            {
+                out.println(session.format(result, Converter.INSPECT));
+            }
+        }
+        catch (Throwable e)
+        {
+            final String SESSION_CLOSED = "session is closed";
+            if ((e instanceof IllegalStateException) && SESSION_CLOSED.equals(e.getMessage()))
+            {
+                // FIXME: we assume IllegalStateException is because the session is closed;
+                // but it may be for another reason, so we also check the message (yuk).
+                // It would be better if the RFC-147 API threw a unique exception, such as
+                // org.osgi.service.command.SessionClosedException
+                out.println("gosh: " + e);
+                quit = true;
+            }
 
-                        if (null == loc || !loc.toString().contains(":"))
-                        {
-                            loc = "gogo";
-                        }
+            if (!quit)
+            {
+                session.put("exception", e);
+                Object loc = session.get(".location");
 
-                        out.println(loc + ": " + e.getClass().getSimpleName() + ": "
-                            + e.getMessage());
-                    }
-                }
-                finally
+                if (null == loc || !loc.toString().contains(":"))
                 {
-                    this.history.append(line);
+                    loc = "gogo";
                 }
+
+                out.println(loc + ": " + e.getClass().getSimpleName() + ": "
+                    + e.getMessage());
             }
         }
-        catch (Exception e)
+        finally
         {
-            if (!quit)
-            {
-                e.printStackTrace();
-            }
+            this.history.append(line);
         }
+
+        return !quit;
     }
 
-    private String getPrompt()
+    String getPrompt()
     {
         Object prompt = session.get("prompt");
         if (prompt instanceof Function)
@@ -104,19 +104,7 @@ public class Shell
 
         if (login && interactive)
         {
-            URI uri = baseURI.resolve("etc/gosh_profile");
-            if (!new File(uri).exists())
-            {
-                URL url = getClass().getResource("/ext/gosh_profile");
-                if (url == null) {
-                    url = getClass().getResource("/gosh_profile");
-                }
-                uri = (url == null) ? null : url.toURI();
-            }
-            if (uri != null)
-            {
-                source(session, uri.toString());
-            }
+            profile(session);
         }
 
         // export variables starting with upper-case to newSession
@@ -206,6 +194,34 @@ public class Shell
         }
     }
 
+    /**
+     * Prepares a login session whose command lines are not read by a
+     * {@link Console} of its own but passed to the returned console one by
+     * one, as done by the multiplexed telnet server.
+     */
+    Console login(CommandSession session) throws Exception
+    {
+        profile(session);
+        return new Console(session, history);
+    }
+
+    private void profile(CommandSession session) throws Exception
+    {
+        URI uri = baseURI.resolve("etc/gosh_profile");
+        if (!new File(uri).exists())
+        {
+            URL url = getClass().getResource("/ext/gosh_profile");
+            if (url == null) {
+                url = getClass().getResource("/gosh_profile");
+            }
+            uri = (url == null) ? null : url.toURI();
+        }
+        if (uri != null)
+        {
+            source(session, uri.toString());
+        }
+    }
+
     private Object console(CommandSession session)
     {
         Console console = new Console(session, history);
@@ -40,23 +40,30 @@ public class Telnet implements Runnable
     
     private static final int defaultPort = 2019;
     private final CommandProcessor processor;
+    private final Shell shell;
     private ServerSocket server;
+    private TelnetMultiplexer multiplexer;
     private Thread thread;
     private boolean quit;
     private int port;
     private String ip;
 
-    public Telnet(CommandProcessor procesor)
+    public Telnet(CommandProcessor procesor, Shell shell)
     {
         this.processor = procesor;
+        this.shell = shell;
     }
 
     public void telnetd(String[] argv) throws IOException
     {
         final String[] usage = { "telnetd - start simple telnet server",
-                "Usage: telnetd [-i ip] [-p port] start | stop | status",
+                "Usage: telnetd [-i ip] [-p port] [-m [-w workers] [-t timeout]] start | stop | status",
                 "  -i --ip=INTERFACE        listen interface (default=127.0.0.1)",
                 "  -p --port=PORT           listen port (default=" + defaultPort + ")",
+                "  -m --multiplex           serve all sessions from a single thread",
+                "                           and execute their commands on workers",
+                "  -w --workers=COUNT       commands executed concurrently (default=4)",
+                "  -t --timeout=SECONDS     close sessions idle for longer, 0 for never (default=0)",
                 "  -? --help                show help" };
 
         Option opt = Options.compile(usage).parse(argv);
@@ -72,19 +79,28 @@ public class Telnet implements Runnable
 
         if ("start".equals(command))
         {
-            if (server != null)
+            if (isRunning())
             {
                 throw new IllegalStateException("telnetd is already running on port "
                     + port);
             }
             ip = opt.get("ip");
             port = opt.getNumber("port");
-            start();
+            if (opt.isSet("multiplex"))
+            {
+                multiplexer = new TelnetMultiplexer(processor, shell, ip, port,
+                    opt.getNumber("workers"), opt.getNumber("timeout") * 1000L);
+                multiplexer.start();
+            }
+            else
+            {
+                start();
+            }
             status();
         }
         else if ("stop".equals(command))
         {
-            if (server == null)
+            if (!isRunning())
             {
                 throw new IllegalStateException("telnetd is not running.");
             }
@@ -100,9 +116,18 @@ public class Telnet implements Runnable
         }
     }
 
+    private boolean isRunning()
+    {
+        return server != null || multiplexer != null;
+    }
+
     private void status()
     {
-        if (server != null)
+        if (multiplexer != null)
+        {
+            System.out.println("telnetd is running on " + ip + ":" + port + " (multiplexed)");
+        }
+        else if (server != null)
         {
             System.out.println("telnetd is running on " + ip + ":" + port);
         }
@@ -122,6 +147,13 @@ public class Telnet implements Runnable
 
     private void stop() throws IOException
     {
+        if (multiplexer != null)
+        {
+            multiplexer.stop();
+            multiplexer = null;
+            return;
+        }
+
         quit = true;
         server.close();
         server = null;
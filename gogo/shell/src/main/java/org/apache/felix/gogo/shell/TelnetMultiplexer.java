@@ -0,0 +1,740 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.shell;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.felix.service.command.CommandProcessor;
+import org.apache.felix.service.command.CommandSession;
+
+/*
+ * a telnet server multiplexing all sessions onto a single selector thread.
+ * the selector thread accepts connections and assembles the command lines,
+ * which are executed by a small pool of workers: each worker executes one
+ * command line of a session at a time, so the number of workers caps the
+ * number of commands executed concurrently. the lines of a session are
+ * executed in order, sessions idle for longer than the idle timeout are
+ * closed.
+ */
+class TelnetMultiplexer implements Runnable
+{
+    // command lines queued per session before reading from it is suspended
+    private static final int MAX_QUEUED_LINES = 16;
+
+    // characters per command line, further characters are dropped
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // output bytes queued per session before a command writing is blocked
+    private static final int MAX_QUEUED_OUTPUT = 64 * 1024;
+
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
+
+    // marks the end of the input of a session in its queue of lines
+    private static final String QUIT = new String();
+
+    private final CommandProcessor processor;
+    private final Shell shell;
+    private final long idleTimeout;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+
+    // connections whose state changed, to be updated by the selector thread
+    private final Queue<Connection> updates = new ConcurrentLinkedQueue<Connection>();
+
+    // only accessed by the selector thread
+    private final Set<Connection> connections = new HashSet<Connection>();
+
+    private volatile boolean quit;
+    private Thread thread;
+
+    TelnetMultiplexer(CommandProcessor processor, Shell shell, String ip, int port,
+        int workers, long idleTimeout) throws IOException
+    {
+        this.processor = processor;
+        this.shell = shell;
+        this.idleTimeout = idleTimeout;
+
+        selector = Selector.open();
+        try
+        {
+            server = ServerSocketChannel.open();
+            server.socket().bind(new InetSocketAddress(InetAddress.getByName(ip), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException e)
+        {
+            selector.close();
+            throw e;
+        }
+
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "gogo telnet worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    int getLocalPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    void start()
+    {
+        quit = false;
+        thread = new Thread(this, "gogo telnet");
+        thread.start();
+    }
+
+    void stop()
+    {
+        quit = true;
+        selector.wakeup();
+    }
+
+    public void run()
+    {
+        try
+        {
+            long checkInterval = (idleTimeout > 0) ? Math.min(idleTimeout, 1000) : 0;
+            while (!quit)
+            {
+                selector.select(checkInterval);
+
+                Connection connection;
+                while ((connection = updates.poll()) != null)
+                {
+                    connection.update();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        try
+                        {
+                            accept();
+                        }
+                        catch (IOException e)
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                    else
+                    {
+                        connection = (Connection) key.attachment();
+                        try
+                        {
+                            if (key.isReadable())
+                            {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable())
+                            {
+                                connection.write();
+                            }
+                        }
+                        catch (IOException e)
+                        {
+                            connection.destroy();
+                        }
+                    }
+                }
+
+                if (idleTimeout > 0)
+                {
+                    long now = System.currentTimeMillis();
+                    for (Connection c : new ArrayList<Connection>(connections))
+                    {
+                        c.checkIdle(now);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            if (!quit)
+            {
+                e.printStackTrace();
+            }
+        }
+        finally
+        {
+            for (Connection connection : new ArrayList<Connection>(connections))
+            {
+                connection.destroy();
+            }
+
+            // the jobs not started yet only release their sessions
+            for (Runnable job : workers.shutdownNow())
+            {
+                job.run();
+            }
+            try
+            {
+                server.close();
+                selector.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+        {
+            return;
+        }
+
+        Connection connection;
+        try
+        {
+            channel.configureBlocking(false);
+            connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        connections.add(connection);
+
+        // the first job logs the session in and prints the first prompt
+        connection.received(null);
+    }
+
+    /*
+     * a telnet session. the input is only read by the selector thread, the
+     * jobs executing the command lines run on the workers, one at a time.
+     */
+    private class Connection implements Runnable
+    {
+        private final SocketChannel channel;
+        private final PrintStream out;
+        private final CommandSession session;
+        private SelectionKey key;
+
+        // the line being read, only accessed by the selector thread
+        private final StringBuilder line = new StringBuilder();
+
+        // only accessed by the job
+        private Console console;
+
+        // guarded by this
+        private final LinkedList<CharSequence> lines = new LinkedList<CharSequence>();
+        private final LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+        private int queuedOutput;
+        private boolean scheduled;
+        private boolean suspended;
+        private boolean closing;
+        private boolean destroyed;
+
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        Connection(SocketChannel channel)
+        {
+            this.channel = channel;
+            out = new PrintStream(new ConnectionOutputStream(), true);
+
+            // commands reading from the keyboard find the end of the input,
+            // the input is read by the selector thread as command lines
+            session = processor.createSession(new ByteArrayInputStream(new byte[0]), out, out);
+        }
+
+        /*
+         * called by the selector thread when data is available.
+         */
+        void read() throws IOException
+        {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0)
+            {
+                received(QUIT);
+                return;
+            }
+
+            lastActivity = System.currentTimeMillis();
+            readBuffer.flip();
+            while (readBuffer.hasRemaining())
+            {
+                int c = readBuffer.get() & 0xff;
+                switch (c)
+                {
+                    case 4: // EOT, ^D from telnet
+                        received(QUIT);
+                        return;
+
+                    case '\r':
+                        break;
+
+                    case '\n':
+                        received(line.toString());
+                        line.setLength(0);
+                        break;
+
+                    case '\b':
+                        if (line.length() > 0)
+                        {
+                            enqueue(ByteBuffer.wrap("\b \b".getBytes()), false);
+                            line.deleteCharAt(line.length() - 1);
+                        }
+                        break;
+
+                    default:
+                        if (line.length() < MAX_LINE_LENGTH)
+                        {
+                            line.append((char) c);
+                        }
+                        break;
+                }
+            }
+        }
+
+        /*
+         * called by the selector thread when the channel accepts output.
+         */
+        void write() throws IOException
+        {
+            synchronized (this)
+            {
+                while (!output.isEmpty())
+                {
+                    ByteBuffer buffer = output.getFirst();
+                    int n = channel.write(buffer);
+                    queuedOutput -= n;
+                    if (n > 0)
+                    {
+                        lastActivity = System.currentTimeMillis();
+                    }
+                    if (buffer.hasRemaining())
+                    {
+                        break;
+                    }
+                    output.removeFirst();
+                }
+                notifyAll();
+            }
+            update();
+        }
+
+        /*
+         * called by the selector thread to apply state changes.
+         */
+        void update()
+        {
+            if (!key.isValid())
+            {
+                return;
+            }
+
+            int ops;
+            synchronized (this)
+            {
+                if (closing && output.isEmpty())
+                {
+                    ops = -1;
+                }
+                else
+                {
+                    ops = (suspended || closing) ? 0 : SelectionKey.OP_READ;
+                    if (!output.isEmpty())
+                    {
+                        ops |= SelectionKey.OP_WRITE;
+                    }
+                }
+            }
+
+            if (ops < 0)
+            {
+                destroy();
+            }
+            else
+            {
+                key.interestOps(ops);
+            }
+        }
+
+        /*
+         * called by the selector thread to close the session if idle. while
+         * a command is executed the session is only idle if the client does
+         * not accept its output.
+         */
+        void checkIdle(long now)
+        {
+            if (now - lastActivity < idleTimeout)
+            {
+                return;
+            }
+
+            boolean idle;
+            synchronized (this)
+            {
+                idle = closing || !scheduled || !output.isEmpty();
+            }
+
+            if (idle)
+            {
+                if (closing)
+                {
+                    // the client does not even take the farewell
+                    destroy();
+                }
+                else
+                {
+                    enqueue(ByteBuffer.wrap(("\ngosh: session idle for " + (idleTimeout / 1000)
+                        + " seconds, closing.\n").getBytes()), false);
+                    close();
+                }
+            }
+        }
+
+        /*
+         * called by the selector thread to close the connection right away.
+         * the session is closed by the job, as it may still be executing a
+         * command.
+         */
+        void destroy()
+        {
+            boolean schedule;
+            synchronized (this)
+            {
+                closing = true;
+                destroyed = true;
+                output.clear();
+                queuedOutput = 0;
+                notifyAll();
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            connections.remove(this);
+            key.cancel();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+            }
+            if (schedule && !submit())
+            {
+                // stopping, no job is running
+                session.close();
+            }
+        }
+
+        /*
+         * closes the connection once the output queued has been written.
+         */
+        void close()
+        {
+            synchronized (this)
+            {
+                closing = true;
+                lines.clear();
+                notifyAll();
+            }
+            changed();
+        }
+
+        /*
+         * queues a command line and schedules the job if not running. a null
+         * line only schedules the job.
+         */
+        private void received(CharSequence line)
+        {
+            boolean schedule;
+            synchronized (this)
+            {
+                if (closing)
+                {
+                    return;
+                }
+                if (line != null)
+                {
+                    lines.add(line);
+                }
+                if (line == QUIT || lines.size() >= MAX_QUEUED_LINES)
+                {
+                    suspended = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                schedule = !scheduled;
+                scheduled = true;
+            }
+
+            if (schedule)
+            {
+                submit();
+            }
+        }
+
+        private boolean submit()
+        {
+            try
+            {
+                workers.execute(this);
+                return true;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // stopping
+                return false;
+            }
+        }
+
+        /*
+         * executes the next command line, then passes the worker on to the
+         * other sessions. once the connection is destroyed, closes the
+         * session instead.
+         */
+        public void run()
+        {
+            if (isDestroyed())
+            {
+                session.close();
+                return;
+            }
+
+            if (console == null)
+            {
+                login();
+            }
+            else
+            {
+                CharSequence line;
+                boolean resume;
+                synchronized (this)
+                {
+                    line = lines.poll();
+                    resume = suspended && line != QUIT && lines.size() < MAX_QUEUED_LINES;
+                    if (resume)
+                    {
+                        suspended = false;
+                    }
+                }
+                if (resume)
+                {
+                    changed();
+                }
+
+                if (line == QUIT || (line != null && line.length() > 0 && !console.execute(line)))
+                {
+                    out.flush();
+                    close();
+                }
+                else
+                {
+                    prompt();
+                }
+            }
+
+            boolean destroyed;
+            synchronized (this)
+            {
+                destroyed = this.destroyed;
+                if (!destroyed && (lines.isEmpty() || closing))
+                {
+                    scheduled = false;
+                    return;
+                }
+            }
+            if (destroyed || !submit())
+            {
+                session.close();
+            }
+        }
+
+        private void login()
+        {
+            try
+            {
+                console = shell.login(session);
+            }
+            catch (Exception e)
+            {
+                out.println("gosh: " + e);
+                console = new Console(session, new History());
+            }
+            prompt();
+        }
+
+        private void prompt()
+        {
+            out.print(console.getPrompt());
+            out.flush();
+        }
+
+        private void changed()
+        {
+            updates.add(this);
+            selector.wakeup();
+        }
+
+        /*
+         * queues output for the selector thread to write. if blocking, waits
+         * while too much output is queued.
+         */
+        private void enqueue(ByteBuffer buffer, boolean block)
+        {
+            synchronized (this)
+            {
+                if (closing)
+                {
+                    return;
+                }
+                output.add(buffer);
+                queuedOutput += buffer.remaining();
+            }
+            lastActivity = System.currentTimeMillis();
+            changed();
+
+            if (block)
+            {
+                synchronized (this)
+                {
+                    while (!closing && queuedOutput > MAX_QUEUED_OUTPUT)
+                    {
+                        try
+                        {
+                            wait();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean isClosing()
+        {
+            synchronized (this)
+            {
+                return closing;
+            }
+        }
+
+        boolean isDestroyed()
+        {
+            synchronized (this)
+            {
+                return destroyed;
+            }
+        }
+
+        /*
+         * collects the output of the commands in buffers queued for the
+         * selector thread on flush or when full.
+         */
+        private class ConnectionOutputStream extends OutputStream
+        {
+            private byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            private int count;
+
+            public synchronized void write(int b) throws IOException
+            {
+                if (count == buffer.length)
+                {
+                    flush();
+                }
+                buffer[count++] = (byte) b;
+            }
+
+            public synchronized void write(byte[] b, int off, int len) throws IOException
+            {
+                while (len > 0)
+                {
+                    if (count == buffer.length)
+                    {
+                        flush();
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            public synchronized void flush() throws IOException
+            {
+                if (isClosing())
+                {
+                    count = 0;
+                    throw new IOException("connection closed");
+                }
+                if (count > 0)
+                {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+                    buffer = new byte[OUTPUT_BUFFER_SIZE];
+                    count = 0;
+                    enqueue(bytes, true);
+                    if (Thread.currentThread().isInterrupted())
+                    {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.gogo.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.service.command.CommandProcessor;
+import org.apache.felix.service.command.CommandSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+
+public class TelnetMultiplexerTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final AtomicInteger closedWhileRunning = new AtomicInteger();
+
+    private TelnetMultiplexer multiplexer;
+
+    @Before
+    public void setup() {
+        running.set(0);
+        maxRunning.set(0);
+        closed.set(0);
+        closedWhileRunning.set(0);
+    }
+
+    @After
+    public void teardown() {
+        if (multiplexer != null) {
+            multiplexer.stop();
+        }
+    }
+
+    @Test
+    public void test_many_sessions() throws Exception {
+        start(2, 0);
+
+        final Socket[] sockets = new Socket[20];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = connect();
+        }
+        for (int i = 0; i < sockets.length; i++) {
+            send(sockets[i], "hello " + i + "\r\n");
+        }
+        for (int i = 0; i < sockets.length; i++) {
+            TestCase.assertTrue(readUntil(sockets[i], "hello " + i + "\n$ "));
+            sockets[i].close();
+        }
+    }
+
+    @Test
+    public void test_lines_in_order() throws Exception {
+        start(4, 0);
+
+        final Socket socket = connect();
+        send(socket, "sleep 100\nfirst\n\nsx\becond\n");
+        final String output = read(socket, "second\n$ ");
+        TestCase.assertTrue(output.indexOf("first") < output.indexOf("second"));
+        socket.close();
+    }
+
+    @Test
+    public void test_concurrent_commands_capped() throws Exception {
+        start(2, 0);
+
+        final Socket[] sockets = new Socket[6];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = connect();
+            send(sockets[i], "sleep 200\ndone " + i + "\n");
+        }
+        for (int i = 0; i < sockets.length; i++) {
+            TestCase.assertTrue(readUntil(sockets[i], "done " + i + "\n"));
+            sockets[i].close();
+        }
+        TestCase.assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void test_idle_timeout() throws Exception {
+        start(2, 1000);
+
+        final Socket socket = connect();
+        TestCase.assertTrue(readUntil(socket, "$ "));
+        final long start = System.currentTimeMillis();
+        final String output = read(socket, null);
+        TestCase.assertTrue(output.indexOf("idle") >= 0);
+        TestCase.assertTrue(System.currentTimeMillis() - start < 4000);
+        socket.close();
+    }
+
+    @Test
+    public void test_end_of_input() throws Exception {
+        start(2, 0);
+
+        final Socket socket = connect();
+        send(socket, "last\n\u0004");
+        final String output = read(socket, null);
+        TestCase.assertTrue(output.endsWith("last\n$ "));
+        socket.close();
+    }
+
+    @Test
+    public void test_stop_closes_session_after_command() throws Exception {
+        start(2, 0);
+
+        final Socket socket = connect();
+        send(socket, "sleep 500\n");
+        final long end = System.currentTimeMillis() + 5000;
+        while (running.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        TestCase.assertEquals(1, running.get());
+
+        // the session is closed by its worker once the command is interrupted
+        multiplexer.stop();
+        multiplexer = null;
+        while (closed.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        TestCase.assertEquals(1, closed.get());
+        TestCase.assertEquals(0, closedWhileRunning.get());
+        socket.close();
+    }
+
+    private void start(int workers, long idleTimeout) throws IOException {
+        final CommandProcessor processor = new CommandProcessor() {
+            public CommandSession createSession(InputStream in, PrintStream out, PrintStream err) {
+                return new MockSession(in, out);
+            }
+        };
+        final BundleContext context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { BundleContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "getProperty".equals(method.getName()) ? "." : null;
+                }
+            });
+
+        multiplexer = new TelnetMultiplexer(processor, new Shell(context, processor), "127.0.0.1", 0,
+            workers, idleTimeout);
+        multiplexer.start();
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket("127.0.0.1", multiplexer.getLocalPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes());
+        socket.getOutputStream().flush();
+    }
+
+    private static boolean readUntil(Socket socket, String expected) throws IOException {
+        return read(socket, expected).endsWith(expected);
+    }
+
+    // reads until the expected text or the end of the input
+    private static String read(Socket socket, String expected) throws IOException {
+        final StringBuilder buf = new StringBuilder();
+        final InputStream in = socket.getInputStream();
+        int c;
+        while ((expected == null || !buf.toString().endsWith(expected)) && (c = in.read()) >= 0) {
+            buf.append((char) c);
+        }
+        return buf.toString();
+    }
+
+    private class MockSession implements CommandSession {
+
+        private final InputStream in;
+        private final PrintStream out;
+        private final Map<String, Object> variables = new HashMap<String, Object>();
+
+        MockSession(InputStream in, PrintStream out) {
+            this.in = in;
+            this.out = out;
+            variables.put("prompt", "$ ");
+        }
+
+        public Object execute(CharSequence commandline) throws Exception {
+            final String line = commandline.toString();
+            if (line.startsWith("#")) {
+                // the profile
+                return null;
+            }
+
+            final int count = running.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxRunning.get()) < count && !maxRunning.compareAndSet(max, count)) {
+                    // retry
+                }
+                if (line.startsWith("sleep ")) {
+                    Thread.sleep(Long.parseLong(line.substring(6)));
+                    return null;
+                }
+                return line;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        public void close() {
+            if (running.get() > 0) {
+                closedWhileRunning.incrementAndGet();
+            }
+            closed.incrementAndGet();
+        }
+
+        public InputStream getKeyboard() {
+            return in;
+        }
+
+        public PrintStream getConsole() {
+            return out;
+        }
+
+        public Object get(String name) {
+            return variables.get(name);
+        }
+
+        public void put(String name, Object value) {
+            variables.put(name, value);
+        }
+
+        public CharSequence format(Object target, int level) {
+            return String.valueOf(target);
+        }
+
+        public Object convert(Class<?> type, Object instance) {
+            return instance;
+        }
+    }
+}
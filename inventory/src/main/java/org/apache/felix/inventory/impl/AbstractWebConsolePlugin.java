@@ -61,10 +61,8 @@ public abstract class AbstractWebConsolePlugin extends HttpServlet
         if (handler == null)
         {
             final InventoryPrinterHandler[] adapters = this.inventoryPrinterManager.getHandlers(format);
-            for (int i = 0; i < adapters.length; i++)
-            {
-                pw.printInventory(format, adapters[i]);
-            }
+            pw.printInventory(format, adapters, this.inventoryPrinterManager.getPrinterThreads(),
+                this.inventoryPrinterManager.getPrinterTimeout(), this.inventoryPrinterManager.getPrinterBuffer());
         }
         else
         {
@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import org.apache.felix.inventory.InventoryPrinter;
 import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.helper.PrinterThreadPool;
 import org.apache.felix.inventory.impl.webconsole.ConsoleConstants;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -48,6 +49,24 @@ import org.osgi.util.tracker.ServiceTrackerCustomizer;
 public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
 {
 
+    /**
+     * Framework property defining the maximum number of printers called
+     * concurrently when printing the full inventory.
+     */
+    private static final String PROP_PRINTER_THREADS = "felix.inventory.printer.threads";
+
+    /**
+     * Framework property defining the time in seconds a printer may take
+     * when printing the full inventory, 0 for no timeout.
+     */
+    private static final String PROP_PRINTER_TIMEOUT = "felix.inventory.printer.timeout";
+
+    /**
+     * Framework property defining the maximum output in kilo characters
+     * buffered by printers called concurrently.
+     */
+    private static final String PROP_PRINTER_BUFFER = "felix.inventory.printer.buffer";
+
     /** Bundle Context . */
     private final BundleContext bundleContext;
 
@@ -66,6 +85,15 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
     /** Registration for the web console. */
     private final ServiceRegistration pluginRegistration;
 
+    /** The threads calling printers concurrently. */
+    private final PrinterThreadPool printerThreads;
+
+    /** Time in milliseconds a printer may take. */
+    private final long printerTimeout;
+
+    /** Maximum number of characters buffered by printers called concurrently. */
+    private final int printerBuffer;
+
     /**
      * Create the inventory printer manager
      *
@@ -76,6 +104,9 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
     public InventoryPrinterManagerImpl(final BundleContext btx) throws InvalidSyntaxException
     {
         this.bundleContext = btx;
+        this.printerThreads = new PrinterThreadPool(getProperty(btx, PROP_PRINTER_THREADS, 4));
+        this.printerTimeout = getProperty(btx, PROP_PRINTER_TIMEOUT, 60) * 1000L;
+        this.printerBuffer = getProperty(btx, PROP_PRINTER_BUFFER, 1024) * 1024;
         this.cfgPrinterTracker = new ServiceTracker(this.bundleContext, InventoryPrinter.SERVICE, this);
         this.cfgPrinterTracker.open();
 
@@ -107,6 +138,7 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
             this.pluginRegistration.unregister();
         }
         this.cfgPrinterTracker.close();
+        this.printerThreads.stop();
         synchronized (this.allAdapters)
         {
             this.allAdapters.clear();
@@ -311,4 +343,48 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
         }
         return null;
     }
+
+    /**
+     * Return the threads calling printers concurrently when printing the full
+     * inventory.
+     */
+    public PrinterThreadPool getPrinterThreads()
+    {
+        return this.printerThreads;
+    }
+
+    /**
+     * Return the time in milliseconds a printer may take when printing the
+     * full inventory, 0 for no timeout.
+     */
+    public long getPrinterTimeout()
+    {
+        return this.printerTimeout;
+    }
+
+    /**
+     * Return the maximum number of characters buffered by printers called
+     * concurrently.
+     */
+    public int getPrinterBuffer()
+    {
+        return this.printerBuffer;
+    }
+
+    private static int getProperty(final BundleContext btx, final String name, final int defaultValue)
+    {
+        final String value = btx.getProperty(name);
+        if (value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch (final NumberFormatException nfe)
+            {
+                // use default
+            }
+        }
+        return defaultValue;
+    }
 }
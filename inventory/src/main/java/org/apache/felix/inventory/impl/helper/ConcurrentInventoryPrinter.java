@@ -0,0 +1,520 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.Activator;
+import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+import org.osgi.service.log.LogService;
+
+/**
+ * The concurrent inventory printer calls a number of inventory printers on
+ * the threads of a {@link PrinterThreadPool} while their output is written in
+ * printer order.
+ * <p>
+ * Printers are started in printer order, at most a given number at the same
+ * time. The output of the printer currently written is passed on as soon as
+ * it is produced. Printers running ahead buffer their output until it is
+ * their turn, but are blocked once the output buffered by all printers
+ * exceeds a limit. A printer not completing within the timeout, counted from
+ * when its output is written, is abandoned: its output so far is written
+ * followed by a note and any further output is discarded. The thread of an
+ * abandoned printer is interrupted.
+ */
+class ConcurrentInventoryPrinter
+{
+
+    /** Marks a call to {@link PrintWriter#println()} in the buffered output. */
+    private static final Object NEWLINE = new Object();
+
+    /** Number of characters a printer collects before passing them on. */
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Job[] jobs;
+
+    /** The jobs by handler. */
+    private final Map jobsByHandler;
+
+    private final boolean isZip;
+
+    private final PrinterThreadPool pool;
+
+    private final int threads;
+
+    private final long timeout;
+
+    private final int maxBuffered;
+
+    /** The index of the next job to start. */
+    private int nextJob;
+
+    /** The number of started jobs neither finished nor abandoned. */
+    private int running;
+
+    /** The number of characters buffered by all jobs. */
+    private int buffered;
+
+    /** The job whose output is currently written. */
+    private Job current;
+
+    /**
+     * @param handlers The handlers to call in printer order
+     * @param formats The formats to print, in the order they are written, for
+     *            each handler
+     * @param isZip Whether the output is written to a ZIP file
+     * @param pool The pool whose threads call the printers, running at most
+     *            as many printers at the same time as it has threads
+     * @param timeout The time in milliseconds a printer may take, 0 for no
+     *            timeout
+     * @param maxBuffered The maximum number of characters buffered by printers
+     *            running ahead
+     */
+    ConcurrentInventoryPrinter(final InventoryPrinterHandler[] handlers, final Format[][] formats,
+        final boolean isZip, final PrinterThreadPool pool, final long timeout, final int maxBuffered)
+    {
+        this.jobs = new Job[handlers.length];
+        this.jobsByHandler = new IdentityHashMap();
+        for (int i = 0; i < handlers.length; i++)
+        {
+            this.jobs[i] = new Job(handlers[i], formats[i]);
+            this.jobsByHandler.put(handlers[i], this.jobs[i]);
+        }
+        this.isZip = isZip;
+        this.pool = pool;
+        this.threads = pool.getMaxThreads();
+        this.timeout = timeout;
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Starts the first printers.
+     */
+    synchronized void start()
+    {
+        this.startJobs();
+    }
+
+    /**
+     * Abandons all printers whose output has not been written.
+     */
+    synchronized void close()
+    {
+        this.nextJob = this.jobs.length;
+        for (int i = 0; i < this.jobs.length; i++)
+        {
+            this.abandon(this.jobs[i]);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Writes the output of the handler in the given format. Blocks until the
+     * printer has produced the output or timed out.
+     *
+     * @param handler The handler
+     * @param format The format
+     * @param target The writer to write the output to
+     */
+    void print(final InventoryPrinterHandler handler, final Format format, final PrintWriter target)
+    {
+        final Job job = (Job) this.jobsByHandler.get(handler);
+        final Section section = (job != null) ? job.getSection(format) : null;
+        if (section == null)
+        {
+            handler.print(target, format, this.isZip);
+            return;
+        }
+
+        final List chunks = new ArrayList();
+        boolean done = false;
+        boolean timedOut = false;
+        while (!done)
+        {
+            synchronized (this)
+            {
+                if (this.current != job)
+                {
+                    // time spent running ahead, possibly blocked, does not count
+                    this.current = job;
+                    job.deadline = System.currentTimeMillis() + this.timeout;
+                    if (!job.started)
+                    {
+                        this.start(job);
+                    }
+                    this.notifyAll();
+                }
+
+                while (section.chunks.isEmpty() && !section.closed && !timedOut)
+                {
+                    final long remaining = (this.timeout > 0) ? job.deadline - System.currentTimeMillis() : 0;
+                    if (this.timeout > 0 && remaining <= 0)
+                    {
+                        timedOut = true;
+                    }
+                    else
+                    {
+                        try
+                        {
+                            this.wait(remaining);
+                        }
+                        catch (final InterruptedException ie)
+                        {
+                            // give up on the printer, the caller is told about the interrupt
+                            Thread.currentThread().interrupt();
+                            timedOut = true;
+                        }
+                    }
+                }
+
+                chunks.addAll(section.chunks);
+                section.chunks.clear();
+                this.buffered -= section.size;
+                section.size = 0;
+                done = section.closed || timedOut;
+                if (timedOut)
+                {
+                    this.abandon(job);
+                }
+                this.notifyAll();
+            }
+
+            for (final Iterator ci = chunks.iterator(); ci.hasNext();)
+            {
+                final Object chunk = ci.next();
+                if (chunk == NEWLINE)
+                {
+                    target.println();
+                }
+                else
+                {
+                    target.write((String) chunk);
+                }
+            }
+            chunks.clear();
+        }
+
+        if (timedOut)
+        {
+            target.println();
+            target.println("*** Printer " + handler.getTitle() + " did not complete within " + (this.timeout / 1000)
+                + " seconds, output is truncated.");
+        }
+        else if (section.failure != null)
+        {
+            target.println();
+            target.println("*** Printer " + handler.getTitle() + " failed: " + section.failure);
+        }
+    }
+
+    private void startJobs()
+    {
+        while (this.running < this.threads && this.nextJob < this.jobs.length)
+        {
+            final Job job = this.jobs[this.nextJob++];
+            if (!job.started)
+            {
+                this.start(job);
+            }
+        }
+    }
+
+    private void start(final Job job)
+    {
+        job.started = true;
+        this.running++;
+
+        if (!this.pool.execute(job))
+        {
+            // the pool is stopped, the printer is never called
+            final Throwable failure = new IllegalStateException("Printer threads are stopped");
+            for (int i = 0; i < job.sections.length; i++)
+            {
+                this.finish(job.sections[i], failure);
+            }
+            this.finish(job);
+        }
+    }
+
+    private void abandon(final Job job)
+    {
+        if (!job.abandoned)
+        {
+            job.abandoned = true;
+            if (job.started && !job.finished)
+            {
+                this.running--;
+                if (job.thread != null)
+                {
+                    job.thread.interrupt();
+                }
+                else
+                {
+                    this.pool.remove(job);
+                }
+            }
+            for (int i = 0; i < job.sections.length; i++)
+            {
+                this.buffered -= job.sections[i].size;
+                job.sections[i].size = 0;
+                job.sections[i].chunks.clear();
+            }
+            this.startJobs();
+        }
+    }
+
+    /**
+     * Called by the printer threads to pass on the output collected.
+     */
+    private synchronized void publish(final Job job, final Section section, final List chunks, final int size)
+    {
+        // the job currently written is never blocked, it is drained right away
+        while (!job.abandoned && job != this.current && this.buffered > 0 && this.buffered + size > this.maxBuffered)
+        {
+            try
+            {
+                this.wait();
+            }
+            catch (final InterruptedException ie)
+            {
+                // keep on waiting
+            }
+        }
+
+        if (!job.abandoned)
+        {
+            section.chunks.addAll(chunks);
+            section.size += size;
+            this.buffered += size;
+            this.notifyAll();
+        }
+    }
+
+    private synchronized void finish(final Section section, final Throwable failure)
+    {
+        section.closed = true;
+        section.failure = failure;
+        this.notifyAll();
+    }
+
+    /**
+     * Called by the printer threads before calling the printer for a section.
+     *
+     * @return {@code false} if the job is abandoned and should not go on
+     */
+    private synchronized boolean proceed(final Job job)
+    {
+        job.thread = Thread.currentThread();
+        return !job.abandoned;
+    }
+
+    private synchronized void finish(final Job job)
+    {
+        job.finished = true;
+        job.thread = null;
+        if (!job.abandoned)
+        {
+            this.running--;
+            this.startJobs();
+        }
+    }
+
+    /**
+     * The output of a printer in one format.
+     */
+    private static final class Section
+    {
+
+        final Format format;
+
+        /** The output not yet written, strings and {@link #NEWLINE} markers. */
+        final LinkedList chunks = new LinkedList();
+
+        /** The number of characters in the chunks. */
+        int size;
+
+        boolean closed;
+
+        Throwable failure;
+
+        Section(final Format format)
+        {
+            this.format = format;
+        }
+    }
+
+    private final class Job implements Runnable
+    {
+
+        final InventoryPrinterHandler handler;
+
+        final Section[] sections;
+
+        boolean started;
+
+        /** When the job times out, set once its output is written. */
+        long deadline;
+
+        boolean finished;
+
+        boolean abandoned;
+
+        /** The thread calling the printer, set once it runs. */
+        Thread thread;
+
+        Job(final InventoryPrinterHandler handler, final Format[] formats)
+        {
+            this.handler = handler;
+            this.sections = new Section[formats.length];
+            for (int i = 0; i < formats.length; i++)
+            {
+                this.sections[i] = new Section(formats[i]);
+            }
+        }
+
+        Section getSection(final Format format)
+        {
+            for (int i = 0; i < this.sections.length; i++)
+            {
+                if (this.sections[i].format == format)
+                {
+                    return this.sections[i];
+                }
+            }
+            return null;
+        }
+
+        public void run()
+        {
+            for (int i = 0; i < this.sections.length && ConcurrentInventoryPrinter.this.proceed(this); i++)
+            {
+                final Section section = this.sections[i];
+                final CapturingWriter writer = new CapturingWriter(this, section);
+                Throwable failure = null;
+                try
+                {
+                    this.handler.print(writer, section.format, ConcurrentInventoryPrinter.this.isZip);
+                }
+                catch (final Throwable t)
+                {
+                    Activator.log(null, LogService.LOG_ERROR, "Printer " + this.handler.getName() + " failed", t);
+                    failure = t;
+                }
+                writer.flush();
+                ConcurrentInventoryPrinter.this.finish(section, failure);
+            }
+            ConcurrentInventoryPrinter.this.finish(this);
+        }
+    }
+
+    /**
+     * The writer passed to the printers, collecting the output in chunks.
+     * Calls to {@link #println()} are kept as such, as the configuration
+     * writers handle them differently from line separators written.
+     */
+    private final class CapturingWriter extends PrintWriter
+    {
+
+        private final Job job;
+
+        private final Section section;
+
+        private final StringBuffer text = new StringBuffer();
+
+        private List chunks = new ArrayList();
+
+        private int size;
+
+        CapturingWriter(final Job job, final Section section)
+        {
+            super(new CharArrayWriter(0));
+            this.job = job;
+            this.section = section;
+        }
+
+        public void write(final int c)
+        {
+            this.text.append((char) c);
+            this.written(1);
+        }
+
+        public void write(final char[] buf, final int off, final int len)
+        {
+            this.text.append(buf, off, len);
+            this.written(len);
+        }
+
+        public void write(final String s, final int off, final int len)
+        {
+            this.text.append(s.substring(off, off + len));
+            this.written(len);
+        }
+
+        public void println()
+        {
+            this.endText();
+            this.chunks.add(NEWLINE);
+            this.written(1);
+        }
+
+        public void flush()
+        {
+            this.endText();
+            if (!this.chunks.isEmpty())
+            {
+                final List published = this.chunks;
+                this.chunks = new ArrayList();
+                final int publishedSize = this.size;
+                this.size = 0;
+                ConcurrentInventoryPrinter.this.publish(this.job, this.section, published, publishedSize);
+            }
+        }
+
+        public void close()
+        {
+            this.flush();
+        }
+
+        private void endText()
+        {
+            if (this.text.length() > 0)
+            {
+                this.chunks.add(this.text.toString());
+                this.text.setLength(0);
+            }
+        }
+
+        private void written(final int count)
+        {
+            this.size += count;
+            if (this.size >= CHUNK_SIZE)
+            {
+                this.flush();
+            }
+        }
+    }
+}
@@ -31,6 +31,9 @@ import org.apache.felix.inventory.impl.InventoryPrinterHandler;
 public abstract class ConfigurationWriter extends PrintWriter
 {
 
+    /** The printers running concurrently while printing several handlers. */
+    private ConcurrentInventoryPrinter printers;
+
     ConfigurationWriter(final Writer delegatee)
     {
         super(delegatee);
@@ -49,7 +52,91 @@ public abstract class ConfigurationWriter extends PrintWriter
     public void printInventory(final Format format, final InventoryPrinterHandler handler) throws IOException
     {
         this.title(handler.getTitle());
-        handler.print(this, format, false);
+        this.print(handler, format, false);
         this.end();
     }
+
+    /**
+     * Prints the inventory of all handlers in the given order. The printers
+     * are called concurrently on the threads of the pool, if it has more than
+     * one thread.
+     *
+     * @param format The format, may be {@code null} for writers printing all
+     *            formats supported by a handler
+     * @param handlers The handlers to be called to generate the output
+     * @param pool The pool whose threads call the printers
+     * @param timeout The time in milliseconds a printer may take before its
+     *            output is truncated, 0 for no timeout
+     * @param maxBuffered The maximum number of characters buffered by
+     *            printers running ahead of the printer whose output is
+     *            currently written
+     *
+     * @throws IOException if an error occurrs writing the output
+     */
+    public void printInventory(final Format format, final InventoryPrinterHandler[] handlers, final PrinterThreadPool pool,
+        final long timeout, final int maxBuffered) throws IOException
+    {
+        if (pool.getMaxThreads() > 1 && handlers.length > 1)
+        {
+            final Format[][] formats = new Format[handlers.length][];
+            for (int i = 0; i < handlers.length; i++)
+            {
+                formats[i] = this.getFormats(format, handlers[i]);
+            }
+            this.printers = new ConcurrentInventoryPrinter(handlers, formats, this.isZip(), pool, timeout,
+                maxBuffered);
+            this.printers.start();
+        }
+
+        try
+        {
+            for (int i = 0; i < handlers.length; i++)
+            {
+                this.printInventory(format, handlers[i]);
+            }
+        }
+        finally
+        {
+            if (this.printers != null)
+            {
+                this.printers.close();
+                this.printers = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the formats {@link #printInventory(Format, InventoryPrinterHandler)}
+     * prints for the handler, in the order they are printed.
+     */
+    protected Format[] getFormats(final Format format, final InventoryPrinterHandler handler)
+    {
+        return new Format[]
+            { format };
+    }
+
+    /**
+     * Returns whether the output is written to a ZIP file.
+     */
+    protected boolean isZip()
+    {
+        return false;
+    }
+
+    /**
+     * Prints the output of the handler in the given format to this writer,
+     * either calling the handler or writing the output of the handler
+     * already running concurrently.
+     */
+    protected void print(final InventoryPrinterHandler handler, final Format format, final boolean isZip)
+    {
+        if (this.printers != null)
+        {
+            this.printers.print(handler, format, this);
+        }
+        else
+        {
+            handler.print(this, format, isZip);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.util.LinkedList;
+
+import org.apache.felix.inventory.impl.Activator;
+import org.osgi.service.log.LogService;
+
+/**
+ * The pool of daemon threads calling inventory printers concurrently. The
+ * number of threads is bounded, printers are queued once all threads are
+ * busy. This includes the threads of printers which have been abandoned but
+ * ignore being interrupted, so those can never take up more threads than the
+ * pool has. Threads are started when needed and end once they have been
+ * idle for a while.
+ */
+public class PrinterThreadPool
+{
+
+    private static final String THREAD_NAME = "Apache Felix Inventory Printer";
+
+    /** The time in milliseconds an idle thread waits for a printer. */
+    private static final long IDLE_TIMEOUT = 60000L;
+
+    private final int maxThreads;
+
+    /** The printers waiting for a thread. */
+    private final LinkedList queue = new LinkedList();
+
+    /** The number of threads started and not ended. */
+    private int threads;
+
+    /** The number of threads waiting for a printer. */
+    private int idle;
+
+    private int threadCount;
+
+    private boolean stopped;
+
+    /**
+     * @param maxThreads The maximum number of printers running at the same
+     *            time
+     */
+    public PrinterThreadPool(final int maxThreads)
+    {
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Returns the maximum number of printers running at the same time.
+     */
+    public int getMaxThreads()
+    {
+        return this.maxThreads;
+    }
+
+    /**
+     * Stops the pool. Queued printers are not run anymore and the threads end
+     * once their current printer returns.
+     */
+    public synchronized void stop()
+    {
+        this.stopped = true;
+        this.queue.clear();
+        this.notifyAll();
+    }
+
+    /**
+     * Runs the printer as soon as a thread is available.
+     *
+     * @return {@code false} if the pool is stopped and the printer is not run
+     */
+    synchronized boolean execute(final Runnable printer)
+    {
+        if (this.stopped)
+        {
+            return false;
+        }
+
+        this.queue.add(printer);
+        if (this.queue.size() > this.idle && this.threads < this.maxThreads)
+        {
+            this.threads++;
+            final Thread thread = new Thread(new Worker(), THREAD_NAME + " #" + (++this.threadCount));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.notify();
+        return true;
+    }
+
+    /**
+     * Removes the printer from the queue, if it has not been started yet.
+     */
+    synchronized void remove(final Runnable printer)
+    {
+        this.queue.remove(printer);
+    }
+
+    /**
+     * Returns the next printer to run, or {@code null} if the calling thread
+     * should end.
+     */
+    private synchronized Runnable take()
+    {
+        final long idleSince = System.currentTimeMillis();
+        while (this.queue.isEmpty() && !this.stopped)
+        {
+            final long remaining = IDLE_TIMEOUT - (System.currentTimeMillis() - idleSince);
+            if (remaining <= 0)
+            {
+                break;
+            }
+
+            this.idle++;
+            try
+            {
+                this.wait(remaining);
+            }
+            catch (final InterruptedException ie)
+            {
+                // interrupted by abandoning a printer which had already returned
+            }
+            finally
+            {
+                this.idle--;
+            }
+        }
+
+        if (this.queue.isEmpty() || this.stopped)
+        {
+            this.threads--;
+            return null;
+        }
+        return (Runnable) this.queue.removeFirst();
+    }
+
+    private final class Worker implements Runnable
+    {
+
+        public void run()
+        {
+            Runnable printer;
+            while ((printer = PrinterThreadPool.this.take()) != null)
+            {
+                try
+                {
+                    printer.run();
+                }
+                catch (final Throwable t)
+                {
+                    Activator.log(null, LogService.LOG_ERROR, "Unexpected failure calling printer", t);
+                }
+
+                // do not pass on the interrupt of an abandoned printer
+                Thread.interrupted();
+            }
+        }
+    }
+}
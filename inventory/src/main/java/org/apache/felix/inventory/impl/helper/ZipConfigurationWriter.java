@@ -93,7 +93,7 @@ public class ZipConfigurationWriter extends ConfigurationWriter
             final ZipEntry entry = new ZipEntry(baseName.concat(".txt"));
             entry.setTime(System.currentTimeMillis());
             this.zip.putNextEntry(entry, Format.TEXT);
-            handler.print(this, Format.TEXT, true);
+            this.print(handler, Format.TEXT, true);
             this.flush();
             this.zip.closeEntry();
         }
@@ -104,7 +104,7 @@ public class ZipConfigurationWriter extends ConfigurationWriter
             final ZipEntry entry = new ZipEntry("json/" + baseName + ".json");
             entry.setTime(System.currentTimeMillis());
             this.zip.putNextEntry(entry, Format.JSON);
-            handler.print(this, Format.JSON, true);
+            this.print(handler, Format.JSON, true);
             this.flush();
             this.zip.closeEntry();
         }
@@ -117,6 +117,31 @@ public class ZipConfigurationWriter extends ConfigurationWriter
         this.zip.endHandler();
     }
 
+    protected Format[] getFormats(final Format formatIgnored, final InventoryPrinterHandler handler)
+    {
+        if (handler.supports(Format.TEXT) && handler.supports(Format.JSON))
+        {
+            return new Format[]
+                { Format.TEXT, Format.JSON };
+        }
+        else if (handler.supports(Format.TEXT))
+        {
+            return new Format[]
+                { Format.TEXT };
+        }
+        else if (handler.supports(Format.JSON))
+        {
+            return new Format[]
+                { Format.JSON };
+        }
+        return new Format[0];
+    }
+
+    protected boolean isZip()
+    {
+        return true;
+    }
+
     private String getBaseName(final InventoryPrinterHandler handler)
     {
         final String title = handler.getTitle();
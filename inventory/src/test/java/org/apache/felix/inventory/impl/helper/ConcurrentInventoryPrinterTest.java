@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+
+public class ConcurrentInventoryPrinterTest extends TestCase
+{
+
+    public void test_printer_order()
+    {
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[5];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            // earlier printers take longer
+            handlers[i] = new MockHandler("printer" + i, 20, (handlers.length - i) * 50);
+        }
+
+        final String expected = print(handlers, 1, 0, 0);
+        assertTrue(expected.indexOf("*** printer4:") > expected.indexOf("*** printer0:"));
+        assertEquals(expected, print(handlers, 3, 0, 0));
+    }
+
+    public void test_buffer_limit()
+    {
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[4];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            handlers[i] = new MockHandler("printer" + i, 5000, 0);
+        }
+
+        assertEquals(print(handlers, 1, 0, 0), print(handlers, 4, 0, 100));
+    }
+
+    public void test_timeout()
+    {
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[]
+            { new MockHandler("slow", 1, 5000), new MockHandler("fast", 1, 0) };
+
+        final long start = System.currentTimeMillis();
+        final String output = print(handlers, 2, 200, 1000);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        final int slow = output.indexOf("*** slow:");
+        final int truncated = output.indexOf("*** Printer slow did not complete");
+        final int fast = output.indexOf("*** fast:");
+        assertTrue(slow >= 0);
+        assertTrue(truncated > slow);
+        assertTrue(fast > truncated);
+        assertTrue(output.indexOf("fast line 0") > fast);
+    }
+
+    public void test_timeout_not_blocked()
+    {
+        // the fast printers exceed the buffer and wait for the slow one longer than the timeout
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[]
+            { new MockHandler("slow", 0, 1, 400), new MockHandler("fast1", 1000, 1, 200),
+                new MockHandler("fast2", 1000, 1, 200) };
+
+        final String output = print(handlers, 3, 500, 100);
+        assertTrue(output.indexOf("did not complete") < 0);
+        assertTrue(output.indexOf("fast1 line 0") > output.indexOf("slow line 0"));
+        assertTrue(output.indexOf("fast2 line 0") > output.indexOf("fast1 line 0"));
+    }
+
+    public void test_timeout_interrupts_printer() throws InterruptedException
+    {
+        final MockHandler slow = new MockHandler("slow", 1, 5000);
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[]
+            { slow, new MockHandler("fast", 1, 0) };
+
+        print(handlers, 2, 200, 1000);
+        synchronized (slow)
+        {
+            final long end = System.currentTimeMillis() + 2000;
+            while (!slow.interrupted && System.currentTimeMillis() < end)
+            {
+                slow.wait(100);
+            }
+        }
+        assertTrue(slow.interrupted);
+    }
+
+    public void test_abandoned_printers_keep_their_threads()
+    {
+        // the printers ignore being interrupted, so they keep running after being abandoned
+        final StubbornHandler[] handlers = new StubbornHandler[4];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            handlers[i] = new StubbornHandler("stubborn" + i, 300);
+        }
+
+        final PrinterThreadPool pool = new PrinterThreadPool(2);
+        try
+        {
+            final String output = print(handlers, pool, 50, 1000);
+            assertTrue(output.indexOf("*** Printer stubborn3 did not complete") > 0);
+            assertTrue(StubbornHandler.maxRunning <= 2);
+        }
+        finally
+        {
+            pool.stop();
+        }
+    }
+
+    private static String print(final InventoryPrinterHandler[] handlers, final int threads, final long timeout,
+        final int maxBuffered)
+    {
+        final PrinterThreadPool pool = new PrinterThreadPool(threads);
+        try
+        {
+            return print(handlers, pool, timeout, maxBuffered);
+        }
+        finally
+        {
+            pool.stop();
+        }
+    }
+
+    private static String print(final InventoryPrinterHandler[] handlers, final PrinterThreadPool pool,
+        final long timeout, final int maxBuffered)
+    {
+        final StringWriter out = new StringWriter();
+        final ConfigurationWriter writer = new PlainTextConfigurationWriter(out);
+        try
+        {
+            writer.printInventory(Format.TEXT, handlers, pool, timeout, maxBuffered);
+        }
+        catch (IOException ioe)
+        {
+            fail(ioe.toString());
+        }
+        writer.flush();
+        return out.toString();
+    }
+
+    private static final class MockHandler implements InventoryPrinterHandler
+    {
+
+        private final String name;
+
+        private final int leadingLines;
+
+        private final int lines;
+
+        private final long delay;
+
+        /** Whether the delay has been interrupted. */
+        boolean interrupted;
+
+        MockHandler(final String name, final int lines, final long delay)
+        {
+            this(name, 0, lines, delay);
+        }
+
+        /**
+         * @param leadingLines The number of lines printed before the delay
+         * @param lines The number of lines printed after the delay
+         */
+        MockHandler(final String name, final int leadingLines, final int lines, final long delay)
+        {
+            this.name = name;
+            this.leadingLines = leadingLines;
+            this.lines = lines;
+            this.delay = delay;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public String getTitle()
+        {
+            return this.name;
+        }
+
+        public Format[] getFormats()
+        {
+            return new Format[]
+                { Format.TEXT };
+        }
+
+        public boolean supports(final Format format)
+        {
+            return format == Format.TEXT;
+        }
+
+        public void print(final PrintWriter printWriter, final Format format, final boolean isZip)
+        {
+            printWriter.print(this.name);
+            printWriter.println(" first line");
+            for (int i = 0; i < this.leadingLines; i++)
+            {
+                printWriter.println(this.name + " leading line " + i);
+            }
+            try
+            {
+                Thread.sleep(this.delay);
+            }
+            catch (InterruptedException ie)
+            {
+                synchronized (this)
+                {
+                    this.interrupted = true;
+                    this.notifyAll();
+                }
+            }
+            for (int i = 0; i < this.lines; i++)
+            {
+                printWriter.println(this.name + " line " + i);
+            }
+            printWriter.write("no newline");
+        }
+
+        public void addAttachments(final ZipOutputStream zos, final String namePrefix)
+        {
+            // no attachments
+        }
+    }
+
+    private static final class StubbornHandler implements InventoryPrinterHandler
+    {
+
+        /** The number of printers running at the same time. */
+        static int running;
+
+        /** The maximum number of printers seen running at the same time. */
+        static int maxRunning;
+
+        private final String name;
+
+        private final long duration;
+
+        StubbornHandler(final String name, final long duration)
+        {
+            this.name = name;
+            this.duration = duration;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public String getTitle()
+        {
+            return this.name;
+        }
+
+        public Format[] getFormats()
+        {
+            return new Format[]
+                { Format.TEXT };
+        }
+
+        public boolean supports(final Format format)
+        {
+            return format == Format.TEXT;
+        }
+
+        public void print(final PrintWriter printWriter, final Format format, final boolean isZip)
+        {
+            synchronized (StubbornHandler.class)
+            {
+                running++;
+                maxRunning = Math.max(maxRunning, running);
+            }
+            final long end = System.currentTimeMillis() + this.duration;
+            while (System.currentTimeMillis() < end)
+            {
+                try
+                {
+                    Thread.sleep(Math.max(1, end - System.currentTimeMillis()));
+                }
+                catch (InterruptedException ie)
+                {
+                    // ignored
+                }
+            }
+            printWriter.println(this.name + " done");
+            synchronized (StubbornHandler.class)
+            {
+                running--;
+            }
+        }
+
+        public void addAttachments(final ZipOutputStream zos, final String namePrefix)
+        {
+            // no attachments
+        }
+    }
+}
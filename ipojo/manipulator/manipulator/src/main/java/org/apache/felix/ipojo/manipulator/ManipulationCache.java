@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator;
+
+import org.apache.felix.ipojo.manipulator.util.Constants;
+import org.apache.felix.ipojo.manipulator.util.Streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code ManipulationCache} remembers the manipulated bytecode of the
+ * manipulation units between two manipulations, so units whose bytecode and
+ * metadata did not change do not need to be manipulated again.
+ * The cache is persisted in a single state file.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class ManipulationCache {
+
+    /**
+     * Identifies state files (and their format).
+     */
+    private static final int MAGIC = 0x69504a31;
+
+    /**
+     * The state file.
+     */
+    private final File m_file;
+
+    /**
+     * Entries loaded from the state file, by unit resource path.
+     */
+    private final Map<String, Entry> m_previous = new HashMap<String, Entry>();
+
+    /**
+     * Entries used or created during this manipulation, by unit resource path.
+     * Only these entries are persisted.
+     */
+    private final Map<String, Entry> m_current = new LinkedHashMap<String, Entry>();
+
+    public ManipulationCache(File file) {
+        m_file = file;
+    }
+
+    /**
+     * Loads the state file, if any. A state file written by another manipulator
+     * version, or which cannot be read, is ignored.
+     */
+    public synchronized void load() {
+        m_previous.clear();
+        if (!m_file.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+            if (in.readInt() != MAGIC || !in.readUTF().equals(String.valueOf(Constants.getVersion()))) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String fingerprint = in.readUTF();
+                int size = in.readInt();
+                Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+                for (int j = 0; j < size; j++) {
+                    String name = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    resources.put(name, bytes);
+                }
+                m_previous.put(path, new Entry(fingerprint, resources));
+            }
+        } catch (IOException e) {
+            // Corrupted state, start from scratch
+            m_previous.clear();
+        } finally {
+            Streams.close(in);
+        }
+    }
+
+    /**
+     * Writes the entries used during this manipulation to the state file.
+     * @throws IOException if the state file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        File parent = m_file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(m_file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(String.valueOf(Constants.getVersion()));
+            out.writeInt(m_current.size());
+            for (Map.Entry<String, Entry> entry : m_current.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().m_fingerprint);
+                out.writeInt(entry.getValue().m_resources.size());
+                for (Map.Entry<String, byte[]> resource : entry.getValue().m_resources.entrySet()) {
+                    out.writeUTF(resource.getKey());
+                    out.writeInt(resource.getValue().length);
+                    out.write(resource.getValue());
+                }
+            }
+        } finally {
+            Streams.close(out);
+        }
+        m_file.delete();
+        if (!tmp.renameTo(m_file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + m_file);
+        }
+    }
+
+    /**
+     * Returns the resources produced by a previous manipulation of the given unit.
+     * @param path the resource path of the unit
+     * @param fingerprint the fingerprint of the unit's bytecode and metadata
+     * @return the manipulated resources (by resource path), {@code null} if the unit
+     * was not manipulated with the same fingerprint before
+     */
+    public synchronized Map<String, byte[]> get(String path, String fingerprint) {
+        Entry entry = m_current.get(path);
+        if (entry == null) {
+            entry = m_previous.get(path);
+        }
+        if (entry == null || !entry.m_fingerprint.equals(fingerprint)) {
+            return null;
+        }
+        m_current.put(path, entry);
+        return Collections.unmodifiableMap(entry.m_resources);
+    }
+
+    /**
+     * Remembers the resources produced by the manipulation of the given unit.
+     * @param path the resource path of the unit
+     * @param fingerprint the fingerprint of the unit's bytecode and metadata
+     * @param resources the manipulated resources (by resource path)
+     */
+    public synchronized void put(String path, String fingerprint, Map<String, byte[]> resources) {
+        m_current.put(path, new Entry(fingerprint, new LinkedHashMap<String, byte[]>(resources)));
+    }
+
+    /**
+     * Creates a digest to compute unit fingerprints.
+     * @return a new digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported");
+        }
+    }
+
+    /**
+     * Adds the given string to a fingerprint digest.
+     * @param digest the digest
+     * @param value the value to add
+     */
+    public static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported");
+        }
+    }
+
+    /**
+     * Computes the fingerprint from the given digest.
+     * @param digest the digest
+     * @return the fingerprint
+     */
+    public static String toFingerprint(MessageDigest digest) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static class Entry {
+        private final String m_fingerprint;
+        private final Map<String, byte[]> m_resources;
+
+        private Entry(String fingerprint, Map<String, byte[]> resources) {
+            m_fingerprint = fingerprint;
+            m_resources = resources;
+        }
+    }
+}
@@ -20,14 +20,28 @@
 package org.apache.felix.ipojo.manipulator;
 
 import org.apache.felix.ipojo.manipulation.Manipulator;
+import org.apache.felix.ipojo.metadata.Element;
 
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A {@code ManipulationEngine} is responsible to drive the component's
  * classes manipulation.
+ * <p/>
+ * Manipulation units are independent from each other, so their bytecode is
+ * manipulated concurrently. The results are then given to the
+ * {@link ManipulationVisitor} sequentially, in the order the units were added.
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
@@ -57,6 +71,16 @@ public class ManipulationEngine {
      */
     private ManipulationVisitor m_manipulationVisitor;
 
+    /**
+     * Cache of previous manipulation results, may be {@code null}.
+     */
+    private ManipulationCache m_cache;
+
+    /**
+     * Number of units manipulated concurrently.
+     */
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+
     public ManipulationEngine(ClassLoader classLoader) {
         m_classLoader = classLoader;
     }
@@ -83,12 +107,30 @@ public class ManipulationEngine {
     /**
      * Provides the bytecode store that allows to retrieve bytecode of the
      * component's related resources (inner classes for example).
+     * When units are manipulated concurrently, the store is read concurrently.
      * @param store Helps to locate bytecode for classes.
      */
     public void setResourceStore(ResourceStore store) {
         m_store = store;
     }
 
+    /**
+     * Provides the cache used to skip the manipulation of units whose bytecode
+     * and metadata did not change since they were last manipulated.
+     * @param cache the cache, {@code null} to manipulate all units.
+     */
+    public void setManipulationCache(ManipulationCache cache) {
+        m_cache = cache;
+    }
+
+    /**
+     * Sets the number of units manipulated concurrently.
+     * @param parallelism number of threads, {@literal 1} to manipulate units sequentially.
+     */
+    public void setParallelism(int parallelism) {
+        m_parallelism = parallelism;
+    }
+
     /**
      * Manipulates classes of all the given component's.
      */
@@ -97,89 +139,208 @@ public class ManipulationEngine {
         // Iterates over the list of discovered components
         // Note that this list includes components from metadata.xml AND from annotations
 
-        for (ManipulationUnit info : m_manipulationUnits) {
-
-            byte[] bytecode;
-            try {
-                bytecode = m_store.read(info.getResourcePath());
-            } catch (IOException e) {
-                m_reporter.error("Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.");
-                return;
+        List<Future<UnitResult>> results = new ArrayList<Future<UnitResult>>();
+        ExecutorService executor = null;
+        int threads = Math.min(m_parallelism, m_manipulationUnits.size());
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ManipulatorThreadFactory());
+            for (ManipulationUnit info : m_manipulationUnits) {
+                results.add(executor.submit(new UnitManipulation(info)));
             }
+        }
 
-            // Is the visitor interested in this component ?
-            ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(info.getComponentMetadata());
-
-            if (result != null) {
-                // Should always be the case
+        try {
+            for (int i = 0; i < m_manipulationUnits.size(); i++) {
+                ManipulationUnit info = m_manipulationUnits.get(i);
+                UnitResult unit;
+                if (executor != null) {
+                    unit = getResult(results.get(i));
+                } else {
+                    unit = manipulate(info);
+                }
 
-                // Manipulation preparation
-                Manipulator manipulator = new Manipulator(m_classLoader);
-                try {
-                    manipulator.prepare(bytecode);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
+                if (unit.m_error != null) {
+                    m_reporter.error(unit.m_error);
                     return;
                 }
 
-                // Inner class preparation
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                        manipulator.prepareInnerClass(inner, innerClassBytecode);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find or analyze inner class '" + resourcePath + "'");
-                        return;
-                    }
-                }
+                // Is the visitor interested in this component ?
+                ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(info.getComponentMetadata());
 
-                // Now manipulate the classes.
-                try {
-                    byte[] out = manipulator.manipulate(bytecode);
-                    // Call the visitor
-                    result.visitManipulatedResource(info.getResourcePath(), out);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
+                if (result != null) {
+                    // Should always be the case
 
-                // Visit inner classes
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find inner class '" + resourcePath + "'");
-                        return;
+                    // Propagate manipulated resources (the class first, then its inner classes)
+                    for (Map.Entry<String, byte[]> resource : unit.m_resources.entrySet()) {
+                        result.visitManipulatedResource(resource.getKey(), resource.getValue());
                     }
 
-                    // Manipulate inner class
-                    // Notice that (for performance reason) re-use the class version information
-                    // discovered in the main class instead of re-parsing the inner class to find
-                    // its own class version
-                    try {
-                        byte[] manipulated = manipulator.manipulateInnerClass(inner, innerClassBytecode);
-                        // Propagate manipulated resource
-                        result.visitManipulatedResource(resourcePath, manipulated);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot manipulate inner class '" + resourcePath + "'");
-                        return;
-                    }
+                    // Compute manipulation metadata
+                    result.visitClassStructure(unit.m_structure);
+
+                    // All resources have been manipulated for this component
+                    result.visitEnd();
                 }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
 
-                // Compute manipulation metadata
-                result.visitClassStructure(manipulator.getManipulationMetadata());
+    private UnitResult getResult(Future<UnitResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new UnitResult("Manipulation interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            return new UnitResult("Cannot manipulate the class : " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Manipulates the class of the given unit and its inner classes.
+     * This method does not call the visitor, so it can be called concurrently.
+     * @param info the unit
+     * @return the manipulation result or the error
+     */
+    private UnitResult manipulate(ManipulationUnit info) {
+        byte[] bytecode;
+        try {
+            bytecode = m_store.read(info.getResourcePath());
+        } catch (IOException e) {
+            return new UnitResult("Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.");
+        }
+
+        // Manipulation preparation
+        Manipulator manipulator = new Manipulator(m_classLoader);
+        try {
+            manipulator.prepare(bytecode);
+        } catch (IOException e) {
+            return new UnitResult("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
+        }
 
-                // All resources have been manipulated for this component
-                result.visitEnd();
+        // Inner class preparation
+        Map<String, byte[]> inners = new LinkedHashMap<String, byte[]>();
+        for (String inner : manipulator.getInnerClasses()) {
+            // Get the bytecode and start manipulation
+            String resourcePath = inner + ".class";
+            try {
+                byte[] innerClassBytecode = m_store.read(resourcePath);
+                manipulator.prepareInnerClass(inner, innerClassBytecode);
+                inners.put(inner, innerClassBytecode);
+            } catch (IOException e) {
+                return new UnitResult("Cannot find or analyze inner class '" + resourcePath + "'");
             }
         }
+
+        // Already manipulated classes are left unchanged, there is nothing to cache
+        String fingerprint = null;
+        if (m_cache != null && !manipulator.isAlreadyManipulated()) {
+            fingerprint = fingerprint(info, bytecode, inners);
+            Map<String, byte[]> cached = m_cache.get(info.getResourcePath(), fingerprint);
+            if (cached != null) {
+                return new UnitResult(cached, manipulator.getManipulationMetadata());
+            }
+        }
+
+        Map<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
+
+        // Now manipulate the classes.
+        try {
+            resources.put(info.getResourcePath(), manipulator.manipulate(bytecode));
+        } catch (IOException e) {
+            return new UnitResult("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
+        }
+
+        // Manipulate inner classes
+        // Notice that (for performance reason) re-use the class version information
+        // discovered in the main class instead of re-parsing the inner class to find
+        // its own class version
+        for (Map.Entry<String, byte[]> inner : inners.entrySet()) {
+            String resourcePath = inner.getKey() + ".class";
+            try {
+                resources.put(resourcePath, manipulator.manipulateInnerClass(inner.getKey(), inner.getValue()));
+            } catch (IOException e) {
+                return new UnitResult("Cannot manipulate inner class '" + resourcePath + "'");
+            }
+        }
+
+        if (fingerprint != null) {
+            m_cache.put(info.getResourcePath(), fingerprint, resources);
+        }
+
+        return new UnitResult(resources, manipulator.getManipulationMetadata());
+    }
+
+    /**
+     * Computes the fingerprint of a unit from its metadata and the bytecode of its classes.
+     */
+    private static String fingerprint(ManipulationUnit info, byte[] bytecode, Map<String, byte[]> inners) {
+        MessageDigest digest = ManipulationCache.newDigest();
+        ManipulationCache.update(digest, info.getComponentMetadata().toString());
+        digest.update(bytecode);
+        for (Map.Entry<String, byte[]> inner : inners.entrySet()) {
+            ManipulationCache.update(digest, inner.getKey());
+            digest.update(inner.getValue());
+        }
+        return ManipulationCache.toFingerprint(digest);
+    }
+
+    /**
+     * Manipulates one unit on a worker thread.
+     */
+    private class UnitManipulation implements Callable<UnitResult> {
+        private final ManipulationUnit m_unit;
+
+        private UnitManipulation(ManipulationUnit unit) {
+            m_unit = unit;
+        }
+
+        public UnitResult call() {
+            return manipulate(m_unit);
+        }
+    }
+
+    /**
+     * The manipulated resources and the manipulation metadata of a unit, or the error.
+     */
+    private static class UnitResult {
+        private final Map<String, byte[]> m_resources;
+        private final Element m_structure;
+        private final String m_error;
+
+        private UnitResult(Map<String, byte[]> resources, Element structure) {
+            m_resources = resources;
+            m_structure = structure;
+            m_error = null;
+        }
+
+        private UnitResult(String error) {
+            m_resources = null;
+            m_structure = null;
+            m_error = error;
+        }
+    }
+
+    /**
+     * Creates daemon threads, so a failing manipulation never blocks the JVM exit.
+     */
+    private static class ManipulatorThreadFactory implements ThreadFactory {
+        private int m_count;
+
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "iPOJO Manipulator " + (++m_count));
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -63,6 +63,18 @@ public class Pojoization {
      */
     private boolean m_useLocalXSD = false;
 
+    /**
+     * Number of component classes manipulated concurrently
+     * (defaults to the number of processors).
+     */
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * State file remembering the manipulated classes between two manipulations,
+     * {@literal null} if manipulation results are not kept.
+     */
+    private File m_manipulationCache;
+
     /**
      * Reporter for error reporting.
      */
@@ -103,6 +115,23 @@ public class Pojoization {
         m_useLocalXSD = true;
     }
 
+    /**
+     * Sets the number of component classes manipulated concurrently.
+     * @param parallelism number of threads, {@literal 1} to manipulate classes sequentially.
+     */
+    public void setParallelism(int parallelism) {
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Keeps the manipulation results in the given state file, so classes whose
+     * bytecode and metadata did not change are not manipulated again.
+     * @param stateFile the state file, {@literal null} to always manipulate all classes.
+     */
+    public void setManipulationCache(File stateFile) {
+        m_manipulationCache = stateFile;
+    }
+
     /**
      * @return all the errors (fatal) reported by the manipulation process.
      */
@@ -345,6 +374,14 @@ public class Pojoization {
         engine.setResourceStore(store);
         engine.setReporter(m_reporter);
         engine.setManipulationVisitor(visitor);
+        engine.setParallelism(m_parallelism);
+
+        ManipulationCache cache = null;
+        if (m_manipulationCache != null) {
+            cache = new ManipulationCache(m_manipulationCache);
+            cache.load();
+            engine.setManipulationCache(cache);
+        }
 
         try {
 
@@ -380,6 +417,15 @@ public class Pojoization {
         // Start the manipulation
         engine.generate();
 
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                m_reporter.warn("Cannot save the manipulation cache " + m_manipulationCache.getAbsolutePath()
+                        + " : " + e.getMessage());
+            }
+        }
+
         // Tell the visitor that we have finished
         visitor.visitEnd();
 
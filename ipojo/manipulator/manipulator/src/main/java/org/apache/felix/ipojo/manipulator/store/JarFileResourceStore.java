@@ -78,6 +78,11 @@ public class JarFileResourceStore implements ResourceStore {
 
     private ClassLoader classLoader;
 
+    /**
+     * Size of the buffer used to write the target Jar.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * Construct a {@link JarFileResourceStore} wrapping the given original bundle,
      * and configured to output in the given target file.
@@ -185,9 +190,9 @@ public class JarFileResourceStore implements ResourceStore {
         // Update the manifest
         Manifest updated = m_manifestBuilder.build(m_manifest);
 
-        // Create a new Jar file
+        // Create a new Jar file, entries are streamed one by one
         FileOutputStream fos = new FileOutputStream(m_target);
-        JarOutputStream jos = new JarOutputStream(fos, updated);
+        JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE), updated);
 
         try {
             // Copy classes and resources
@@ -202,8 +207,9 @@ public class JarFileResourceStore implements ResourceStore {
                 if (isUpdated(entry)) {
                     // Write newer/updated resource (manipulated classes, ...)
 
+                    // Release the content once written
                     JarEntry je = new JarEntry(entry.getName());
-                    byte[] data = m_content.get(getInternalPath(entry.getName()));
+                    byte[] data = m_content.remove(getInternalPath(entry.getName()));
                     jos.putNextEntry(je);
                     jos.write(data);
                     jos.closeEntry();
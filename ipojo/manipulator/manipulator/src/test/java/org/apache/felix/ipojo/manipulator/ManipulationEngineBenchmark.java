@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator;
+
+import org.apache.felix.ipojo.manipulator.reporter.SystemReporter;
+import org.apache.felix.ipojo.manipulator.store.DirectoryResourceStore;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationAdapter;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationResultAdapter;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures the manipulation of a large component project, sequentially, concurrently
+ * and with a warm manipulation cache.
+ * <p/>
+ * The project is simulated by manipulating many copies of the test components
+ * (run from the module directory after {@literal mvn test-compile}):
+ * <pre>
+ * java -cp target/classes:target/test-classes:... \
+ *     org.apache.felix.ipojo.manipulator.ManipulationEngineBenchmark [copies] [rounds]
+ * </pre>
+ */
+public class ManipulationEngineBenchmark {
+
+    private static final String[] CLASSES = {
+            "test.PojoWithInner", "test.SimplePojo", "test.ClusterDaemon", "test.PlentyOfAnnotations",
+            "test.AnnotatedComponent", "test.DoubleArray", "test.NonSunClass", "test.Child"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 250;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int processors = Runtime.getRuntime().availableProcessors();
+        File stateFile = File.createTempFile("ipojo-benchmark", ".state");
+        stateFile.deleteOnExit();
+
+        System.out.println((copies * CLASSES.length) + " components, " + processors + " processors");
+        for (int round = 0; round < rounds; round++) {
+            long sequential = run(copies, 1, null);
+            long concurrent = run(copies, processors, null);
+
+            stateFile.delete();
+            ManipulationCache cache = new ManipulationCache(stateFile);
+            cache.load();
+            long cold = run(copies, processors, cache);
+            cache.save();
+            cache = new ManipulationCache(stateFile);
+            cache.load();
+            long warm = run(copies, processors, cache);
+
+            System.out.println("round " + round + ": sequential " + sequential + " ms, concurrent " + concurrent
+                    + " ms, concurrent with cold cache " + cold + " ms, concurrent with warm cache " + warm + " ms");
+        }
+    }
+
+    private static long run(int copies, int parallelism, ManipulationCache cache) {
+        long start = System.currentTimeMillis();
+        ManipulationEngine engine = new ManipulationEngine(ManipulationEngineBenchmark.class.getClassLoader());
+        engine.setResourceStore(new CopiesResourceStore(new File("target/test-classes")));
+        engine.setReporter(new SystemReporter());
+        engine.setManipulationVisitor(new DiscardingVisitor());
+        engine.setParallelism(parallelism);
+        engine.setManipulationCache(cache);
+        for (int i = 0; i < copies; i++) {
+            for (String name : CLASSES) {
+                Element component = new Element("component", null);
+                component.addAttribute(new Attribute("classname", name));
+                engine.addManipulationUnit(new ManipulationUnit("copy" + i + "/" + name.replace('.', '/') + ".class",
+                        component));
+            }
+        }
+        engine.generate();
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Serves {@literal copyN/test/Foo.class} with the bytecode of {@literal test/Foo.class}.
+     */
+    private static class CopiesResourceStore extends DirectoryResourceStore {
+        private CopiesResourceStore(File source) {
+            super(source);
+        }
+
+        public byte[] read(String path) throws IOException {
+            if (path.startsWith("copy")) {
+                path = path.substring(path.indexOf('/') + 1);
+            }
+            return super.read(path);
+        }
+    }
+
+    private static class DiscardingVisitor extends ManipulationAdapter {
+        private DiscardingVisitor() {
+            super(null);
+        }
+
+        public ManipulationResultVisitor visitManipulationResult(Element metadata) {
+            return new ManipulationResultAdapter(null) {
+                public void visitClassStructure(Element structure) {
+                }
+
+                public void visitManipulatedResource(String type, byte[] resource) {
+                }
+
+                public void visitEnd() {
+                }
+            };
+        }
+    }
+}
@@ -19,12 +19,22 @@
 
 package org.apache.felix.ipojo.manipulator;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
+import org.apache.felix.ipojo.manipulator.store.DirectoryResourceStore;
 import org.apache.felix.ipojo.manipulator.util.Streams;
 import org.apache.felix.ipojo.manipulator.util.Strings;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationAdapter;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationResultAdapter;
+import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -33,14 +43,23 @@ import test.ClusterDaemon;
 import test.PojoWithInner;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ManipulationEngineTestCase extends TestCase {
 
+    private static final String[] CLASSES = {
+            "test.PojoWithInner", "test.SimplePojo", "test.ClusterDaemon", "test.PlentyOfAnnotations"
+    };
+
+    private File m_stateFile = new File("target/manipulation-engine-test/state.ipojo");
+
     @Mock
     private Reporter reporter;
 
@@ -60,6 +79,7 @@ public class ManipulationEngineTestCase extends TestCase {
     @Override
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        m_stateFile.delete();
     }
 
     public void testManipulationOfSimpleClass() throws Exception {
@@ -110,4 +130,106 @@ public class ManipulationEngineTestCase extends TestCase {
         InputStream is = loader.getResourceAsStream(Strings.asResourcePath(type.getName()));
         return Streams.readBytes(is);
     }
+
+    public void testConcurrentManipulationKeepsUnitOrder() throws Exception {
+        RecordingVisitor sequential = manipulate(1, null);
+        RecordingVisitor concurrent = manipulate(4, null);
+
+        verify(reporter, never()).error(anyString());
+        assertEquals(Arrays.asList(CLASSES), concurrent.m_classes);
+        assertEquals(sequential.m_classes, concurrent.m_classes);
+        assertEquals(sequential.m_resources.keySet(), concurrent.m_resources.keySet());
+        assertTrue(sequential.m_resources.containsKey("test/PojoWithInner$MyInner.class"));
+        for (String path : sequential.m_resources.keySet()) {
+            assertTrue(path, Arrays.equals(sequential.m_resources.get(path), concurrent.m_resources.get(path)));
+        }
+    }
+
+    public void testUnchangedUnitsAreNotManipulatedAgain() throws Exception {
+        ManipulationCache cache = new ManipulationCache(m_stateFile);
+        cache.load();
+        RecordingVisitor first = manipulate(2, cache);
+        cache.save();
+        assertTrue(m_stateFile.isFile());
+
+        ManipulationCache reloaded = spy(new ManipulationCache(m_stateFile));
+        reloaded.load();
+        RecordingVisitor second = manipulate(2, reloaded);
+
+        verify(reloaded, never()).put(anyString(), anyString(), anyMap());
+        assertEquals(first.m_classes, second.m_classes);
+        assertEquals(first.m_structures, second.m_structures);
+        for (String path : first.m_resources.keySet()) {
+            assertTrue(path, Arrays.equals(first.m_resources.get(path), second.m_resources.get(path)));
+        }
+    }
+
+    public void testChangedMetadataIsManipulatedAgain() throws Exception {
+        ManipulationCache cache = new ManipulationCache(m_stateFile);
+        cache.load();
+        manipulate(1, cache);
+        cache.save();
+
+        ManipulationCache reloaded = spy(new ManipulationCache(m_stateFile));
+        reloaded.load();
+        ManipulationEngine engine = createEngine(1, reloaded, new RecordingVisitor());
+        Element component = component("test.SimplePojo");
+        component.addAttribute(new Attribute("name", "changed"));
+        engine.addManipulationUnit(new ManipulationUnit("test/SimplePojo.class", component));
+        engine.generate();
+
+        verify(reloaded).put(eq("test/SimplePojo.class"), anyString(), anyMap());
+    }
+
+    private RecordingVisitor manipulate(int parallelism, ManipulationCache cache) {
+        RecordingVisitor visitor = new RecordingVisitor();
+        ManipulationEngine engine = createEngine(parallelism, cache, visitor);
+        for (String name : CLASSES) {
+            engine.addManipulationUnit(new ManipulationUnit(name.replace('.', '/') + ".class", component(name)));
+        }
+        engine.generate();
+        return visitor;
+    }
+
+    private ManipulationEngine createEngine(int parallelism, ManipulationCache cache, ManipulationVisitor visitor) {
+        ManipulationEngine engine = new ManipulationEngine(this.getClass().getClassLoader());
+        engine.setResourceStore(new DirectoryResourceStore(new File("target/test-classes")));
+        engine.setReporter(reporter);
+        engine.setManipulationVisitor(visitor);
+        engine.setParallelism(parallelism);
+        engine.setManipulationCache(cache);
+        return engine;
+    }
+
+    private static Element component(String name) {
+        Element component = new Element("component", null);
+        component.addAttribute(new Attribute("classname", name));
+        return component;
+    }
+
+    private static class RecordingVisitor extends ManipulationAdapter {
+        private final List<String> m_classes = new ArrayList<String>();
+        private final List<String> m_structures = new ArrayList<String>();
+        private final Map<String, byte[]> m_resources = new LinkedHashMap<String, byte[]>();
+
+        private RecordingVisitor() {
+            super(null);
+        }
+
+        public ManipulationResultVisitor visitManipulationResult(final Element metadata) {
+            m_classes.add(metadata.getAttribute("classname"));
+            return new ManipulationResultAdapter(null) {
+                public void visitClassStructure(Element structure) {
+                    m_structures.add(structure.toString());
+                }
+
+                public void visitManipulatedResource(String type, byte[] resource) {
+                    m_resources.put(type, resource);
+                }
+
+                public void visitEnd() {
+                }
+            };
+        }
+    }
 }
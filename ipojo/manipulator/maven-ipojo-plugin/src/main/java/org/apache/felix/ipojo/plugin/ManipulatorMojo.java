@@ -124,6 +124,21 @@ public class ManipulatorMojo extends AbstractMojo {
      */
     private boolean m_ignoreEmbeddedXSD;
 
+    /**
+     * Number of component classes manipulated concurrently (the number of processors if not set).
+     *
+     * @parameter alias="parallelism" expression="${ipojo.parallelism}"
+     */
+    private int m_parallelism;
+
+    /**
+     * Keep the manipulated classes in the build directory, so classes left unchanged
+     * since the previous build are not manipulated again.
+     *
+     * @parameter alias="incremental" expression="${ipojo.incremental}" default-value="true"
+     */
+    private boolean m_incremental;
+
     private boolean isXML() {
         return m_metadata != null && (m_metadata.indexOf('<') > -1);
     }
@@ -258,6 +273,13 @@ public class ManipulatorMojo extends AbstractMojo {
         if (!m_ignoreEmbeddedXSD) {
             pojo.setUseLocalXSD();
         }
+        if (m_parallelism > 0) {
+            pojo.setParallelism(m_parallelism);
+        }
+        if (m_incremental) {
+            String state = "ipojo-manipulation" + (m_classifier != null ? "-" + m_classifier : "") + ".state";
+            pojo.setManipulationCache(new File(m_buildDirectory, state));
+        }
 
         // Executes the pojoization.
         if (is == null) {
@@ -36,6 +36,9 @@ import org.osgi.service.metatype.AttributeDefinition;
 public class AD extends OptionalAttributes
 {
 
+    private static final long serialVersionUID = 1L;
+
+
     /**
      * The message returned from the {@link #validate(String)} method if the
      * value is not any of the specified {@link #getOptionValues() option values}
@@ -26,6 +26,8 @@ package org.apache.felix.metatype;
 public class Attribute extends OptionalAttributes
 {
 
+    private static final long serialVersionUID = 1L;
+
     private String adRef;
     private String[] content;
 
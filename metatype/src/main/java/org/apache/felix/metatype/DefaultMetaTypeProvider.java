@@ -24,7 +24,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -58,6 +60,13 @@ public class DefaultMetaTypeProvider implements MetaTypeProvider
     private List /* <Designate> */ designates;
     private String[] locales;
 
+    // the number of locales for which the localized definitions of an OCD are kept
+    private static final int MAX_LOCALES = 8;
+
+    // localized object class definitions by OCD id and locale, created on demand,
+    // the least recently used are dropped as callers may ask for any locale
+    private final Map /* <String, LocalizedObjectClassDefinition> */ localizedDefinitions;
+
 
     public DefaultMetaTypeProvider( Bundle bundle, MetaData metadata )
     {
@@ -73,6 +82,17 @@ public class DefaultMetaTypeProvider implements MetaTypeProvider
             Map copy = new HashMap( metadata.getObjectClassDefinitions() );
             objectClassDefinitions = Collections.unmodifiableMap( copy );
         }
+        final int maxDefinitions = Math.max( 1, objectClassDefinitions.size() ) * MAX_LOCALES;
+        localizedDefinitions = new LinkedHashMap( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            protected boolean removeEldestEntry( Map.Entry eldest )
+            {
+                return size() > maxDefinitions;
+            }
+        };
         if ( metadata.getDesignates() == null )
         {
             designates = Collections.EMPTY_LIST;
@@ -173,8 +193,24 @@ public class DefaultMetaTypeProvider implements MetaTypeProvider
             return null;
         }
 
-        Resources resources = BundleResources.getResources( bundle, localePrefix, locale );
-        return new LocalizedObjectClassDefinition( bundle, ocd, resources );
+        // the default locale is resolved now, as it may change
+        if ( locale == null )
+        {
+            locale = Locale.getDefault().toString();
+        }
+
+        String key = ocdRef + '\n' + locale;
+        synchronized ( localizedDefinitions )
+        {
+            LocalizedObjectClassDefinition localized = ( LocalizedObjectClassDefinition ) localizedDefinitions.get( key );
+            if ( localized == null )
+            {
+                Resources resources = BundleResources.getResources( bundle, localePrefix, locale );
+                localized = new LocalizedObjectClassDefinition( bundle, ocd, resources );
+                localizedDefinitions.put( key, localized );
+            }
+            return localized;
+        }
     }
 
     public Designate getDesignate(String pid)
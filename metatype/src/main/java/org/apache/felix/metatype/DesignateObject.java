@@ -32,6 +32,8 @@ import java.util.List;
 public class DesignateObject extends OptionalAttributes
 {
 
+    private static final long serialVersionUID = 1L;
+
     private String ocdRef;
     private List attributes;
 
@@ -32,11 +32,16 @@ import java.util.Map;
  */
 public class MetaData extends OptionalAttributes
 {
+
+    private static final long serialVersionUID = 1L;
+
     private String namespace;
     private String localePrefix;
     private Map /* String -> OCD */ objectClassDefinitions;
     private List /* Designate */ designates;
-    private URL source;
+    // the source is not serialized, as bundle URLs are only valid while
+    // the bundle is installed
+    private transient URL source;
 
     public String getLocalePrefix()
     {
@@ -33,6 +33,8 @@ import java.util.Map;
 public class OCD extends OptionalAttributes
 {
 
+    private static final long serialVersionUID = 1L;
+
     private String id;
     private String name;
     private String description;
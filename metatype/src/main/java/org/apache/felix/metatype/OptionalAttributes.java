@@ -19,12 +19,23 @@
 package org.apache.felix.metatype;
 
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 
-public class OptionalAttributes
+/**
+ * The <code>OptionalAttributes</code> class is the base class of the elements
+ * of the meta type descriptor. All elements are serializable, such that parsed
+ * descriptors may be cached.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class OptionalAttributes implements Serializable
 {
+
+    private static final long serialVersionUID = 1L;
+
     private Map optionalAttributes;
 
 
@@ -48,6 +48,9 @@ public class LocalizedObjectClassDefinition extends LocalizedBase implements Obj
 
     private OCD ocd;
 
+    // localized attribute definitions by AD, created on demand
+    private volatile Map attributeDefinitions;
+
 
     /**
      * Creates and instance of this localizing facade.
@@ -93,16 +96,38 @@ public class LocalizedObjectClassDefinition extends LocalizedBase implements Obj
             return null;
         }
 
+        Map localized = getLocalizedAttributeDefinitions();
         List result = new ArrayList();
         while ( adhIter.hasNext() )
         {
-            result.add( new LocalizedAttributeDefinition( ( AD ) adhIter.next(), getResources() ) );
+            result.add( localized.get( adhIter.next() ) );
         }
 
         return ( AttributeDefinition[] ) result.toArray( new AttributeDefinition[result.size()] );
     }
 
 
+    /**
+     * Returns the localized attribute definitions, which are created once for
+     * all attribute definitions of the OCD.
+     */
+    private Map getLocalizedAttributeDefinitions()
+    {
+        Map localized = attributeDefinitions;
+        if ( localized == null )
+        {
+            localized = new IdentityHashMap();
+            for ( Iterator ai = ocd.getAttributeDefinitions().values().iterator(); ai.hasNext(); )
+            {
+                AD ad = ( AD ) ai.next();
+                localized.put( ad, new LocalizedAttributeDefinition( ad, getResources() ) );
+            }
+            attributeDefinitions = localized;
+        }
+        return localized;
+    }
+
+
     /**
      * @see org.osgi.service.metatype.ObjectClassDefinition#getDescription()
      */
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.felix.metatype.MetaData;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.log.LogService;
+
+
+/**
+ * The <code>MetaDataCache</code> keeps the parsed meta type documents of
+ * bundles in the data area of the meta type bundle, such that the documents
+ * need not be parsed again after a restart.
+ * <p>
+ * The documents of a bundle are stored in a single file, together with a key
+ * made of the last modification time of the bundle and the URLs of the
+ * documents. The cached documents are only used as long as the key does not
+ * change, that is as long as the bundle is not updated and the same documents
+ * (including those of attached fragments) are found.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class MetaDataCache
+{
+
+    /** The version of the cache file format. */
+    private static final int FORMAT = 1;
+
+    /** The name of the directory in the bundle data area. */
+    private static final String DIRECTORY = "metatype";
+
+    private static final String SUFFIX = ".ser";
+
+    /** The cache directory or <code>null</code> if caching is not possible. */
+    private final File directory;
+
+    /** The version of this bundle, cached documents of other versions are ignored. */
+    private final String version;
+
+
+    MetaDataCache( BundleContext bundleContext )
+    {
+        this( bundleContext.getDataFile( DIRECTORY ), String.valueOf( bundleContext.getBundle().getHeaders().get(
+            Constants.BUNDLE_VERSION ) ) );
+    }
+
+
+    MetaDataCache( File directory, String version )
+    {
+        this.directory = directory;
+        this.version = version;
+    }
+
+
+    /**
+     * Returns the cached documents of the bundle.
+     *
+     * @param bundle The <code>Bundle</code> providing the documents
+     * @param docs The URLs of the documents currently provided by the bundle
+     * @return The documents in the order of <code>docs</code>, which may
+     *      contain <code>null</code> for documents without meta data, or
+     *      <code>null</code> if the documents are not cached.
+     */
+    MetaData[] get( Bundle bundle, URL[] docs )
+    {
+        File file = getFile( bundle );
+        if ( file == null || !file.isFile() )
+        {
+            return null;
+        }
+
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            try
+            {
+                if ( in.readInt() != FORMAT || !version.equals( in.readUTF() )
+                    || !getKey( bundle, docs ).equals( in.readUTF() ) )
+                {
+                    return null;
+                }
+
+                MetaData[] metaData = ( MetaData[] ) in.readObject();
+                if ( metaData.length != docs.length )
+                {
+                    return null;
+                }
+                for ( int i = 0; i < metaData.length; i++ )
+                {
+                    if ( metaData[i] != null )
+                    {
+                        metaData[i].setSource( docs[i] );
+                    }
+                }
+                return metaData;
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( Exception e )
+        {
+            Activator.log( LogService.LOG_DEBUG, "get: Ignoring cached meta data " + file, e );
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores the documents of the bundle.
+     *
+     * @param bundle The <code>Bundle</code> providing the documents
+     * @param docs The URLs of the documents
+     * @param metaData The documents in the order of <code>docs</code>
+     */
+    void put( Bundle bundle, URL[] docs, MetaData[] metaData )
+    {
+        File file = getFile( bundle );
+        if ( file == null )
+        {
+            return;
+        }
+
+        File tmp = new File( file.getPath() + ".tmp" );
+        try
+        {
+            directory.mkdirs();
+            ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+            try
+            {
+                out.writeInt( FORMAT );
+                out.writeUTF( version );
+                out.writeUTF( getKey( bundle, docs ) );
+                out.writeObject( metaData );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            file.delete();
+            if ( !tmp.renameTo( file ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + file );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            tmp.delete();
+            Activator.log( LogService.LOG_WARNING, "put: Cannot cache meta data of bundle " + bundle.getBundleId(),
+                ioe );
+        }
+    }
+
+
+    /**
+     * Removes the cached documents of the bundle.
+     */
+    void remove( Bundle bundle )
+    {
+        File file = getFile( bundle );
+        if ( file != null )
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Removes the cached documents of all bundles except the given ones, such
+     * as bundles uninstalled while this bundle was not active.
+     */
+    void retain( Bundle[] bundles )
+    {
+        String[] names = ( directory == null ) ? null : directory.list();
+        if ( names == null )
+        {
+            return;
+        }
+
+        Set retained = new HashSet();
+        for ( int i = 0; bundles != null && i < bundles.length; i++ )
+        {
+            retained.add( bundles[i].getBundleId() + SUFFIX );
+        }
+        for ( int i = 0; i < names.length; i++ )
+        {
+            if ( !retained.contains( names[i] ) )
+            {
+                new File( directory, names[i] ).delete();
+            }
+        }
+    }
+
+
+    private File getFile( Bundle bundle )
+    {
+        return ( directory == null ) ? null : new File( directory, bundle.getBundleId() + SUFFIX );
+    }
+
+
+    private static String getKey( Bundle bundle, URL[] docs )
+    {
+        StringBuffer buf = new StringBuffer();
+        buf.append( bundle.getLastModified() );
+        for ( int i = 0; i < docs.length; i++ )
+        {
+            buf.append( ' ' ).append( docs[i] );
+        }
+        return buf.toString();
+    }
+}
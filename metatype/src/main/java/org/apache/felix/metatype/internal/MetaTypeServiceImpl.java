@@ -20,11 +20,13 @@ package org.apache.felix.metatype.internal;
 
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.metatype.MetaData;
 import org.apache.felix.metatype.MetaDataReader;
@@ -50,8 +52,19 @@ import org.osgi.service.metatype.MetaTypeService;
 class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 {
 
+    /**
+     * The name of the framework property setting the maximum number of
+     * <code>MetaTypeInformation</code> objects kept in memory.
+     */
+    static final String CACHE_SIZE_PROPERTY = "felix.metatype.cache.size";
+
+    /** The default maximum number of <code>MetaTypeInformation</code> objects kept in memory. */
+    static final int CACHE_SIZE_DEFAULT = 256;
+
     private final Map bundleMetaTypeInformation;
 
+    private final MetaDataCache metaDataCache;
+
     private final ManagedServiceTracker managedServiceTracker;
 
     private final MetaTypeProviderTracker providerTracker;
@@ -64,7 +77,10 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
      */
     MetaTypeServiceImpl( BundleContext bundleContext )
     {
-        this.bundleMetaTypeInformation = new ConcurrentHashMap();
+        this.bundleMetaTypeInformation = Collections.synchronizedMap( new LruMap( getCacheSize( bundleContext ) ) );
+
+        this.metaDataCache = new MetaDataCache( bundleContext );
+        this.metaDataCache.retain( bundleContext.getBundles() );
 
         bundleContext.addBundleListener( this );
 
@@ -97,17 +113,17 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
     {
         if ( event.getType() == BundleEvent.STOPPING )
         {
-            SoftReference mtir = ( SoftReference ) this.bundleMetaTypeInformation.remove( new Long( event.getBundle()
-                .getBundleId() ) );
-            if ( mtir != null )
+            MetaTypeInformationImpl mti = ( MetaTypeInformationImpl ) this.bundleMetaTypeInformation.remove( new Long(
+                event.getBundle().getBundleId() ) );
+            if ( mti != null )
             {
-                MetaTypeInformationImpl mti = ( MetaTypeInformationImpl ) mtir.get();
-                if ( mti != null )
-                {
-                    mti.dispose();
-                }
+                mti.dispose();
             }
         }
+        else if ( event.getType() == BundleEvent.UNINSTALLED )
+        {
+            this.metaDataCache.remove( event.getBundle() );
+        }
     }
 
 
@@ -162,30 +178,53 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 
     private MetaTypeInformationImpl fromDocuments( Bundle bundle )
     {
-        MetaDataReader reader = new MetaDataReader();
-
         // get the descriptors, return nothing if none
-        Enumeration docs = bundle.findEntries( METATYPE_DOCUMENTS_LOCATION, "*.xml", false );
-        if ( docs == null || !docs.hasMoreElements() )
+        Enumeration docEnum = bundle.findEntries( METATYPE_DOCUMENTS_LOCATION, "*.xml", false );
+        if ( docEnum == null || !docEnum.hasMoreElements() )
         {
             return null;
         }
 
-        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
-        while ( docs.hasMoreElements() )
+        List docList = new ArrayList();
+        while ( docEnum.hasMoreElements() )
         {
-            URL doc = ( URL ) docs.nextElement();
-            try
+            docList.add( docEnum.nextElement() );
+        }
+        URL[] docs = ( URL[] ) docList.toArray( new URL[docList.size()] );
+
+        // parse the documents unless they are cached
+        MetaData[] metaData = this.metaDataCache.get( bundle, docs );
+        if ( metaData == null )
+        {
+            MetaDataReader reader = new MetaDataReader();
+            boolean complete = true;
+            metaData = new MetaData[docs.length];
+            for ( int i = 0; i < docs.length; i++ )
             {
-                MetaData metaData = reader.parse( doc );
-                if ( metaData != null )
+                try
                 {
-                    cmti.addMetaData( metaData );
+                    metaData[i] = reader.parse( docs[i] );
                 }
+                catch ( IOException ioe )
+                {
+                    Activator.log( LogService.LOG_ERROR, "fromDocuments: Error accessing document " + docs[i], ioe );
+                    complete = false;
+                }
+            }
+
+            // don't cache documents which could not be read
+            if ( complete )
+            {
+                this.metaDataCache.put( bundle, docs, metaData );
             }
-            catch ( IOException ioe )
+        }
+
+        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
+        for ( int i = 0; i < metaData.length; i++ )
+        {
+            if ( metaData[i] != null )
             {
-                Activator.log( LogService.LOG_ERROR, "fromDocuments: Error accessing document " + doc, ioe );
+                cmti.addMetaData( metaData[i] );
             }
         }
         return cmti;
@@ -291,14 +330,56 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
             }
         }
 
-        this.bundleMetaTypeInformation.put( new Long( bundle.getBundleId() ),
-            new SoftReference( mti ) );
+        this.bundleMetaTypeInformation.put( new Long( bundle.getBundleId() ), mti );
     }
 
 
     private MetaTypeInformationImpl getMetaTypeInformationInternal( final Bundle bundle )
     {
-        SoftReference mtir = ( SoftReference ) this.bundleMetaTypeInformation.get( new Long( bundle.getBundleId() ) );
-        return ( MetaTypeInformationImpl ) ( ( mtir == null ) ? null : mtir.get() );
+        return ( MetaTypeInformationImpl ) this.bundleMetaTypeInformation.get( new Long( bundle.getBundleId() ) );
+    }
+
+
+    private static int getCacheSize( final BundleContext bundleContext )
+    {
+        String size = bundleContext.getProperty( CACHE_SIZE_PROPERTY );
+        if ( size != null )
+        {
+            try
+            {
+                return Math.max( 1, Integer.parseInt( size.trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to default
+            }
+        }
+        return CACHE_SIZE_DEFAULT;
+    }
+
+    /**
+     * The <code>LruMap</code> keeps at most a given number of entries, removing
+     * the least recently used entry when full. Evicted
+     * <code>MetaTypeInformation</code> objects are not disposed of, as they may
+     * still be used by clients; they are recreated when requested again.
+     */
+    private static class LruMap extends LinkedHashMap
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+
+        LruMap( int maxSize )
+        {
+            super( 16, 0.75f, true );
+            this.maxSize = maxSize;
+        }
+
+
+        protected boolean removeEldestEntry( Map.Entry eldest )
+        {
+            return size() > this.maxSize;
+        }
     }
 }
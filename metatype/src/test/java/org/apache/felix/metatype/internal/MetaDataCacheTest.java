@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URL;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.MetaDataReader;
+import org.apache.felix.metatype.MockBundleContext;
+import org.apache.felix.metatype.OCD;
+import org.osgi.framework.Bundle;
+import org.osgi.service.metatype.AttributeDefinition;
+
+
+/**
+ * The <code>MetaDataCacheTest</code> class tests the {@link MetaDataCache}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class MetaDataCacheTest extends TestCase
+{
+
+    private static final String DOCUMENT = "<MetaData localization=\"test\">"
+        + "<OCD id=\"ocd1\" name=\"%name\"><Icon resource=\"icon.png\" size=\"16\"/>"
+        + "<AD id=\"ad1\" type=\"Integer\" cardinality=\"2\" default=\"1,2\" required=\"false\">"
+        + "<Option value=\"1\" label=\"one\"/><Option value=\"2\" label=\"two\"/></AD></OCD>"
+        + "<Designate pid=\"pid1\"><Object ocdref=\"ocd1\"/></Designate></MetaData>";
+
+    private File directory;
+
+    private Bundle bundle;
+
+    private URL[] docs;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        directory = File.createTempFile( "metatype", ".cache" );
+        directory.delete();
+        bundle = new MockBundleContext( 10, "org.apache.felix.metatype.Mock" ).getBundle();
+        docs = new URL[]
+            { new URL( "file:/OSGI-INF/metatype/a.xml" ), new URL( "file:/OSGI-INF/metatype/b.xml" ) };
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ )
+        {
+            files[i].delete();
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+
+    public void testRoundTrip() throws Exception
+    {
+        MetaDataCache cache = new MetaDataCache( directory, "1.0.0" );
+        assertNull( cache.get( bundle, docs ) );
+
+        cache.put( bundle, docs, new MetaData[]
+            { parse(), null } );
+
+        MetaData[] cached = new MetaDataCache( directory, "1.0.0" ).get( bundle, docs );
+        assertNotNull( cached );
+        assertEquals( 2, cached.length );
+        assertNull( cached[1] );
+
+        MetaData md = cached[0];
+        assertEquals( docs[0], md.getSource() );
+        assertEquals( "test", md.getLocalePrefix() );
+        assertEquals( 1, md.getDesignates().size() );
+
+        OCD ocd = ( OCD ) md.getObjectClassDefinitions().get( "ocd1" );
+        assertEquals( "%name", ocd.getName() );
+        assertSame( md, ocd.getMetadata() );
+        assertEquals( "icon.png", ocd.getIcons().get( new Integer( 16 ) ) );
+
+        AD ad = ( AD ) ocd.getAttributeDefinitions().get( "ad1" );
+        assertEquals( AttributeDefinition.INTEGER, ad.getType() );
+        assertEquals( 2, ad.getCardinality() );
+        assertFalse( ad.isRequired() );
+        assertEquals( 2, ad.getDefaultValue().length );
+        assertEquals( "two", ad.getOptionLabels()[1] );
+    }
+
+
+    public void testChangedDocuments() throws Exception
+    {
+        MetaDataCache cache = new MetaDataCache( directory, "1.0.0" );
+        cache.put( bundle, docs, new MetaData[]
+            { parse(), null } );
+
+        // other documents
+        assertNull( cache.get( bundle, new URL[]
+            { docs[0] } ) );
+
+        // other version of the meta type bundle
+        assertNull( new MetaDataCache( directory, "1.0.1" ).get( bundle, docs ) );
+
+        // removed
+        cache.remove( bundle );
+        assertNull( cache.get( bundle, docs ) );
+    }
+
+
+    public void testRetain() throws Exception
+    {
+        MetaDataCache cache = new MetaDataCache( directory, "1.0.0" );
+        cache.put( bundle, docs, new MetaData[2] );
+        new File( directory, "4711.ser" ).createNewFile();
+
+        cache.retain( new Bundle[]
+            { bundle } );
+
+        assertNotNull( cache.get( bundle, docs ) );
+        assertFalse( new File( directory, "4711.ser" ).exists() );
+    }
+
+
+    public void testNoDirectory()
+    {
+        MetaDataCache cache = new MetaDataCache( null, "1.0.0" );
+        cache.put( bundle, docs, new MetaData[2] );
+        assertNull( cache.get( bundle, docs ) );
+    }
+
+
+    private MetaData parse() throws Exception
+    {
+        return new MetaDataReader().parse( new ByteArrayInputStream( DOCUMENT.getBytes( "UTF-8" ) ) );
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.prefs.impl;
+
+import java.io.*;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.*;
+
+import org.apache.felix.prefs.*;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogService;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * This implementation of the backing store keeps the preferences trees in
+ * memory and writes the changes, in batches, to the bundle data area.
+ *
+ * For each preferences tree, the data file written by the
+ * {@link DataFileBackingStoreImpl} is used as snapshot, and the changes made
+ * since are appended to a journal file. If the journal grows larger than the
+ * snapshot, the snapshot is rewritten and the journal is discarded.
+ *
+ * Storing applies the changes to the in memory tree and writes them before
+ * returning. Changes stored while a tree is being written are written
+ * together by the next store. Loading is served from an immutable copy of
+ * the in memory tree and never waits for a write in progress.
+ */
+public class JournalingBackingStoreImpl extends DataFileBackingStoreImpl {
+
+    /** The journal does not trigger a compaction before it reaches this size (in bytes). */
+    protected static final int MIN_JOURNAL_SIZE = 4096;
+
+    /** The tracker for the log service, may be null. */
+    protected final ServiceTracker logTracker;
+
+    /** The in memory trees, keyed by the name of their data file. */
+    protected final Map trees = new HashMap();
+
+    /** The keys of the trees which failed to be written. */
+    protected final Set pending = new LinkedHashSet();
+
+    /** Lock held while accessing the files. */
+    protected final Object ioLock = new Object();
+
+    public JournalingBackingStoreImpl(BundleContext context, ServiceTracker logTracker) {
+        super(context);
+        this.logTracker = logTracker;
+    }
+
+    public JournalingBackingStoreImpl(BundleContext context, File rootDirectory, ServiceTracker logTracker) {
+        super(context, rootDirectory);
+        this.logTracker = logTracker;
+    }
+
+    /**
+     * Retry writing the trees which failed to be written.
+     */
+    public void close() {
+        this.writePending();
+    }
+
+    /**
+     * @see org.apache.felix.prefs.impl.StreamBackingStoreImpl#store(org.apache.felix.prefs.PreferencesImpl)
+     */
+    public void store(PreferencesImpl prefs) throws BackingStoreException {
+        // do we need to store at all?
+        if ( !this.hasChanges(prefs) ) {
+            return;
+        }
+        this.checkAccess();
+        final Tree tree = this.getTree(prefs.getDescription(), true);
+        synchronized ( this.trees ) {
+            // merge with the in memory version
+            final PreferencesImpl n = tree.image.getOrCreateNode(prefs.absolutePath());
+            n.applyChanges(prefs);
+            tree.snapshot = null;
+        }
+        // flush() promises that the changes are persistent when it returns;
+        // if another store is writing this tree, our changes are written
+        // together with those of the stores waiting with us
+        try {
+            this.writeTree(tree.key);
+        } catch (IOException ioe) {
+            throw new BackingStoreException("Unable to store preferences.", ioe);
+        }
+    }
+
+    /**
+     * @see org.apache.felix.prefs.impl.DataFileBackingStoreImpl#load(org.apache.felix.prefs.BackingStoreManager, org.apache.felix.prefs.PreferencesDescription)
+     */
+    public PreferencesImpl load(BackingStoreManager manager, PreferencesDescription desc) throws BackingStoreException {
+        this.checkAccess();
+        final Tree tree = this.getTree(desc, false);
+        if ( tree == null ) {
+            return null;
+        }
+        final PreferencesImpl snapshot;
+        synchronized ( this.trees ) {
+            if ( tree.snapshot == null ) {
+                tree.snapshot = copy(tree.image, new PreferencesImpl(desc, null));
+            }
+            snapshot = tree.snapshot;
+        }
+        // the snapshot is never modified, so we can copy it without holding a lock
+        return copy(snapshot, new PreferencesImpl(desc, manager));
+    }
+
+    /**
+     * @see org.apache.felix.prefs.impl.DataFileBackingStoreImpl#loadAll(org.apache.felix.prefs.BackingStoreManager, java.lang.Long)
+     */
+    public PreferencesImpl[] loadAll(BackingStoreManager manager, Long bundleId) throws BackingStoreException {
+        this.checkAccess();
+        final Map descriptions = new HashMap();
+        final File[] children = (File[]) AccessController.doPrivileged(new PrivilegedAction() {
+            public Object run() {
+                return rootDirectory.listFiles();
+            }
+        });
+        for( int i=0; children != null && i<children.length; i++ ) {
+            final PreferencesDescription desc = this.getDescription(children[i]);
+            if ( desc != null && desc.getBundleId().equals(bundleId) ) {
+                descriptions.put(this.getKey(desc), desc);
+            }
+        }
+        synchronized ( this.trees ) {
+            final Iterator i = this.trees.values().iterator();
+            while ( i.hasNext() ) {
+                final Tree tree = (Tree) i.next();
+                if ( tree.description.getBundleId().equals(bundleId) ) {
+                    descriptions.put(tree.key, tree.description);
+                }
+            }
+        }
+        final List list = new ArrayList();
+        final Iterator i = descriptions.values().iterator();
+        while ( i.hasNext() ) {
+            final PreferencesImpl root = this.load(manager, (PreferencesDescription) i.next());
+            if ( root != null ) {
+                list.add(root);
+            }
+        }
+        return (PreferencesImpl[])list.toArray(new PreferencesImpl[list.size()]);
+    }
+
+    /**
+     * @see org.apache.felix.prefs.impl.DataFileBackingStoreImpl#availableBundles()
+     */
+    public Long[] availableBundles() {
+        final Set bundleIds = new HashSet(Arrays.asList(super.availableBundles()));
+        synchronized ( this.trees ) {
+            final Iterator i = this.trees.values().iterator();
+            while ( i.hasNext() ) {
+                bundleIds.add(((Tree) i.next()).description.getBundleId());
+            }
+        }
+        return (Long[])bundleIds.toArray(new Long[bundleIds.size()]);
+    }
+
+    /**
+     * @see org.apache.felix.prefs.impl.DataFileBackingStoreImpl#remove(java.lang.Long)
+     */
+    public void remove(Long bundleId) throws BackingStoreException {
+        synchronized ( this.ioLock ) {
+            synchronized ( this.trees ) {
+                final Iterator i = this.trees.values().iterator();
+                while ( i.hasNext() ) {
+                    final Tree tree = (Tree) i.next();
+                    if ( tree.description.getBundleId().equals(bundleId) ) {
+                        this.pending.remove(tree.key);
+                        i.remove();
+                    }
+                }
+            }
+            // this removes the journal and temporary files as well
+            super.remove(bundleId);
+        }
+    }
+
+    /**
+     * Journal and temporary files belong to the same preferences tree
+     * as the data file.
+     * @see org.apache.felix.prefs.impl.DataFileBackingStoreImpl#getDescription(java.io.File)
+     */
+    protected PreferencesDescription getDescription(File file) {
+        final String fileName = file.getName();
+        if ( fileName.endsWith(".ser.log") || fileName.endsWith(".ser.tmp") ) {
+            return super.getDescription(new File(file.getParentFile(), fileName.substring(0, fileName.length() - 4)));
+        }
+        return super.getDescription(file);
+    }
+
+    /**
+     * Read the preferences recursively from the input stream.
+     * Unlike the inherited method, newly created nodes are not flushed.
+     * @see org.apache.felix.prefs.impl.StreamBackingStoreImpl#read(org.apache.felix.prefs.PreferencesImpl, java.io.InputStream)
+     */
+    protected void read(PreferencesImpl prefs, InputStream is)
+    throws IOException {
+        this.readPreferences(prefs, is);
+        final ObjectInputStream ois = new ObjectInputStream(is);
+        final int numberOfChilren = ois.readInt();
+        for(int i=0; i<numberOfChilren; i++) {
+            int length = ois.readInt();
+            final byte[] name = new byte[length];
+            ois.readFully(name);
+            final PreferencesImpl impl = prefs.getOrCreateNode(new String(name, "utf-8"));
+            this.read(impl, is);
+        }
+    }
+
+    /**
+     * Write the trees which failed to be written, keeping those
+     * which fail again.
+     */
+    protected void writePending() {
+        final String[] keys;
+        synchronized ( this.trees ) {
+            keys = (String[]) this.pending.toArray(new String[this.pending.size()]);
+        }
+        for(int i=0; i<keys.length; i++) {
+            try {
+                this.writeTree(keys[i]);
+            } catch (IOException ioe) {
+                this.log(LogService.LOG_ERROR, "Unable to store preferences " + keys[i], ioe);
+            }
+        }
+    }
+
+    /**
+     * Log a message with the log service, if available.
+     */
+    protected void log(int level, String message, Throwable t) {
+        final LogService log = this.logTracker == null ? null : (LogService) this.logTracker.getService();
+        if ( log != null ) {
+            log.log(level, message, t);
+        }
+    }
+
+    /**
+     * Write the changes made to a tree since it was last written.
+     * Either the changes are appended to the journal or, if the journal
+     * has grown too large, the complete tree is written as new snapshot.
+     */
+    protected void writeTree(String key) throws IOException {
+        synchronized ( this.ioLock ) {
+            final Tree tree;
+            final boolean compact;
+            final byte[] data;
+            synchronized ( this.trees ) {
+                this.pending.remove(key);
+                tree = (Tree) this.trees.get(key);
+                if ( tree == null ) {
+                    // removed in the meantime
+                    return;
+                }
+                compact = tree.journalSize < 0 || tree.journalSize > Math.max(MIN_JOURNAL_SIZE, tree.snapshotSize);
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                if ( compact ) {
+                    this.write(tree.image, bos);
+                } else {
+                    final ByteArrayOutputStream records = new ByteArrayOutputStream();
+                    final DataOutputStream dos = new DataOutputStream(records);
+                    final int count = this.writeChanges(tree.image, false, dos);
+                    dos.flush();
+                    if ( count > 0 ) {
+                        final DataOutputStream batch = new DataOutputStream(bos);
+                        batch.writeInt(count);
+                        records.writeTo(batch);
+                        // marks the end of a complete batch
+                        batch.writeInt(count);
+                        batch.flush();
+                    }
+                }
+                clearChanges(tree.image);
+                data = bos.toByteArray();
+            }
+            if ( data.length == 0 ) {
+                return;
+            }
+            try {
+                if ( compact ) {
+                    this.writeSnapshot(tree.description, data);
+                    tree.snapshotSize = data.length;
+                    tree.journalSize = 0;
+                } else {
+                    this.appendJournal(tree.description, data);
+                    tree.journalSize += data.length;
+                }
+            } catch (IOException ioe) {
+                // the changes are cleared, so we have to rewrite the whole tree
+                tree.journalSize = -1;
+                synchronized ( this.trees ) {
+                    if ( this.trees.get(key) == tree ) {
+                        this.pending.add(key);
+                    }
+                }
+                throw ioe;
+            }
+        }
+    }
+
+    /**
+     * Write the state of all changed nodes, parents first.
+     * Besides their properties, the names of their children are
+     * written, so removed children are recorded by their parent.
+     * @return The number of written nodes.
+     */
+    protected int writeChanges(PreferencesImpl prefs, boolean added, DataOutputStream dos)
+    throws IOException {
+        int count = 0;
+        final ChangeSet changeSet = prefs.getChangeSet();
+        if ( added || changeSet.hasChanges() ) {
+            writeString(dos, prefs.absolutePath());
+            dos.writeInt(prefs.getProperties().size());
+            final Iterator i = prefs.getProperties().entrySet().iterator();
+            while ( i.hasNext() ) {
+                final Map.Entry entry = (Map.Entry)i.next();
+                writeString(dos, entry.getKey().toString());
+                writeString(dos, entry.getValue().toString());
+            }
+            dos.writeInt(prefs.getChildren().size());
+            final Iterator cI = prefs.getChildren().iterator();
+            while ( cI.hasNext() ) {
+                writeString(dos, ((PreferencesImpl) cI.next()).name());
+            }
+            count++;
+        }
+        final Iterator cI = prefs.getChildren().iterator();
+        while ( cI.hasNext() ) {
+            final PreferencesImpl child = (PreferencesImpl) cI.next();
+            // a child added again after being removed replaces the old one
+            count += this.writeChanges(child, changeSet.getAddedChildren().contains(child.name()), dos);
+        }
+        return count;
+    }
+
+    /**
+     * Apply the complete batches of a journal to a tree.
+     * @return The length of the journal up to the last complete batch.
+     */
+    protected int readJournal(PreferencesImpl root, byte[] data) {
+        final ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        final DataInputStream dis = new DataInputStream(bis);
+        int valid = 0;
+        try {
+            while ( bis.available() > 0 ) {
+                final int count = dis.readInt();
+                final List records = new ArrayList();
+                for(int i=0; i<count; i++) {
+                    final String path = readString(dis);
+                    final Map properties = new HashMap();
+                    final int size = dis.readInt();
+                    for(int p=0; p<size; p++) {
+                        final String key = readString(dis);
+                        properties.put(key, readString(dis));
+                    }
+                    final Set children = new HashSet();
+                    final int numberOfChildren = dis.readInt();
+                    for(int c=0; c<numberOfChildren; c++) {
+                        children.add(readString(dis));
+                    }
+                    records.add(new Object[] {path, properties, children});
+                }
+                if ( dis.readInt() != count ) {
+                    break;
+                }
+                // only apply complete batches
+                final Iterator i = records.iterator();
+                while ( i.hasNext() ) {
+                    final Object[] record = (Object[]) i.next();
+                    final PreferencesImpl node = root.getOrCreateNode((String) record[0]);
+                    node.getProperties().clear();
+                    node.getProperties().putAll((Map) record[1]);
+                    final Set children = (Set) record[2];
+                    final Iterator cI = new ArrayList(node.getChildren()).iterator();
+                    while ( cI.hasNext() ) {
+                        final PreferencesImpl child = (PreferencesImpl) cI.next();
+                        if ( !children.contains(child.name()) ) {
+                            child.removeNode();
+                        }
+                    }
+                    final Iterator nI = children.iterator();
+                    while ( nI.hasNext() ) {
+                        node.getOrCreateNode((String) nI.next());
+                    }
+                }
+                valid = data.length - bis.available();
+            }
+        } catch (IOException ignore) {
+            // the last batch is incomplete
+        } catch (BackingStoreException ignore) {
+            // not thrown for in memory nodes
+        }
+        return valid;
+    }
+
+    /**
+     * Get the in memory tree, loading it from the files if necessary.
+     * @param create Should an empty tree be created if there is no data?
+     * @return The tree or null.
+     */
+    protected Tree getTree(PreferencesDescription desc, boolean create) throws BackingStoreException {
+        final String key = this.getKey(desc);
+        synchronized ( this.trees ) {
+            final Tree tree = (Tree) this.trees.get(key);
+            if ( tree != null ) {
+                return tree;
+            }
+        }
+        synchronized ( this.ioLock ) {
+            synchronized ( this.trees ) {
+                final Tree tree = (Tree) this.trees.get(key);
+                if ( tree != null ) {
+                    return tree;
+                }
+            }
+            Tree tree;
+            try {
+                tree = this.readTree(desc);
+            } catch (IOException ioe) {
+                throw new BackingStoreException("Unable to load preferences.", ioe);
+            }
+            if ( tree == null ) {
+                if ( !create ) {
+                    return null;
+                }
+                tree = new Tree(key, desc);
+            }
+            synchronized ( this.trees ) {
+                this.trees.put(key, tree);
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Read a tree from the data file and the journal.
+     * @return The tree or null if there is no data.
+     */
+    protected Tree readTree(final PreferencesDescription desc) throws IOException {
+        final File file = this.getFile(desc);
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final File journalFile = new File(file.getPath() + ".log");
+        final Tree tree = new Tree(this.getKey(desc), desc);
+        final boolean exists = ((Boolean) doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                if ( tmpFile.exists() ) {
+                    if ( journalFile.exists() ) {
+                        // interrupted while writing the snapshot
+                        tmpFile.delete();
+                    } else {
+                        // interrupted after discarding the journal
+                        file.delete();
+                        if ( !tmpFile.renameTo(file) ) {
+                            throw new IOException("Unable to rename " + tmpFile);
+                        }
+                    }
+                }
+                if ( !file.exists() && !journalFile.exists() ) {
+                    return Boolean.FALSE;
+                }
+                if ( file.exists() ) {
+                    final InputStream is = new BufferedInputStream(new FileInputStream(file));
+                    try {
+                        read(tree.image, is);
+                    } finally {
+                        is.close();
+                    }
+                    tree.snapshotSize = file.length();
+                }
+                if ( journalFile.exists() ) {
+                    final byte[] data = readFully(journalFile);
+                    final int valid = readJournal(tree.image, data);
+                    // rewrite the snapshot on the next change if the journal is damaged
+                    tree.journalSize = (valid == data.length && file.exists()) ? valid : -1;
+                } else {
+                    tree.journalSize = file.exists() ? 0 : -1;
+                }
+                return Boolean.TRUE;
+            }
+        })).booleanValue();
+        if ( !exists ) {
+            return null;
+        }
+        clearChanges(tree.image);
+        return tree;
+    }
+
+    /**
+     * Replace the data file by a new snapshot and discard the journal.
+     */
+    protected void writeSnapshot(PreferencesDescription desc, final byte[] data) throws IOException {
+        final File file = this.getFile(desc);
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final File journalFile = new File(file.getPath() + ".log");
+        doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                // an existing journal marks the temporary file as incomplete
+                if ( !journalFile.exists() ) {
+                    new FileOutputStream(journalFile).close();
+                }
+                final FileOutputStream fos = new FileOutputStream(tmpFile);
+                try {
+                    fos.write(data);
+                    fos.getFD().sync();
+                } finally {
+                    fos.close();
+                }
+                if ( !journalFile.delete() ) {
+                    tmpFile.delete();
+                    throw new IOException("Unable to delete " + journalFile);
+                }
+                file.delete();
+                if ( !tmpFile.renameTo(file) ) {
+                    throw new IOException("Unable to rename " + tmpFile);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Append a batch of changes to the journal.
+     */
+    protected void appendJournal(PreferencesDescription desc, final byte[] data) throws IOException {
+        final File journalFile = new File(this.getFile(desc).getPath() + ".log");
+        doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                final FileOutputStream fos = new FileOutputStream(journalFile, true);
+                try {
+                    fos.write(data);
+                    fos.getFD().sync();
+                } finally {
+                    fos.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The key of a tree is the name of its data file.
+     */
+    protected String getKey(PreferencesDescription desc) {
+        return this.getFile(desc).getName();
+    }
+
+    /**
+     * Copy the properties and children of a tree into another tree.
+     * @return The target tree without any changes.
+     */
+    protected static PreferencesImpl copy(PreferencesImpl from, PreferencesImpl to) {
+        to.getProperties().putAll(from.getProperties());
+        final Iterator i = from.getChildren().iterator();
+        while ( i.hasNext() ) {
+            final PreferencesImpl child = (PreferencesImpl) i.next();
+            copy(child, to.getOrCreateNode(child.name()));
+        }
+        to.getChangeSet().clear();
+        return to;
+    }
+
+    /**
+     * Clear the change sets of a tree.
+     */
+    protected static void clearChanges(PreferencesImpl prefs) {
+        prefs.getChangeSet().clear();
+        final Iterator i = prefs.getChildren().iterator();
+        while ( i.hasNext() ) {
+            clearChanges((PreferencesImpl) i.next());
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        final byte[] bytes = value.getBytes("utf-8");
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        final int length = dis.readInt();
+        if ( length < 0 || length > dis.available() ) {
+            throw new EOFException();
+        }
+        final byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, "utf-8");
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final InputStream is = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ( (length = is.read(buffer)) != -1 ) {
+                bos.write(buffer, 0, length);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Object doPrivileged(PrivilegedExceptionAction action) throws IOException {
+        try {
+            return AccessController.doPrivileged(action);
+        } catch (PrivilegedActionException e) {
+            // only IOExceptions are thrown by our actions
+            throw (IOException) e.getException();
+        }
+    }
+
+    /**
+     * The in memory state of a preferences tree.
+     * The image and the snapshot are guarded by the lock on the trees,
+     * the sizes by the io lock.
+     */
+    protected static final class Tree {
+
+        /** The key of the tree. */
+        protected final String key;
+
+        /** The description of the tree. */
+        protected final PreferencesDescription description;
+
+        /** The current state of the tree, including changes not written yet. */
+        protected final PreferencesImpl image;
+
+        /** An immutable copy of the image, or null if outdated. */
+        protected PreferencesImpl snapshot;
+
+        /** The size of the data file. */
+        protected long snapshotSize;
+
+        /** The size of the journal or -1 if the data file has to be rewritten. */
+        protected long journalSize = -1;
+
+        public Tree(String key, PreferencesDescription description) {
+            this.key = key;
+            this.description = description;
+            this.image = new PreferencesImpl(description, null);
+        }
+    }
+}
@@ -119,6 +119,10 @@ public class PreferencesManager
             this.storeTracker.close();
             this.storeTracker = null;
         }
+        if (this.defaultStore instanceof JournalingBackingStoreImpl) {
+            // retry the failed writes
+            ((JournalingBackingStoreImpl) this.defaultStore).close();
+        }
         this.defaultStore = null;
 
         // stop tracking log service
@@ -176,8 +180,8 @@ public class PreferencesManager
             try {
                 this.getStore().store(prefs);
             }
-            catch (final BackingStoreException ignore) {
-                // we ignore this
+            catch (final BackingStoreException bse) {
+                this.log(LogService.LOG_ERROR, "Unable to save preferences of bundle " + prefs.getDescription().getBundleId(), bse);
             }
         }
     }
@@ -211,7 +215,7 @@ public class PreferencesManager
 	            if (this.defaultStore == null) {
 	                synchronized (this) {
 	                    if (this.defaultStore == null) {
-	                        this.defaultStore = new DataFileBackingStoreImpl(this.context);
+	                        this.defaultStore = new JournalingBackingStoreImpl(this.context, this.logTracker);
 	                        this.cleanupStore(this.defaultStore);
 	                    }
 	                }
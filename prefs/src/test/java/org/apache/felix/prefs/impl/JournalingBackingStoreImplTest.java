@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.prefs.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.prefs.BackingStore;
+import org.apache.felix.prefs.BackingStoreManager;
+import org.apache.felix.prefs.PreferencesDescription;
+import org.apache.felix.prefs.PreferencesImpl;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
+
+public class JournalingBackingStoreImplTest extends TestCase {
+
+    private static final PreferencesDescription DESC = new PreferencesDescription(new Long(1), null);
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.dir = File.createTempFile("prefs", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        final File[] files = this.dir.listFiles();
+        for(int i=0; files != null && i<files.length; i++) {
+            files[i].delete();
+        }
+        this.dir.delete();
+        super.tearDown();
+    }
+
+    public void testFlushIsReplayedFromJournal() throws Exception {
+        final PreferencesImpl root = this.newRoot(this.newStore());
+        root.node("a").put("k", "v1");
+        root.flush();
+        // the first write of a tree is a snapshot
+        assertTrue(this.file("P1.ser").exists());
+
+        root.node("a").put("k", "v2");
+        root.node("b").put("k", "v3");
+        root.flush();
+        assertTrue(this.file("P1.ser.log").length() > 0);
+
+        // flush() has written the changes, a new store sees them
+        final PreferencesImpl loaded = this.load(this.newStore());
+        assertEquals("v2", loaded.node("a").get("k", null));
+        assertEquals("v3", loaded.node("b").get("k", null));
+    }
+
+    public void testTruncatedBatchIsIgnored() throws Exception {
+        final PreferencesImpl root = this.newRoot(this.newStore());
+        root.put("k", "v1");
+        root.flush();
+        root.put("k", "v2");
+        root.flush();
+        final long complete = this.file("P1.ser.log").length();
+        root.put("k", "v3");
+        root.flush();
+
+        // cut the last batch
+        final RandomAccessFile raf = new RandomAccessFile(this.file("P1.ser.log"), "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        final JournalingBackingStoreImpl store = this.newStore();
+        final PreferencesImpl loaded = this.load(store);
+        assertEquals("v2", loaded.get("k", null));
+        assertTrue(this.file("P1.ser.log").length() > complete);
+
+        // the damaged journal is replaced by a new snapshot on the next write
+        loaded.put("k", "v4");
+        loaded.flush();
+        assertFalse(this.file("P1.ser.log").exists());
+        assertEquals("v4", this.load(this.newStore()).get("k", null));
+    }
+
+    public void testJournalIsCompacted() throws Exception {
+        final PreferencesImpl root = this.newRoot(this.newStore());
+        final StringBuffer value = new StringBuffer();
+        for(int i=0; i<100; i++) {
+            value.append('x');
+        }
+        boolean compacted = false;
+        for(int i=0; i<100; i++) {
+            root.put("k", value.toString() + i);
+            root.flush();
+            if ( i > 0 && !this.file("P1.ser.log").exists() ) {
+                compacted = true;
+            }
+        }
+        assertTrue(compacted);
+        assertTrue(this.file("P1.ser.log").length() <= JournalingBackingStoreImpl.MIN_JOURNAL_SIZE + 200);
+        assertEquals(value.toString() + 99, this.load(this.newStore()).get("k", null));
+    }
+
+    public void testIncompleteSnapshotIsDiscarded() throws Exception {
+        final JournalingBackingStoreImpl store = this.newStore();
+        final PreferencesImpl root = this.newRoot(store);
+        root.put("k", "v1");
+        root.flush();
+        root.put("k", "v2");
+        root.flush();
+
+        // interrupted while writing the new snapshot: the journal still exists
+        this.writeSnapshot(store, "P1.ser.tmp", "broken");
+
+        assertEquals("v2", this.load(this.newStore()).get("k", null));
+        assertFalse(this.file("P1.ser.tmp").exists());
+    }
+
+    public void testCompleteSnapshotIsRecovered() throws Exception {
+        final JournalingBackingStoreImpl store = this.newStore();
+        final PreferencesImpl root = this.newRoot(store);
+        root.put("k", "v1");
+        root.flush();
+
+        // interrupted after discarding the journal: the new snapshot is complete
+        this.writeSnapshot(store, "P1.ser.tmp", "v2");
+
+        assertEquals("v2", this.load(this.newStore()).get("k", null));
+        assertFalse(this.file("P1.ser.tmp").exists());
+        assertTrue(this.file("P1.ser").exists());
+    }
+
+    public void testRemovedChildIsNotReplayed() throws Exception {
+        final PreferencesImpl root = this.newRoot(this.newStore());
+        root.node("a/b").put("k", "v1");
+        root.node("a/c").put("k", "v2");
+        root.flush();
+
+        root.node("a/b").removeNode();
+        root.flush();
+
+        PreferencesImpl loaded = this.load(this.newStore());
+        assertTrue(loaded.nodeExists("a/c"));
+        assertFalse(loaded.nodeExists("a/b"));
+
+        // a child added again does not get back its old properties
+        loaded.node("a/b").put("other", "v3");
+        loaded.flush();
+
+        loaded = this.load(this.newStore());
+        assertNull(loaded.node("a/b").get("k", null));
+        assertEquals("v3", loaded.node("a/b").get("other", null));
+    }
+
+    public void testFailedWriteIsReportedAndRetried() throws Exception {
+        final List messages = new ArrayList();
+        final File file = new File(this.dir, "file");
+        new FileOutputStream(file).close();
+        // the files of the store cannot be created below a plain file
+        final JournalingBackingStoreImpl store = new JournalingBackingStoreImpl(null, file, null) {
+            protected void log(int level, String message, Throwable t) {
+                messages.add(message);
+            }
+        };
+        final PreferencesImpl root = this.newRoot(store);
+        root.put("k", "v1");
+        try {
+            root.flush();
+            fail("BackingStoreException expected");
+        } catch (BackingStoreException expected) {
+            // the changes are not persistent
+        }
+        assertTrue(messages.isEmpty());
+
+        store.close();
+        assertEquals(1, messages.size());
+    }
+
+    private JournalingBackingStoreImpl newStore() {
+        return new JournalingBackingStoreImpl(null, this.dir, null);
+    }
+
+    private PreferencesImpl newRoot(final BackingStore store) {
+        return new PreferencesImpl(DESC, new BackingStoreManager() {
+            public BackingStore getStore() {
+                return store;
+            }
+        });
+    }
+
+    private PreferencesImpl load(final BackingStore store) throws BackingStoreException {
+        final PreferencesImpl root = this.newRoot(store);
+        return store.load(root.getBackingStoreManager(), DESC);
+    }
+
+    private void writeSnapshot(JournalingBackingStoreImpl store, String name, String value) throws Exception {
+        final PreferencesImpl root = new PreferencesImpl(DESC, null);
+        root.getProperties().put("k", value);
+        final FileOutputStream fos = new FileOutputStream(this.file(name));
+        try {
+            store.write(root, fos);
+        } finally {
+            fos.close();
+        }
+    }
+
+    private File file(String name) {
+        return new File(this.dir, name);
+    }
+}
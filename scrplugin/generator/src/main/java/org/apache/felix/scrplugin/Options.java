@@ -49,6 +49,9 @@ public class Options {
     /** Skip volatile check. */
     private boolean skipVolatileCheck = false;
 
+    /** The file keeping the scan results between runs. */
+    private File scanCacheFile;
+
     /**
      * @see #setGenerateAccessors(boolean)
      * @return Whether accessor methods should be generated.
@@ -191,4 +194,24 @@ public class Options {
     public void setSkipVolatileCheck(final boolean skipVolatileCheck) {
         this.skipVolatileCheck = skipVolatileCheck;
     }
+
+    /**
+     * @see #setScanCacheFile(File)
+     * @return The scan cache file or <code>null</code>
+     */
+    public File getScanCacheFile() {
+        return scanCacheFile;
+    }
+
+    /**
+     * Sets the file keeping the scan results between two runs of the
+     * generator. Dependencies and classes which did not change since
+     * the previous run are not scanned again.
+     * <p>
+     * This field has no default value, if it is not set no scan results
+     * are kept.
+     */
+    public void setScanCacheFile(final File scanCacheFile) {
+        this.scanCacheFile = scanCacheFile;
+    }
 }
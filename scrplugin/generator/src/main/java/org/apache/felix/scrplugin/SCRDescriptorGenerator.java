@@ -18,6 +18,7 @@
  */
 package org.apache.felix.scrplugin;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -44,6 +45,7 @@ import org.apache.felix.scrplugin.helper.DescriptionContainer;
 import org.apache.felix.scrplugin.helper.IssueLog;
 import org.apache.felix.scrplugin.helper.MetatypeAttributeDefinition;
 import org.apache.felix.scrplugin.helper.MetatypeContainer;
+import org.apache.felix.scrplugin.helper.ScanCache;
 import org.apache.felix.scrplugin.helper.StringUtils;
 import org.apache.felix.scrplugin.helper.Validator;
 import org.apache.felix.scrplugin.xml.ComponentDescriptorIO;
@@ -143,6 +145,15 @@ public class SCRDescriptorGenerator {
 
         // create the class scanner - and start scanning
         this.scanner = new ClassScanner(logger, iLog, project, aProcessor);
+        final ScanCache scanCache;
+        if ( this.options.getScanCacheFile() != null ) {
+            this.logger.debug("..using scan cache: " + this.options.getScanCacheFile());
+            scanCache = new ScanCache(this.options.getScanCacheFile());
+            scanCache.load();
+            this.scanner.setScanCache(scanCache);
+        } else {
+            scanCache = null;
+        }
         final List<ClassDescription> scannedDescriptions = scanner.scanSources();
 
         // create the result to hold the list of processed source files
@@ -218,6 +229,15 @@ public class SCRDescriptorGenerator {
         // log issues
         iLog.logMessages(logger);
 
+        // all classes are scanned now
+        if ( scanCache != null ) {
+            try {
+                scanCache.save();
+            } catch (final IOException ioe) {
+                this.logger.warn("Unable to write scan cache " + this.options.getScanCacheFile() + " : " + ioe.getMessage());
+            }
+        }
+
         // after checking all classes, throw if there were any failures
         if (iLog.hasErrors()) {
             throw new SCRDescriptorFailureException("SCR Descriptor parsing had failures (see log)");
@@ -30,6 +30,8 @@ import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -37,6 +39,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -109,6 +117,12 @@ public class ClassScanner {
     /** The annotation processor. */
     private final AnnotationProcessor aProcessor;
 
+    /** The optional scan cache. */
+    private ScanCache scanCache;
+
+    /** Class files of the sources read ahead, by class name. */
+    private Map<String, Future<ClassNode>> prefetchedClasses;
+
     /**
      * Create a new scanner.
      */
@@ -125,32 +139,88 @@ public class ClassScanner {
         this.aProcessor = aProcessor;
     }
 
+    /**
+     * Set the scan cache to use, <code>null</code> disables caching.
+     */
+    public void setScanCache(final ScanCache scanCache) {
+        this.scanCache = scanCache;
+    }
+
     /**
      * Scan all source class files for annotations and process them.
+     * The class files are read and parsed ahead on several threads,
+     * while processing happens sequentially in the order of the sources.
      */
     public List<ClassDescription> scanSources()
             throws SCRDescriptorFailureException, SCRDescriptorException {
         final List<ClassDescription> result = new ArrayList<ClassDescription>();
 
+        final List<Source> sources = new ArrayList<Source>();
         for (final Source src : project.getSources()) {
             if ( src.getFile().getName().equals("package-info.java") ) {
                 log.debug("Skipping file " + src.getClassName());
                 continue;
             }
-            log.debug("Scanning class " + src.getClassName());
+            sources.add(src);
+        }
 
-            try {
-                // load the class
-                final Class<?> annotatedClass = project.getClassLoader().loadClass(src.getClassName());
+        final ExecutorService executor = this.prefetch(sources);
+        try {
+            for (final Source src : sources) {
+                log.debug("Scanning class " + src.getClassName());
 
-                this.process(annotatedClass, src, result);
-            } catch (final ClassNotFoundException cnfe) {
-                throw new SCRDescriptorException("Unable to load compiled class: " + src.getClassName(), src.getFile().toString(), cnfe);
+                try {
+                    // load the class
+                    final Class<?> annotatedClass = project.getClassLoader().loadClass(src.getClassName());
+
+                    this.process(annotatedClass, src, result);
+                } catch (final ClassNotFoundException cnfe) {
+                    throw new SCRDescriptorException("Unable to load compiled class: " + src.getClassName(), src.getFile().toString(), cnfe);
+                }
+            }
+        } finally {
+            this.prefetchedClasses = null;
+            if ( executor != null ) {
+                executor.shutdownNow();
             }
         }
         return result;
     }
 
+    /**
+     * Start reading and parsing the class files of the sources on a thread pool.
+     * @return The executor or <code>null</code> if the sources are scanned sequentially.
+     */
+    private ExecutorService prefetch(final List<Source> sources) {
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), sources.size());
+        if ( threads < 2 ) {
+            return null;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "SCR class scanner");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.prefetchedClasses = new HashMap<String, Future<ClassNode>>();
+        for (final Source src : sources) {
+            final String className = src.getClassName();
+            this.prefetchedClasses.put(className, executor.submit(new Callable<ClassNode>() {
+
+                public ClassNode call() throws IOException {
+                    final String pathToClassFile = className.replace('.', '/') + ".class";
+                    if ( isWithoutAnnotations(className, pathToClassFile) ) {
+                        return null;
+                    }
+                    return readClassNode(pathToClassFile);
+                }
+            }));
+        }
+        return executor;
+    }
+
     /**
      * Process a class
      * @throws SCRDescriptorException
@@ -195,15 +265,11 @@ public class ClassScanner {
         try {
             // get the class file for ASM
             final String pathToClassFile = annotatedClass.getName().replace('.', '/') + ".class";
-            final InputStream input = project.getClassLoader().getResourceAsStream(pathToClassFile);
-            final ClassReader classReader;
-            try {
-                classReader = new ClassReader(input);
-            } finally {
-                input.close();
+            final ClassNode classNode = this.getClassNode(annotatedClass.getName(), pathToClassFile);
+            if ( classNode == null ) {
+                log.debug("Class " + annotatedClass.getName() + " has not changed and has no annotations");
+                return null;
             }
-            final ClassNode classNode = new ClassNode();
-            classReader.accept(classNode, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
 
             // create descriptions
             final List<ScannedAnnotation> annotations = extractAnnotation(classNode, annotatedClass);
@@ -215,6 +281,12 @@ public class ClassScanner {
                 log.debug("Found descriptions " + desc + " in " + annotatedClass.getName());
                 return desc;
             }
+            if ( this.scanCache != null ) {
+                final File classFile = this.getClassFile(pathToClassFile);
+                if ( classFile != null ) {
+                    this.scanCache.putWithoutAnnotations(annotatedClass.getName(), classFile);
+                }
+            }
         } catch (final IllegalArgumentException ioe) {
             throw new SCRDescriptorException("Unable to scan class files: " + annotatedClass.getName() + " (Class file format probably not supported by ASM ?)", location, ioe);
         } catch (final IOException ioe) {
@@ -223,6 +295,85 @@ public class ClassScanner {
         return null;
     }
 
+    /**
+     * Get the parsed class file, either read ahead or read now.
+     * @return The class node or <code>null</code> if the class is known to have no annotations.
+     */
+    private ClassNode getClassNode(final String className, final String pathToClassFile) throws IOException {
+        final Future<ClassNode> future = this.prefetchedClasses == null ? null : this.prefetchedClasses.remove(className);
+        if ( future != null ) {
+            try {
+                return future.get();
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException ee) {
+                // read again below to report the error for this class
+            }
+        }
+        if ( this.isWithoutAnnotations(className, pathToClassFile) ) {
+            return null;
+        }
+        return this.readClassNode(pathToClassFile);
+    }
+
+    /**
+     * Read and parse a class file.
+     */
+    private ClassNode readClassNode(final String pathToClassFile) throws IOException {
+        final InputStream input = project.getClassLoader().getResourceAsStream(pathToClassFile);
+        if ( input == null ) {
+            throw new IOException("Class file not found: " + pathToClassFile);
+        }
+        final ClassReader classReader;
+        try {
+            classReader = new ClassReader(input);
+        } finally {
+            input.close();
+        }
+        final ClassNode classNode = new ClassNode();
+        classReader.accept(classNode, SKIP_CODE | SKIP_DEBUG | SKIP_FRAMES);
+        return classNode;
+    }
+
+    /**
+     * Check the scan cache whether the class has no annotations and has not changed.
+     */
+    private boolean isWithoutAnnotations(final String className, final String pathToClassFile) {
+        if ( this.scanCache == null ) {
+            return false;
+        }
+        final File classFile = this.getClassFile(pathToClassFile);
+        return classFile != null && this.scanCache.isWithoutAnnotations(className, classFile);
+    }
+
+    /**
+     * Get the file the class file is loaded from, which is either the
+     * class file itself or the jar file containing it.
+     * @return The file or <code>null</code> if it can't be determined.
+     */
+    private File getClassFile(final String pathToClassFile) {
+        URL url = project.getClassLoader().getResource(pathToClassFile);
+        if ( url != null && "jar".equals(url.getProtocol()) ) {
+            final String path = url.getPath();
+            final int pos = path.indexOf("!/");
+            try {
+                url = pos == -1 ? null : new URL(path.substring(0, pos));
+            } catch (final IOException ioe) {
+                url = null;
+            }
+        }
+        if ( url == null || !"file".equals(url.getProtocol()) ) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException use) {
+            return null;
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
     /**
      * Extract annotations
      */
@@ -463,56 +614,99 @@ public class ClassScanner {
 
             final Collection<File> dependencies = this.project.getDependencies();
             for ( final File artifact : dependencies ) {
-                try {
-                    this.log.debug( "Trying to get scrinfo from artifact " + artifact );
-                    // First try to read the private scr info file from previous scr generator versions
-                    InputStream scrInfoFile = null;
-                    try {
-                        scrInfoFile = this.getFile( artifact, ABSTRACT_DESCRIPTOR_ARCHIV_PATH );
-                        if ( scrInfoFile != null ) {
-                            this.readServiceComponentDescriptor( scrInfoFile, artifact.toString() + ':' + ABSTRACT_DESCRIPTOR_ARCHIV_PATH);
-                            continue;
-                        }
-                        this.log.debug( "Artifact has no scrinfo file (it's optional): " + artifact );
-                    } catch ( final IOException ioe ) {
-                        throw new SCRDescriptorException( "Unable to get scrinfo from artifact", artifact.toString(),
-                                ioe );
-                    } finally {
-                        if ( scrInfoFile != null ) {
-                            try { scrInfoFile.close(); } catch ( final IOException ignore ) {}
-                        }
+                // only jar files can be checked for changes
+                final boolean cacheable = this.scanCache != null && artifact.isFile();
+                List<String> entries = cacheable ? this.scanCache.getDescriptors( artifact ) : null;
+                if ( entries == null ) {
+                    entries = this.findDescriptors( artifact );
+                    if ( cacheable ) {
+                        this.scanCache.putDescriptors( artifact, entries );
                     }
+                } else {
+                    this.log.debug( "Using cached descriptor entries " + entries + " for artifact " + artifact );
+                }
 
-                    this.log.debug( "Trying to get manifest from artifact " + artifact );
-                    final Manifest manifest = this.getManifest( artifact );
-                    if ( manifest != null ) {
-                        // read Service-Component entry
-                        if ( manifest.getMainAttributes().getValue( SERVICE_COMPONENT ) != null ) {
-                            final String serviceComponent = manifest.getMainAttributes().getValue(SERVICE_COMPONENT );
-                            this.log.debug( "Found Service-Component: " + serviceComponent + " in artifact " + artifact );
-                            final StringTokenizer st = new StringTokenizer( serviceComponent, "," );
-                            while ( st.hasMoreTokens() ) {
-                                final String entry = st.nextToken().trim();
-                                if ( entry.length() > 0 ) {
-                                    this.readServiceComponentDescriptor( artifact, entry );
-                                }
+                for ( final String entry : entries ) {
+                    if ( ABSTRACT_DESCRIPTOR_ARCHIV_PATH.equals( entry ) ) {
+                        InputStream scrInfoFile = null;
+                        try {
+                            scrInfoFile = this.getFile( artifact, ABSTRACT_DESCRIPTOR_ARCHIV_PATH );
+                            if ( scrInfoFile == null ) {
+                                throw new IOException( "Entry " + entry + " not contained in artifact" );
+                            }
+                            this.readServiceComponentDescriptor( scrInfoFile, artifact.toString() + ':' + ABSTRACT_DESCRIPTOR_ARCHIV_PATH);
+                        } catch ( final IOException ioe ) {
+                            throw new SCRDescriptorException( "Unable to get scrinfo from artifact", artifact.toString(),
+                                    ioe );
+                        } finally {
+                            if ( scrInfoFile != null ) {
+                                try { scrInfoFile.close(); } catch ( final IOException ignore ) {}
                             }
-                        } else {
-                            this.log.debug( "Artifact has no service component entry in manifest " + artifact );
                         }
                     } else {
-                        this.log.debug( "Unable to get manifest from artifact " + artifact );
+                        this.readServiceComponentDescriptor( artifact, entry );
                     }
-                } catch ( IOException ioe ) {
-                    throw new SCRDescriptorException( "Unable to get manifest from artifact", artifact.toString(),
-                            ioe );
                 }
-
             }
         }
         return this.loadedDependencies;
     }
 
+    /**
+     * Find the descriptors of an artifact. This is either the scrinfo file
+     * from previous scr generator versions or the entries of the
+     * Service-Component manifest header.
+     */
+    private List<String> findDescriptors( final File artifact )
+            throws SCRDescriptorException {
+        final List<String> entries = new ArrayList<String>();
+        try {
+            this.log.debug( "Trying to get scrinfo from artifact " + artifact );
+            // First try to find the private scr info file from previous scr generator versions
+            InputStream scrInfoFile = null;
+            try {
+                scrInfoFile = this.getFile( artifact, ABSTRACT_DESCRIPTOR_ARCHIV_PATH );
+                if ( scrInfoFile != null ) {
+                    entries.add( ABSTRACT_DESCRIPTOR_ARCHIV_PATH );
+                    return entries;
+                }
+                this.log.debug( "Artifact has no scrinfo file (it's optional): " + artifact );
+            } catch ( final IOException ioe ) {
+                throw new SCRDescriptorException( "Unable to get scrinfo from artifact", artifact.toString(),
+                        ioe );
+            } finally {
+                if ( scrInfoFile != null ) {
+                    try { scrInfoFile.close(); } catch ( final IOException ignore ) {}
+                }
+            }
+
+            this.log.debug( "Trying to get manifest from artifact " + artifact );
+            final Manifest manifest = this.getManifest( artifact );
+            if ( manifest != null ) {
+                // read Service-Component entry
+                if ( manifest.getMainAttributes().getValue( SERVICE_COMPONENT ) != null ) {
+                    final String serviceComponent = manifest.getMainAttributes().getValue(SERVICE_COMPONENT );
+                    this.log.debug( "Found Service-Component: " + serviceComponent + " in artifact " + artifact );
+                    final StringTokenizer st = new StringTokenizer( serviceComponent, "," );
+                    while ( st.hasMoreTokens() ) {
+                        final String entry = st.nextToken().trim();
+                        if ( entry.length() > 0 ) {
+                            entries.add( entry );
+                        }
+                    }
+                } else {
+                    this.log.debug( "Artifact has no service component entry in manifest " + artifact );
+                }
+            } else {
+                this.log.debug( "Unable to get manifest from artifact " + artifact );
+            }
+        } catch ( IOException ioe ) {
+            throw new SCRDescriptorException( "Unable to get manifest from artifact", artifact.toString(),
+                    ioe );
+        }
+        return entries;
+    }
+
     /**
      * Parses the descriptors read from the given input stream. This method may
      * be called by the {@link #getComponentDescriptors()} method to parse the
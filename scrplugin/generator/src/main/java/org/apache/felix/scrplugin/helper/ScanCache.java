@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scrplugin.helper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The scan cache keeps the results of scanning between two runs of the
+ * generator.
+ * <p>
+ * For each dependency the descriptor entries found in it are remembered,
+ * so dependencies without descriptors don't have to be opened again.
+ * In addition the classes without any annotations are remembered, so
+ * they don't have to be parsed again.
+ * <p>
+ * Each entry is stored together with the size and the last modification
+ * time of the file it was read from and is only used as long as these
+ * don't change. Only entries used in the current run are written back.
+ */
+public class ScanCache {
+
+    private static final String VERSION = "scan-cache-1";
+
+    private static final String DEPENDENCY = "dependency";
+
+    private static final String CLASS = "class";
+
+    private static final char SEPARATOR = '\t';
+
+    /** The cache file. */
+    private final File file;
+
+    /** Descriptor entries by dependency path, the first element is the stamp. */
+    private final Map<String, List<String>> loadedDependencies = new HashMap<String, List<String>>();
+
+    /** Stamps of classes without annotations by class name. */
+    private final Map<String, String> loadedClasses = new HashMap<String, String>();
+
+    /** Dependencies used in this run. */
+    private final Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
+
+    /** Classes without annotations used in this run. */
+    private final Map<String, String> classes = new HashMap<String, String>();
+
+    private boolean modified;
+
+    /**
+     * Create a new cache using the given file.
+     */
+    public ScanCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the cache file. A missing or unreadable file results in an empty cache.
+     */
+    public synchronized void load() {
+        this.loadedDependencies.clear();
+        this.loadedClasses.clear();
+        if ( !this.file.isFile() ) {
+            return;
+        }
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), "UTF-8"));
+            try {
+                if ( !VERSION.equals(reader.readLine()) ) {
+                    return;
+                }
+                String line;
+                while ( (line = reader.readLine()) != null ) {
+                    final List<String> parts = split(line);
+                    if ( parts.size() >= 3 && DEPENDENCY.equals(parts.get(0)) ) {
+                        this.loadedDependencies.put(parts.get(1), new ArrayList<String>(parts.subList(2, parts.size())));
+                    } else if ( parts.size() == 3 && CLASS.equals(parts.get(0)) ) {
+                        this.loadedClasses.put(parts.get(1), parts.get(2));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch ( final IOException ioe ) {
+            // start with an empty cache
+            this.loadedDependencies.clear();
+            this.loadedClasses.clear();
+        }
+    }
+
+    /**
+     * Write the entries used in this run back to the cache file,
+     * if anything changed.
+     */
+    public synchronized void save() throws IOException {
+        if ( !this.modified
+             && this.dependencies.size() == this.loadedDependencies.size()
+             && this.classes.size() == this.loadedClasses.size() ) {
+            return;
+        }
+        this.file.getParentFile().mkdirs();
+        final File tmp = new File(this.file.getPath() + ".tmp");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            writer.write(VERSION);
+            writer.write('\n');
+            for(final Map.Entry<String, List<String>> entry : this.dependencies.entrySet()) {
+                writer.write(DEPENDENCY);
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                for(final String value : entry.getValue()) {
+                    writer.write(SEPARATOR);
+                    writer.write(value);
+                }
+                writer.write('\n');
+            }
+            for(final Map.Entry<String, String> entry : this.classes.entrySet()) {
+                writer.write(CLASS);
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        this.file.delete();
+        if ( !tmp.renameTo(this.file) ) {
+            throw new IOException("Unable to rename " + tmp + " to " + this.file);
+        }
+        this.modified = false;
+    }
+
+    /**
+     * Get the descriptor entries found in the dependency in a previous run.
+     * @return The entries or <code>null</code> if the dependency is unknown or has changed.
+     */
+    public synchronized List<String> getDescriptors(final File dependency) {
+        final String path = dependency.getAbsolutePath();
+        final List<String> values = this.loadedDependencies.get(path);
+        if ( values == null || !values.get(0).equals(getStamp(dependency)) ) {
+            return null;
+        }
+        this.dependencies.put(path, values);
+        return values.subList(1, values.size());
+    }
+
+    /**
+     * Remember the descriptor entries found in the dependency.
+     */
+    public synchronized void putDescriptors(final File dependency, final List<String> entries) {
+        final List<String> values = new ArrayList<String>(entries.size() + 1);
+        values.add(getStamp(dependency));
+        values.addAll(entries);
+        this.dependencies.put(dependency.getAbsolutePath(), values);
+        this.modified = true;
+    }
+
+    /**
+     * Check whether the class was found to have no annotations in a previous run.
+     * @param className The class name
+     * @param classFile The file containing the class file, either the class file
+     *                  itself or the jar file.
+     */
+    public synchronized boolean isWithoutAnnotations(final String className, final File classFile) {
+        final String stamp = this.loadedClasses.get(className);
+        if ( stamp == null || !stamp.equals(getStamp(classFile)) ) {
+            return false;
+        }
+        this.classes.put(className, stamp);
+        return true;
+    }
+
+    /**
+     * Remember that the class has no annotations.
+     * @see #isWithoutAnnotations(String, File)
+     */
+    public synchronized void putWithoutAnnotations(final String className, final File classFile) {
+        this.classes.put(className, getStamp(classFile));
+        this.modified = true;
+    }
+
+    private static String getStamp(final File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    private static List<String> split(final String line) {
+        final List<String> parts = new ArrayList<String>();
+        int start = 0;
+        int pos;
+        while ( (pos = line.indexOf(SEPARATOR, start)) != -1 ) {
+            parts.add(line.substring(start, pos));
+            start = pos + 1;
+        }
+        parts.add(line.substring(start));
+        return parts;
+    }
+}
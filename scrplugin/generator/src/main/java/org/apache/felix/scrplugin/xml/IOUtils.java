@@ -18,12 +18,14 @@
  */
 package org.apache.felix.scrplugin.xml;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Properties;
 
 import javax.xml.transform.OutputKeys;
@@ -39,6 +41,7 @@ import javax.xml.transform.stream.StreamSource;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Utility class for xml/sax handling.
@@ -65,7 +68,10 @@ public class IOUtils {
      */
     public static ContentHandler getSerializer(final File file)
     throws TransformerException, IOException {
-        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        // the document is serialized in memory and the file is only written
+        // at the end of the document if its contents changed, this keeps the
+        // timestamps of unchanged descriptors for incremental builds
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
         final TransformerHandler transformerHandler = FACTORY.newTransformerHandler();
         final Transformer transformer = transformerHandler.getTransformer();
@@ -78,9 +84,50 @@ public class IOUtils {
 
         transformer.setOutputProperties(format);
 
-        transformerHandler.setResult(new StreamResult(writer));
+        transformerHandler.setResult(new StreamResult(buffer));
+
+        final XMLFilterImpl filter = new XMLFilterImpl() {
+
+            @Override
+            public void endDocument() throws SAXException {
+                super.endDocument();
+                try {
+                    writeIfChanged(file, buffer.toByteArray());
+                } catch (final IOException ioe) {
+                    throw new SAXException("Unable to write " + file, ioe);
+                }
+            }
+        };
+        filter.setContentHandler(transformerHandler);
+        return filter;
+    }
 
-        return transformerHandler;
+    /**
+     * Write the contents to the file, unless the file already has exactly these contents.
+     */
+    private static void writeIfChanged(final File file, final byte[] contents) throws IOException {
+        if ( file.isFile() && file.length() == contents.length ) {
+            final byte[] existing = new byte[contents.length];
+            final InputStream is = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int len;
+                while ( offset < existing.length && (len = is.read(existing, offset, existing.length - offset)) != -1 ) {
+                    offset += len;
+                }
+            } finally {
+                is.close();
+            }
+            if ( Arrays.equals(existing, contents) ) {
+                return;
+            }
+        }
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(contents);
+        } finally {
+            os.close();
+        }
     }
 
     /**
@@ -28,6 +28,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.easymock.EasyMock;
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -71,6 +72,30 @@ public class SCRDescriptorGeneratorTest {
         EasyMock.verify(env.log());
     }
 
+    @Test
+    public void testUnchangedDescriptorsAreNotRewritten() throws SCRDescriptorException, SCRDescriptorFailureException, IOException {
+        final File cacheFile = new File(folder, "scan-cache.txt");
+        Env env = new Env("SimpleComponent").invoke();
+        env.options().setScanCacheFile(cacheFile);
+        EasyMock.replay(env.log());
+        env.generator().execute();
+        EasyMock.verify(env.log());
+
+        final File[] descriptors = new File(folder, "OSGI-INF").listFiles();
+        Assert.assertEquals(1, descriptors.length);
+        final String contents = FileUtils.readFileToString(descriptors[0]);
+        Assert.assertTrue(descriptors[0].setLastModified(10000L));
+
+        env = new Env("SimpleComponent").invoke();
+        env.options().setScanCacheFile(cacheFile);
+        EasyMock.replay(env.log());
+        env.generator().execute();
+        EasyMock.verify(env.log());
+
+        Assert.assertEquals(10000L, descriptors[0].lastModified());
+        Assert.assertEquals(contents, FileUtils.readFileToString(descriptors[0]));
+    }
+
     private void unpackSource(String resource, File dest) throws IOException {
         IOUtils.copy(getClass().getResourceAsStream(resource), new FileOutputStream(dest));
     }
@@ -82,6 +107,7 @@ public class SCRDescriptorGeneratorTest {
         private String className;
         private Log log;
         private SCRDescriptorGenerator gen;
+        private Options options;
 
         public Env(String className) {
             this.className = className;
@@ -95,6 +121,10 @@ public class SCRDescriptorGeneratorTest {
             return gen;
         }
 
+        public Options options() {
+            return options;
+        }
+
         public Env invoke() throws IOException {
             File aFile = new File(dest, className + ".class");
             unpackSource("/testComponents/" + className + ".class", aFile);
@@ -109,6 +139,7 @@ public class SCRDescriptorGeneratorTest {
             o.setOutputDirectory(folder);
             gen.setProject(p);
             gen.setOptions(o);
+            options = o;
             return this;
         }
     }
@@ -178,6 +178,15 @@ public class SCRDescriptorMojo extends AbstractMojo {
      */
     private boolean skipVolatileCheck;
 
+    /**
+     * Keep the scan results of dependencies and classes in the build
+     * directory, so unchanged dependencies and classes are not scanned
+     * again in the next build.
+     *
+     * @parameter expression="${scr.scanCache}" default-value="true"
+     */
+    private boolean scanCache;
+
     /**
      * @component
      */
@@ -218,6 +227,9 @@ public class SCRDescriptorMojo extends AbstractMojo {
         options.setSpecVersion(SpecVersion.fromName(specVersion));
         options.setIncremental(this.buildContext.isIncremental());
         options.setSkipVolatileCheck(this.skipVolatileCheck);
+        if ( this.scanCache ) {
+            options.setScanCacheFile(new File(this.project.getBuild().getDirectory(), "scr-plugin-scan-cache.txt"));
+        }
 
         if ( specVersion != null && options.getSpecVersion() == null ) {
             throw new MojoExecutionException("Unknown spec version specified: " + specVersion);
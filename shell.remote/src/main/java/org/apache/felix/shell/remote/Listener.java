@@ -30,6 +30,10 @@ import org.osgi.framework.BundleContext;
 
 /**
  * Implements a simple listener that will accept a single connection.
+ * <p/>
+ * If the <code>osgi.shell.telnet.multiplex</code> property is set to
+ * <code>true</code>, the connections are served by a {@link Multiplexer}
+ * instead of a thread per connection.
  */
 class Listener
 {
@@ -37,6 +41,7 @@ class Listener
     private final String m_ip;
     private final Thread m_listenerThread;
     private final Acceptor m_acceptor;
+    private final Multiplexer m_multiplexer;
     private final AtomicInteger m_useCounter;
     private final int m_maxConnections;
     private final int m_soTimeout;
@@ -56,8 +61,20 @@ class Listener
         m_maxConnections = getProperty(context, "osgi.shell.telnet.maxconn", 2);
         m_useCounter = new AtomicInteger(0);
         m_connections = new HashSet();
-        m_acceptor = new Acceptor();
-        m_listenerThread = new Thread(m_acceptor, "telnetconsole.Listener");
+        if ("true".equalsIgnoreCase(getProperty(context, "osgi.shell.telnet.multiplex", "false")))
+        {
+            m_acceptor = null;
+            m_multiplexer = new Multiplexer(m_services, m_ip, m_port, m_maxConnections,
+                getProperty(context, "osgi.shell.telnet.workers", 2),
+                getProperty(context, "osgi.shell.telnet.idleTimeout", 0));
+            m_listenerThread = new Thread(m_multiplexer, "telnetconsole.Listener");
+        }
+        else
+        {
+            m_acceptor = new Acceptor();
+            m_multiplexer = null;
+            m_listenerThread = new Thread(m_acceptor, "telnetconsole.Listener");
+        }
         m_listenerThread.start();
     }//activate
 
@@ -78,7 +95,15 @@ class Listener
         try
         {
             //wait for the listener thread
-            m_acceptor.close();
+            if (m_multiplexer != null)
+            {
+                // the multiplexer terminates its connections itself
+                m_multiplexer.close();
+            }
+            else
+            {
+                m_acceptor.close();
+            }
             m_listenerThread.join();
         }
         catch (Exception ex)
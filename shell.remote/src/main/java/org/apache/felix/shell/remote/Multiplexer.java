@@ -0,0 +1,831 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.shell.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.apache.felix.service.command.CommandProcessor;
+import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.service.command.Converter;
+import org.apache.felix.shell.ShellService;
+
+/**
+ * Implements a listener serving all remote connections from a single thread.
+ * <p>
+ * Instead of a thread per connection, the connections are read by a
+ * <code>Selector</code> on the listener thread, which assembles the command
+ * lines. The commands are executed by a {@link WorkerPool}: each worker
+ * executes one command line of a connection at a time, such that the number
+ * of workers caps the number of commands executed concurrently, while the
+ * command lines of a connection are executed in order. Connections idle for
+ * longer than the idle timeout are closed.
+ * <p>
+ * As the input is read by the listener thread, commands reading from the
+ * terminal find the end of the input.
+ */
+class Multiplexer implements Runnable
+{
+    /**
+     * Command lines queued per connection before reading from it is suspended.
+     */
+    private static final int MAX_QUEUED_LINES = 16;
+
+    /**
+     * Characters per command line, further characters are dropped.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Output bytes queued per connection before a command writing is blocked.
+     */
+    private static final int MAX_QUEUED_OUTPUT = 64 * 1024;
+
+    /**
+     * Marks the end of the input of a connection in its queue of lines.
+     */
+    private static final String QUIT = new String();
+
+    private static final String INUSE_MESSAGE = "Connection refused.\r\n" + "All possible connections are currently being used.\r\n";
+
+    private static final String TERMINATE_MESSAGE = "\r\nFelix Remote Shell Console Terminating\r\nGood Bye!\r\n";
+
+    private static final byte[] ERASE_LEFT =
+    {
+        27, '[', '1', 'D', 27, '[', 'K'
+    };
+
+    private final ServiceMediator m_services;
+    private final int m_maxConnections;
+    private final long m_idleTimeout;
+    private final Selector m_selector;
+    private final ServerSocketChannel m_server;
+    private final WorkerPool m_workers;
+    private final ByteBuffer m_readBuffer;
+
+    /**
+     * Connections whose state changed, to be updated by the listener thread.
+     */
+    private final LinkedList m_updates;
+
+    /**
+     * The open connections, only accessed by the listener thread.
+     */
+    private final Set m_connections;
+
+    private volatile boolean m_stop = false;
+
+    Multiplexer(ServiceMediator services, String ip, int port, int maxConnections, int workers, long idleTimeout) throws IOException
+    {
+        m_services = services;
+        m_maxConnections = maxConnections;
+        m_idleTimeout = idleTimeout;
+        m_readBuffer = ByteBuffer.allocate(4096);
+        m_updates = new LinkedList();
+        m_connections = new HashSet();
+
+        m_selector = Selector.open();
+        try
+        {
+            m_server = ServerSocketChannel.open();
+            m_server.socket().bind(new InetSocketAddress(InetAddress.getByName(ip), port));
+            m_server.configureBlocking(false);
+            m_server.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            m_selector.close();
+            throw ex;
+        }
+
+        m_workers = new WorkerPool(services, "telnetconsole.worker", workers);
+    }//constructor
+
+    int getLocalPort()
+    {
+        return m_server.socket().getLocalPort();
+    }//getLocalPort
+
+    /**
+     * Stops the listener thread, which terminates all connections.
+     */
+    public void close()
+    {
+        m_stop = true;
+        m_selector.wakeup();
+    }//close
+
+    public void run()
+    {
+        try
+        {
+            long checkInterval = (m_idleTimeout > 0) ? Math.min(m_idleTimeout, 1000) : 0;
+            while (!m_stop)
+            {
+                m_selector.select(checkInterval);
+
+                Connection connection;
+                while ((connection = nextUpdate()) != null)
+                {
+                    connection.update();
+                }
+
+                for (Iterator ki = m_selector.selectedKeys().iterator(); ki.hasNext();)
+                {
+                    SelectionKey key = (SelectionKey) ki.next();
+                    ki.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        try
+                        {
+                            accept();
+                        }
+                        catch (IOException ex)
+                        {
+                            m_services.error("Multiplexer::accept()", ex);
+                        }
+                    }
+                    else
+                    {
+                        connection = (Connection) key.attachment();
+                        try
+                        {
+                            if (key.isReadable())
+                            {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable())
+                            {
+                                connection.write();
+                            }
+                        }
+                        catch (IOException ex)
+                        {
+                            connection.destroy();
+                        }
+                    }
+                }
+
+                if (m_idleTimeout > 0)
+                {
+                    long now = System.currentTimeMillis();
+                    Connection[] connections = (Connection[]) m_connections.toArray(new Connection[m_connections.size()]);
+                    for (int i = 0; i < connections.length; i++)
+                    {
+                        connections[i].checkIdle(now);
+                    }
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            m_services.error("Multiplexer::run()", ex);
+        }
+        finally
+        {
+            Connection[] connections = (Connection[]) m_connections.toArray(new Connection[m_connections.size()]);
+            for (int i = 0; i < connections.length; i++)
+            {
+                connections[i].terminate();
+            }
+
+            // the jobs not started yet only release their connections
+            for (Iterator ji = m_workers.stop().iterator(); ji.hasNext();)
+            {
+                ((Runnable) ji.next()).run();
+            }
+            try
+            {
+                m_server.close();
+                m_selector.close();
+            }
+            catch (IOException ex)
+            {
+                m_services.error("Multiplexer::run()", ex);
+            }
+        }
+    }//run
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = m_server.accept();
+        if (channel == null)
+        {
+            return;
+        }
+
+        if (m_connections.size() >= m_maxConnections)
+        {
+            // reject with message, written without blocking if possible
+            channel.configureBlocking(false);
+            channel.write(ByteBuffer.wrap(INUSE_MESSAGE.getBytes()));
+            channel.close();
+            return;
+        }
+
+        try
+        {
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel);
+            connection.m_key = channel.register(m_selector, SelectionKey.OP_READ, connection);
+            m_connections.add(connection);
+
+            // the first job logs in and prints the first prompt
+            connection.received(null);
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+    }//accept
+
+    private Connection nextUpdate()
+    {
+        synchronized (m_updates)
+        {
+            return m_updates.isEmpty() ? null : (Connection) m_updates.removeFirst();
+        }
+    }//nextUpdate
+
+    /**
+     * Class handling a remote connection. The input is only read by the
+     * listener thread, the jobs executing the command lines run on the
+     * workers, one at a time.
+     */
+    private class Connection implements Runnable
+    {
+        private final SocketChannel m_channel;
+        private final TerminalPrintStream m_out;
+        private SelectionKey m_key;
+
+        // the line being read, only accessed by the listener thread
+        private final StringBuffer m_line;
+        private boolean m_cr;
+
+        // the shell, only accessed by the jobs
+        private boolean m_loggedIn;
+        private CommandSession m_session;
+
+        // guarded by this
+        private final LinkedList m_lines;
+        private final LinkedList m_output;
+        private int m_queuedOutput;
+        private boolean m_scheduled;
+        private boolean m_suspended;
+        private boolean m_closing;
+        private boolean m_destroyed;
+
+        private volatile long m_lastActivity;
+
+        Connection(SocketChannel channel)
+        {
+            m_channel = channel;
+            m_out = new TerminalPrintStream(m_services, new ConnectionOutputStream());
+            m_line = new StringBuffer();
+            m_lines = new LinkedList();
+            m_output = new LinkedList();
+            m_lastActivity = System.currentTimeMillis();
+        }//constructor
+
+        /**
+         * Called by the listener thread when data is available.
+         */
+        void read() throws IOException
+        {
+            m_readBuffer.clear();
+            int n = m_channel.read(m_readBuffer);
+            if (n < 0)
+            {
+                received(QUIT);
+                return;
+            }
+
+            m_lastActivity = System.currentTimeMillis();
+            m_readBuffer.flip();
+            while (m_readBuffer.hasRemaining())
+            {
+                int ch = m_readBuffer.get() & 0xff;
+                boolean cr = m_cr;
+                m_cr = ch == '\r';
+                switch (ch)
+                {
+                    case 4: // EOT
+                        received(QUIT);
+                        return;
+
+                    case '\n':
+                        if (cr)
+                        {
+                            // CR LF
+                            break;
+                        }
+                        // fall through
+                    case '\r':
+                        received(m_line.toString());
+                        m_line.setLength(0);
+                        break;
+
+                    case TerminalReader.BS:
+                    case TerminalReader.DEL:
+                        if (m_line.length() > 0)
+                        {
+                            m_line.setLength(m_line.length() - 1);
+                            enqueue(ERASE_LEFT, false);
+                        }
+                        else
+                        {
+                            enqueue(new byte[] { TerminalReader.BEL }, false);
+                        }
+                        break;
+
+                    case TerminalReader.CTRL_U:
+                        m_line.setLength(0);
+                        break;
+
+                    default:
+                        if (m_line.length() < MAX_LINE_LENGTH)
+                        {
+                            m_line.append((char) ch);
+                        }
+                        break;
+                }
+            }
+        }//read
+
+        /**
+         * Called by the listener thread when the channel accepts output.
+         */
+        void write() throws IOException
+        {
+            synchronized (this)
+            {
+                while (!m_output.isEmpty())
+                {
+                    ByteBuffer buffer = (ByteBuffer) m_output.getFirst();
+                    int n = m_channel.write(buffer);
+                    m_queuedOutput -= n;
+                    if (n > 0)
+                    {
+                        m_lastActivity = System.currentTimeMillis();
+                    }
+                    if (buffer.hasRemaining())
+                    {
+                        break;
+                    }
+                    m_output.removeFirst();
+                }
+                notifyAll();
+            }
+            update();
+        }//write
+
+        /**
+         * Called by the listener thread to apply state changes.
+         */
+        void update()
+        {
+            if (!m_key.isValid())
+            {
+                return;
+            }
+
+            int ops;
+            synchronized (this)
+            {
+                if (m_closing && m_output.isEmpty())
+                {
+                    ops = -1;
+                }
+                else
+                {
+                    ops = (m_suspended || m_closing) ? 0 : SelectionKey.OP_READ;
+                    if (!m_output.isEmpty())
+                    {
+                        ops |= SelectionKey.OP_WRITE;
+                    }
+                }
+            }
+
+            if (ops < 0)
+            {
+                destroy();
+            }
+            else
+            {
+                m_key.interestOps(ops);
+            }
+        }//update
+
+        /**
+         * Called by the listener thread to close the connection if idle.
+         * While a command is executed the connection is only idle if the
+         * client does not accept its output.
+         */
+        void checkIdle(long now)
+        {
+            if (now - m_lastActivity < m_idleTimeout)
+            {
+                return;
+            }
+
+            boolean closing;
+            boolean idle;
+            synchronized (this)
+            {
+                closing = m_closing;
+                idle = m_closing || !m_scheduled || !m_output.isEmpty();
+            }
+
+            if (closing)
+            {
+                // the client does not even take the farewell
+                destroy();
+            }
+            else if (idle)
+            {
+                enqueue(("\r\nConnection idle for " + (m_idleTimeout / 1000) + " seconds.\r\nGood Bye!\r\n").getBytes(), false);
+                close();
+            }
+        }//checkIdle
+
+        /**
+         * Called by the listener thread when it terminates.
+         */
+        void terminate()
+        {
+            try
+            {
+                // best effort, the connection is closed anyway
+                m_channel.write(ByteBuffer.wrap(TERMINATE_MESSAGE.getBytes()));
+            }
+            catch (IOException ex)
+            {
+                // ignore
+            }
+            destroy();
+        }//terminate
+
+        /**
+         * Called by the listener thread to close the connection right away.
+         * The shell is released by the job of the connection, as it may
+         * still be executing a command.
+         */
+        void destroy()
+        {
+            boolean schedule;
+            synchronized (this)
+            {
+                m_closing = true;
+                m_destroyed = true;
+                m_output.clear();
+                m_queuedOutput = 0;
+                notifyAll();
+                schedule = !m_scheduled;
+                m_scheduled = true;
+            }
+            m_connections.remove(this);
+            m_key.cancel();
+            try
+            {
+                m_channel.close();
+            }
+            catch (IOException ex)
+            {
+                m_services.error("Multiplexer.Connection::destroy()", ex);
+            }
+            if (schedule && !m_workers.execute(this))
+            {
+                // stopping, no job is running
+                release();
+            }
+        }//destroy
+
+        /**
+         * Closes the connection once the output queued has been written.
+         */
+        void close()
+        {
+            synchronized (this)
+            {
+                m_closing = true;
+                m_lines.clear();
+                notifyAll();
+            }
+            changed();
+        }//close
+
+        /**
+         * Queues a command line and schedules the job if not running. A
+         * <code>null</code> line only schedules the job.
+         */
+        void received(String line)
+        {
+            boolean schedule;
+            synchronized (this)
+            {
+                if (m_closing)
+                {
+                    return;
+                }
+                if (line != null)
+                {
+                    m_lines.addLast(line);
+                }
+                if (line == QUIT || m_lines.size() >= MAX_QUEUED_LINES)
+                {
+                    m_suspended = true;
+                    m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                schedule = !m_scheduled;
+                m_scheduled = true;
+            }
+
+            if (schedule)
+            {
+                m_workers.execute(this);
+            }
+        }//received
+
+        /**
+         * Executes the next command line, then passes the worker on to the
+         * other connections. Once the connection is destroyed, releases the
+         * shell instead.
+         */
+        public void run()
+        {
+            if (isDestroyed())
+            {
+                release();
+                return;
+            }
+
+            if (!m_loggedIn)
+            {
+                m_loggedIn = true;
+                if (!login())
+                {
+                    close();
+                }
+            }
+            else
+            {
+                String line;
+                boolean resume;
+                synchronized (this)
+                {
+                    line = m_lines.isEmpty() ? null : (String) m_lines.removeFirst();
+                    resume = m_suspended && line != QUIT && m_lines.size() < MAX_QUEUED_LINES;
+                    if (resume)
+                    {
+                        m_suspended = false;
+                    }
+                }
+                if (resume)
+                {
+                    changed();
+                }
+
+                if (line == QUIT || (line != null && !execute(line.trim())))
+                {
+                    m_out.println("Good Bye!");
+                    close();
+                }
+                else
+                {
+                    m_out.print(getPrompt());
+                }
+            }
+
+            boolean destroyed;
+            synchronized (this)
+            {
+                destroyed = m_destroyed;
+                if (!destroyed && (m_lines.isEmpty() || m_closing))
+                {
+                    m_scheduled = false;
+                    return;
+                }
+            }
+            if (destroyed || !m_workers.execute(this))
+            {
+                release();
+            }
+        }//run
+
+        private void release()
+        {
+            m_out.close();
+            if (m_session != null)
+            {
+                m_session.close();
+            }
+        }//release
+
+        private boolean login()
+        {
+            Object obj;
+            if ((obj = m_services.getCommandProcessor(ServiceMediator.NO_WAIT)) != null)
+            {
+                CommandProcessor cp = (CommandProcessor) obj;
+                m_session = cp.createSession(new ByteArrayInputStream(new byte[0]), m_out, m_out);
+            }
+            else if (m_services.getShellService(ServiceMediator.NO_WAIT) != null)
+            {
+                // Print welcome banner.
+                m_out.println();
+                m_out.println("Felix Remote Shell Console:");
+                m_out.println("============================");
+                m_out.println("");
+            }
+            else
+            {
+                m_out.println("No shell services available...exiting.");
+                m_out.println("Good Bye!");
+                return false;
+            }
+
+            m_out.print(getPrompt());
+            return true;
+        }//login
+
+        private String getPrompt()
+        {
+            if (m_session != null)
+            {
+                Object prompt = m_session.get("prompt");
+                return (prompt != null) ? prompt.toString() : "g! ";
+            }
+            return "-> ";
+        }//getPrompt
+
+        /**
+         * Executes a command line with the shell of this connection.
+         *
+         * @return false if the connection is to be closed.
+         */
+        private boolean execute(String line)
+        {
+            if (line.length() == 0)
+            {
+                return true;
+            }
+
+            if (m_session != null)
+            {
+                try
+                {
+                    Object result = m_session.execute(line);
+                    m_session.put("_", result);
+                    if (result != null && !Boolean.FALSE.equals(m_session.get(".Gogo.format")))
+                    {
+                        m_out.println(String.valueOf(m_session.format(result, Converter.INSPECT)));
+                    }
+                }
+                catch (Exception ex)
+                {
+                    if (ex instanceof IllegalStateException && "session is closed".equals(ex.getMessage()))
+                    {
+                        return false;
+                    }
+                    m_session.put("exception", ex);
+                    m_out.println("gogo: " + ex.getClass().getName() + ": " + ex.getMessage());
+                }
+                return true;
+            }
+
+            if (line.equalsIgnoreCase("exit") || line.equalsIgnoreCase("disconnect"))
+            {
+                return false;
+            }
+
+            ShellService shs = (ShellService) m_services.getShellService(ServiceMediator.NO_WAIT);
+            if (shs == null)
+            {
+                m_out.println("No shell services available...exiting.");
+                return false;
+            }
+            try
+            {
+                shs.executeCommand(line, m_out, m_out);
+            }
+            catch (Exception ex)
+            {
+                m_services.error("Multiplexer.Connection::execute()", ex);
+            }
+            return true;
+        }//execute
+
+        private void changed()
+        {
+            synchronized (m_updates)
+            {
+                m_updates.addLast(this);
+            }
+            m_selector.wakeup();
+        }//changed
+
+        /**
+         * Queues output for the listener thread to write. If blocking, waits
+         * while too much output is queued.
+         */
+        void enqueue(byte[] bytes, boolean block)
+        {
+            synchronized (this)
+            {
+                if (m_closing)
+                {
+                    return;
+                }
+                m_output.addLast(ByteBuffer.wrap(bytes));
+                m_queuedOutput += bytes.length;
+            }
+            m_lastActivity = System.currentTimeMillis();
+            changed();
+
+            if (block)
+            {
+                synchronized (this)
+                {
+                    while (!m_closing && m_queuedOutput > MAX_QUEUED_OUTPUT)
+                    {
+                        try
+                        {
+                            wait();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        }//enqueue
+
+        synchronized boolean isClosing()
+        {
+            return m_closing;
+        }//isClosing
+
+        synchronized boolean isDestroyed()
+        {
+            return m_destroyed;
+        }//isDestroyed
+
+        /**
+         * Passes the output to the listener thread. As the
+         * {@link TerminalPrintStream} flushes on every print, no buffering
+         * is done here.
+         */
+        private class ConnectionOutputStream extends OutputStream
+        {
+            public void write(int b) throws IOException
+            {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                if (isClosing())
+                {
+                    throw new IOException("connection closed");
+                }
+                byte[] bytes = new byte[len];
+                System.arraycopy(b, off, bytes, 0, len);
+                enqueue(bytes, true);
+            }
+        }//inner class ConnectionOutputStream
+    }//inner class Connection
+}//class Multiplexer
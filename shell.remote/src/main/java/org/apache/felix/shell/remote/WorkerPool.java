@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.shell.remote;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Implements a fixed number of worker threads executing jobs in the order
+ * they are submitted.
+ */
+class WorkerPool
+{
+    private final ServiceMediator m_services;
+    private final LinkedList m_jobs;
+    private final Thread[] m_workers;
+    private boolean m_stopped;
+
+    public WorkerPool(ServiceMediator services, String name, int size)
+    {
+        m_services = services;
+        m_jobs = new LinkedList();
+        m_workers = new Thread[Math.max(1, size)];
+        for (int i = 0; i < m_workers.length; i++)
+        {
+            m_workers[i] = new Thread(new Worker(), name + " " + (i + 1));
+            m_workers[i].setDaemon(true);
+            m_workers[i].start();
+        }
+    }//constructor
+
+    /**
+     * Queues the job for execution by the next idle worker. Jobs submitted
+     * after the pool has been stopped are rejected.
+     *
+     * @param job the job to execute.
+     * @return false if the pool has been stopped.
+     */
+    public synchronized boolean execute(Runnable job)
+    {
+        if (m_stopped)
+        {
+            return false;
+        }
+        m_jobs.addLast(job);
+        notify();
+        return true;
+    }//execute
+
+    /**
+     * Stops the workers once their current jobs complete. The workers are
+     * interrupted.
+     *
+     * @return the jobs still queued, which are not executed.
+     */
+    public List stop()
+    {
+        List jobs;
+        synchronized (this)
+        {
+            m_stopped = true;
+            jobs = new LinkedList(m_jobs);
+            m_jobs.clear();
+            notifyAll();
+        }
+        for (int i = 0; i < m_workers.length; i++)
+        {
+            m_workers[i].interrupt();
+        }
+        return jobs;
+    }//stop
+
+    private synchronized Runnable next()
+    {
+        while (m_jobs.isEmpty() && !m_stopped)
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException ex)
+            {
+                // check whether stopped
+            }
+        }
+        return m_stopped ? null : (Runnable) m_jobs.removeFirst();
+    }//next
+
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            Runnable job;
+            while ((job = next()) != null)
+            {
+                try
+                {
+                    job.run();
+                }
+                catch (Throwable t)
+                {
+                    m_services.error("WorkerPool.Worker::run()", t);
+                }
+            }
+        }//run
+    }//inner class Worker
+}//class WorkerPool
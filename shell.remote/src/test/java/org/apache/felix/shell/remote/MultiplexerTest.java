@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.shell.remote;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.service.command.CommandProcessor;
+import org.apache.felix.service.command.CommandSession;
+import org.apache.felix.shell.ShellService;
+
+public class MultiplexerTest extends TestCase
+{
+    private final Object m_lock = new Object();
+    private boolean m_running;
+    private boolean m_closed;
+    private boolean m_closedWhileRunning;
+
+    private Object m_shell;
+    private Object m_processor;
+    private Multiplexer m_multiplexer;
+    private Thread m_thread;
+
+    protected void tearDown() throws Exception
+    {
+        stop();
+    }
+
+    public void testAccept() throws Exception
+    {
+        m_shell = createShellService();
+        start(2, 2);
+
+        Socket socket = connect();
+        String output = read(socket, "-> ");
+        assertTrue(output.indexOf("Felix Remote Shell Console:") >= 0);
+        socket.close();
+    }
+
+    public void testEcho() throws Exception
+    {
+        m_shell = createShellService();
+        start(2, 2);
+
+        Socket socket = connect();
+        read(socket, "-> ");
+        send(socket, "echo hello\r\n");
+        assertTrue(read(socket, "-> ").indexOf("echo hello") >= 0);
+        socket.close();
+    }
+
+    public void testQuit() throws Exception
+    {
+        m_shell = createShellService();
+        start(2, 2);
+
+        Socket socket = connect();
+        read(socket, "-> ");
+        send(socket, "exit\r\n");
+        assertTrue(read(socket, null).endsWith("Good Bye!\r\n"));
+        socket.close();
+    }
+
+    public void testSlowClientUnderConnectionCap() throws Exception
+    {
+        m_shell = createShellService();
+        start(2, 2);
+
+        // the client does not take the output, its command blocks
+        Socket slow = connect();
+        read(slow, "-> ");
+        send(slow, "flood\r\n");
+
+        Socket other = connect();
+        read(other, "-> ");
+        send(other, "echo hello\r\n");
+        assertTrue(read(other, "-> ").indexOf("echo hello") >= 0);
+
+        Socket refused = connect();
+        assertTrue(read(refused, null).startsWith("Connection refused."));
+        refused.close();
+
+        other.close();
+        slow.close();
+    }
+
+    public void testSessionClosedAfterCommand() throws Exception
+    {
+        m_processor = createCommandProcessor();
+        start(2, 2);
+
+        Socket socket = connect();
+        read(socket, "g! ");
+        send(socket, "sleep 500\r\n");
+        synchronized (m_lock)
+        {
+            long end = System.currentTimeMillis() + 5000;
+            while (!m_running && System.currentTimeMillis() < end)
+            {
+                m_lock.wait(100);
+            }
+            assertTrue(m_running);
+        }
+
+        // terminates the connection while its command is executed
+        stop();
+        synchronized (m_lock)
+        {
+            long end = System.currentTimeMillis() + 5000;
+            while (!m_closed && System.currentTimeMillis() < end)
+            {
+                m_lock.wait(100);
+            }
+            assertTrue(m_closed);
+            assertFalse(m_closedWhileRunning);
+        }
+        socket.close();
+    }
+
+    private void start(int maxConnections, int workers) throws IOException
+    {
+        ServiceMediator services = new ServiceMediator(WorkerPoolTest.createContext())
+        {
+            public Object getCommandProcessor(long wait)
+            {
+                return m_processor;
+            }
+
+            public Object getShellService(long wait)
+            {
+                return m_shell;
+            }
+        };
+        m_multiplexer = new Multiplexer(services, "127.0.0.1", 0, maxConnections, workers, 0);
+        m_thread = new Thread(m_multiplexer, "telnetconsole.Listener");
+        m_thread.start();
+    }
+
+    private void stop() throws InterruptedException
+    {
+        if (m_multiplexer != null)
+        {
+            m_multiplexer.close();
+            m_thread.join();
+            m_multiplexer = null;
+        }
+    }
+
+    private Object createShellService()
+    {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ShellService.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (!method.getName().equals("executeCommand"))
+                    {
+                        return null;
+                    }
+                    PrintStream out = (PrintStream) args[1];
+                    if (args[0].equals("flood"))
+                    {
+                        for (int i = 0; i < 16 * 1024 && !out.checkError(); i++)
+                        {
+                            out.println("0123456789012345678901234567890123456789012345678901234567890123");
+                        }
+                    }
+                    else
+                    {
+                        out.println(args[0]);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private Object createCommandProcessor()
+    {
+        final CommandSession session = (CommandSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] { CommandSession.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Exception
+                {
+                    if (method.getName().equals("execute"))
+                    {
+                        String line = args[0].toString();
+                        synchronized (m_lock)
+                        {
+                            m_running = true;
+                            m_lock.notifyAll();
+                        }
+                        try
+                        {
+                            Thread.sleep(Long.parseLong(line.substring(6)));
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            // stopped
+                        }
+                        finally
+                        {
+                            synchronized (m_lock)
+                            {
+                                m_running = false;
+                            }
+                        }
+                    }
+                    else if (method.getName().equals("close"))
+                    {
+                        synchronized (m_lock)
+                        {
+                            m_closed = true;
+                            m_closedWhileRunning = m_running;
+                            m_lock.notifyAll();
+                        }
+                    }
+                    return null;
+                }
+            });
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { CommandProcessor.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return session;
+                }
+            });
+    }
+
+    private Socket connect() throws IOException
+    {
+        Socket socket = new Socket("127.0.0.1", m_multiplexer.getLocalPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String text) throws IOException
+    {
+        socket.getOutputStream().write(text.getBytes());
+        socket.getOutputStream().flush();
+    }
+
+    /**
+     * Reads until the expected text or the end of the input.
+     */
+    private static String read(Socket socket, String expected) throws IOException
+    {
+        StringBuffer buf = new StringBuffer();
+        InputStream in = socket.getInputStream();
+        int c;
+        while ((expected == null || !buf.toString().endsWith(expected)) && (c = in.read()) >= 0)
+        {
+            buf.append((char) c);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.shell.remote;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class WorkerPoolTest extends TestCase
+{
+    private final Object m_lock = new Object();
+    private int m_running;
+    private int m_maxRunning;
+    private int m_done;
+
+    private WorkerPool m_pool;
+
+    protected void tearDown()
+    {
+        if (m_pool != null)
+        {
+            m_pool.stop();
+        }
+    }
+
+    public void testExecute() throws Exception
+    {
+        m_pool = new WorkerPool(createServices(), "test", 2);
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(m_pool.execute(new Job(0)));
+        }
+        waitForJobs(10);
+    }
+
+    public void testSizeCapsConcurrentJobs() throws Exception
+    {
+        m_pool = new WorkerPool(createServices(), "test", 2);
+        for (int i = 0; i < 6; i++)
+        {
+            m_pool.execute(new Job(100));
+        }
+        waitForJobs(6);
+        synchronized (m_lock)
+        {
+            assertEquals(2, m_maxRunning);
+        }
+    }
+
+    public void testStop() throws Exception
+    {
+        m_pool = new WorkerPool(createServices(), "test", 1);
+        m_pool.execute(new Job(5000));
+        Job queued = new Job(0);
+        m_pool.execute(queued);
+        waitForRunning();
+
+        // the running job is interrupted, the queued one is returned
+        List jobs = m_pool.stop();
+        assertEquals(1, jobs.size());
+        assertSame(queued, jobs.get(0));
+        assertFalse(m_pool.execute(new Job(0)));
+        waitForJobs(1);
+    }
+
+    static ServiceMediator createServices()
+    {
+        return new ServiceMediator(createContext());
+    }
+
+    static BundleContext createContext()
+    {
+        BundleContext context = (BundleContext) Mockito.mock(BundleContext.class);
+        Bundle bundle = (Bundle) Mockito.mock(Bundle.class);
+        Mockito.when(context.getBundle()).thenReturn(bundle);
+        return context;
+    }
+
+    private void waitForJobs(int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        synchronized (m_lock)
+        {
+            while (m_done < count && System.currentTimeMillis() < end)
+            {
+                m_lock.wait(100);
+            }
+            assertEquals(count, m_done);
+        }
+    }
+
+    private void waitForRunning() throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        synchronized (m_lock)
+        {
+            while (m_running == 0 && System.currentTimeMillis() < end)
+            {
+                m_lock.wait(100);
+            }
+            assertEquals(1, m_running);
+        }
+    }
+
+    private class Job implements Runnable
+    {
+        private final long m_sleep;
+
+        Job(long sleep)
+        {
+            m_sleep = sleep;
+        }
+
+        public void run()
+        {
+            synchronized (m_lock)
+            {
+                m_running++;
+                m_maxRunning = Math.max(m_maxRunning, m_running);
+                m_lock.notifyAll();
+            }
+            try
+            {
+                Thread.sleep(m_sleep);
+            }
+            catch (InterruptedException ex)
+            {
+                // stopped
+            }
+            finally
+            {
+                synchronized (m_lock)
+                {
+                    m_running--;
+                    m_done++;
+                    m_lock.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.felix.inventory.InventoryPrinter;
+import org.apache.felix.threaddump.internal.jdk5.SamplingProfiler;
+import org.apache.felix.threaddump.internal.jdk5.ThreadProfileInventoryPrinter;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -29,7 +31,9 @@ import org.osgi.framework.ServiceRegistration;
 
 /**
  * OSGi bundle activator which takes care of (un)binding the
- * Thread Dump Inventory Printer service.
+ * Thread Dump Inventory Printer service and, if enabled, of
+ * running the sampling profiler and (un)binding the Thread
+ * Profile Inventory Printer service.
  */
 public final class ThreadDumpActivator implements BundleActivator
 {
@@ -44,11 +48,62 @@ public final class ThreadDumpActivator implements BundleActivator
      */
     private static final String SERVICE_NAME = "threaddump";
 
+    /**
+     * The profile service description.
+     */
+    private static final String PROFILE_SERVICE_TITLE = "Apache Felix Thread Profile";
+
+    /**
+     * The profile service identifier.
+     */
+    private static final String PROFILE_SERVICE_NAME = "threadprofile";
+
+    /**
+     * The sampling interval in milliseconds, sampling is disabled unless set
+     * to a positive value.
+     */
+    private static final String PROFILER_INTERVAL = "felix.threaddump.profiler.interval";
+
+    /**
+     * The time in seconds covered by each window of samples.
+     */
+    private static final String PROFILER_WINDOW = "felix.threaddump.profiler.window";
+
+    /**
+     * The number of windows of samples kept.
+     */
+    private static final String PROFILER_WINDOWS = "felix.threaddump.profiler.windows";
+
+    /**
+     * The maximum number of frames sampled per thread.
+     */
+    private static final String PROFILER_DEPTH = "felix.threaddump.profiler.depth";
+
+    /**
+     * The <code>java.specification.version</code> string constant.
+     */
+    private static final String JAVA_SPECIFICATION_VERSION = "java.specification.version";
+
+    /**
+     * The <code>1.5</code> string constant.
+     */
+    private static final String JDK15_SPECIFICATION_VERSION = "1.5";
+
     /**
      * The ThreadDumper ServiceRegistration reference.
      */
     private ServiceRegistration threadDumperRegistration;
 
+    /**
+     * The sampling profiler, <code>null</code> if not enabled.
+     */
+    private SamplingProfiler profiler;
+
+    /**
+     * The ThreadProfile ServiceRegistration reference.
+     */
+    private ServiceRegistration threadProfileRegistration;
+
     public void start(BundleContext context)
     {
         final Dictionary props = new Hashtable();
@@ -59,11 +114,57 @@ public final class ThreadDumpActivator implements BundleActivator
 
         threadDumperRegistration = context.registerService(InventoryPrinter.SERVICE, new ThreadDumpInventoryPrinter(),
             props);
+
+        final long interval = getProperty(context, PROFILER_INTERVAL, 0);
+        if (interval > 0
+            && JDK15_SPECIFICATION_VERSION.compareToIgnoreCase(System.getProperty(JAVA_SPECIFICATION_VERSION)) <= 0)
+        {
+            profiler = new SamplingProfiler(context, interval, getProperty(context, PROFILER_WINDOW, 60) * 1000,
+                (int) getProperty(context, PROFILER_WINDOWS, 15), (int) getProperty(context, PROFILER_DEPTH, 64));
+            profiler.start();
+
+            final Dictionary profileProps = new Hashtable();
+            profileProps.put(Constants.SERVICE_VENDOR, context.getBundle().getHeaders(Constants.BUNDLE_VENDOR));
+            profileProps.put(Constants.SERVICE_DESCRIPTION, PROFILE_SERVICE_TITLE);
+            profileProps.put(InventoryPrinter.NAME, PROFILE_SERVICE_NAME);
+            profileProps.put(InventoryPrinter.TITLE, PROFILE_SERVICE_TITLE);
+
+            threadProfileRegistration = context.registerService(InventoryPrinter.SERVICE,
+                new ThreadProfileInventoryPrinter(profiler), profileProps);
+        }
     }
 
     public void stop(BundleContext context)
     {
+        if (threadProfileRegistration != null)
+        {
+            threadProfileRegistration.unregister();
+            threadProfileRegistration = null;
+        }
+        if (profiler != null)
+        {
+            profiler.stop();
+            profiler = null;
+        }
+
         threadDumperRegistration.unregister();
     }
 
+    private static long getProperty(BundleContext context, String name, long defaultValue)
+    {
+        final String value = context.getProperty(name);
+        if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                // fall back to default
+            }
+        }
+        return defaultValue;
+    }
+
 }
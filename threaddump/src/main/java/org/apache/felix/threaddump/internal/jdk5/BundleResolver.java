@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Finds the bundle owning a class given by name, as found in a stack trace.
+ * <p>
+ * Stack traces only carry class names, so the class loader of the class
+ * cannot be asked. Instead classes found on the class path of the framework
+ * are attributed to the system bundle and other classes to the first bundle
+ * containing the class file. Results are cached until bundles are installed,
+ * updated or uninstalled.
+ */
+final class BundleResolver implements BundleListener
+{
+
+    /**
+     * Maximum number of cached class names, the cache is cleared when exceeded.
+     */
+    private static final int MAX_CACHED_CLASSES = 20000;
+
+    private static final Object NOT_FOUND = new Object();
+
+    private final BundleContext context;
+
+    private final Map/* <String, Bundle|NOT_FOUND> */bundlesByClass = new HashMap();
+
+    BundleResolver(BundleContext context)
+    {
+        this.context = context;
+    }
+
+    /**
+     * Returns the bundle containing the class or <code>null</code> if no
+     * bundle contains the class, e.g. for generated classes or classes
+     * embedded in nested archives.
+     */
+    Bundle getBundle(String className)
+    {
+        synchronized (bundlesByClass)
+        {
+            Object bundle = bundlesByClass.get(className);
+            if (bundle == null)
+            {
+                if (bundlesByClass.size() >= MAX_CACHED_CLASSES)
+                {
+                    bundlesByClass.clear();
+                }
+
+                bundle = findBundle(className);
+                bundlesByClass.put(className, bundle != null ? bundle : NOT_FOUND);
+            }
+            return bundle != NOT_FOUND ? (Bundle) bundle : null;
+        }
+    }
+
+    public void bundleChanged(BundleEvent event)
+    {
+        switch (event.getType())
+        {
+            case BundleEvent.INSTALLED:
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNINSTALLED:
+                synchronized (bundlesByClass)
+                {
+                    bundlesByClass.clear();
+                }
+                break;
+        }
+    }
+
+    private Bundle findBundle(String className)
+    {
+        // nested classes are contained in the class file of the outer class
+        int nested = className.indexOf('$');
+        String path = ((nested > 0) ? className.substring(0, nested) : className).replace('.', '/') + ".class";
+
+        if (ClassLoader.getSystemResource(path) != null)
+        {
+            return context.getBundle(0);
+        }
+
+        Bundle[] bundles = context.getBundles();
+        for (int i = 0; bundles != null && i < bundles.length; i++)
+        {
+            try
+            {
+                if (bundles[i].getBundleId() != 0 && bundles[i].getEntry(path) != null)
+                {
+                    return bundles[i];
+                }
+            }
+            catch (IllegalStateException ise)
+            {
+                // bundle has been uninstalled in the meantime
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The samples taken by the {@link SamplingProfiler} during a period of time,
+ * aggregated by bundle, by class and method within the bundle and by
+ * collapsed stack.
+ */
+final class ProfileWindow
+{
+
+    /**
+     * Maximum number of distinct collapsed stacks kept per window. Samples of
+     * further stacks are only accounted for by bundle.
+     */
+    private static final int MAX_STACKS = 10000;
+
+    /**
+     * Collapsed stack accounting for the samples of stacks exceeding
+     * {@link #MAX_STACKS}.
+     */
+    static final String OTHER_STACKS = "[other stacks]";
+
+    private static final Comparator BY_CPU = new Comparator()
+    {
+        public int compare(Object o1, Object o2)
+        {
+            long cpu1 = ((Counter) ((Map.Entry) o1).getValue()).cpuNanos;
+            long cpu2 = ((Counter) ((Map.Entry) o2).getValue()).cpuNanos;
+            return (cpu1 < cpu2) ? 1 : ((cpu1 == cpu2) ? 0 : -1);
+        }
+    };
+
+    private final long start;
+
+    private long end;
+
+    private final Counter total = new Counter();
+
+    private final Map/* <Long, BundleProfile> */bundles = new HashMap();
+
+    private final Map/* <String, Counter> */stacks = new HashMap();
+
+    ProfileWindow(long start)
+    {
+        this.start = start;
+        this.end = start;
+    }
+
+    long getStart()
+    {
+        return start;
+    }
+
+    long getEnd()
+    {
+        return end;
+    }
+
+    Counter getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Accounts for a sample.
+     *
+     * @param bundleId the id of the bundle the sample is attributed to, -1 if unknown
+     * @param bundleName the name of that bundle
+     * @param className the class of the topmost frame of that bundle
+     * @param method the method of the topmost frame of that bundle
+     * @param stack the collapsed stack
+     * @param cpuNanos the CPU time used by the thread since the last sample
+     */
+    void add(long bundleId, String bundleName, String className, String method, String stack, long cpuNanos)
+    {
+        total.add(cpuNanos, 1);
+
+        Long key = Long.valueOf(bundleId);
+        BundleProfile bundle = (BundleProfile) bundles.get(key);
+        if (bundle == null)
+        {
+            bundle = new BundleProfile(bundleId, bundleName);
+            bundles.put(key, bundle);
+        }
+        bundle.total.add(cpuNanos, 1);
+        counter(bundle.classes, className).add(cpuNanos, 1);
+        counter(bundle.methods, method).add(cpuNanos, 1);
+
+        if (stacks.size() >= MAX_STACKS && !stacks.containsKey(stack))
+        {
+            stack = OTHER_STACKS;
+        }
+        counter(stacks, stack).add(cpuNanos, 1);
+    }
+
+    /**
+     * Adds the samples of another window to this window.
+     */
+    void addAll(ProfileWindow other)
+    {
+        end = Math.max(end, other.end);
+        total.add(other.total);
+        for (Iterator bi = other.bundles.values().iterator(); bi.hasNext();)
+        {
+            BundleProfile otherBundle = (BundleProfile) bi.next();
+            Long key = Long.valueOf(otherBundle.id);
+            BundleProfile bundle = (BundleProfile) bundles.get(key);
+            if (bundle == null)
+            {
+                bundle = new BundleProfile(otherBundle.id, otherBundle.name);
+                bundles.put(key, bundle);
+            }
+            bundle.total.add(otherBundle.total);
+            addAll(bundle.classes, otherBundle.classes);
+            addAll(bundle.methods, otherBundle.methods);
+        }
+        addAll(stacks, other.stacks);
+    }
+
+    /**
+     * Marks the end of the time covered by this window.
+     */
+    void setEnd(long end)
+    {
+        this.end = end;
+    }
+
+    /**
+     * Returns the bundle profiles ordered by decreasing CPU time.
+     */
+    List/* <BundleProfile> */getBundles()
+    {
+        List result = new ArrayList(bundles.values());
+        Collections.sort(result, new Comparator()
+        {
+            public int compare(Object o1, Object o2)
+            {
+                long cpu1 = ((BundleProfile) o1).total.cpuNanos;
+                long cpu2 = ((BundleProfile) o2).total.cpuNanos;
+                return (cpu1 < cpu2) ? 1 : ((cpu1 == cpu2) ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the collapsed stacks ordered by decreasing CPU time.
+     */
+    List/* <Map.Entry<String, Counter>> */getStacks()
+    {
+        return sorted(stacks);
+    }
+
+    static List/* <Map.Entry<String, Counter>> */sorted(Map/* <String, Counter> */counters)
+    {
+        List result = new ArrayList(counters.entrySet());
+        Collections.sort(result, BY_CPU);
+        return result;
+    }
+
+    private static Counter counter(Map/* <String, Counter> */counters, String key)
+    {
+        Counter counter = (Counter) counters.get(key);
+        if (counter == null)
+        {
+            counter = new Counter();
+            counters.put(key, counter);
+        }
+        return counter;
+    }
+
+    private static void addAll(Map/* <String, Counter> */target, Map/* <String, Counter> */source)
+    {
+        for (Iterator ei = source.entrySet().iterator(); ei.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) ei.next();
+            counter(target, (String) entry.getKey()).add((Counter) entry.getValue());
+        }
+    }
+
+    /**
+     * CPU time and number of samples.
+     */
+    static final class Counter
+    {
+
+        long cpuNanos;
+
+        long samples;
+
+        void add(long cpuNanos, long samples)
+        {
+            this.cpuNanos += cpuNanos;
+            this.samples += samples;
+        }
+
+        void add(Counter other)
+        {
+            add(other.cpuNanos, other.samples);
+        }
+
+    }
+
+    /**
+     * The samples attributed to a bundle.
+     */
+    static final class BundleProfile
+    {
+
+        final long id;
+
+        final String name;
+
+        final Counter total = new Counter();
+
+        final Map/* <String, Counter> */classes = new HashMap();
+
+        final Map/* <String, Counter> */methods = new HashMap();
+
+        BundleProfile(long id, String name)
+        {
+            this.id = id;
+            this.name = name;
+        }
+
+    }
+
+}
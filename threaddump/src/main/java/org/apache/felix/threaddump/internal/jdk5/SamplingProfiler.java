@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Periodically samples the stacks of all threads together with the CPU time
+ * the threads used since the previous sample.
+ * <p>
+ * The CPU time of a sample is attributed to the bundle of the topmost frame
+ * which does not belong to the system bundle, such that time spent in JDK or
+ * framework code is accounted to the bundle calling it. Samples are
+ * aggregated into a bounded ring of time windows, so the profile always
+ * covers the most recent period of time.
+ * <p>
+ * Measuring thread CPU time is enabled while the profiler runs and disabled
+ * again when it stops, if it was disabled before. If the JVM does not support
+ * measuring thread CPU time, each sample of a runnable thread is accounted
+ * with the sampling interval instead.
+ */
+public final class SamplingProfiler implements Runnable
+{
+
+    private static final String THREAD_NAME = "Apache Felix Thread Sampler";
+
+    private static final String UNKNOWN_BUNDLE = "unknown";
+
+    private final BundleContext context;
+
+    private final BundleResolver resolver;
+
+    private final ThreadMXBean threadMXBean;
+
+    private volatile boolean cpuTimeSupported;
+
+    /**
+     * Whether measuring thread CPU time has been enabled by {@link #start()}.
+     */
+    private boolean cpuTimeEnabled;
+
+    private final long interval;
+
+    private final long windowLength;
+
+    private final int maxDepth;
+
+    /**
+     * Ring of windows, <code>current</code> is the newest one.
+     */
+    private final ProfileWindow[] windows;
+
+    private int current;
+
+    /**
+     * The CPU times of the threads at the last sample, only accessed by the
+     * sampling thread.
+     */
+    private Map/* <Long, Long> */cpuTimes = new HashMap();
+
+    private volatile Thread thread;
+
+    /**
+     * @param context the bundle context used to find the bundles of classes
+     * @param interval the sampling interval in milliseconds
+     * @param windowLength the time covered by a window in milliseconds
+     * @param windowCount the number of windows kept
+     * @param maxDepth the maximum number of frames sampled per thread
+     */
+    public SamplingProfiler(BundleContext context, long interval, long windowLength, int windowCount, int maxDepth)
+    {
+        this.context = context;
+        this.resolver = new BundleResolver(context);
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.interval = interval;
+        this.windowLength = windowLength;
+        this.windows = new ProfileWindow[Math.max(1, windowCount)];
+        this.maxDepth = maxDepth;
+    }
+
+    public void start()
+    {
+        cpuTimeSupported = enableCpuTime();
+        context.addBundleListener(resolver);
+
+        Thread t = new Thread(this, THREAD_NAME);
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    public void stop()
+    {
+        Thread t = thread;
+        thread = null;
+        if (t != null)
+        {
+            t.interrupt();
+        }
+
+        context.removeBundleListener(resolver);
+
+        if (cpuTimeEnabled)
+        {
+            cpuTimeEnabled = false;
+            try
+            {
+                threadMXBean.setThreadCpuTimeEnabled(false);
+            }
+            catch (SecurityException se)
+            {
+                // leave it enabled
+            }
+        }
+    }
+
+    public void run()
+    {
+        Thread self = Thread.currentThread();
+        while (thread == self)
+        {
+            try
+            {
+                sample(self.getId());
+            }
+            catch (IllegalStateException ise)
+            {
+                // bundle context no longer valid, stop() will follow
+            }
+
+            try
+            {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException ie)
+            {
+                // check whether stopped
+            }
+        }
+    }
+
+    long getInterval()
+    {
+        return interval;
+    }
+
+    long getWindowLength()
+    {
+        return windowLength;
+    }
+
+    boolean isCpuTimeSupported()
+    {
+        return cpuTimeSupported;
+    }
+
+    /**
+     * Returns all samples of the windows currently kept merged into a single
+     * window.
+     */
+    synchronized ProfileWindow getProfile()
+    {
+        ProfileWindow profile = null;
+        for (int i = 1; i <= windows.length; i++)
+        {
+            ProfileWindow window = windows[(current + i) % windows.length];
+            if (window != null)
+            {
+                if (profile == null)
+                {
+                    profile = new ProfileWindow(window.getStart());
+                }
+                profile.addAll(window);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Enables measuring thread CPU time unless already enabled.
+     *
+     * @return whether thread CPU time can be measured
+     */
+    private boolean enableCpuTime()
+    {
+        if (!threadMXBean.isThreadCpuTimeSupported())
+        {
+            return false;
+        }
+        if (!threadMXBean.isThreadCpuTimeEnabled())
+        {
+            try
+            {
+                threadMXBean.setThreadCpuTimeEnabled(true);
+                cpuTimeEnabled = true;
+            }
+            catch (SecurityException se)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sample(long selfId)
+    {
+        long[] ids = threadMXBean.getAllThreadIds();
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(ids, maxDepth);
+        long now = System.currentTimeMillis();
+
+        Map/* <Long, Long> */newCpuTimes = new HashMap();
+        for (int i = 0; i < infos.length; i++)
+        {
+            ThreadInfo info = infos[i];
+            if (info == null || ids[i] == selfId)
+            {
+                continue;
+            }
+
+            long cpuNanos;
+            if (cpuTimeSupported)
+            {
+                long cpuTime = threadMXBean.getThreadCpuTime(ids[i]);
+                if (cpuTime < 0)
+                {
+                    // thread terminated in the meantime
+                    continue;
+                }
+
+                Long id = Long.valueOf(ids[i]);
+                newCpuTimes.put(id, Long.valueOf(cpuTime));
+                Long previous = (Long) cpuTimes.get(id);
+                cpuNanos = (previous != null) ? cpuTime - previous.longValue() : 0;
+            }
+            else
+            {
+                cpuNanos = (info.getThreadState() == Thread.State.RUNNABLE) ? interval * 1000000L : 0;
+            }
+
+            if (cpuNanos > 0 && info.getStackTrace().length > 0)
+            {
+                record(now, info.getStackTrace(), cpuNanos);
+            }
+        }
+
+        // forget about terminated threads
+        cpuTimes = newCpuTimes;
+    }
+
+    void record(long now, StackTraceElement[] trace, long cpuNanos)
+    {
+        Bundle[] bundles = new Bundle[trace.length];
+        int attributed = -1;
+        for (int i = 0; i < trace.length; i++)
+        {
+            bundles[i] = resolver.getBundle(trace[i].getClassName());
+            if (attributed < 0 && bundles[i] != null && bundles[i].getBundleId() != 0)
+            {
+                attributed = i;
+            }
+        }
+        if (attributed < 0)
+        {
+            attributed = 0;
+        }
+
+        // collapsed stack from the root to the leaf frame
+        StringBuffer stack = new StringBuffer();
+        for (int i = trace.length - 1; i >= 0; i--)
+        {
+            appendFrame(stack, trace[i]);
+            stack.append(" [").append(getName(bundles[i])).append(']');
+            if (i > 0)
+            {
+                stack.append(';');
+            }
+        }
+
+        StackTraceElement frame = trace[attributed];
+        Bundle bundle = bundles[attributed];
+        StringBuffer method = appendFrame(new StringBuffer(), frame);
+
+        synchronized (this)
+        {
+            ProfileWindow window = windows[current];
+            if (window == null || now >= window.getStart() + windowLength)
+            {
+                current = (current + 1) % windows.length;
+                window = new ProfileWindow(now);
+                windows[current] = window;
+            }
+
+            window.add((bundle != null) ? bundle.getBundleId() : -1, getName(bundle), frame.getClassName(),
+                method.toString(), stack.toString(), cpuNanos);
+            window.setEnd(now);
+        }
+    }
+
+    private static StringBuffer appendFrame(StringBuffer buf, StackTraceElement frame)
+    {
+        return buf.append(frame.getClassName()).append('.').append(frame.getMethodName());
+    }
+
+    private static String getName(Bundle bundle)
+    {
+        if (bundle == null)
+        {
+            return UNKNOWN_BUNDLE;
+        }
+
+        String name = bundle.getSymbolicName();
+        return (name != null) ? name : String.valueOf(bundle.getBundleId());
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.InventoryPrinter;
+import org.apache.felix.inventory.ZipAttachmentProvider;
+import org.apache.felix.threaddump.internal.jdk5.ProfileWindow.BundleProfile;
+import org.apache.felix.threaddump.internal.jdk5.ProfileWindow.Counter;
+
+/**
+ * Prints the profile collected by the {@link SamplingProfiler}: the CPU time
+ * by bundle and the hot classes and methods of the busiest bundles.
+ * <p>
+ * The configuration ZIP additionally contains the sampled stacks in the
+ * collapsed format understood by flame graph tools, one line per stack with
+ * the frames from the root to the leaf separated by semicolons, followed by
+ * the CPU time in microseconds.
+ */
+public final class ThreadProfileInventoryPrinter implements InventoryPrinter, ZipAttachmentProvider
+{
+
+    /**
+     * Number of bundles whose hot classes and methods are printed.
+     */
+    private static final int MAX_BUNDLES = 20;
+
+    /**
+     * Number of hot classes and methods printed per bundle.
+     */
+    private static final int MAX_ENTRIES = 10;
+
+    private static final String COLLAPSED_STACKS = "threadprofile-collapsed.txt";
+
+    private static final String HEADER = "Thread profile sampled every {0} ms, CPU time {1,choice,0#estimated from runnable threads|1#measured}";
+
+    private static final String PERIOD = "{0,date,yyyy-MM-dd HH:mm:ss} - {1,date,yyyy-MM-dd HH:mm:ss} (windows of {2} s)";
+
+    private static final String TOTAL = "Total: {0} ms CPU time in {1} samples";
+
+    private static final String ROW = "{0} {1} {2}  {3}";
+
+    private final SamplingProfiler profiler;
+
+    public ThreadProfileInventoryPrinter(SamplingProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void print(PrintWriter printWriter, Format format, boolean isZip)
+    {
+        printWriter.println(MessageFormat.format(HEADER, new Object[]
+            { String.valueOf(profiler.getInterval()), new Integer(profiler.isCpuTimeSupported() ? 1 : 0) }));
+
+        ProfileWindow profile = profiler.getProfile();
+        if (profile == null)
+        {
+            printWriter.println("No samples taken yet.");
+            return;
+        }
+
+        printWriter.println(MessageFormat.format(PERIOD, new Object[]
+            { new Date(profile.getStart()), new Date(profile.getEnd()),
+                String.valueOf(profiler.getWindowLength() / 1000) }));
+        printWriter.println(MessageFormat.format(TOTAL, new Object[]
+            { String.valueOf(toMillis(profile.getTotal().cpuNanos)), String.valueOf(profile.getTotal().samples) }));
+        printWriter.println();
+
+        long total = profile.getTotal().cpuNanos;
+        List bundles = profile.getBundles();
+
+        printWriter.println("CPU time by bundle");
+        printHeader(printWriter, "Bundle");
+        for (Iterator bi = bundles.iterator(); bi.hasNext();)
+        {
+            BundleProfile bundle = (BundleProfile) bi.next();
+            printRow(printWriter, bundle.total, total, getName(bundle));
+        }
+
+        int count = 0;
+        for (Iterator bi = bundles.iterator(); bi.hasNext() && count < MAX_BUNDLES; count++)
+        {
+            BundleProfile bundle = (BundleProfile) bi.next();
+
+            printWriter.println();
+            printWriter.println("Bundle " + getName(bundle));
+            printWriter.println("Hot classes");
+            printHeader(printWriter, "Class");
+            printTop(printWriter, bundle.classes, bundle.total.cpuNanos);
+            printWriter.println("Hot methods");
+            printHeader(printWriter, "Method");
+            printTop(printWriter, bundle.methods, bundle.total.cpuNanos);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addAttachments(ZipOutputStream zos, String namePrefix) throws IOException
+    {
+        ProfileWindow profile = profiler.getProfile();
+        if (profile == null)
+        {
+            return;
+        }
+
+        zos.putNextEntry(new ZipEntry(namePrefix + COLLAPSED_STACKS));
+        // do not close the writer as it would close the ZIP stream
+        Writer writer = new OutputStreamWriter(zos, "UTF-8");
+        for (Iterator si = profile.getStacks().iterator(); si.hasNext();)
+        {
+            Map.Entry entry = (Map.Entry) si.next();
+            long micros = ((Counter) entry.getValue()).cpuNanos / 1000;
+            if (micros > 0)
+            {
+                writer.write((String) entry.getKey());
+                writer.write(' ');
+                writer.write(String.valueOf(micros));
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+        zos.closeEntry();
+    }
+
+    private static void printTop(PrintWriter printWriter, Map/* <String, Counter> */counters, long total)
+    {
+        int count = 0;
+        for (Iterator ei = ProfileWindow.sorted(counters).iterator(); ei.hasNext() && count < MAX_ENTRIES; count++)
+        {
+            Map.Entry entry = (Map.Entry) ei.next();
+            printRow(printWriter, (Counter) entry.getValue(), total, (String) entry.getKey());
+        }
+    }
+
+    private static void printHeader(PrintWriter printWriter, String name)
+    {
+        printWriter.println(MessageFormat.format(ROW, new Object[]
+            { pad("CPU ms", 10), pad("%", 6), pad("Samples", 8), name }));
+    }
+
+    private static void printRow(PrintWriter printWriter, Counter counter, long total, String name)
+    {
+        long permille = (total > 0) ? counter.cpuNanos * 1000 / total : 0;
+        printWriter.println(MessageFormat.format(ROW, new Object[]
+            { pad(String.valueOf(toMillis(counter.cpuNanos)), 10), pad((permille / 10) + "." + (permille % 10), 6),
+                pad(String.valueOf(counter.samples), 8), name }));
+    }
+
+    private static String getName(BundleProfile bundle)
+    {
+        return (bundle.id >= 0) ? bundle.name + " (" + bundle.id + ")" : bundle.name;
+    }
+
+    private static long toMillis(long nanos)
+    {
+        return nanos / 1000000L;
+    }
+
+    private static String pad(String value, int width)
+    {
+        StringBuffer buf = new StringBuffer(width);
+        for (int i = value.length(); i < width; i++)
+        {
+            buf.append(' ');
+        }
+        return buf.append(value).toString();
+    }
+
+}
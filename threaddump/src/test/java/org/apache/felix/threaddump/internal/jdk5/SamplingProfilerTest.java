@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.threaddump.internal.jdk5.ProfileWindow.BundleProfile;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class SamplingProfilerTest extends TestCase
+{
+
+    private final Bundle systemBundle = createBundle(0, "system.bundle", null);
+
+    private final Bundle bundle = createBundle(5, "test.bundle", "com/example/Worker.class");
+
+    public void test_attribution()
+    {
+        final SamplingProfiler profiler = new SamplingProfiler(createBundleContext(), 10, 1000, 2, 64);
+        final StackTraceElement[] trace = new StackTraceElement[] {
+            new StackTraceElement("java.lang.Thread", "sleep", null, -1),
+            new StackTraceElement("com.example.Worker", "work", null, -1),
+            new StackTraceElement("com.example.Worker", "run", null, -1),
+            new StackTraceElement("java.lang.Thread", "run", null, -1) };
+        profiler.record(System.currentTimeMillis(), trace, 1000);
+
+        // the time spent in the JDK is accounted to the bundle calling it
+        final List bundles = profiler.getProfile().getBundles();
+        assertEquals(1, bundles.size());
+        final BundleProfile profile = (BundleProfile) bundles.get(0);
+        assertEquals(5, profile.id);
+        assertEquals("test.bundle", profile.name);
+        assertEquals(1000, profile.total.cpuNanos);
+        assertTrue(profile.methods.containsKey("com.example.Worker.work"));
+
+        final List stacks = profiler.getProfile().getStacks();
+        assertEquals(1, stacks.size());
+        assertEquals("java.lang.Thread.run [system.bundle];com.example.Worker.run [test.bundle];"
+            + "com.example.Worker.work [test.bundle];java.lang.Thread.sleep [system.bundle]",
+            ((Map.Entry) stacks.get(0)).getKey());
+    }
+
+    public void test_sampling() throws InterruptedException
+    {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final boolean cpuTimeEnabled = threadMXBean.isThreadCpuTimeSupported()
+            && threadMXBean.isThreadCpuTimeEnabled();
+        if (cpuTimeEnabled)
+        {
+            threadMXBean.setThreadCpuTimeEnabled(false);
+        }
+
+        final Thread spinner = new Thread("spinner")
+        {
+            public void run()
+            {
+                while (!isInterrupted())
+                {
+                    Math.sqrt(Math.random());
+                }
+            }
+        };
+        final SamplingProfiler profiler = new SamplingProfiler(createBundleContext(), 10, 1000, 2, 64);
+        try
+        {
+            spinner.start();
+            profiler.start();
+            assertEquals(threadMXBean.isThreadCpuTimeSupported(), threadMXBean.isThreadCpuTimeEnabled());
+
+            final long end = System.currentTimeMillis() + 5000;
+            while (profiler.getProfile() == null && System.currentTimeMillis() < end)
+            {
+                Thread.sleep(10);
+            }
+            assertNotNull(profiler.getProfile());
+            assertTrue(profiler.getProfile().getTotal().samples > 0);
+
+            // the setting found is restored
+            profiler.stop();
+            assertFalse(threadMXBean.isThreadCpuTimeEnabled());
+        }
+        finally
+        {
+            profiler.stop();
+            spinner.interrupt();
+            if (cpuTimeEnabled)
+            {
+                threadMXBean.setThreadCpuTimeEnabled(true);
+            }
+        }
+    }
+
+    private BundleContext createBundleContext()
+    {
+        return (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { BundleContext.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ("getBundle".equals(method.getName()))
+                    {
+                        return systemBundle;
+                    }
+                    else if ("getBundles".equals(method.getName()))
+                    {
+                        return new Bundle[] { systemBundle, bundle };
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private static Bundle createBundle(final long id, final String symbolicName, final String entry)
+    {
+        return (Bundle) Proxy.newProxyInstance(SamplingProfilerTest.class.getClassLoader(),
+            new Class[] { Bundle.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Exception
+                {
+                    if ("getBundleId".equals(method.getName()))
+                    {
+                        return Long.valueOf(id);
+                    }
+                    else if ("getSymbolicName".equals(method.getName()))
+                    {
+                        return symbolicName;
+                    }
+                    else if ("getEntry".equals(method.getName()))
+                    {
+                        return args[0].equals(entry) ? new URL("file:/" + entry) : null;
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.filestore;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Provides an index of roles on the values of a fixed set of property keys,
+ * used to answer equality filters, such as <tt>(mail=elmer@acme.com)</tt>,
+ * without evaluating the filter against every role.
+ * <p>
+ * Like filters, the index ignores the case of property keys. Roles having a
+ * non-string value for an indexed key are returned as candidates for every
+ * value of that key. Callers are expected to match the returned candidates
+ * against the actual filter.
+ * </p>
+ */
+final class PropertyIndex {
+
+    /** The characters that make a filter more than a simple equality filter. */
+    private static final String SPECIAL_CHARS = "()&|!=<>~*\\";
+
+    private final Set m_keys;
+    /** Maps an indexed key to a map of values to sets of role names. */
+    private final Map m_values;
+    /** Maps an indexed key to the set of role names having a non-string value. */
+    private final Map m_unindexed;
+    /** Maps a role name to the list of key-value pairs it is indexed with. */
+    private final Map m_roles;
+
+    /**
+     * Creates a new {@link PropertyIndex} instance.
+     *
+     * @param keys the property keys to index, cannot be <code>null</code>.
+     */
+    public PropertyIndex(String[] keys) {
+        m_keys = new HashSet();
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i].trim();
+            if (!"".equals(key)) {
+                m_keys.add(key.toLowerCase());
+            }
+        }
+        m_values = new HashMap();
+        m_unindexed = new HashMap();
+        m_roles = new HashMap();
+    }
+
+    /**
+     * Parses the given filter as a simple equality filter.
+     *
+     * @param filter the filter to parse, can be <code>null</code>.
+     * @return an array with the (lower case) key and the value, or <code>null</code> if the given filter is not a simple equality filter.
+     */
+    static String[] parseEqualityFilter(String filter) {
+        if (filter == null) {
+            return null;
+        }
+        String f = filter.trim();
+        int length = f.length();
+        if ((length < 4) || (f.charAt(0) != '(') || (f.charAt(length - 1) != ')')) {
+            return null;
+        }
+        int idx = f.indexOf('=');
+        if (idx < 2) {
+            return null;
+        }
+        String key = f.substring(1, idx).trim();
+        String value = f.substring(idx + 1, length - 1);
+        if ("".equals(key) || "".equals(value) || !value.equals(value.trim()) || containsSpecialChars(key) || containsSpecialChars(value)) {
+            return null;
+        }
+        return new String[] { key.toLowerCase(), value };
+    }
+
+    private static boolean containsSpecialChars(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (SPECIAL_CHARS.indexOf(value.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds or updates the given role in this index.
+     *
+     * @param role the role to index, cannot be <code>null</code>.
+     */
+    public synchronized void add(Role role) {
+        remove(role.getName());
+        if (m_keys.isEmpty()) {
+            return;
+        }
+
+        List entries = new ArrayList();
+
+        Dictionary properties = role.getProperties();
+        Enumeration keys = properties.keys();
+        while (keys.hasMoreElements()) {
+            Object key = keys.nextElement();
+            if (!(key instanceof String)) {
+                continue;
+            }
+            String lowerKey = ((String) key).toLowerCase();
+            if (!m_keys.contains(lowerKey)) {
+                continue;
+            }
+            Object value = properties.get(key);
+            if (value instanceof String) {
+                getSet(getMap(m_values, lowerKey), value).add(role.getName());
+            } else {
+                getSet(m_unindexed, lowerKey).add(role.getName());
+            }
+            entries.add(new Object[] { lowerKey, value });
+        }
+
+        if (!entries.isEmpty()) {
+            m_roles.put(role.getName(), entries);
+        }
+    }
+
+    /**
+     * Returns the names of the roles that possibly match the given equality filter.
+     *
+     * @param key the lower case key of the filter, cannot be <code>null</code>;
+     * @param value the value of the filter, cannot be <code>null</code>.
+     * @return a copy of the candidate role names, or <code>null</code> if the given key is not indexed.
+     */
+    public synchronized Set getCandidates(String key, String value) {
+        if (!m_keys.contains(key)) {
+            return null;
+        }
+        Set result = new HashSet();
+        Map values = (Map) m_values.get(key);
+        if (values != null) {
+            Set names = (Set) values.get(value);
+            if (names != null) {
+                result.addAll(names);
+            }
+        }
+        Set names = (Set) m_unindexed.get(key);
+        if (names != null) {
+            result.addAll(names);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the role with the given name from this index.
+     *
+     * @param name the name of the role to remove, cannot be <code>null</code>.
+     */
+    public synchronized void remove(String name) {
+        List entries = (List) m_roles.remove(name);
+        if (entries == null) {
+            return;
+        }
+        Iterator iter = entries.iterator();
+        while (iter.hasNext()) {
+            Object[] entry = (Object[]) iter.next();
+            Set names;
+            if (entry[1] instanceof String) {
+                Map values = (Map) m_values.get(entry[0]);
+                names = (Set) values.get(entry[1]);
+                // keys only differing in case share their entries...
+                if ((names != null) && names.remove(name) && names.isEmpty()) {
+                    values.remove(entry[1]);
+                }
+            } else {
+                names = (Set) m_unindexed.get(entry[0]);
+                names.remove(name);
+            }
+        }
+    }
+
+    private static Map getMap(Map map, Object key) {
+        Map result = (Map) map.get(key);
+        if (result == null) {
+            result = new HashMap();
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    private static Set getSet(Map map, Object key) {
+        Set result = (Set) map.get(key);
+        if (result == null) {
+            result = new HashSet();
+            map.put(key, result);
+        }
+        return result;
+    }
+}
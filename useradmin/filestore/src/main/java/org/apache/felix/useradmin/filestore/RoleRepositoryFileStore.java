@@ -26,10 +26,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -42,6 +45,11 @@ import org.osgi.service.useradmin.UserAdminListener;
 
 /**
  * Provides an implementation of {@link RoleRepositoryStore} using Java Serialization.
+ * <p>
+ * Changes are appended to a journal in the background, which is compacted 
+ * into a complete snapshot of the repository when it has grown large, or
+ * when this store is stopped.
+ * </p>
  */
 public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implements Runnable, UserAdminListener, ManagedService {
 
@@ -51,16 +59,29 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     static final String KEY_WRITE_DISABLED = "background.write.disabled";
     static final String KEY_WRITE_DELAY_VALUE = "background.write.delay.value";
     static final String KEY_WRITE_DELAY_TIMEUNIT = "background.write.delay.timeunit";
+    static final String KEY_INDEX_KEYS = "index.keys";
 
     private static final String PREFIX = PID.concat(".");
     private static final boolean DEFAULT_WRITE_DISABLED = Boolean.parseBoolean(System.getProperty(PREFIX.concat(KEY_WRITE_DISABLED), "false"));
     private static final int DEFAULT_WRITE_DELAY_VALUE = Integer.parseInt(System.getProperty(PREFIX.concat(KEY_WRITE_DELAY_VALUE), "500"));
     private static final TimeUnit DEFAULT_WRITE_DELAY_TIMEUNIT = TimeUnit.MILLISECONDS;
+    private static final String DEFAULT_INDEX_KEYS = System.getProperty(PREFIX.concat(KEY_INDEX_KEYS), "");
 
     private static final String FILE_NAME = "ua_repo.dat";
+    private static final String TEMP_FILE_NAME = "ua_repo.dat.tmp";
+    private static final String JOURNAL_FILE_NAME = "ua_repo.journal";
+    /** The minimal number of changes kept in the journal before it is compacted. */
+    private static final int MIN_JOURNAL_SIZE = 1000;
 
     private final File m_file;
+    private final File m_tempFile;
+    private final File m_journalFile;
     private final AtomicReference m_timerRef;
+    private final Object m_writeLock = new Object();
+    /** The names of the roles changed since they were last written, guarded by m_writeLock. */
+    private final Set m_changes = new LinkedHashSet();
+    /** The number of changes in the journal, or -1 if unknown, guarded by m_writeLock. */
+    private int m_journalSize;
 
     /**
      * Creates a new {@link RoleRepositoryStore} instance.
@@ -79,15 +100,24 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      */
     public RoleRepositoryFileStore(File baseDir, boolean backgroundWriteEnabled) {
         m_file = new File(baseDir, FILE_NAME);
+        m_tempFile = new File(baseDir, TEMP_FILE_NAME);
+        m_journalFile = new File(baseDir, JOURNAL_FILE_NAME);
         
         m_timerRef = new AtomicReference();
 
+        setIndexedKeys(DEFAULT_INDEX_KEYS.split(","));
+
         if (backgroundWriteEnabled) {
             m_timerRef.set(new ResettableTimer(this, DEFAULT_WRITE_DELAY_VALUE, DEFAULT_WRITE_DELAY_TIMEUNIT));
         }
     }
     
     public void roleChanged(UserAdminEvent event) {
+        String name = event.getRole().getName();
+        // Our index is already updated through propertiesChanged()...
+        synchronized (m_writeLock) {
+            m_changes.add(name);
+        }
         scheduleTask();
     }
 
@@ -98,8 +128,8 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      */
     public void run() {
         try {
-            // Persist everything to disk...
-            flush();
+            // Persist all pending changes to disk...
+            writeChanges();
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -112,7 +142,19 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      * @throws IOException in case of I/O problems retrieving the store.
      */
     public void start() throws IOException {
-        m_entries.putAll(retrieve());
+        Map entries = retrieve();
+        m_entries.putAll(entries);
+
+        // Index all retrieved roles...
+        Iterator namesIter = entries.keySet().iterator();
+        while (namesIter.hasNext()) {
+            reindex((String) namesIter.next());
+        }
+
+        synchronized (m_writeLock) {
+            // Compact any journal left behind on the first write...
+            m_journalSize = m_journalFile.exists() ? -1 : 0;
+        }
     }
 
     /**
@@ -140,6 +182,7 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
         boolean writeDisabled = DEFAULT_WRITE_DISABLED;
         int writeDelayValue = DEFAULT_WRITE_DELAY_VALUE;
         TimeUnit writeDelayUnit = DEFAULT_WRITE_DELAY_TIMEUNIT;
+        String indexKeys = DEFAULT_INDEX_KEYS;
 
         if (properties != null) {
             Object wd = properties.get(KEY_WRITE_DISABLED);
@@ -175,8 +218,18 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
                     }
                 }
             }
+
+            Object ik = properties.get(KEY_INDEX_KEYS);
+            if (ik != null) {
+                if (!(ik instanceof String)) {
+                    throw new ConfigurationException(KEY_INDEX_KEYS, "Invalid index keys value!");
+                }
+                indexKeys = (String) ik;
+            }
         }
 
+        setIndexedKeys(indexKeys.split(","));
+
         ResettableTimer timer = (ResettableTimer) m_timerRef.get();
         if (timer != null) {
             timer.shutDown();
@@ -191,15 +244,42 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      * @throws IOException in case the retrieval of the repository failed.
      */
     protected Map retrieve() throws IOException {
+        if (m_tempFile.exists()) {
+            if (m_journalFile.exists()) {
+                // Compaction did not complete; snapshot and journal are still valid...
+                m_tempFile.delete();
+            } else {
+                // Compaction only failed to replace the snapshot...
+                m_file.delete();
+                m_tempFile.renameTo(m_file);
+            }
+        }
+
         InputStream is = null;
 
         try {
-            is = new BufferedInputStream(new FileInputStream(m_file));
+            RoleRepositorySerializer serializer = new RoleRepositorySerializer();
+
+            Map result;
+            try {
+                is = new BufferedInputStream(new FileInputStream(m_file));
+
+                result = serializer.deserialize(is);
+            } catch (FileNotFoundException exception) {
+                // Don't bother; file does not exist...
+                result = new HashMap();
+            }
+            closeSafely(is);
+
+            try {
+                is = new BufferedInputStream(new FileInputStream(m_journalFile));
+
+                serializer.deserializeChanges(result, is);
+            } catch (FileNotFoundException exception) {
+                // Don't bother; no changes since the last snapshot...
+            }
 
-            return new RoleRepositorySerializer().deserialize(is);
-        } catch (FileNotFoundException exception) {
-            // Don't bother; file does not exist...
-            return Collections.emptyMap();
+            return result;
         } catch (IOException exception) {
             exception.printStackTrace();
             throw exception;
@@ -209,7 +289,8 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Stores the given repository to disk as serialized objects.
+     * Stores the given repository to disk as serialized objects, replacing
+     * the current snapshot and journal.
      * 
      * @param roleRepository the repository to store, cannot be <code>null</code>.
      * @throws IOException in case storing the repository failed.
@@ -218,12 +299,41 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
         OutputStream os = null;
 
         try {
-            os = new BufferedOutputStream(new FileOutputStream(m_file));
+            os = new BufferedOutputStream(new FileOutputStream(m_tempFile));
 
             new RoleRepositorySerializer().serialize(roleRepository, os);
         } finally {
             closeSafely(os);
         }
+
+        // The journal is only deleted after the new snapshot is complete, see retrieve()...
+        if (m_journalFile.exists() && !m_journalFile.delete()) {
+            throw new IOException("Failed to delete journal: " + m_journalFile);
+        }
+        if (m_file.exists() && !m_file.delete()) {
+            throw new IOException("Failed to replace repository: " + m_file);
+        }
+        if (!m_tempFile.renameTo(m_file)) {
+            throw new IOException("Failed to replace repository: " + m_file);
+        }
+    }
+
+    /**
+     * Appends the given changes to the journal on disk.
+     * 
+     * @param changes the changes to append, mapping role names to roles, or to <code>null</code> for removed roles, cannot be <code>null</code>.
+     * @throws IOException in case appending the changes failed.
+     */
+    protected void storeChanges(Map changes) throws IOException {
+        OutputStream os = null;
+
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(m_journalFile, true /* append */));
+
+            new RoleRepositorySerializer().serializeChanges(changes, os);
+        } finally {
+            closeSafely(os);
+        }
     }
 
     /**
@@ -247,7 +357,50 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      * @throws IOException in case of problems storing the repository.
      */
     private void flush() throws IOException {
-        store(new HashMap(m_entries));
+        synchronized (m_writeLock) {
+            store(new HashMap(m_entries));
+
+            m_changes.clear();
+            m_journalSize = 0;
+        }
+    }
+
+    /**
+     * Writes all pending changes to disk, either by appending them to the 
+     * journal, or by compacting the journal when it has grown too large.
+     * 
+     * @throws IOException in case of problems storing the changes.
+     */
+    private void writeChanges() throws IOException {
+        synchronized (m_writeLock) {
+            if (m_changes.isEmpty()) {
+                return;
+            }
+
+            int threshold = Math.max(MIN_JOURNAL_SIZE, m_entries.size());
+            if ((m_journalSize < 0) || !m_file.exists() || (m_journalSize + m_changes.size() > threshold)) {
+                flush();
+                return;
+            }
+
+            Map changes = new LinkedHashMap();
+            Iterator namesIter = m_changes.iterator();
+            while (namesIter.hasNext()) {
+                String name = (String) namesIter.next();
+                changes.put(name, m_entries.get(name));
+            }
+
+            try {
+                storeChanges(changes);
+            } catch (IOException exception) {
+                // The journal might end with a partial batch; compact it on the next write...
+                m_journalSize = -1;
+                throw exception;
+            }
+
+            m_journalSize += changes.size();
+            m_changes.clear();
+        }
     }
 
     /**
@@ -20,10 +20,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.useradmin.RoleFactory;
+import org.apache.felix.useradmin.RolePropertiesListener;
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
@@ -33,17 +35,28 @@ import org.osgi.service.useradmin.Role;
 
 /**
  * Provides a thread-safe in-memory role repository store.
+ * <p>
+ * Equality filters on the keys given to {@link #setIndexedKeys(String[])} are
+ * answered using an index, which is updated synchronously when the properties
+ * of a role change through {@link #propertiesChanged(Role)}.
+ * </p>
  */
-public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
+public class RoleRepositoryMemoryStore implements RoleRepositoryStore, RolePropertiesListener {
     
     protected final ConcurrentMap m_entries = new ConcurrentHashMap();
 
+    private final Object m_indexLock = new Object();
+    private volatile PropertyIndex m_index = new PropertyIndex(new String[0]);
+
     public Role addRole(String roleName, int type) {
         if (roleName == null) {
             throw new IllegalArgumentException("Name cannot be null!");
         }
         Role role = RoleFactory.createRole(type, roleName);
         Object result = m_entries.putIfAbsent(roleName, role);
+        if (result == null) {
+            reindex(roleName);
+        }
         return (result == null) ? role : null;
     }
 
@@ -53,6 +66,14 @@ public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
         Filter filter = null;
         if (filterValue != null) {
             filter = FrameworkUtil.createFilter(filterValue);
+
+            String[] equality = PropertyIndex.parseEqualityFilter(filterValue);
+            if (equality != null) {
+                Set names = m_index.getCandidates(equality[0], equality[1]);
+                if (names != null) {
+                    roles = getRoles(names);
+                }
+            }
         }
 
         List matchingRoles = new ArrayList();
@@ -75,12 +96,70 @@ public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
         return (Role) m_entries.get(roleName);
     }
 
+    public void propertiesChanged(Role role) {
+        reindex(role.getName());
+    }
+
     public Role removeRole(String roleName) {
         if (roleName == null) {
             throw new IllegalArgumentException("Name cannot be null!");
         }
         Role role = getRoleByName(roleName);
         boolean result = m_entries.remove(roleName, role);
+        if (result) {
+            reindex(roleName);
+        }
         return result ? role : null;
     }
+
+    /**
+     * Sets the property keys to index, replacing the current index.
+     * 
+     * @param keys the property keys to index, cannot be <code>null</code>.
+     */
+    public void setIndexedKeys(String[] keys) {
+        synchronized (m_indexLock) {
+            PropertyIndex index = new PropertyIndex(keys);
+            Iterator rolesIter = m_entries.values().iterator();
+            while (rolesIter.hasNext()) {
+                index.add((Role) rolesIter.next());
+            }
+            m_index = index;
+        }
+    }
+
+    /**
+     * Updates the index for the role with the given name, after it has been
+     * added, changed or removed.
+     * 
+     * @param roleName the name of the role to update the index for, cannot be <code>null</code>.
+     */
+    protected void reindex(String roleName) {
+        synchronized (m_indexLock) {
+            Role role = (Role) m_entries.get(roleName);
+            if (role != null) {
+                m_index.add(role);
+            } else {
+                m_index.remove(roleName);
+            }
+        }
+    }
+
+    /**
+     * Returns the roles with the given names.
+     * 
+     * @param names the names of the roles to return, cannot be <code>null</code>.
+     * @return the roles with the given names that still exist, never <code>null</code>.
+     */
+    private Collection getRoles(Set names) {
+        List result = new ArrayList(names.size());
+        Iterator namesIter = names.iterator();
+        while (namesIter.hasNext()) {
+            Role role = (Role) m_entries.get(namesIter.next());
+            if (role != null) {
+                result.add(role);
+            }
+        }
+        return result;
+    }
 }
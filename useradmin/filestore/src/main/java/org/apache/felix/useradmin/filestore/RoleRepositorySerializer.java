@@ -18,6 +18,7 @@ package org.apache.felix.useradmin.filestore;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,6 +28,7 @@ import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -46,6 +48,9 @@ final class RoleRepositorySerializer {
     private static final int VALUE_TYPE_STRING = 1;
     private static final int VALUE_TYPE_BARRAY = 2; 
 
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+
     /**
      * Deserializes a given input stream.
      * 
@@ -81,6 +86,72 @@ final class RoleRepositorySerializer {
         writeRepository(roleRepository, new DataOutputStream(os));
     }
     
+    /**
+     * Deserializes the batches of changes from a given input stream and applies
+     * them to the given repository. A trailing batch that is not complete, for
+     * example, due to a crash while it was written, is ignored.
+     * 
+     * @param repository the repository to apply the changes to, cannot be <code>null</code>;
+     * @param is the input stream to deserialize, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems;
+     * @throws IllegalArgumentException in case the given parameter was <code>null</code>.
+     */
+    public void deserializeChanges(Map repository, InputStream is) throws IOException {
+        if (repository == null) {
+            throw new IllegalArgumentException("Map cannot be null!");
+        }
+        if (is == null) {
+            throw new IllegalArgumentException("InputStream cannot be null!");
+        }
+        DataInputStream dis = new DataInputStream(is);
+
+        Map stubGroups = new LinkedHashMap();
+        
+        List batch;
+        while ((batch = readChanges(dis)) != null) {
+            applyChanges(repository, stubGroups, batch);
+        }
+        
+        // Post processing stage: (re)resolve the members of all changed groups...
+        updateGroups(repository, stubGroups);
+    }
+
+    /**
+     * Serializes a given batch of changes to the given output stream.
+     * 
+     * @param changes the changes to serialize, mapping the name of each changed role to the role itself, or to <code>null</code> if it is removed, cannot be <code>null</code>;
+     * @param os the output stream to serialize to, cannot be  <code>null</code>.
+     * @throws IOException in case of I/O problems;
+     * @throws IllegalArgumentException in case the given parameter was <code>null</code>.
+     */
+    public void serializeChanges(Map changes, OutputStream os) throws IOException {
+        if (changes == null) {
+            throw new IllegalArgumentException("Map cannot be null!");
+        }
+        if (os == null) {
+            throw new IllegalArgumentException("OutputStream cannot be null!");
+        }
+        DataOutputStream dos = new DataOutputStream(os);
+
+        // Write the number of changes in this batch first...
+        dos.writeInt(changes.size());
+
+        Iterator entriesIter = changes.entrySet().iterator();
+        while (entriesIter.hasNext()) {
+            Map.Entry entry = (Entry) entriesIter.next();
+            
+            Role role = (Role) entry.getValue();
+            if (role == null) {
+                dos.writeInt(OP_REMOVE);
+                dos.writeUTF((String) entry.getKey());
+            } else {
+                dos.writeInt(OP_PUT);
+                writeRole(role.getType(), role, dos);
+            }
+        }
+        dos.flush();
+    }
+
     /**
      * Adds all groups, based on the given stub groups.
      * 
@@ -125,6 +196,44 @@ final class RoleRepositorySerializer {
         }
     }
     
+    /**
+     * Applies a given batch of changes to the given repository.
+     * 
+     * @param repository the repository to apply the changes to, cannot be <code>null</code>;
+     * @param stubGroups the stub groups of the changed groups, cannot be <code>null</code>;
+     * @param batch the list with changed roles and the names of removed roles, cannot be <code>null</code>.
+     */
+    private void applyChanges(Map repository, Map stubGroups, List batch) {
+        Iterator changesIter = batch.iterator();
+        while (changesIter.hasNext()) {
+            Object change = changesIter.next();
+            
+            if (change instanceof String) {
+                repository.remove(change);
+                stubGroups.remove(change);
+                continue;
+            }
+
+            Role changed = (Role) change;
+            String name = changed.getName();
+
+            Role role = (Role) repository.get(name);
+            if ((role == null) || (role.getType() != changed.getType())) {
+                role = RoleFactory.createRole(changed.getType(), name);
+                repository.put(name, role);
+            }
+            // Update the role in place, as groups might refer to it...
+            replaceDictionary(changed.getProperties(), role.getProperties());
+            if (changed instanceof User) {
+                replaceDictionary(((User) changed).getCredentials(), ((User) role).getCredentials());
+            }
+            
+            if (changed instanceof StubGroupImpl) {
+                stubGroups.put(name, changed);
+            }
+        }
+    }
+
     /**
      * Converts a given {@link Dictionary} implementation to a {@link Map} implementation.
      * 
@@ -177,6 +286,42 @@ final class RoleRepositorySerializer {
         return role;
     }
     
+    /**
+     * Reads a single batch of changes from the given input stream.
+     * 
+     * @param dis the input stream to read the data from, cannot be <code>null</code>.
+     * @return a list with the changed (stub) roles and the names of the removed roles, or <code>null</code> if no (complete) batch is available.
+     * @throws IOException in case of I/O problems.
+     */
+    private List readChanges(DataInputStream dis) throws IOException {
+        try {
+            int count = dis.readInt();
+
+            List result = new ArrayList(count);
+            while (count-- > 0) {
+                int op = dis.readInt();
+                if (OP_REMOVE == op) {
+                    result.add(dis.readUTF());
+                } else if (OP_PUT == op) {
+                    int type = dis.readInt();
+                    if (Role.GROUP == type) {
+                        result.add(readGroup(dis));
+                    } else if (Role.USER == type) {
+                        result.add(readUser(dis));
+                    } else {
+                        result.add(readRole(dis));
+                    }
+                } else {
+                    throw new IOException("Invalid journal; unknown operation: " + op);
+                }
+            }
+            return result;
+        } catch (EOFException exception) {
+            // End of stream or incomplete batch...
+            return null;
+        }
+    }
+
     /**
      * Reads and fills a given dictionary.
      * 
@@ -303,6 +448,24 @@ final class RoleRepositorySerializer {
         return user;
     }
 
+    /**
+     * Replaces the contents of a given dictionary with the contents of a given other dictionary.
+     * 
+     * @param source the dictionary to copy from;
+     * @param dest the dictionary to replace the contents of.
+     */
+    private void replaceDictionary(Dictionary source, Dictionary dest) {
+        List keys = new ArrayList();
+        Enumeration keyEnum = dest.keys();
+        while (keyEnum.hasMoreElements()) {
+            keys.add(keyEnum.nextElement());
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            dest.remove(keys.get(i));
+        }
+        copyDictionary(source, dest);
+    }
+
     /**
      * Resolves all basic and required group members for a given group, based on the names from the given stub group.
      * 
@@ -337,6 +500,47 @@ final class RoleRepositorySerializer {
         }
     }
 
+    /**
+     * Replaces the basic and required members of the changed groups by the
+     * members named by their stub groups. Members that no longer exist are
+     * skipped, as they are removed from all groups along with the role itself.
+     * 
+     * @param repository the repository to take the roles from, cannot be <code>null</code>;
+     * @param stubGroups the stub groups of the changed groups, cannot be <code>null</code>.
+     */
+    private void updateGroups(Map repository, Map stubGroups) {
+        Iterator sgIter = stubGroups.values().iterator();
+        while (sgIter.hasNext()) {
+            StubGroupImpl stubGroup = (StubGroupImpl) sgIter.next();
+
+            Group group = (Group) repository.get(stubGroup.getName());
+
+            Role[] m = group.getMembers();
+            for (int i = 0; (m != null) && (i < m.length); i++) {
+                group.removeMember(m[i]);
+            }
+            m = group.getRequiredMembers();
+            for (int i = 0; (m != null) && (i < m.length); i++) {
+                group.removeMember(m[i]);
+            }
+
+            List names = stubGroup.getMemberNames();
+            for (int i = 0; i < names.size(); i++) {
+                Role role = getRoleFromRepository(repository, (String) names.get(i));
+                if (role != null) {
+                    group.addMember(role);
+                }
+            }
+            names = stubGroup.getRequiredMemberNames();
+            for (int i = 0; i < names.size(); i++) {
+                Role role = getRoleFromRepository(repository, (String) names.get(i));
+                if (role != null) {
+                    group.addRequiredMember(role);
+                }
+            }
+        }
+    }
+
     /**
      * Writes a given dictionary to the given output stream.
      * 
@@ -430,15 +634,27 @@ final class RoleRepositorySerializer {
             
             int type = role.getType();
             
-            dos.writeInt(type);
-            
-            if (Role.GROUP == type) {
-                writeGroup((Group) role, dos);
-            } else if (Role.USER == type) {
-                writeUser((User) role, dos);
-            } else {
-                writeRole(role, dos);
-            }
+            writeRole(type, role, dos);
+        }
+    }
+
+    /**
+     * Writes the type and contents of a given role to the given output stream.
+     * 
+     * @param type the type of the role to write;
+     * @param role the role to write, cannot be <code>null</code>.
+     * @param dos the output stream to write the data to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems.
+     */
+    private void writeRole(int type, Role role, DataOutputStream dos) throws IOException {
+        dos.writeInt(type);
+        
+        if (Role.GROUP == type) {
+            writeGroup((Group) role, dos);
+        } else if (Role.USER == type) {
+            writeUser((User) role, dos);
+        } else {
+            writeRole(role, dos);
         }
     }
     
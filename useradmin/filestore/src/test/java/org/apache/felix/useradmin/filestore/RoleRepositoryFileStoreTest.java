@@ -21,7 +21,19 @@ import java.util.Properties;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.useradmin.impl.EventDispatcher;
+import org.apache.felix.useradmin.impl.RoleRepository;
+import org.apache.felix.useradmin.impl.UserAdminImpl;
+import org.apache.felix.useradmin.impl.UserAdminListenerList;
 import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+import org.osgi.service.useradmin.UserAdmin;
+import org.osgi.service.useradmin.UserAdminEvent;
+import org.osgi.service.useradmin.UserAdminListener;
 
 /**
  * Test cases for {@link RoleRepositoryFileStore}.
@@ -181,9 +193,140 @@ public class RoleRepositoryFileStoreTest extends TestCase {
         m_store.updated(null);
     }
 
+    /**
+     * Tests that changes written to the journal are restored when the store is restarted.
+     */
+    public void testRestoreFromJournalOk() throws Exception {
+        File dir = createTempDir();
+
+        RoleRepositoryFileStore store = new RoleRepositoryFileStore(dir, false /* disable background writes */);
+        store.start();
+
+        User user1 = (User) store.addRole("user1", Role.USER);
+        User user2 = (User) store.addRole("user2", Role.USER);
+        Group group = (Group) store.addRole("group", Role.GROUP);
+        group.addMember(user1);
+        group.addMember(user2);
+        fireRoleChanged(store, user1);
+        fireRoleChanged(store, user2);
+        fireRoleChanged(store, group);
+        // Writes the initial snapshot...
+        store.run();
+
+        user1.getProperties().put("mail", "user1@example.org");
+        user1.getCredentials().put("password", "secret");
+        fireRoleChanged(store, user1);
+        store.removeRole("user2");
+        group.removeMember(user2);
+        fireRoleChanged(store, user2);
+        fireRoleChanged(store, group);
+        // Appends the changes to the journal...
+        store.run();
+
+        assertTrue(new File(dir, "ua_repo.journal").exists());
+
+        RoleRepositoryFileStore restored = new RoleRepositoryFileStore(dir, false /* disable background writes */);
+        restored.start();
+
+        assertNull(restored.getRoleByName("user2"));
+        User restoredUser1 = (User) restored.getRoleByName("user1");
+        assertEquals("user1@example.org", restoredUser1.getProperties().get("mail"));
+        assertTrue(restoredUser1.hasCredential("password", "secret"));
+        Role[] members = ((Group) restored.getRoleByName("group")).getMembers();
+        assertEquals(1, members.length);
+        assertSame(restoredUser1, members[0]);
+
+        // Stopping compacts the journal...
+        restored.stop();
+
+        assertFalse(new File(dir, "ua_repo.journal").exists());
+        assertNotNull(new RoleRepositoryFileStore(dir, false).retrieve().get("user1"));
+    }
+
+    /**
+     * Tests that equality filters on indexed keys only return matching roles, also after properties change.
+     */
+    public void testGetRolesWithIndexedKeyOk() throws Exception {
+        m_store.setIndexedKeys(new String[] { "mail" });
+
+        User user1 = (User) m_store.addRole("user1", Role.USER);
+        User user2 = (User) m_store.addRole("user2", Role.USER);
+        user1.getProperties().put("mail", "user@example.org");
+        user2.getProperties().put("Mail", "user@example.org".getBytes());
+        m_store.propertiesChanged(user1);
+        m_store.propertiesChanged(user2);
+
+        // user2 is a candidate, but is not matched by the filter...
+        Role[] roles = m_store.getRoles("(mail=user@example.org)");
+        assertEquals(1, roles.length);
+        assertSame(user1, roles[0]);
+
+        roles = m_store.getRoles("(MAIL=other@example.org)");
+        assertEquals(0, roles.length);
+
+        user1.getProperties().put("mail", "other@example.org");
+        m_store.propertiesChanged(user1);
+
+        roles = m_store.getRoles("(mail=other@example.org)");
+        assertEquals(1, roles.length);
+        assertSame(user1, roles[0]);
+
+        m_store.removeRole("user1");
+
+        roles = m_store.getRoles("(mail=other@example.org)");
+        assertEquals(0, roles.length);
+    }
+
+    /**
+     * Tests that a user can be looked up by a changed property right away, even though its change event is delivered asynchronously.
+     */
+    public void testGetUserRightAfterPropertyChangeOk() throws Exception {
+        m_store.setIndexedKeys(new String[] { "mail" });
+
+        // The dispatcher is never started, so the store will never see the change events...
+        EventDispatcher dispatcher = new EventDispatcher(new EventAdmin() {
+            public void postEvent(Event event) {
+            }
+
+            public void sendEvent(Event event) {
+            }
+        }, new UserAdminListenerList() {
+            public UserAdminListener[] getListeners() {
+                return new UserAdminListener[] { m_store };
+            }
+        });
+        UserAdmin userAdmin = new UserAdminImpl(new RoleRepository(m_store), dispatcher);
+
+        User user = (User) userAdmin.createRole("user1", Role.USER);
+        user.getProperties().put("mail", "user@example.org");
+
+        assertEquals(user, userAdmin.getUser("mail", "user@example.org"));
+
+        user.getProperties().put("mail", "other@example.org");
+
+        assertNull(userAdmin.getUser("mail", "user@example.org"));
+        assertEquals(user, userAdmin.getUser("mail", "other@example.org"));
+
+        user.getProperties().remove("mail");
+
+        assertNull(userAdmin.getUser("mail", "other@example.org"));
+    }
+
     protected void setUp() throws Exception {
         super.setUp();
 
         m_store = new RoleRepositoryFileStore(new File(System.getProperty("java.io.tmpdir")), false /* disable background writes */);
     }
+
+    private File createTempDir() throws Exception {
+        File dir = File.createTempFile("ua_repo", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private void fireRoleChanged(RoleRepositoryFileStore store, Role role) {
+        store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CHANGED, role));
+    }
 }
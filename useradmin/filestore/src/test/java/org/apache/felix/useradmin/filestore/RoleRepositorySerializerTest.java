@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -265,6 +266,54 @@ public class RoleRepositorySerializerTest extends TestCase {
         }
     }
 
+    /**
+     * Tests that reading changes updates the roles in place, resolves the members of changed groups and ignores a truncated batch.
+     */
+    public void testRWChangesOk() throws Exception {
+        m_group1.addMember(m_user1);
+        m_group1.addMember(m_user2);
+        
+        addToRepository(m_user1);
+        addToRepository(m_user2);
+        addToRepository(m_group1);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        m_serializer.serialize(m_repository, baos);
+        
+        Map repository = m_serializer.deserialize(new ByteArrayInputStream(baos.toByteArray()));
+        Role user1 = (Role) repository.get(m_user1.getName());
+        
+        // First batch: change user1 and remove user2 from the repository and group1...
+        m_user1.getProperties().put("key", "newValue");
+        m_group1.removeMember(m_user2);
+
+        Map changes = new LinkedHashMap();
+        changes.put(m_user1.getName(), m_user1);
+        changes.put(m_user2.getName(), null);
+        changes.put(m_group1.getName(), m_group1);
+
+        baos = new ByteArrayOutputStream();
+        m_serializer.serializeChanges(changes, baos);
+        int length = baos.size();
+
+        // Second batch: add user3, which is truncated...
+        changes.clear();
+        changes.put(m_user3.getName(), m_user3);
+        m_serializer.serializeChanges(changes, baos);
+
+        byte[] data = baos.toByteArray();
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        m_serializer.deserializeChanges(repository, new ByteArrayInputStream(truncated));
+        
+        assertEquals(2, repository.size());
+        assertSame(user1, repository.get(m_user1.getName()));
+        assertEquals(m_user1, (User) user1);
+        assertEquals(m_group1, (Group) repository.get(m_group1.getName()));
+        assertTrue(length < truncated.length);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,40 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin;
+
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Provides an optional callback for a {@link RoleRepositoryStore} that needs 
+ * to know about changes to the properties or credentials of its roles as soon
+ * as they are made, for example, to keep an index of these properties.
+ * <p>
+ * Unlike <tt>UserAdminEvent</tt>s, which are delivered asynchronously, this 
+ * callback is invoked by the thread changing the role, before any lookup made
+ * after the change can reach the store.
+ * </p>
+ */
+public interface RolePropertiesListener {
+
+    /**
+     * Called after a property or credential of a given role is added, changed 
+     * or removed.
+     * 
+     * @param role the role that changed, never <code>null</code>.
+     */
+    void propertiesChanged(Role role);
+}
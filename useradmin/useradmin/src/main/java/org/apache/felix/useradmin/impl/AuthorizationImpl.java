@@ -34,6 +34,7 @@ public class AuthorizationImpl implements Authorization {
     private final User m_user;
     private final RoleRepository m_roleManager;
     private final RoleChecker m_roleChecker;
+    private final ImpliedRoleCache m_impliedRoleCache;
 
     /**
      * Creates a new {@link AuthorizationImpl} instance for the given {@link User}.
@@ -55,6 +56,7 @@ public class AuthorizationImpl implements Authorization {
         m_roleManager = roleManager;
         m_name = (user != null) ? user.getName() : null;
         m_roleChecker = new RoleChecker();
+        m_impliedRoleCache = roleManager.getImpliedRoleCache();
     }
 
     /**
@@ -68,18 +70,32 @@ public class AuthorizationImpl implements Authorization {
      * {@inheritDoc}
      */
     public boolean hasRole(String name) {
-        Role role = m_roleManager.getRoleByName(name);
-        if (role == null) {
-            // No role found, so it is never implied...
-            return false;
+        Boolean cached = m_impliedRoleCache.isImplied(m_name, name);
+        if (cached != null) {
+            return cached.booleanValue();
         }
-        return m_roleChecker.isImpliedBy(role, m_user);
+
+        long generation = m_impliedRoleCache.getGeneration();
+
+        Role role = m_roleManager.getRoleByName(name);
+        // No role found, so it is never implied...
+        boolean result = (role != null) && m_roleChecker.isImpliedBy(role, m_user);
+
+        m_impliedRoleCache.setImplied(generation, m_name, name, result);
+        return result;
     }
 
     /**
      * {@inheritDoc}
      */
     public String[] getRoles() {
+        String[] cached = m_impliedRoleCache.getRoles(m_name);
+        if (cached != null) {
+            return (cached.length == 0) ? null : cached;
+        }
+
+        long generation = m_impliedRoleCache.getGeneration();
+
         List result = new ArrayList();
 
         Iterator rolesIter = m_roleManager.getRoles(null /* filter */).iterator();
@@ -90,6 +106,9 @@ public class AuthorizationImpl implements Authorization {
             }
         }
 
-        return result.isEmpty() ? null : (String[]) result.toArray(new String[result.size()]);
+        String[] roles = (String[]) result.toArray(new String[result.size()]);
+        m_impliedRoleCache.setRoles(generation, m_name, roles);
+
+        return (roles.length == 0) ? null : roles;
     }
 }
@@ -0,0 +1,188 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Caches, per user, the roles that are found to be implied or not by the
+ * memberships of that user.
+ * <p>
+ * Whether a role is implied only depends on the names of the roles and the
+ * (required) members of the groups, so the cache is invalidated when roles
+ * are added or removed and when a group changes. Changes to the properties
+ * or credentials of users are ignored.
+ * </p>
+ */
+final class ImpliedRoleCache implements RoleChangeListener {
+
+    /** The maximum number of users for which implied roles are cached. */
+    private static final int MAX_USERS = 10000;
+
+    private final Map m_users;
+    private long m_generation;
+
+    /**
+     * Creates a new {@link ImpliedRoleCache} instance.
+     */
+    public ImpliedRoleCache() {
+        m_users = new LinkedHashMap(16, 0.75f, true /* accessOrder */) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_USERS;
+            }
+        };
+    }
+
+    /**
+     * Returns the generation of this cache, which is to be obtained before
+     * computing the value that is to be cached.
+     *
+     * @return the current generation.
+     */
+    public synchronized long getGeneration() {
+        return m_generation;
+    }
+
+    /**
+     * Returns whether the given role is implied by the given user.
+     *
+     * @param userName the name of the user, <code>null</code> for the anonymous user;
+     * @param roleName the name of the role, cannot be <code>null</code>.
+     * @return {@link Boolean#TRUE} or {@link Boolean#FALSE} if known, <code>null</code> otherwise.
+     */
+    public synchronized Boolean isImplied(String userName, String roleName) {
+        Entry entry = (Entry) m_users.get(userName);
+        return (entry != null) ? (Boolean) entry.m_implied.get(roleName) : null;
+    }
+
+    /**
+     * Remembers whether the given role is implied by the given user.
+     *
+     * @param generation the generation of this cache at the time the value was computed;
+     * @param userName the name of the user, <code>null</code> for the anonymous user;
+     * @param roleName the name of the role, cannot be <code>null</code>;
+     * @param implied <code>true</code> if the role is implied, <code>false</code> otherwise.
+     */
+    public synchronized void setImplied(long generation, String userName, String roleName, boolean implied) {
+        if (generation == m_generation) {
+            getEntry(userName).m_implied.put(roleName, implied ? Boolean.TRUE : Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Returns the names of all roles implied by the given user.
+     *
+     * @param userName the name of the user, <code>null</code> for the anonymous user.
+     * @return a copy of the implied role names, possibly empty, or <code>null</code> if not known.
+     */
+    public synchronized String[] getRoles(String userName) {
+        Entry entry = (Entry) m_users.get(userName);
+        if ((entry == null) || (entry.m_roles == null)) {
+            return null;
+        }
+        return (String[]) entry.m_roles.clone();
+    }
+
+    /**
+     * Remembers the names of all roles implied by the given user.
+     *
+     * @param generation the generation of this cache at the time the value was computed;
+     * @param userName the name of the user, <code>null</code> for the anonymous user;
+     * @param roles the implied role names, cannot be <code>null</code>.
+     */
+    public synchronized void setRoles(long generation, String userName, String[] roles) {
+        if (generation == m_generation) {
+            getEntry(userName).m_roles = (String[]) roles.clone();
+        }
+    }
+
+    /**
+     * Drops all cached information.
+     */
+    public synchronized void invalidate() {
+        m_generation++;
+        m_users.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyAdded(Role role, Object key, Object value) {
+        groupChanged(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+        groupChanged(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyRemoved(Role role, Object key) {
+        groupChanged(role);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roleAdded(Role role) {
+        invalidate();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void roleRemoved(Role role) {
+        invalidate();
+    }
+
+    /**
+     * Invalidates this cache in case the given role is a group, as its
+     * (required) members might have changed.
+     *
+     * @param role the role that changed, cannot be <code>null</code>.
+     */
+    private void groupChanged(Role role) {
+        if (role.getType() == Role.GROUP) {
+            invalidate();
+        }
+    }
+
+    private Entry getEntry(String userName) {
+        Entry entry = (Entry) m_users.get(userName);
+        if (entry == null) {
+            entry = new Entry();
+            m_users.put(userName, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * The cached information of a single user.
+     */
+    private static final class Entry {
+        final Map m_implied = new HashMap();
+        String[] m_roles;
+    }
+}
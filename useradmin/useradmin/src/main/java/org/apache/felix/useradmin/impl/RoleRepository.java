@@ -23,6 +23,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.felix.useradmin.BackendException;
 import org.apache.felix.useradmin.RoleFactory;
+import org.apache.felix.useradmin.RolePropertiesListener;
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.apache.felix.useradmin.impl.role.ObservableRole;
 import org.osgi.service.useradmin.Group;
@@ -42,6 +43,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyAdded(Role role, Object key, Object value) {
+            m_impliedRoleCache.propertyAdded(role, key, value);
+            notifyStore(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyAdded(role, key, value);
@@ -52,6 +56,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+            m_impliedRoleCache.propertyChanged(role, key, oldValue, newValue);
+            notifyStore(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyChanged(role, key, oldValue, newValue);
@@ -62,6 +69,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyRemoved(Role role, Object key) {
+            m_impliedRoleCache.propertyRemoved(role, key);
+            notifyStore(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyRemoved(role, key);
@@ -72,6 +82,8 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void roleAdded(Role role) {
+            m_impliedRoleCache.roleAdded(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).roleAdded(role);
@@ -82,11 +94,25 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void roleRemoved(Role role) {
+            m_impliedRoleCache.roleRemoved(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).roleRemoved(role);
             }
         }
+
+        /**
+         * Lets the store update its view on the given role before anyone can 
+         * look it up by its changed properties.
+         * 
+         * @param role the changed role, cannot be <code>null</code>.
+         */
+        private void notifyStore(Role role) {
+            if (m_store instanceof RolePropertiesListener) {
+                ((RolePropertiesListener) m_store).propertiesChanged(role);
+            }
+        }
     }
 
     /** The single predefined role. */
@@ -95,6 +121,7 @@ public final class RoleRepository {
     private final RoleRepositoryStore m_store;
     private final CopyOnWriteArrayList m_listeners;
     private final RoleChangeReflector m_roleChangeReflector;
+    private final ImpliedRoleCache m_impliedRoleCache;
     
     /**
      * Creates a new {@link RoleRepository} instance.
@@ -106,6 +133,7 @@ public final class RoleRepository {
         
         m_listeners = new CopyOnWriteArrayList();
         m_roleChangeReflector = new RoleChangeReflector();
+        m_impliedRoleCache = new ImpliedRoleCache();
     }
 
     /**
@@ -284,6 +312,16 @@ public final class RoleRepository {
         m_listeners.remove(listener);
     }
     
+    /**
+     * Returns the cache of implied roles, which is kept up to date with the
+     * changes made to the roles of this repository.
+     * 
+     * @return the implied role cache, never <code>null</code>.
+     */
+    final ImpliedRoleCache getImpliedRoleCache() {
+        return m_impliedRoleCache;
+    }
+
     /**
      * Creates a new iterator for iterating over all listeners.
      * 
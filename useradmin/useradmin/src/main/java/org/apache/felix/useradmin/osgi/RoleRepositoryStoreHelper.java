@@ -16,6 +16,7 @@
  */
 package org.apache.felix.useradmin.osgi;
 
+import org.apache.felix.useradmin.RolePropertiesListener;
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.useradmin.Role;
@@ -28,7 +29,7 @@ import org.osgi.util.tracker.ServiceTracker;
  * worry about the possible absence of the actual store implementation.
  * </p>
  */
-class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepositoryStore {
+class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepositoryStore, RolePropertiesListener {
 	
     /**
      * Creates a new {@link RoleRepositoryStoreHelper} instance.
@@ -66,6 +67,13 @@ class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepository
         return null;
     }
 
+    public void propertiesChanged(Role role) {
+        RoleRepositoryStore store = getStore();
+        if (store instanceof RolePropertiesListener) {
+            ((RolePropertiesListener) store).propertiesChanged(role);
+        }
+    }
+
     public Role removeRole(String roleName) throws Exception {
         // and possibly also from our tracked store...
         RoleRepositoryStore store = getStore();
@@ -275,6 +275,34 @@ public class AuthorizationImplTest extends TestCase {
         assertTrue("Not seen: " + e, e.isEmpty());
     }
 
+    /**
+     * Tests that changes in group memberships are reflected by existing authorizations.
+     */
+    public void testHasRoleAfterMembershipChangeOk() {
+        Group citizens = createGroup("citizen");
+        citizens.addRequiredMember(m_anyone);
+
+        User elmer = createUser("elmer");
+
+        AuthorizationImpl auth = new AuthorizationImpl(elmer, m_roleRepository);
+        assertFalse(auth.hasRole("citizen"));
+        assertFalse(Arrays.asList(auth.getRoles()).contains("citizen"));
+
+        citizens.addMember(elmer);
+        assertTrue(auth.hasRole("citizen"));
+        assertTrue(Arrays.asList(auth.getRoles()).contains("citizen"));
+
+        citizens.removeMember(elmer);
+        assertFalse(auth.hasRole("citizen"));
+
+        citizens.addMember(elmer);
+        assertTrue(auth.hasRole("citizen"));
+
+        m_roleRepository.removeRole("citizen");
+        assertFalse(auth.hasRole("citizen"));
+        assertFalse(Arrays.asList(auth.getRoles()).contains("citizen"));
+    }
+
     private Group createGroup(String name) {
         return (Group) m_roleRepository.addRole(name, Role.GROUP);
     }
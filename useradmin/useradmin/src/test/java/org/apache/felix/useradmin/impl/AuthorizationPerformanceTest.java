@@ -0,0 +1,127 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.useradmin.Authorization;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+
+/**
+ * Performance test for {@link AuthorizationImpl} on a synthetic hierarchy of
+ * nested groups.
+ */
+public class AuthorizationPerformanceTest extends TestCase {
+
+    private static final int USER_COUNT = 500;
+    private static final int GROUPS_PER_LEVEL = 20;
+    private static final int LEVELS = 5;
+    private static final int ROUNDS = 3;
+
+    private RoleRepository m_roleRepository;
+    private User[] m_users;
+    private Group[] m_topGroups;
+
+    /**
+     * Executes the performance test.
+     */
+    public void testPerformanceOk() throws Exception {
+        // Warm up...
+        checkAllUsers(false /* cached */);
+
+        long uncached = Long.MAX_VALUE;
+        long cached = Long.MAX_VALUE;
+        int implied = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long st = System.nanoTime();
+            int count = checkAllUsers(false /* cached */);
+            uncached = Math.min(uncached, System.nanoTime() - st);
+
+            st = System.nanoTime();
+            assertEquals(count, checkAllUsers(true /* cached */));
+            cached = Math.min(cached, System.nanoTime() - st);
+
+            implied = count;
+        }
+
+        assertTrue(implied > 0);
+
+        System.out.println("Authorization checks (" + USER_COUNT + " users, " + (GROUPS_PER_LEVEL * LEVELS) + " groups, " + LEVELS + " levels)");
+        System.out.println("Uncached: " + (uncached / 1.0e9) + "s.");
+        System.out.println("Cached  : " + (cached / 1.0e9) + "s.");
+    }
+
+    /**
+     * Checks whether each user has each of the top-level roles.
+     *
+     * @param cached <code>true</code> to use cached results of previous checks, <code>false</code> to start afresh.
+     * @return the number of implied roles.
+     */
+    private int checkAllUsers(boolean cached) {
+        if (!cached) {
+            m_roleRepository.getImpliedRoleCache().invalidate();
+        }
+
+        int result = 0;
+        for (int i = 0; i < m_users.length; i++) {
+            Authorization auth = new AuthorizationImpl(m_users[i], m_roleRepository);
+            for (int j = 0; j < m_topGroups.length; j++) {
+                if (auth.hasRole(m_topGroups[j].getName())) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_roleRepository = new RoleRepository(new MemoryRoleRepositoryStore());
+
+        Role anyone = m_roleRepository.getRoleByName(Role.USER_ANYONE);
+
+        // Build the levels bottom-up: each group of a level has some groups of
+        // the level below as its members...
+        Group[] level = null;
+        for (int l = 0; l < LEVELS; l++) {
+            Group[] groups = new Group[GROUPS_PER_LEVEL];
+            for (int g = 0; g < groups.length; g++) {
+                groups[g] = (Group) m_roleRepository.addRole("Group" + l + "_" + g, Role.GROUP);
+                groups[g].addRequiredMember(anyone);
+                if (level != null) {
+                    groups[g].addMember(level[(g * 7) % level.length]);
+                    groups[g].addMember(level[(g * 13 + 1) % level.length]);
+                }
+            }
+            if (level == null) {
+                m_users = new User[USER_COUNT];
+                for (int u = 0; u < m_users.length; u++) {
+                    m_users[u] = (User) m_roleRepository.addRole("User" + u, Role.USER);
+                    groups[u % groups.length].addMember(m_users[u]);
+                }
+            }
+            level = groups;
+        }
+        m_topGroups = level;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.useradmin.RolePropertiesListener;
 import org.osgi.service.useradmin.Group;
 import org.osgi.service.useradmin.Role;
 import org.osgi.service.useradmin.User;
@@ -159,6 +160,29 @@ public class RoleRepositoryTest extends TestCase {
         assertTrue(m_latch.await(1, TimeUnit.SECONDS));
     }
 
+    /**
+     * Tests whether a store interested in property changes is notified of them before the change returns.
+     */
+    public void testChangeRolePropertiesNotifiesStoreOk() throws Exception {
+        final List changed = new ArrayList();
+
+        class ListeningStore extends MemoryRoleRepositoryStore implements RolePropertiesListener {
+            public void propertiesChanged(Role role) {
+                changed.add(role.getName());
+            }
+        }
+        m_roleRepository = new RoleRepository(new ListeningStore());
+
+        User user = (User) m_roleRepository.addRole("john.doe", Role.USER);
+        user.getProperties().put("key", "value");
+        assertEquals(Arrays.asList(new String[] { "john.doe" }), changed);
+
+        user.getProperties().put("key", "other");
+        user.getCredentials().put("password", "secret");
+        user.getProperties().remove("key");
+        assertEquals(4, changed.size());
+    }
+
     /**
      * Tests that adding a null-role does not work and yields an exception.
      */
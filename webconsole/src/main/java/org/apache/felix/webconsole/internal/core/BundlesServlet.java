@@ -21,10 +21,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Dictionary;
@@ -64,12 +68,14 @@ import org.json.JSONObject;
 import org.json.JSONWriter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.Version;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.component.ComponentConstants;
@@ -105,6 +111,10 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     // set to ask for PackageAdmin.refreshPackages() after install/update
     private static final String FIELD_REFRESH_PACKAGES = "refreshPackages";
 
+    // paging of the bundle list: index of the first bundle and maximum number of bundles
+    private static final String OFFSET_PARAM = "offset";
+    private static final String LIMIT_PARAM = "limit";
+
     // bootdelegation property entries. wildcards are converted to package
     // name prefixes. whether an entry is a wildcard or not is set as a flag
     // in the bootPkgWildcards array.
@@ -119,6 +129,29 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private ServiceRegistration configurationPrinter;
     private ServiceTracker bundleInfoTracker;
 
+    // the bundle list and the package imports are cached until the next bundle
+    // event, the number of events seen so far is used as the ETag of the list
+    // along with the creation time of this instance, as the count restarts
+    // with the plugin or the framework
+    private final Object cacheLock = new Object();
+    private final String instanceStamp = Long.toHexString( System.currentTimeMillis() );
+    private long changeCount;
+    private final Map bundleListCache = new HashMap(); // locale -> BundleList
+    private Map importCache; // bundle id -> List of ExportedPackage
+
+    private final SynchronousBundleListener bundleListener = new SynchronousBundleListener()
+    {
+        public void bundleChanged( BundleEvent event )
+        {
+            synchronized ( cacheLock )
+            {
+                changeCount++;
+                bundleListCache.clear();
+                importCache = null;
+            }
+        }
+    };
+
     // templates
     private final String TEMPLATE_MAIN;
 
@@ -162,6 +195,8 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         props.put( WebConsoleConstants.CONFIG_PRINTER_MODES, new String[] { ConfigurationPrinter.MODE_TXT,
             ConfigurationPrinter.MODE_ZIP } );
         configurationPrinter = bundleContext.registerService( ConfigurationPrinter.SERVICE, this, props );
+
+        bundleContext.addBundleListener( bundleListener );
     }
 
 
@@ -170,6 +205,17 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
      */
     public void deactivate()
     {
+        final BundleContext bundleContext = getBundleContext();
+        if ( bundleContext != null )
+        {
+            bundleContext.removeBundleListener( bundleListener );
+        }
+        synchronized ( cacheLock )
+        {
+            bundleListCache.clear();
+            importCache = null;
+        }
+
         if ( configurationPrinter != null )
         {
             configurationPrinter.unregister();
@@ -303,7 +349,14 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             final String servicesRoot = getServicesRoot( request );
             try
             {
-                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                if ( reqInfo.bundle == null )
+                {
+                    this.renderBundleList( request, response );
+                }
+                else
+                {
+                    this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                }
             }
             catch (InvalidSyntaxException e)
             {
@@ -559,9 +612,203 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     }
 
 
+    /**
+     * Renders the bundle list, without details, honoring the paging parameters.
+     * The response carries an ETag based on the number of bundle events seen,
+     * so that polls of an unchanged framework get a 304 response.
+     */
+    void renderBundleList( final HttpServletRequest request, final HttpServletResponse response )
+        throws IOException, InvalidSyntaxException
+    {
+        final Locale locale = request.getLocale();
+        final String filter = request.getParameter( FILTER_PARAM );
+        final int offset = getIntParameter( request, OFFSET_PARAM, 0 );
+        final int limit = getIntParameter( request, LIMIT_PARAM, -1 );
+
+        final long count;
+        synchronized ( cacheLock )
+        {
+            count = changeCount;
+        }
+        // the filter goes last, it is the only parameter which may contain the separator
+        final String etag = "\"" + instanceStamp + "-" + count + "-"
+            + digest( locale + "|" + offset + "|" + limit + ( filter == null ? "" : "|" + filter ) ) + "\"";
+
+        // a 304 response must carry the same validators as the 200 response
+        response.setHeader( "ETag", etag );
+        response.setHeader( "Cache-Control", "no-cache" );
+        if ( etag.equals( request.getHeader( "If-None-Match" ) ) )
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+
+        response.setContentType( "application/json" );
+        response.setCharacterEncoding( "UTF-8" );
+        writeBundleList( response.getWriter(), locale, filter, offset, limit );
+    }
+
+
+    /**
+     * Returns the hex encoded SHA-1 digest of the given request parameters,
+     * which identifies the page of the bundle list in the ETag.
+     */
+    private static String digest( final String parameters )
+    {
+        try
+        {
+            final byte[] hash = MessageDigest.getInstance( "SHA-1" ).digest( parameters.getBytes( "UTF-8" ) );
+            final StringBuffer buf = new StringBuffer( hash.length * 2 );
+            for ( int i = 0; i < hash.length; i++ )
+            {
+                buf.append( Character.forDigit( ( hash[i] >> 4 ) & 0xf, 16 ) );
+                buf.append( Character.forDigit( hash[i] & 0xf, 16 ) );
+            }
+            return buf.toString();
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // SHA-1 is required on every Java platform
+            throw new IllegalStateException( "Cannot compute the ETag: " + e );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            // UTF-8 is required on every Java platform
+            throw new IllegalStateException( "Cannot compute the ETag: " + e );
+        }
+    }
+
+
+    /**
+     * Writes the bundle list, without details, using the cached summary of
+     * each bundle. The output has the same layout as {@link #writeJSON(Writer, Bundle, String, String, boolean, Locale, String, BundleException)}
+     * with the addition of the <code>total</code> number of bundles matching
+     * the filter and the <code>offset</code> of the first bundle written.
+     */
+    private void writeBundleList( final Writer pw, final Locale locale, final String filter, final int offset,
+        final int limit ) throws IOException, InvalidSyntaxException
+    {
+        final BundleList list = getBundleList( locale );
+
+        // filter bundles by headers
+        final Filter f = filter == null ? null : getBundleContext().createFilter( filter );
+        final String localeString = locale.toString();
+        final List entries = new ArrayList( list.bundles.length );
+        for ( int i = 0; i < list.bundles.length; i++ )
+        {
+            if ( f == null || f.match( list.bundles[i].getHeaders( localeString ) ) )
+            {
+                entries.add( list.entries[i] );
+            }
+        }
+
+        final int start = Math.max( 0, Math.min( offset, entries.size() ) );
+        final int end = limit < 0 ? entries.size() : Math.min( entries.size(), start + limit );
+
+        pw.write( "{\"status\":" );
+        pw.write( JSONObject.quote( list.statusLine ) );
+        pw.write( ",\"s\":" );
+        pw.write( list.status );
+        pw.write( ",\"total\":" );
+        pw.write( String.valueOf( entries.size() ) );
+        pw.write( ",\"offset\":" );
+        pw.write( String.valueOf( start ) );
+        pw.write( ",\"data\":[" );
+        for ( int i = start; i < end; i++ )
+        {
+            if ( i > start )
+            {
+                pw.write( ',' );
+            }
+            pw.write( ( String ) entries.get( i ) );
+        }
+        pw.write( "]}" );
+        pw.flush();
+    }
+
+
+    /**
+     * Returns the sorted bundles along with their JSON summary for the given
+     * locale, building them only if a bundle event occurred since they were
+     * last built.
+     */
+    private BundleList getBundleList( final Locale locale ) throws IOException
+    {
+        final long count;
+        synchronized ( cacheLock )
+        {
+            final BundleList list = ( BundleList ) bundleListCache.get( locale );
+            if ( list != null )
+            {
+                return list;
+            }
+            count = changeCount;
+        }
+
+        final Bundle[] bundles = this.getBundles();
+        final Object[] status = getStatusLine( bundles );
+        Util.sort( bundles, locale );
+        final String[] entries = new String[bundles.length];
+        try
+        {
+            for ( int i = 0; i < bundles.length; i++ )
+            {
+                final StringWriter w = new StringWriter();
+                bundleInfo( new JSONWriter( w ), bundles[i], false, null, null, locale );
+                entries[i] = w.toString();
+            }
+        }
+        catch ( JSONException je )
+        {
+            throw new IOException( je.toString() );
+        }
+        final StringBuffer raw = new StringBuffer( "[" );
+        for ( int i = 0; i < 5; i++ )
+        {
+            raw.append( i > 0 ? "," : "" ).append( status[i] );
+        }
+        raw.append( ']' );
+
+        final BundleList list = new BundleList( bundles, entries, ( String ) status[5], raw.toString() );
+        synchronized ( cacheLock )
+        {
+            // don't cache a list which may already be outdated
+            if ( count == changeCount )
+            {
+                bundleListCache.put( locale, list );
+            }
+        }
+        return list;
+    }
+
+
+    private static final int getIntParameter( final HttpServletRequest request, final String name, final int defaultValue )
+    {
+        final String value = request.getParameter( name );
+        if ( value != null )
+        {
+            try
+            {
+                return Integer.parseInt( value );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // ignore and use default
+            }
+        }
+        return defaultValue;
+    }
+
+
     private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot,
         final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final BundleException be ) throws IOException, InvalidSyntaxException
     {
+        if ( bundle == null && !fullDetails && be == null )
+        {
+            writeBundleList( pw, locale, filter, 0, -1 );
+            return;
+        }
+
         final Bundle[] allBundles = this.getBundles();
         final Object[] status = getStatusLine(allBundles);
         final String statusLine = (String) status[5];
@@ -941,25 +1188,9 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
             Util.keyVal( jw, "Exported Packages", "---" );
         }
 
-        exports = packageAdmin.getExportedPackages( ( Bundle ) null );
-        if ( exports != null && exports.length > 0 )
+        final List imports = getImportedPackages( packageAdmin, bundle );
+        if ( imports != null )
         {
-            // collect import packages first
-            final List imports = new ArrayList();
-            for ( int i = 0; i < exports.length; i++ )
-            {
-                final ExportedPackage ep = exports[i];
-                final Bundle[] importers = ep.getImportingBundles();
-                for ( int j = 0; importers != null && j < importers.length; j++ )
-                {
-                    if ( importers[j].getBundleId() == bundle.getBundleId() )
-                    {
-                        imports.add( ep );
-
-                        break;
-                    }
-                }
-            }
             // now sort
             JSONArray val = new JSONArray();
             if ( imports.size() > 0 )
@@ -1008,6 +1239,71 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     }
 
 
+    /**
+     * Returns the packages imported by the bundle, or <code>null</code> if no
+     * package is exported at all. The packages imported by all bundles are
+     * collected in a single pass over the exported packages and cached until
+     * the next bundle event.
+     */
+    private List getImportedPackages( final PackageAdmin packageAdmin, final Bundle bundle )
+    {
+        Map imports;
+        final long count;
+        synchronized ( cacheLock )
+        {
+            imports = importCache;
+            count = changeCount;
+        }
+
+        if ( imports == null )
+        {
+            final ExportedPackage[] exports = packageAdmin.getExportedPackages( ( Bundle ) null );
+            if ( exports == null || exports.length == 0 )
+            {
+                imports = Collections.EMPTY_MAP;
+            }
+            else
+            {
+                imports = new HashMap();
+                for ( int i = 0; i < exports.length; i++ )
+                {
+                    final ExportedPackage ep = exports[i];
+                    final Bundle[] importers = ep.getImportingBundles();
+                    for ( int j = 0; importers != null && j < importers.length; j++ )
+                    {
+                        final Long id = new Long( importers[j].getBundleId() );
+                        List list = ( List ) imports.get( id );
+                        if ( list == null )
+                        {
+                            list = new ArrayList();
+                            imports.put( id, list );
+                        }
+                        if ( list.isEmpty() || list.get( list.size() - 1 ) != ep )
+                        {
+                            list.add( ep );
+                        }
+                    }
+                }
+            }
+
+            synchronized ( cacheLock )
+            {
+                if ( count == changeCount )
+                {
+                    importCache = imports;
+                }
+            }
+        }
+
+        if ( imports == Collections.EMPTY_MAP )
+        {
+            return null;
+        }
+        final List list = ( List ) imports.get( new Long( bundle.getBundleId() ) );
+        return list == null ? Collections.EMPTY_LIST : list;
+    }
+
+
     private void listImportExportsUnresolved( JSONWriter jw, Bundle bundle, final String pluginRoot ) throws JSONException
     {
         Dictionary dict = bundle.getHeaders();
@@ -1448,6 +1744,26 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         t.start();
     }
 
+    /**
+     * The sorted bundles along with the JSON summary of each of them and
+     * the status line, as cached for a given locale.
+     */
+    private static final class BundleList
+    {
+        final Bundle[] bundles;
+        final String[] entries;
+        final String statusLine;
+        final String status;
+
+        BundleList( final Bundle[] bundles, final String[] entries, final String statusLine, final String status )
+        {
+            this.bundles = bundles;
+            this.entries = entries;
+            this.statusLine = statusLine;
+            this.status = status;
+        }
+    }
+
     private final class RequestInfo
     {
         public final String extension;
@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+
+public class BundlesServletTest extends TestCase
+{
+
+    private Bundle[] bundles;
+
+    private BundleListener bundleListener;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        bundles = new Bundle[5];
+        for ( int i = 0; i < bundles.length; i++ )
+        {
+            bundles[i] = createBundle( i, "bundle" + i );
+        }
+    }
+
+
+    public void test_paging() throws Exception
+    {
+        final BundlesServlet servlet = createServlet();
+
+        JSONObject page = new JSONObject( get( servlet, null, "1", "2" ).body );
+        assertEquals( 5, page.getInt( "total" ) );
+        assertEquals( 1, page.getInt( "offset" ) );
+        JSONArray data = page.getJSONArray( "data" );
+        assertEquals( 2, data.length() );
+        assertEquals( 1, data.getJSONObject( 0 ).getLong( "id" ) );
+        assertEquals( 2, data.getJSONObject( 1 ).getLong( "id" ) );
+
+        // the last page is shorter
+        page = new JSONObject( get( servlet, null, "4", "2" ).body );
+        assertEquals( 1, page.getJSONArray( "data" ).length() );
+
+        // an offset beyond the end is clamped
+        page = new JSONObject( get( servlet, null, "10", "2" ).body );
+        assertEquals( 5, page.getInt( "offset" ) );
+        assertEquals( 0, page.getJSONArray( "data" ).length() );
+
+        // no limit
+        page = new JSONObject( get( servlet, null, null, null ).body );
+        assertEquals( 5, page.getJSONArray( "data" ).length() );
+    }
+
+
+    public void test_not_modified() throws Exception
+    {
+        final BundlesServlet servlet = createServlet();
+
+        final Response first = get( servlet, null, "0", "2" );
+        assertEquals( 200, first.status );
+        assertNotNull( first.etag );
+
+        // unchanged framework
+        final Response second = get( servlet, first.etag, "0", "2" );
+        assertEquals( HttpServletResponse.SC_NOT_MODIFIED, second.status );
+        assertEquals( first.etag, second.etag );
+        assertEquals( "", second.body );
+
+        // another page has another ETag
+        final Response otherPage = get( servlet, first.etag, "2", "2" );
+        assertEquals( 200, otherPage.status );
+        assertFalse( first.etag.equals( otherPage.etag ) );
+
+        // a bundle event changes the ETag
+        bundleListener.bundleChanged( new BundleEvent( BundleEvent.STARTED, bundles[0] ) );
+        final Response changed = get( servlet, first.etag, "0", "2" );
+        assertEquals( 200, changed.status );
+        assertFalse( first.etag.equals( changed.etag ) );
+    }
+
+
+    public void test_not_modified_after_restart() throws Exception
+    {
+        final Response first = get( createServlet(), null, "0", "2" );
+
+        // the new instance has seen as many bundle events as the former one
+        Thread.sleep( 5 );
+        final Response restarted = get( createServlet(), first.etag, "0", "2" );
+        assertEquals( 200, restarted.status );
+        assertFalse( first.etag.equals( restarted.etag ) );
+    }
+
+
+    private BundlesServlet createServlet()
+    {
+        final BundlesServlet servlet = new BundlesServlet();
+        servlet.activate( createBundleContext() );
+        return servlet;
+    }
+
+
+    private Response get( final BundlesServlet servlet, final String ifNoneMatch, final String offset,
+        final String limit ) throws Exception
+    {
+        final Map parameters = new HashMap();
+        parameters.put( "offset", offset );
+        parameters.put( "limit", limit );
+        final HttpServletRequest request = ( HttpServletRequest ) proxy( HttpServletRequest.class,
+            new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "getLocale".equals( method.getName() ) )
+                    {
+                        return Locale.ENGLISH;
+                    }
+                    else if ( "getParameter".equals( method.getName() ) )
+                    {
+                        return parameters.get( args[0] );
+                    }
+                    else if ( "getHeader".equals( method.getName() ) && "If-None-Match".equals( args[0] ) )
+                    {
+                        return ifNoneMatch;
+                    }
+                    return null;
+                }
+            } );
+
+        final Response result = new Response();
+        final StringWriter body = new StringWriter();
+        final PrintWriter writer = new PrintWriter( body );
+        final HttpServletResponse response = ( HttpServletResponse ) proxy( HttpServletResponse.class,
+            new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "setStatus".equals( method.getName() ) )
+                    {
+                        result.status = ( ( Integer ) args[0] ).intValue();
+                    }
+                    else if ( "setHeader".equals( method.getName() ) && "ETag".equals( args[0] ) )
+                    {
+                        result.etag = ( String ) args[1];
+                    }
+                    else if ( "getWriter".equals( method.getName() ) )
+                    {
+                        return writer;
+                    }
+                    return null;
+                }
+            } );
+
+        servlet.renderBundleList( request, response );
+        writer.flush();
+        result.body = body.toString();
+        return result;
+    }
+
+
+    private BundleContext createBundleContext()
+    {
+        final PackageAdmin packageAdmin = ( PackageAdmin ) proxy( PackageAdmin.class, null );
+        final ServiceReference reference = ( ServiceReference ) proxy( ServiceReference.class, null );
+        return ( BundleContext ) proxy( BundleContext.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Exception
+            {
+                final String name = method.getName();
+                if ( "getBundles".equals( name ) )
+                {
+                    return bundles.clone();
+                }
+                else if ( "addBundleListener".equals( name ) )
+                {
+                    bundleListener = ( BundleListener ) args[0];
+                }
+                else if ( "createFilter".equals( name ) )
+                {
+                    return proxy( Filter.class, null );
+                }
+                else if ( name.endsWith( "ServiceReferences" ) && PackageAdmin.class.getName().equals( args[0] ) )
+                {
+                    return new ServiceReference[]
+                        { reference };
+                }
+                else if ( "getService".equals( name ) )
+                {
+                    return packageAdmin;
+                }
+                return defaultValue( proxy, method, args );
+            }
+        } );
+    }
+
+
+    private Bundle createBundle( final long id, final String symbolicName )
+    {
+        final Hashtable headers = new Hashtable();
+        headers.put( Constants.BUNDLE_VERSION, "1.0.0" );
+        return ( Bundle ) proxy( Bundle.class, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                final String name = method.getName();
+                if ( "getBundleId".equals( name ) )
+                {
+                    return new Long( id );
+                }
+                else if ( "getSymbolicName".equals( name ) )
+                {
+                    return symbolicName;
+                }
+                else if ( "getState".equals( name ) )
+                {
+                    return new Integer( Bundle.ACTIVE );
+                }
+                else if ( "getHeaders".equals( name ) )
+                {
+                    return headers;
+                }
+                return defaultValue( proxy, method, args );
+            }
+        } );
+    }
+
+
+    private static Object proxy( final Class type, final InvocationHandler handler )
+    {
+        return Proxy.newProxyInstance( BundlesServletTest.class.getClassLoader(), new Class[]
+            { type }, handler != null ? handler : new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                return defaultValue( proxy, method, args );
+            }
+        } );
+    }
+
+
+    private static Object defaultValue( final Object proxy, final Method method, final Object[] args )
+    {
+        final Class type = method.getReturnType();
+        if ( "equals".equals( method.getName() ) )
+        {
+            return Boolean.valueOf( proxy == args[0] );
+        }
+        else if ( "hashCode".equals( method.getName() ) )
+        {
+            return new Integer( System.identityHashCode( proxy ) );
+        }
+        else if ( type == Boolean.TYPE )
+        {
+            return Boolean.FALSE;
+        }
+        else if ( type == Integer.TYPE )
+        {
+            return new Integer( 0 );
+        }
+        else if ( type == Long.TYPE )
+        {
+            return new Long( 0 );
+        }
+        return null;
+    }
+
+    private static class Response
+    {
+        int status = 200;
+        String etag;
+        String body;
+    }
+}